@@ -2,6 +2,7 @@ package org.truong.gvrp_engine_api.clustering;
 
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.truong.gvrp_engine_api.distance_matrix.CoordinateColumns;
 import org.truong.gvrp_engine_api.distance_matrix.OptCoordinates;
 
 import java.util.*;
@@ -74,6 +75,18 @@ public final class ClusterMergeService {
             List<OptCoordinates> coordinates,
             double[] demands,
             double minClusterDemandThreshold) {
+        if (coordinates == null || coordinates.isEmpty()) {
+            throw new IllegalArgumentException("coordinates không được rỗng");
+        }
+        return merge(initialAssignment, CoordinateColumns.of(coordinates), demands, minClusterDemandThreshold);
+    }
+
+    /** Như trên, trên tọa độ dạng cột — cùng thứ tự index với {@link KMeansClusterer#fitColumns}. */
+    public static MergedClusterAssignment merge(
+            KMeansClusterer.ClusterAssignment initialAssignment,
+            CoordinateColumns coordinates,
+            double[] demands,
+            double minClusterDemandThreshold) {
 
         validateInputs(initialAssignment, coordinates, demands, minClusterDemandThreshold);
 
@@ -177,6 +190,13 @@ public final class ClusterMergeService {
     public static List<ClusterCentroid> computeCentroids(
             MergedClusterAssignment merged,
             List<OptCoordinates> coordinates) {
+        return computeCentroids(merged, coordinates == null ? null : CoordinateColumns.of(coordinates));
+    }
+
+    /** Như trên, trên tọa độ dạng cột. */
+    public static List<ClusterCentroid> computeCentroids(
+            MergedClusterAssignment merged,
+            CoordinateColumns coordinates) {
 
         if (merged == null) {
             throw new IllegalArgumentException("merged không được null");
@@ -193,8 +213,8 @@ public final class ClusterMergeService {
         int[] clusterIdByIndex = merged.clusterIdByOrderIndex();
         for (int i = 0; i < clusterIdByIndex.length; i++) {
             int c = clusterIdByIndex[i];
-            sumLat[c] += coordinates.get(i).latDouble();
-            sumLon[c] += coordinates.get(i).lonDouble();
+            sumLat[c] += coordinates.lat(i);
+            sumLon[c] += coordinates.lon(i);
             counts[c]++;
         }
 
@@ -213,7 +233,7 @@ public final class ClusterMergeService {
 
     private static Map<Integer, ClusterStats> computeInitialStats(
             KMeansClusterer.ClusterAssignment assignment,
-            List<OptCoordinates> coordinates,
+            CoordinateColumns coordinates,
             double[] demands,
             Set<Integer> activeClusterIds) {
 
@@ -226,8 +246,8 @@ public final class ClusterMergeService {
         for (int i = 0; i < clusterIdByIndex.length; i++) {
             int clusterId = clusterIdByIndex[i];
             ClusterStats s = stats.get(clusterId);
-            s.sumLat += coordinates.get(i).latDouble();
-            s.sumLon += coordinates.get(i).lonDouble();
+            s.sumLat += coordinates.lat(i);
+            s.sumLon += coordinates.lon(i);
             s.count++;
             s.totalDemand += demands[i];
         }
@@ -370,14 +390,14 @@ public final class ClusterMergeService {
 
     private static void validateInputs(
             KMeansClusterer.ClusterAssignment initialAssignment,
-            List<OptCoordinates> coordinates,
+            CoordinateColumns coordinates,
             double[] demands,
             double minClusterDemandThreshold) {
 
         if (initialAssignment == null) {
             throw new IllegalArgumentException("initialAssignment không được null");
         }
-        if (coordinates == null || coordinates.isEmpty()) {
+        if (coordinates == null || coordinates.size() == 0) {
             throw new IllegalArgumentException("coordinates không được rỗng");
         }
         if (demands == null) {
@@ -0,0 +1,120 @@
+package org.truong.gvrp_engine_api.clustering;
+
+import lombok.extern.slf4j.Slf4j;
+import org.truong.gvrp_engine_api.distance_matrix.GeoDistance;
+import org.truong.gvrp_engine_api.distance_matrix.CoordinateColumns;
+import org.truong.gvrp_engine_api.distance_matrix.OptCoordinates;
+
+import java.util.*;
+
+/**
+ * "Halo" quanh biên cụm: order nằm gần centroid của cụm LÁNG GIỀNG được làm thành
+ * viên phụ của cụm đó — xe cụm láng giềng được phép phục vụ nó, và nó có ô trong khối
+ * ma trận của cụm láng giềng.
+ * <p>
+ * VÌ SAO: ClusterRouteConstraint là ràng buộc CỨNG, block layout không lưu ô khác
+ * cụm. Order ở biên vì thế chỉ có đúng một nhóm xe — cụm nhà hết xe/hết tải là
+ * unassigned, dù xe cụm bên cạnh đi ngang qua. Halo trả lại đúng phần tự do đó mà
+ * không quay về ma trận dày: khối c lớn lên thành (S_c + H_c)², bộ nhớ chỉ tăng theo
+ * kích thước halo.
+ * <p>
+ * TẠI SAO GIỚI HẠN {@value #MAX_HALO_CLUSTERS} CỤM LÁNG GIỀNG / ORDER: order giữa
+ * vùng đông cụm (trung tâm thành phố) có thể nằm trong bán kính của rất nhiều
+ * centroid — không chặn thì khối phình theo mật độ chứ không theo halo. Giữ các cụm
+ * GẦN NHẤT là đủ cho biên thật (thường chỉ 1–2 cụm kề).
+ * <p>
+ * Khoảng cách theo haversine (mét) — tham số cấu hình là mét nên phải đo cùng đơn vị,
+ * khác với phép so sánh Euclid độ ở KMeansClusterer (chỉ cần thứ tự).
+ *
+ * @author Truong
+ */
+@Slf4j
+public final class HaloMembership {
+
+    /** Số cụm láng giềng tối đa một order được tham gia (ngoài cụm nhà). */
+    public static final int MAX_HALO_CLUSTERS = 2;
+
+    private HaloMembership() {
+        // Utility class — không khởi tạo instance
+    }
+
+    /**
+     * @param coordinates      tọa độ order theo index
+     * @param clusterIdByIndex cụm nhà của order tại index (âm = chưa gán cụm, không có halo)
+     * @param haloMeters       bán kính halo tính từ centroid cụm láng giềng (> 0)
+     * @return halo[i] = các cụm láng giềng của order i, TĂNG DẦN, không gồm cụm nhà;
+     *         mảng rỗng nếu không có
+     */
+    public static int[][] compute(List<OptCoordinates> coordinates, int[] clusterIdByIndex, double haloMeters) {
+        return compute(coordinates == null ? null : CoordinateColumns.of(coordinates), clusterIdByIndex, haloMeters);
+    }
+
+    /** Như trên, trên tọa độ dạng cột. */
+    public static int[][] compute(CoordinateColumns coordinates, int[] clusterIdByIndex, double haloMeters) {
+        if (coordinates == null || clusterIdByIndex == null || coordinates.size() != clusterIdByIndex.length) {
+            throw new IllegalArgumentException("coordinates và clusterIdByIndex phải cùng độ dài");
+        }
+        if (!(haloMeters > 0)) {
+            throw new IllegalArgumentException("haloMeters phải > 0, nhận được: " + haloMeters);
+        }
+        int n = clusterIdByIndex.length;
+        int maxCluster = -1;
+        for (int c : clusterIdByIndex) maxCluster = Math.max(maxCluster, c);
+
+        // Centroid theo số điểm (cùng nguyên tắc ClusterMergeService.computeCentroids)
+        double[] sumLat = new double[maxCluster + 1];
+        double[] sumLon = new double[maxCluster + 1];
+        int[] counts = new int[maxCluster + 1];
+        for (int i = 0; i < n; i++) {
+            int c = clusterIdByIndex[i];
+            if (c < 0) continue;
+            sumLat[c] += coordinates.lat(i);
+            sumLon[c] += coordinates.lon(i);
+            counts[c]++;
+        }
+
+        int[][] halo = new int[n][];
+        int[] candidate = new int[maxCluster + 1];
+        double[] candidateDist = new double[maxCluster + 1];
+        long memberships = 0;
+        for (int i = 0; i < n; i++) {
+            int home = clusterIdByIndex[i];
+            if (home < 0) {
+                halo[i] = new int[0];
+                continue;
+            }
+            double lat = coordinates.lat(i);
+            double lon = coordinates.lon(i);
+            int found = 0;
+            for (int c = 0; c <= maxCluster; c++) {
+                if (c == home || counts[c] == 0) continue;
+                double d = GeoDistance.haversineMeters(lat, lon,
+                        sumLat[c] / counts[c], sumLon[c] / counts[c]);
+                if (d <= haloMeters) {
+                    candidate[found] = c;
+                    candidateDist[found] = d;
+                    found++;
+                }
+            }
+            halo[i] = nearest(candidate, candidateDist, found);
+            memberships += halo[i].length;
+        }
+
+        log.info("🌗 Halo {} m: {} thành viên phụ trên {} order (tối đa {} cụm láng giềng/order)",
+                haloMeters, memberships, n, MAX_HALO_CLUSTERS);
+        return halo;
+    }
+
+    /** Giữ tối đa MAX_HALO_CLUSTERS cụm gần nhất (tie-break: id nhỏ hơn), trả về tăng dần theo id. */
+    private static int[] nearest(int[] candidate, double[] dist, int found) {
+        if (found == 0) return new int[0];
+        Integer[] order = new Integer[found];
+        for (int k = 0; k < found; k++) order[k] = k;
+        Arrays.sort(order, Comparator.comparingDouble((Integer k) -> dist[k]).thenComparingInt(k -> candidate[k]));
+        int keep = Math.min(found, MAX_HALO_CLUSTERS);
+        int[] result = new int[keep];
+        for (int k = 0; k < keep; k++) result[k] = candidate[order[k]];
+        Arrays.sort(result);
+        return result;
+    }
+}
@@ -1,6 +1,7 @@
 package org.truong.gvrp_engine_api.clustering;
 
 import lombok.extern.slf4j.Slf4j;
+import org.truong.gvrp_engine_api.distance_matrix.CoordinateColumns;
 import org.truong.gvrp_engine_api.distance_matrix.OptCoordinates;
 
 import java.util.Arrays;
@@ -27,7 +28,7 @@ import java.util.stream.Collectors;
  * TẠI SAO DÙNG K-MEANS++ INIT THAY VÌ RANDOM INIT:
  * Vì thuật toán chỉ chạy MỘT LẦN DUY NHẤT cho mỗi job (không có ngân sách
  * thời gian để chạy nhiều lần rồi chọn kết quả tốt nhất, khác với cách
- * ParetoWeightSampler chạy nhiều scenario), nên centroid ban đầu phải được
+ * quét Pareto chạy nhiều scenario), nên centroid ban đầu phải được
  * chọn có chủ đích để tránh hội tụ vào local optimum tệ (2 centroid rơi
  * gần nhau, chia đôi cùng một khu vực).
  *
@@ -115,6 +116,26 @@ public final class KMeansClusterer {
         return fit(coordinates, numClusters, DEFAULT_MAX_ITERATIONS, new Random(DEFAULT_RANDOM_SEED));
     }
 
+    /**
+     * Như {@link #fit(List, int)} trên tọa độ dạng cột — đường chính của OptimizationService.
+     * Tên riêng (không overload) để {@code fit(null, k)} không thành gọi mơ hồ.
+     */
+    public static ClusterAssignment fitColumns(CoordinateColumns coordinates, int numClusters) {
+        return fitColumns(coordinates, numClusters, DEFAULT_MAX_ITERATIONS, new Random(DEFAULT_RANDOM_SEED));
+    }
+
+    /** Overload giữ tương thích: đổi sang cột một lần rồi chạy như bản cột. */
+    public static ClusterAssignment fit(
+            List<OptCoordinates> coordinates,
+            int numClusters,
+            int maxIterations,
+            Random random) {
+        if (coordinates == null || coordinates.isEmpty()) {
+            throw new IllegalArgumentException("coordinates không được rỗng");
+        }
+        return fitColumns(CoordinateColumns.of(coordinates), numClusters, maxIterations, random);
+    }
+
     /**
      * Chạy K-means++ với seed cố định — dùng cho unit test cần kết quả deterministic,
      * giống cách RANDOM_SEED được dùng trong các benchmark test hiện có của project.
@@ -125,8 +146,8 @@ public final class KMeansClusterer {
      * @param random        nguồn ngẫu nhiên (truyền seed cố định để test deterministic)
      * @return ClusterAssignment ánh xạ index -> cluster ID
      */
-    public static ClusterAssignment fit(
-            List<OptCoordinates> coordinates,
+    public static ClusterAssignment fitColumns(
+            CoordinateColumns coordinates,
             int numClusters,
             int maxIterations,
             Random random) {
@@ -147,10 +168,12 @@ public final class KMeansClusterer {
             return new ClusterAssignment(trivialAssignment, n);
         }
 
-        double[][] points = toPointArray(coordinates);
+        // Đọc thẳng hai cột — không double[n][2] (n mảng con) cũng không BigDecimal
+        double[] lat = coordinates.lat();
+        double[] lon = coordinates.lon();
 
         // ===== BƯỚC 1: Khởi tạo centroid bằng K-means++ =====
-        double[][] centroids = initializeCentroidsPlusPlus(points, numClusters, random);
+        double[][] centroids = initializeCentroidsPlusPlus(lat, lon, numClusters, random);
 
         int[] assignment = new int[n];
         int iteration = 0;
@@ -162,11 +185,11 @@ public final class KMeansClusterer {
 
             // Gán mỗi điểm vào centroid gần nhất (Euclidean)
             for (int i = 0; i < n; i++) {
-                assignment[i] = nearestCentroidIndex(points[i], centroids);
+                assignment[i] = nearestCentroidIndex(lat[i], lon[i], centroids);
             }
 
             // Tính lại centroid = trung bình tọa độ các điểm trong cụm
-            double[][] newCentroids = recomputeCentroids(points, assignment, numClusters, centroids);
+            double[][] newCentroids = recomputeCentroids(lat, lon, assignment, numClusters, centroids);
 
             converged = hasConverged(centroids, newCentroids);
             centroids = newCentroids;
@@ -205,13 +228,13 @@ public final class KMeansClusterer {
      *   các centroid hiện tại càng có xác suất cao được chọn, nhưng vẫn giữ
      *   tính ngẫu nhiên để tránh luôn bám theo outlier/nhiễu.
      */
-    private static double[][] initializeCentroidsPlusPlus(double[][] points, int k, Random random) {
-        int n = points.length;
+    private static double[][] initializeCentroidsPlusPlus(double[] lat, double[] lon, int k, Random random) {
+        int n = lat.length;
         double[][] centroids = new double[k][2];
 
         // Centroid đầu tiên: chọn ngẫu nhiên đều
         int firstIndex = random.nextInt(n);
-        centroids[0] = points[firstIndex].clone();
+        centroids[0] = new double[]{lat[firstIndex], lon[firstIndex]};
 
         // Khoảng cách bình phương từ mỗi điểm đến centroid gần nhất đã chọn
         double[] minSquaredDistances = new double[n];
@@ -221,7 +244,7 @@ public final class KMeansClusterer {
 
             // Cập nhật minSquaredDistances dựa trên centroid vừa thêm (c-1)
             for (int i = 0; i < n; i++) {
-                double d = squaredEuclideanDistance(points[i], centroids[c - 1]);
+                double d = squaredEuclideanDistance(lat[i], lon[i], centroids[c - 1]);
                 if (c == 1 || d < minSquaredDistances[i]) {
                     minSquaredDistances[i] = d;
                 }
@@ -231,7 +254,8 @@ public final class KMeansClusterer {
             // Roulette wheel: chọn điểm tiếp theo theo xác suất tỉ lệ D(x)^2
             if (sumSquaredDistances == 0.0) {
                 // Toàn bộ điểm còn lại trùng centroid đã có -> chọn ngẫu nhiên đều để tránh chia 0
-                centroids[c] = points[random.nextInt(n)].clone();
+                int any = random.nextInt(n);
+                centroids[c] = new double[]{lat[any], lon[any]};
                 continue;
             }
 
@@ -247,7 +271,7 @@ public final class KMeansClusterer {
                 }
             }
 
-            centroids[c] = points[chosenIndex].clone();
+            centroids[c] = new double[]{lat[chosenIndex], lon[chosenIndex]};
         }
 
         return centroids;
@@ -255,12 +279,12 @@ public final class KMeansClusterer {
 
     // ==================== ASSIGNMENT & UPDATE ====================
 
-    private static int nearestCentroidIndex(double[] point, double[][] centroids) {
+    private static int nearestCentroidIndex(double lat, double lon, double[][] centroids) {
         int nearest = 0;
-        double minDist = squaredEuclideanDistance(point, centroids[0]);
+        double minDist = squaredEuclideanDistance(lat, lon, centroids[0]);
 
         for (int c = 1; c < centroids.length; c++) {
-            double d = squaredEuclideanDistance(point, centroids[c]);
+            double d = squaredEuclideanDistance(lat, lon, centroids[c]);
             if (d < minDist) {
                 minDist = d;
                 nearest = c;
@@ -279,15 +303,15 @@ public final class KMeansClusterer {
      * thường xuyên trong thực tế, cần nâng cấp sang chiến lược re-seed.
      */
     private static double[][] recomputeCentroids(
-            double[][] points, int[] assignment, int k, double[][] previousCentroids) {
+            double[] lat, double[] lon, int[] assignment, int k, double[][] previousCentroids) {
 
         double[][] sums = new double[k][2];
         int[] counts = new int[k];
 
-        for (int i = 0; i < points.length; i++) {
+        for (int i = 0; i < lat.length; i++) {
             int c = assignment[i];
-            sums[c][0] += points[i][0];
-            sums[c][1] += points[i][1];
+            sums[c][0] += lat[i];
+            sums[c][1] += lon[i];
             counts[c]++;
         }
 
@@ -323,18 +347,14 @@ public final class KMeansClusterer {
         return dLat * dLat + dLon * dLon;
     }
 
-    private static double[][] toPointArray(List<OptCoordinates> coordinates) {
-        double[][] points = new double[coordinates.size()][2];
-        for (int i = 0; i < coordinates.size(); i++) {
-            OptCoordinates c = coordinates.get(i);
-            points[i][0] = c.latDouble();
-            points[i][1] = c.lonDouble();
-        }
-        return points;
+    private static double squaredEuclideanDistance(double lat, double lon, double[] b) {
+        double dLat = lat - b[0];
+        double dLon = lon - b[1];
+        return dLat * dLat + dLon * dLon;
     }
 
-    private static void validateInputs(List<OptCoordinates> coordinates, int numClusters, int maxIterations) {
-        if (coordinates == null || coordinates.isEmpty()) {
+    private static void validateInputs(CoordinateColumns coordinates, int numClusters, int maxIterations) {
+        if (coordinates == null || coordinates.size() == 0) {
             throw new IllegalArgumentException("coordinates không được rỗng");
         }
         if (numClusters < 1) {
@@ -0,0 +1,121 @@
+package org.truong.gvrp_engine_api.clustering;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+
+/**
+ * Hậu xử lý sau {@link VehicleClusterAssigner}: gán lại các order "mồ côi" vào cụm
+ * gần nhất CÒN SỨC CHỨA, thay vì để chúng rơi vào dải rộng của ma trận.
+ * <p>
+ * ORDER MỒ CÔI đến từ hai nguồn:
+ * 1. Order không có entry trong cluster assignment (lỗi mapping ở tầng trên) —
+ *    MatrixMask gắn nhãn UNCLUSTERED.
+ * 2. Order thuộc cụm nhận quota = 0 xe — hợp lệ theo Largest Remainder Method khi
+ *    demand lệch (xem VehicleClusterAssignerTest). ClusterRouteConstraint chặn MỌI xe
+ *    khỏi cụm đó, nên các order này chắc chắn unassigned nếu để nguyên.
+ * <p>
+ * TẠI SAO ĐÁNG LÀM: mỗi thành viên dải rộng tốn 1 hàng + 1 cột đủ n ô (2·n ô, 2·n
+ * truy vấn GraphHopper) — vài order sót ở job 50k là vài trăm nghìn ô mỗi order,
+ * trong khi là thành viên cụm nó chỉ tốn ~2·S ô.
+ * <p>
+ * THUẬT TOÁN: cùng kiểu với VehicleClusterAssigner — greedy nearest-first trên TOÀN
+ * BỘ ma trận cặp (order, cụm), chặn khi cụm hết sức chứa. Sức chứa còn lại của cụm
+ * = tổng capacity các xe đã gán vào cụm (đúng số ghế quota) − demand hiện có. Order
+ * "thua" ở cụm gần nhất tự rơi xuống cụm gần thứ nhì còn chỗ. Order không cụm nào
+ * nhận được thì MỚI ở lại dải rộng (không ràng buộc cụm, xe nào cũng lấy được).
+ *
+ * @author Truong
+ */
+@Slf4j
+public final class OrphanOrderRescuer {
+
+    private OrphanOrderRescuer() {
+        // Utility class — không khởi tạo instance
+    }
+
+    /**
+     * @param jobId  ID job Jsprit ("order-{id}")
+     * @param demand demand THÔ (chưa nhân DEMAND_SCALE), cùng đơn vị với residualCapacity
+     */
+    public record OrphanOrder(String jobId, double lat, double lon, double demand) {}
+
+    /**
+     * @param clusterIdByJobId  order đã được cứu -> cụm nhận
+     * @param stillUnclustered  order không cụm nào nhận được — ở lại dải rộng
+     */
+    public record RescueResult(Map<String, Integer> clusterIdByJobId, List<String> stillUnclustered) {
+
+        public int rescuedCount() {
+            return clusterIdByJobId.size();
+        }
+    }
+
+    /**
+     * @param orphans           order mồ côi (có thể rỗng)
+     * @param centroids         centroid các cụm (từ {@link ClusterMergeService#computeCentroids})
+     * @param residualCapacity  cụm -> sức chứa còn lại; cụm KHÔNG có trong map (không xe)
+     *                          không bao giờ nhận order. Map này KHÔNG bị sửa.
+     * @return kết quả, deterministic với cùng input
+     */
+    public static RescueResult rescue(
+            List<OrphanOrder> orphans,
+            List<ClusterMergeService.ClusterCentroid> centroids,
+            Map<Integer, Double> residualCapacity) {
+
+        if (orphans == null || centroids == null || residualCapacity == null) {
+            throw new IllegalArgumentException("orphans, centroids và residualCapacity không được null");
+        }
+        if (orphans.isEmpty()) {
+            return new RescueResult(Map.of(), List.of());
+        }
+
+        Map<Integer, Double> residual = new HashMap<>(residualCapacity);
+
+        record Pair(OrphanOrder order, int clusterId, double distSquared) {}
+
+        // |orphans| x |C| — số order mồ côi nhỏ, preprocessing 1 lần/job
+        List<Pair> pairs = new ArrayList<>();
+        for (OrphanOrder o : orphans) {
+            for (ClusterMergeService.ClusterCentroid c : centroids) {
+                if (!residual.containsKey(c.clusterId())) {
+                    continue; // cụm không xe — gán vào là unassigned chắc chắn
+                }
+                double dLat = o.lat() - c.lat();
+                double dLon = o.lon() - c.lon();
+                pairs.add(new Pair(o, c.clusterId(), dLat * dLat + dLon * dLon));
+            }
+        }
+        pairs.sort((a, b) -> {
+            int cmp = Double.compare(a.distSquared(), b.distSquared());
+            if (cmp != 0) return cmp;
+            cmp = Integer.compare(a.clusterId(), b.clusterId());
+            if (cmp != 0) return cmp;
+            return a.order().jobId().compareTo(b.order().jobId());
+        });
+
+        Map<String, Integer> rescued = new HashMap<>();
+        for (Pair pair : pairs) {
+            String jobId = pair.order().jobId();
+            if (rescued.containsKey(jobId)) {
+                continue; // order đã được nhận ở cụm gần hơn
+            }
+            double left = residual.get(pair.clusterId());
+            if (left < pair.order().demand()) {
+                continue; // cụm hết sức chứa cho order này
+            }
+            rescued.put(jobId, pair.clusterId());
+            residual.put(pair.clusterId(), left - pair.order().demand());
+        }
+
+        List<String> still = orphans.stream()
+                .map(OrphanOrder::jobId)
+                .filter(id -> !rescued.containsKey(id))
+                .sorted()
+                .toList();
+
+        log.debug("🛟 Cứu {}/{} order mồ côi vào cụm còn sức chứa ({} ở lại dải rộng)",
+                rescued.size(), orphans.size(), still.size());
+        return new RescueResult(rescued, still);
+    }
+}
@@ -6,6 +6,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.truong.gvrp_engine_api.job.CpuBudget;
 import org.truong.gvrp_engine_api.job.JobRegistry;
 import org.truong.gvrp_engine_api.model.EngineOptimizationRequest;
 import org.truong.gvrp_engine_api.model.EngineOptimizationResponse;
@@ -26,6 +27,7 @@ public class OptimizationController {
     private final JobRegistry jobRegistry;
     private final ResultSpool resultSpool;
     private final CallbackService callbackService;
+    private final CpuBudget cpuBudget;
 
     @PostMapping
     public ResponseEntity<EngineOptimizationResponse> optimize(
@@ -132,6 +134,9 @@ public class OptimizationController {
             body.put("routes", snap.routes());
             body.put("unassigned", snap.unassigned());
             body.put("elapsedSeconds", snap.elapsedSeconds());
+            if (snap.stopReason() != null) {
+                body.put("stopReason", snap.stopReason());
+            }
             body.put("updatedAt", snap.updatedAt());
         }
         return ResponseEntity.ok(body);
@@ -202,6 +207,7 @@ public class OptimizationController {
         health.put("status", "UP");
         health.put("service", "GVRP Engine API");
         health.put("timestamp", java.time.LocalDateTime.now());
+        health.put("cpu", cpuBudget.snapshot());
         return ResponseEntity.ok(health);
     }
 }
@@ -1,6 +1,8 @@
 package org.truong.gvrp_engine_api.distance_matrix;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -21,43 +23,70 @@ import java.util.Map;
  * DEPOT và UNCLUSTERED được gộp thành một nhóm "WIDE" vì mask xử lý chúng y hệt nhau:
  * cần cả hàng và cột đầy đủ.
  * <p>
- * <b>Bộ nhớ:</b> {@code 8 × (2·ΣS_c² + 4·W·n)}. Với N = 50 000, S = 150, W = 10:
+ * <b>Dải depot một phần:</b> khi mask biết depot nào phục vụ cụm nào
+ * ({@link MatrixMask#servedClusters}, suy từ {@code VehicleClusterAssigner}: xe ghim vào
+ * một cụm, depot đầu/cuối của xe theo xe), depot đó KHÔNG cần hàng/cột đủ n nữa —
+ * {@code ClusterRouteConstraint} không cho xe của nó chạm order cụm khác. Depot như vậy
+ * thuộc nhóm PARTIAL: hàng/cột chỉ gồm các depot PARTIAL khác + thành viên các cụm nó
+ * phục vụ ({@code P + ΣS_c}), ô tới WIDE vẫn nằm ở dải WIDE. Chi nhánh vài chục depot:
+ * {@code 2·D·n} ô dải rộng co về ~{@code 2·ΣD_c·S_c}.
+ * <p>
+ * <b>Halo:</b> order ở biên có thể là thành viên PHỤ của cụm láng giềng
+ * ({@link MatrixMask#haloByLoc}). Khối c khi đó gồm thành viên nhà + halo, cặp (i, j)
+ * cần khi hai bên CHUNG một khối bất kỳ. Cặp chung nhiều khối (hai order cùng biên)
+ * chỉ lưu ở khối chung ĐẦU TIÊN theo thứ tự nhà → halo tăng dần của i
+ * ({@link #ownerCluster}); slot trùng ở khối kia bỏ trống. Bộ nhớ tăng đúng theo
+ * {@code (S_c + H_c)² − S_c²}.
+ * <p>
+ * <b>Bộ nhớ:</b> {@code 8 × (2·ΣS_c² + 4·W·n + 4·Σ_p len_p)}. Với N = 50 000, S = 150, W = 10
+ * (không có PARTIAL):
  * <pre>
  *   dày  : 16 × 50 010²             = 37.27 GiB
  *   block: 8 × (2·334·150² + 4·10·50 010) = 136 MB      (giảm 294×)
  * </pre>
  * Độ phức tạp chuyển từ O(n²) sang O(N·S) — TUYẾN TÍNH theo số order.
  * <p>
- * <b>Bố cục:</b> mỗi cụm là một mảng PHẲNG {@code double[S_c × S_c]} (không phải
- * {@code double[S_c][S_c]}) để tránh S_c object mảng con và giữ cache locality.
+ * <b>Bố cục:</b> mỗi cụm là MỘT {@link CellStore} phẳng S_c × S_c ô (không phải
+ * {@code double[S_c][S_c]}) để tránh S_c object mảng con và giữ cache locality;
+ * distance/time xen kẽ, mã hóa theo {@link CellEncoding} (mặc định DOUBLE64, con số
+ * bộ nhớ ở trên là của mặc định — FLOAT32/INT32 giảm một nửa). Với
+ * {@link MatrixStorage#DIRECT}/{@link MatrixStorage#MAPPED} mọi kho là lát cắt của
+ * một vùng {@link OffHeapCells} duy nhất; bố cục và chỉ số ô không đổi.
  * <p>
  * <b>Thread-safety khi ghi:</b> {@link #put} an toàn khi mỗi thread độc quyền một
  * chỉ số hàng {@code i}, vì mọi slot đều được khoá bởi {@code (i,j)}: block ghi tại
  * {@code [localI·S + localJ]}, dải rộng ghi tại {@code wideRow[w][j]} (thread sở hữu i)
  * hoặc {@code wideCol[w][i]} (cũng chỉ index i của thread đó). Không có slot nào bị
  * hai thread cùng ghi. Sau khi build xong thì hoàn toàn chỉ-đọc.
+ * Chế độ MANY_TO_MANY chia việc theo khối ({@link #membersOf}, {@link #wideMembers})
+ * thay vì theo hàng, nhưng mỗi ô vẫn thuộc đúng một khối nên bất biến trên vẫn giữ.
  */
 public final class BlockDiagonalCostMatrix implements CostMatrix {
 
     /** Nhóm WIDE: cần hàng + cột đầy đủ (depot, hoặc order chưa gán cụm). */
     private static final int WIDE = -1;
 
+    /** Nhóm PARTIAL: depot chỉ phục vụ một số cụm — hàng/cột thu hẹp theo {@link PartialBand}. */
+    private static final int PARTIAL = -2;
+
+    private static final int[] NO_TARGETS = new int[0];
+
     private final int n;
 
-    /** clusterOf[i] >= 0: id cụm đã nén; WIDE: thuộc dải rộng. */
+    /** clusterOf[i] >= 0: id cụm đã nén; WIDE: thuộc dải rộng; PARTIAL: depot một phần. */
     private final int[] clusterOf;
 
     /** Vị trí của i trong nhóm của nó (trong cụm, hoặc trong danh sách WIDE). */
     private final int[] localIdx;
 
     private final int[] clusterSize;
-    private final double[][] blockDist;   // [c][localI * S_c + localJ]
-    private final double[][] blockTime;
+    private final CellStore[] block;      // [c] ô localI * S_c + localJ
 
-    private final double[][] wideRowDist; // [w][j] : wide -> j
-    private final double[][] wideRowTime;
-    private final double[][] wideColDist; // [w][i] : i -> wide
-    private final double[][] wideColTime;
+    private final CellStore[] wideRow;    // [w] ô j : wide -> j
+    private final CellStore[] wideCol;    // [w] ô i : i -> wide
+
+    private final CellEncoding encoding;
+    private final MatrixStorage storage;
 
     /** Các j cần tính khi i thuộc cụm c = members(c) ∪ WIDE. */
     private final int[][] targetsByCluster;
@@ -65,26 +94,104 @@ public final class BlockDiagonalCostMatrix implements CostMatrix {
     /** Dùng khi i thuộc WIDE: mọi j. */
     private final int[] allTargets;
 
+    /** Các j CÙNG cụm với i (không gồm WIDE) — khi dải rộng được tính riêng. */
+    private final int[][] membersByCluster;
+
+    /** Chỉ số location của nhóm WIDE, theo thứ tự localIdx. */
+    private final int[] wideMembers;
+
     private final int wideCount;
 
+    /** Nguồn của cột WIDE: mọi location không WIDE (ô WIDE → WIDE đã nằm ở hàng nguồn). */
+    private final int[] nonWide;
+
+    private final PartialBand partial;
+
+    private final Halo halo;
+
+    /**
+     * Thành viên phụ của order ở biên. Chỉ order có halo mới có phần tử khác null; cả
+     * object là {@link #NONE} khi job không bật halo (nhánh đọc không tốn gì thêm).
+     */
+    private static final class Halo {
+        final int[][] cluster;        // [i] cụm halo (id nén, tăng dần)
+        final int[][] local;          // [i][k] vị trí của i trong khối cluster[i][k]
+        final int[][] targets;        // [i] targetsFor(i) = hợp các khối + WIDE + PARTIAL phục vụ
+        final int[][] clusterTargets; // [i] clusterTargetsFor(i) = hợp các khối
+
+        Halo(int[][] cluster, int[][] local, int[][] targets, int[][] clusterTargets) {
+            this.cluster = cluster;
+            this.local = local;
+            this.targets = targets;
+            this.clusterTargets = clusterTargets;
+        }
+
+        static final Halo NONE = new Halo(null, null, null, null);
+    }
+
+    /**
+     * Dải depot một phần. Depot PARTIAL thứ p lưu hàng/cột dài {@code len[p]}:
+     * <pre>
+     *   slot [0, P)              : depot PARTIAL khác (theo localIdx) — chỉ hàng dùng
+     *   slot offset[p][c] + local : thành viên cụm c mà p phục vụ (offset = -1 nếu không)
+     * </pre>
+     * Cột dùng chung cách đánh slot với hàng (P slot đầu bỏ trống: ô PARTIAL → PARTIAL
+     * luôn nằm ở hàng nguồn) — P² ô thừa, đổi lấy MỘT hàm slot cho cả hai chiều.
+     */
+    private static final class PartialBand {
+        final int[] depots;
+        final int[][] offset;
+        final int[] len;
+        final CellStore[] row;
+        final CellStore[] col;
+        final int[][] rowTargets;     // PARTIAL khác ∪ thành viên cụm phục vụ
+        final int[][] servedMembers;  // nguồn của cột
+
+        PartialBand(int[] depots, int[][] offset, int[] len, CellStore[] row, CellStore[] col,
+                    int[][] rowTargets, int[][] servedMembers) {
+            this.depots = depots;
+            this.offset = offset;
+            this.len = len;
+            this.row = row;
+            this.col = col;
+            this.rowTargets = rowTargets;
+            this.servedMembers = servedMembers;
+        }
+
+        static final PartialBand NONE = new PartialBand(NO_TARGETS, new int[0][], NO_TARGETS,
+                new CellStore[0], new CellStore[0], new int[0][], new int[0][]);
+    }
+
     private BlockDiagonalCostMatrix(int n, int[] clusterOf, int[] localIdx, int[] clusterSize,
-                                    double[][] blockDist, double[][] blockTime,
-                                    double[][] wideRowDist, double[][] wideRowTime,
-                                    double[][] wideColDist, double[][] wideColTime,
-                                    int[][] targetsByCluster, int[] allTargets, int wideCount) {
+                                    CellStore[] block, CellStore[] wideRow, CellStore[] wideCol,
+                                    CellEncoding encoding, MatrixStorage storage,
+                                    int[][] targetsByCluster, int[] allTargets, int[] wideMembers,
+                                    PartialBand partial, Halo halo) {
         this.n = n;
         this.clusterOf = clusterOf;
         this.localIdx = localIdx;
         this.clusterSize = clusterSize;
-        this.blockDist = blockDist;
-        this.blockTime = blockTime;
-        this.wideRowDist = wideRowDist;
-        this.wideRowTime = wideRowTime;
-        this.wideColDist = wideColDist;
-        this.wideColTime = wideColTime;
+        this.block = block;
+        this.wideRow = wideRow;
+        this.wideCol = wideCol;
+        this.encoding = encoding;
+        this.storage = storage;
         this.targetsByCluster = targetsByCluster;
         this.allTargets = allTargets;
-        this.wideCount = wideCount;
+        this.wideMembers = wideMembers;
+        this.wideCount = wideMembers.length;
+        this.membersByCluster = new int[clusterSize.length][];
+        for (int c = 0; c < clusterSize.length; c++) {
+            membersByCluster[c] = Arrays.copyOf(targetsByCluster[c], clusterSize[c]);
+        }
+        int[] nw = new int[n - wideCount];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            if (clusterOf[i] != WIDE) nw[k++] = i;
+        }
+        this.nonWide = nw;
+        this.partial = partial;
+        this.halo = halo;
     }
 
     // ==================== BUILD ====================
@@ -96,19 +203,58 @@ public final class BlockDiagonalCostMatrix implements CostMatrix {
      *                     {@link MatrixMask#UNCLUSTERED} được gộp vào dải rộng.
      */
     public static BlockDiagonalCostMatrix allocate(int[] clusterByLoc) {
+        return allocate(clusterByLoc, CellEncoding.DOUBLE64);
+    }
+
+    public static BlockDiagonalCostMatrix allocate(int[] clusterByLoc, CellEncoding encoding) {
+        return allocate(clusterByLoc, encoding, MatrixStorage.HEAP, null);
+    }
+
+    /**
+     * @param storage  {@link MatrixStorage#AUTO} được chốt theo {@link MatrixMemory#blockBytes}
+     *                 sau khi đã biết kích thước cụm
+     * @param spillDir thư mục file tạm cho {@link MatrixStorage#MAPPED}
+     */
+    public static BlockDiagonalCostMatrix allocate(int[] clusterByLoc, CellEncoding encoding,
+                                                   MatrixStorage storage, Path spillDir) {
+        return allocate(clusterByLoc, null, encoding, storage, spillDir);
+    }
+
+    /**
+     * @param servedClusters {@link MatrixMask#servedClusters}: depot có danh sách (nhãn cụm
+     *                       THÔ, tăng dần) thành PARTIAL; null / phần tử null giữ WIDE
+     */
+    public static BlockDiagonalCostMatrix allocate(int[] clusterByLoc, int[][] servedClusters,
+                                                   CellEncoding encoding, MatrixStorage storage,
+                                                   Path spillDir) {
+        return allocate(clusterByLoc, servedClusters, null, encoding, storage, spillDir);
+    }
+
+    /**
+     * @param haloByLoc {@link MatrixMask#haloByLoc}: cụm láng giềng (nhãn THÔ, tăng dần)
+     *                  mà order là thành viên phụ; null = không halo
+     */
+    public static BlockDiagonalCostMatrix allocate(int[] clusterByLoc, int[][] servedClusters, int[][] haloByLoc,
+                                                   CellEncoding encoding, MatrixStorage storage,
+                                                   Path spillDir) {
         int n = clusterByLoc.length;
 
         // 1) Nén id cụm về 0..C-1 (KMeans có thể trả id thưa/không liên tục)
         Map<Integer, Integer> compact = new HashMap<>();
         List<List<Integer>> members = new ArrayList<>();
         List<Integer> wide = new ArrayList<>();
+        List<Integer> partialDepots = new ArrayList<>();
 
         int[] clusterOf = new int[n];
         int[] localIdx = new int[n];
 
         for (int i = 0; i < n; i++) {
             int raw = clusterByLoc[i];
-            if (raw == MatrixMask.DEPOT || raw == MatrixMask.UNCLUSTERED) {
+            if (raw == MatrixMask.DEPOT && servedClusters != null && servedClusters[i] != null) {
+                clusterOf[i] = PARTIAL;
+                localIdx[i] = partialDepots.size();
+                partialDepots.add(i);
+            } else if (raw == MatrixMask.DEPOT || raw == MatrixMask.UNCLUSTERED) {
                 clusterOf[i] = WIDE;
                 localIdx[i] = wide.size();
                 wide.add(i);
@@ -125,6 +271,41 @@ public final class BlockDiagonalCostMatrix implements CostMatrix {
             }
         }
 
+        // 1a) Halo: thành viên phụ nối vào SAU thành viên nhà của khối láng giềng
+        int[][] haloCluster = null;
+        int[][] haloLocal = null;
+        if (haloByLoc != null) {
+            for (int i = 0; i < n; i++) {
+                int[] raw = haloByLoc[i];
+                if (clusterOf[i] < 0 || raw == null || raw.length == 0) continue;
+                int[] cs = new int[raw.length];
+                int[] ls = new int[raw.length];
+                int k = 0;
+                for (int r : raw) {
+                    Integer c = compact.get(r);
+                    if (c == null) {
+                        // cụm chỉ có thành viên halo — vẫn phải có khối, nếu không lệch mask
+                        c = members.size();
+                        compact.put(r, c);
+                        members.add(new ArrayList<>());
+                    }
+                    if (c == clusterOf[i]) continue;
+                    cs[k] = c;
+                    ls[k] = members.get(c).size();
+                    members.get(c).add(i);
+                    k++;
+                }
+                if (k == 0) continue;
+                if (haloCluster == null) {
+                    haloCluster = new int[n][];
+                    haloLocal = new int[n][];
+                }
+                sortByCluster(cs, ls, k);
+                haloCluster[i] = Arrays.copyOf(cs, k);
+                haloLocal[i] = Arrays.copyOf(ls, k);
+            }
+        }
+
         int cCount = members.size();
         int w = wide.size();
         int[] clusterSize = new int[cCount];
@@ -132,9 +313,31 @@ public final class BlockDiagonalCostMatrix implements CostMatrix {
             clusterSize[c] = members.get(c).size();
         }
 
+        // 1b) Dải depot một phần: slot của từng cụm phục vụ trong hàng/cột của depot
+        int pCount = partialDepots.size();
+        int[][] partialOffset = new int[pCount][];
+        int[] partialLen = new int[pCount];
+        int[][] servedCompact = new int[pCount][];
+        for (int p = 0; p < pCount; p++) {
+            int[] off = new int[cCount];
+            Arrays.fill(off, -1);
+            int len = pCount;
+            List<Integer> served = new ArrayList<>();
+            for (int raw : servedClusters[partialDepots.get(p)]) {
+                Integer c = compact.get(raw);
+                if (c == null || off[c] >= 0) continue; // cụm rỗng sau merge / nhãn trùng
+                off[c] = len;
+                len += clusterSize[c];
+                served.add(c);
+            }
+            partialOffset[p] = off;
+            partialLen[p] = len;
+            servedCompact[p] = served.stream().mapToInt(Integer::intValue).toArray();
+        }
+
         // 2) GUARD: dải rộng là phần O(W·n) — nếu W lớn thì block cũng nổ như dày.
         //    Nói rõ con số để biết phải sửa VehicleClusterAssigner, không phải tăng -Xmx.
-        long wideBytes = 4L * MatrixMemory.BYTES_PER_CELL * w * n;
+        long wideBytes = 2L * encoding.bytesPerCell() * w * n;
         long maxHeap = Runtime.getRuntime().maxMemory();
         if (wideBytes > maxHeap * 0.25) {
             long unclustered = 0;
@@ -143,17 +346,21 @@ public final class BlockDiagonalCostMatrix implements CostMatrix {
             }
             throw new IllegalStateException(String.format(
                     "Dải rộng có %d thành viên (trong đó %d order CHƯA GÁN CỤM) × n=%d "
-                            + "-> %s, vượt 25%% heap (%s). Mỗi thành viên dải rộng tốn 4·8·n = %s. "
-                            + "Nguyên nhân gần như chắc chắn là VehicleClusterAssigner để sót order, "
-                            + "KHÔNG phải thiếu bộ nhớ.",
+                            + "-> %s, vượt 25%% heap (%s). Mỗi thành viên dải rộng tốn 2·%d·n = %s. "
+                            + "Nguyên nhân gần như chắc chắn là VehicleClusterAssigner để sót order mà "
+                            + "OrphanOrderRescuer không cụm nào nhận, KHÔNG phải thiếu bộ nhớ.",
                     w, unclustered, n, MatrixMemory.humanBytes(wideBytes),
-                    MatrixMemory.humanBytes(maxHeap),
-                    MatrixMemory.humanBytes(4L * MatrixMemory.BYTES_PER_CELL * n)));
+                    MatrixMemory.humanBytes(maxHeap), encoding.bytesPerCell(),
+                    MatrixMemory.humanBytes(2L * encoding.bytesPerCell() * n)));
         }
 
         // 3) Cấp phát: block phẳng + dải rộng 2 chiều
-        double[][] blockDist = new double[cCount][];
-        double[][] blockTime = new double[cCount][];
+        long bytes = MatrixMemory.blockBytes(n, clusterSize, w, partialLen, encoding);
+        MatrixStorage resolved = storage.resolve(bytes, maxHeap);
+        OffHeapCells offHeap = resolved.offHeap()
+                ? OffHeapCells.allocate(bytes, encoding, resolved, spillDir)
+                : null;
+        CellStore[] block = new CellStore[cCount];
         for (int c = 0; c < cCount; c++) {
             int s = clusterSize[c];
             // GUARD TRÀN INT: offset trong block là localI·s + localJ, tính bằng int.
@@ -168,30 +375,128 @@ public final class BlockDiagonalCostMatrix implements CostMatrix {
                                 + "(hiện đang kỳ vọng ~150), KHÔNG phải thiếu bộ nhớ.",
                         c, s, (long) s * s, Integer.MAX_VALUE, (int) Math.sqrt(Integer.MAX_VALUE)));
             }
-            blockDist[c] = new double[s * s];
-            blockTime[c] = new double[s * s];
+            // Xen kẽ distance/time nên mảng heap dài 2·s² — trần thấp hơn guard trên
+            // (s ≤ 32 767). Ngoài heap chia chunk theo byte nên không vướng trần này.
+            if (offHeap == null && (long) s * s > encoding.maxCellsPerStore()) {
+                throw new IllegalStateException(String.format(
+                        "Cụm %d có %d phần tử -> 2·s² = %d giá trị vượt độ dài mảng Java. "
+                                + "Trần cho một cụm khi lưu xen kẽ là %d. Nguyên nhân gần như chắc chắn là "
+                                + "ClusterMergeService gộp quá mạnh, KHÔNG phải thiếu bộ nhớ.",
+                        c, s, 2L * s * s, (int) Math.sqrt(encoding.maxCellsPerStore())));
+            }
+            block[c] = offHeap != null ? offHeap.slice(s * s) : encoding.allocate(s * s);
+        }
+        CellStore[] wideRow = new CellStore[w];
+        CellStore[] wideCol = new CellStore[w];
+        for (int k = 0; k < w; k++) {
+            wideRow[k] = offHeap != null ? offHeap.slice(n) : encoding.allocate(n);
+            wideCol[k] = offHeap != null ? offHeap.slice(n) : encoding.allocate(n);
+        }
+        CellStore[] partialRow = new CellStore[pCount];
+        CellStore[] partialCol = new CellStore[pCount];
+        for (int p = 0; p < pCount; p++) {
+            int len = partialLen[p];
+            partialRow[p] = offHeap != null ? offHeap.slice(len) : encoding.allocate(len);
+            partialCol[p] = offHeap != null ? offHeap.slice(len) : encoding.allocate(len);
         }
-        double[][] wideRowDist = new double[w][n];
-        double[][] wideRowTime = new double[w][n];
-        double[][] wideColDist = new double[w][n];
-        double[][] wideColTime = new double[w][n];
 
-        // 4) Danh sách đích cần tính cho mỗi cụm = members(c) ∪ WIDE
+        // 4) Danh sách đích cần tính cho mỗi cụm = members(c) ∪ WIDE ∪ PARTIAL phục vụ c
         int[] wideArr = wide.stream().mapToInt(Integer::intValue).toArray();
+        int[] partialArr = partialDepots.stream().mapToInt(Integer::intValue).toArray();
+        List<List<Integer>> servingPartials = new ArrayList<>();
+        for (int c = 0; c < cCount; c++) servingPartials.add(new ArrayList<>());
+        for (int p = 0; p < pCount; p++) {
+            for (int c : servedCompact[p]) servingPartials.get(c).add(partialArr[p]);
+        }
         int[][] targetsByCluster = new int[cCount][];
         for (int c = 0; c < cCount; c++) {
             List<Integer> m = members.get(c);
-            int[] t = new int[m.size() + wideArr.length];
+            List<Integer> sp = servingPartials.get(c);
+            int[] t = new int[m.size() + wideArr.length + sp.size()];
             for (int k = 0; k < m.size(); k++) t[k] = m.get(k);
             System.arraycopy(wideArr, 0, t, m.size(), wideArr.length);
+            for (int k = 0; k < sp.size(); k++) t[m.size() + wideArr.length + k] = sp.get(k);
             targetsByCluster[c] = t;
         }
         int[] allTargets = new int[n];
         for (int i = 0; i < n; i++) allTargets[i] = i;
 
+        PartialBand partial = PartialBand.NONE;
+        if (pCount > 0) {
+            int[][] rowTargets = new int[pCount][];
+            int[][] servedMembers = new int[pCount][];
+            int[] seen = new int[n];
+            for (int p = 0; p < pCount; p++) {
+                int[] sm = new int[partialLen[p] - pCount];
+                int k = 0;
+                for (int c : servedCompact[p]) {
+                    for (int m : members.get(c)) {
+                        // order halo có thể nằm trong hai khối cùng được phục vụ — một nguồn cột
+                        if (seen[m] == p + 1) continue;
+                        seen[m] = p + 1;
+                        sm[k++] = m;
+                    }
+                }
+                sm = Arrays.copyOf(sm, k);
+                servedMembers[p] = sm;
+                int[] rt = new int[pCount - 1 + sm.length];
+                int r = 0;
+                for (int q : partialArr) if (q != partialArr[p]) rt[r++] = q;
+                System.arraycopy(sm, 0, rt, r, sm.length);
+                rowTargets[p] = rt;
+            }
+            partial = new PartialBand(partialArr, partialOffset, partialLen, partialRow, partialCol,
+                    rowTargets, servedMembers);
+        }
+
+        Halo halo = Halo.NONE;
+        if (haloCluster != null) {
+            int[][] targets = new int[n][];
+            int[][] clusterTargets = new int[n][];
+            int[] seen = new int[n];
+            for (int i = 0; i < n; i++) {
+                if (haloCluster[i] == null) continue;
+                int stamp = 2 * i + 1;
+                int[] t = new int[targetsByCluster[clusterOf[i]].length + Arrays.stream(haloCluster[i])
+                        .map(c -> targetsByCluster[c].length).sum()];
+                int[] m = new int[t.length];
+                int tk = 0, mk = 0;
+                // thành viên các khối trước (cho clusterTargets), rồi WIDE/PARTIAL
+                for (int round = 0; round <= haloCluster[i].length; round++) {
+                    int c = round == 0 ? clusterOf[i] : haloCluster[i][round - 1];
+                    int[] tc = targetsByCluster[c];
+                    for (int k = 0; k < tc.length; k++) {
+                        int j = tc[k];
+                        if (seen[j] == stamp) continue;
+                        seen[j] = stamp;
+                        t[tk++] = j;
+                        if (k < clusterSize[c]) m[mk++] = j;
+                    }
+                }
+                targets[i] = Arrays.copyOf(t, tk);
+                clusterTargets[i] = Arrays.copyOf(m, mk);
+            }
+            halo = new Halo(haloCluster, haloLocal, targets, clusterTargets);
+        }
+
         return new BlockDiagonalCostMatrix(n, clusterOf, localIdx, clusterSize,
-                blockDist, blockTime, wideRowDist, wideRowTime, wideColDist, wideColTime,
-                targetsByCluster, allTargets, w);
+                block, wideRow, wideCol, encoding, resolved,
+                targetsByCluster, allTargets, wideArr, partial, halo);
+    }
+
+    /** Sắp (cụm, vị trí) theo cụm tăng dần — k nhỏ (≤ vài phần tử), chèn là đủ. */
+    private static void sortByCluster(int[] cs, int[] ls, int k) {
+        for (int a = 1; a < k; a++) {
+            int c = cs[a], l = ls[a];
+            int b = a - 1;
+            while (b >= 0 && cs[b] > c) {
+                cs[b + 1] = cs[b];
+                ls[b + 1] = ls[b];
+                b--;
+            }
+            cs[b + 1] = c;
+            ls[b + 1] = l;
+        }
     }
 
     /**
@@ -201,7 +506,108 @@ public final class BlockDiagonalCostMatrix implements CostMatrix {
      */
     public int[] targetsFor(int i) {
         int c = clusterOf[i];
-        return c == WIDE ? allTargets : targetsByCluster[c];
+        if (c == WIDE) return allTargets;
+        if (c == PARTIAL) {
+            // ô PARTIAL → WIDE nằm ở cột WIDE nhưng vẫn là việc của hàng này
+            int[] rt = partial.rowTargets[localIdx[i]];
+            int[] t = Arrays.copyOf(wideMembers, wideMembers.length + rt.length);
+            System.arraycopy(rt, 0, t, wideMembers.length, rt.length);
+            return t;
+        }
+        if (halo.targets != null && halo.targets[i] != null) return halo.targets[i];
+        return targetsByCluster[c];
+    }
+
+    /**
+     * Như {@link #targetsFor} nhưng BỎ các ô dải rộng: rỗng với hàng WIDE, chỉ thành viên
+     * cụm với hàng trong cụm. Dùng khi hàng/cột dải rộng đã được tính bằng cây một-tới-
+     * tất-cả riêng, để không hỏi lại 2·W·n ô đó theo từng cặp.
+     */
+    public int[] clusterTargetsFor(int i) {
+        int c = clusterOf[i];
+        if (c < 0) return NO_TARGETS;
+        if (halo.clusterTargets != null && halo.clusterTargets[i] != null) return halo.clusterTargets[i];
+        return membersByCluster[c];
+    }
+
+    /**
+     * Hàng dải (WIDE / PARTIAL) tính bằng MỘT cây xuôi: các j mà ô (i, j) thuộc hàng i.
+     * WIDE: mọi j. PARTIAL: depot PARTIAL khác + thành viên cụm phục vụ (ô tới WIDE
+     * thuộc cột của WIDE, không tính lại ở đây).
+     */
+    public int[] bandRowTargets(int i) {
+        int c = clusterOf[i];
+        if (c == WIDE) return allTargets;
+        if (c == PARTIAL) return partial.rowTargets[localIdx[i]];
+        return NO_TARGETS;
+    }
+
+    /**
+     * Cột dải tính bằng MỘT cây ngược: các nguồn k mà ô (k, i) thuộc cột i.
+     * WIDE: mọi location không WIDE. PARTIAL: thành viên cụm phục vụ.
+     */
+    public int[] bandColSources(int i) {
+        int c = clusterOf[i];
+        if (c == WIDE) return nonWide;
+        if (c == PARTIAL) return partial.servedMembers[localIdx[i]];
+        return NO_TARGETS;
+    }
+
+    /**
+     * Slot của k trong hàng/cột của depot PARTIAL p; -1 nếu p không phục vụ khối nào của
+     * k. Order halo: khối ĐẦU TIÊN được phục vụ theo thứ tự nhà → halo tăng dần.
+     */
+    private int partialSlot(int p, int k) {
+        int ck = clusterOf[k];
+        if (ck == PARTIAL) return localIdx[k];
+        int off = partial.offset[p][ck];
+        if (off >= 0) return off + localIdx[k];
+        if (halo.cluster == null || halo.cluster[k] == null) return -1;
+        int[] hc = halo.cluster[k];
+        for (int t = 0; t < hc.length; t++) {
+            off = partial.offset[p][hc[t]];
+            if (off >= 0) return off + halo.local[k][t];
+        }
+        return -1;
+    }
+
+    /** Vị trí của order k trong khối c; -1 nếu k không thuộc khối c. */
+    private int localIn(int k, int c) {
+        if (clusterOf[k] == c) return localIdx[k];
+        if (halo.cluster == null || halo.cluster[k] == null) return -1;
+        int t = Arrays.binarySearch(halo.cluster[k], c);
+        return t >= 0 ? halo.local[k][t] : -1;
+    }
+
+    /**
+     * Khối lưu ô (i, j) giữa hai order: khối chung đầu tiên theo thứ tự nhà → halo tăng
+     * dần của i; -1 nếu không chung khối nào (hoặc một bên không phải order trong cụm).
+     * Engine tính theo khối dùng hàm này để mỗi ô chỉ được ghi từ ĐÚNG một khối.
+     */
+    public int ownerCluster(int i, int j) {
+        int ci = clusterOf[i], cj = clusterOf[j];
+        if (ci < 0 || cj < 0) return -1;
+        if (ci == cj) return ci;
+        if (halo.cluster == null) return -1;
+        if (localIn(j, ci) >= 0) return ci;
+        int[] hc = halo.cluster[i];
+        if (hc != null) {
+            for (int c : hc) if (localIn(j, c) >= 0) return c;
+        }
+        return -1;
+    }
+
+    /** true nếu có ít nhất một order halo (khối có thành viên phụ, ô trùng giữa khối). */
+    public boolean hasHalo() {
+        return halo.cluster != null;
+    }
+
+    /** Offset ô (i, j) trong khối của nó; -1 nếu không có chỗ lưu. Chỉ cho order × order. */
+    private long blockSlot(int i, int j, int ci, int cj) {
+        if (ci == cj) return ((long) ci << 32) | (localIdx[i] * clusterSize[ci] + localIdx[j]);
+        int c = ownerCluster(i, j);
+        if (c < 0) return -1;
+        return ((long) c << 32) | (localIn(i, c) * clusterSize[c] + localIn(j, c));
     }
 
     /**
@@ -212,22 +618,28 @@ public final class BlockDiagonalCostMatrix implements CostMatrix {
         if (i == j) return;
         int ci = clusterOf[i];
         if (ci == WIDE) {
-            int w = localIdx[i];
-            wideRowDist[w][j] = distance;
-            wideRowTime[w][j] = time;
+            wideRow[localIdx[i]].put(j, distance, time);
             return;
         }
         int cj = clusterOf[j];
         if (cj == WIDE) {
-            int w = localIdx[j];
-            wideColDist[w][i] = distance;
-            wideColTime[w][i] = time;
+            wideCol[localIdx[j]].put(i, distance, time);
+            return;
+        }
+        if (ci == PARTIAL) {
+            int slot = partialSlot(localIdx[i], j);
+            if (slot >= 0) partial.row[localIdx[i]].put(slot, distance, time);
+            return;
+        }
+        if (cj == PARTIAL) {
+            int slot = partialSlot(localIdx[j], i);
+            if (slot >= 0) partial.col[localIdx[j]].put(slot, distance, time);
             return;
         }
-        if (ci != cj) return;
-        int off = localIdx[i] * clusterSize[ci] + localIdx[j];
-        blockDist[ci][off] = distance;
-        blockTime[ci][off] = time;
+        if (ci != cj && halo.cluster == null) return;
+        long slot = blockSlot(i, j, ci, cj);
+        if (slot < 0) return;
+        block[(int) (slot >>> 32)].put((int) slot, distance, time);
     }
 
     // ==================== READ ====================
@@ -237,22 +649,42 @@ public final class BlockDiagonalCostMatrix implements CostMatrix {
     public double distanceMeters(int i, int j) {
         if (i == j) return 0.0;
         int ci = clusterOf[i];
-        if (ci == WIDE) return wideRowDist[localIdx[i]][j];
+        if (ci == WIDE) return wideRow[localIdx[i]].distance(j);
         int cj = clusterOf[j];
-        if (cj == WIDE) return wideColDist[localIdx[j]][i];
-        if (ci != cj) return MatrixMask.PRUNED_METERS;
-        return blockDist[ci][localIdx[i] * clusterSize[ci] + localIdx[j]];
+        if (cj == WIDE) return wideCol[localIdx[j]].distance(i);
+        if (ci == PARTIAL) {
+            int slot = partialSlot(localIdx[i], j);
+            return slot >= 0 ? partial.row[localIdx[i]].distance(slot) : MatrixMask.PRUNED_METERS;
+        }
+        if (cj == PARTIAL) {
+            int slot = partialSlot(localIdx[j], i);
+            return slot >= 0 ? partial.col[localIdx[j]].distance(slot) : MatrixMask.PRUNED_METERS;
+        }
+        if (ci == cj) return block[ci].distance(localIdx[i] * clusterSize[ci] + localIdx[j]);
+        if (halo.cluster == null) return MatrixMask.PRUNED_METERS;
+        long slot = blockSlot(i, j, ci, cj);
+        return slot < 0 ? MatrixMask.PRUNED_METERS : block[(int) (slot >>> 32)].distance((int) slot);
     }
 
     @Override
     public double timeSeconds(int i, int j) {
         if (i == j) return 0.0;
         int ci = clusterOf[i];
-        if (ci == WIDE) return wideRowTime[localIdx[i]][j];
+        if (ci == WIDE) return wideRow[localIdx[i]].time(j);
         int cj = clusterOf[j];
-        if (cj == WIDE) return wideColTime[localIdx[j]][i];
-        if (ci != cj) return MatrixMask.PRUNED_SECONDS;
-        return blockTime[ci][localIdx[i] * clusterSize[ci] + localIdx[j]];
+        if (cj == WIDE) return wideCol[localIdx[j]].time(i);
+        if (ci == PARTIAL) {
+            int slot = partialSlot(localIdx[i], j);
+            return slot >= 0 ? partial.row[localIdx[i]].time(slot) : MatrixMask.PRUNED_SECONDS;
+        }
+        if (cj == PARTIAL) {
+            int slot = partialSlot(localIdx[j], i);
+            return slot >= 0 ? partial.col[localIdx[j]].time(slot) : MatrixMask.PRUNED_SECONDS;
+        }
+        if (ci == cj) return block[ci].time(localIdx[i] * clusterSize[ci] + localIdx[j]);
+        if (halo.cluster == null) return MatrixMask.PRUNED_SECONDS;
+        long slot = blockSlot(i, j, ci, cj);
+        return slot < 0 ? MatrixMask.PRUNED_SECONDS : block[(int) (slot >>> 32)].time((int) slot);
     }
 
     @Override
@@ -262,12 +694,50 @@ public final class BlockDiagonalCostMatrix implements CostMatrix {
 
     @Override
     public long allocatedBytes() {
-        return MatrixMemory.blockBytes(n, clusterSize, wideCount);
+        return MatrixMemory.blockBytes(n, clusterSize, wideCount, partial.len, encoding);
     }
 
     @Override
     public String layout() {
-        return String.format("BLOCK_DIAGONAL(C=%d, W=%d)", clusterSize.length, wideCount);
+        String shape = partial.depots.length == 0
+                ? String.format("C=%d, W=%d", clusterSize.length, wideCount)
+                : String.format("C=%d, W=%d, P=%d", clusterSize.length, wideCount, partial.depots.length);
+        if (halo.cluster != null) shape += String.format(", H=%d", haloMemberships());
+        return "BLOCK_DIAGONAL" + MatrixMemory.layoutQualifiers(shape, encoding, storage);
+    }
+
+    public CellEncoding encoding() {
+        return encoding;
+    }
+
+    public MatrixStorage storage() {
+        return storage;
+    }
+
+    /**
+     * Thành viên cụm c (nhà + halo, không gồm WIDE) — đúng tập nguồn/đích của block c,
+     * cho các engine tính cả khối một lần thay vì từng hàng. Có halo thì lọc ô theo
+     * {@link #ownerCluster}.
+     */
+    public int[] membersOf(int c) {
+        return Arrays.copyOf(targetsByCluster[c], clusterSize[c]);
+    }
+
+    /** Các location thuộc dải rộng (depot + order chưa gán cụm). */
+    public int[] wideMembers() {
+        return wideMembers.clone();
+    }
+
+    /** Depot dải một phần (PARTIAL), theo thứ tự localIdx. */
+    public int[] partialDepots() {
+        return partial.depots.clone();
+    }
+
+    /** WIDE ∪ PARTIAL — mọi location có hàng/cột dải riêng ({@link #bandRowTargets}). */
+    public int[] bandMembers() {
+        int[] all = Arrays.copyOf(wideMembers, wideMembers.length + partial.depots.length);
+        System.arraycopy(partial.depots, 0, all, wideMembers.length, partial.depots.length);
+        return all;
     }
 
     // ==================== THÔNG TIN CHO LOG / TEST ====================
@@ -284,9 +754,24 @@ public final class BlockDiagonalCostMatrix implements CostMatrix {
         return clusterSize.clone();
     }
 
-    /** Số ô có chỗ lưu — phải bằng số ô mà MatrixMask.needed() trả true. */
+    public int partialCount() {
+        return partial.depots.length;
+    }
+
+    /** Tổng số thành viên phụ (halo) trên mọi khối. */
+    public long haloMemberships() {
+        if (halo.cluster == null) return 0;
+        long total = 0;
+        for (int[] hc : halo.cluster) if (hc != null) total += hc.length;
+        return total;
+    }
+
+    /**
+     * Số ô có chỗ lưu — bằng số ô mà MatrixMask.needed() trả true, cộng các slot bỏ trống
+     * cố định (chéo block, P² ô đầu cột PARTIAL, ô trùng của cặp halo chung nhiều khối).
+     */
     public long storedCells() {
-        return MatrixMemory.blockCells(n, clusterSize, wideCount);
+        return MatrixMemory.blockCells(n, clusterSize, wideCount, partial.len);
     }
 
     /** Tỉ lệ ô của ma trận dày mà ta KHÔNG cần lưu. */
@@ -0,0 +1,143 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decorator đặt {@link DistanceCellCache} trước một {@link DistanceProvider} bất kỳ.
+ *
+ * <p>Miss thì hỏi provider thật rồi ghi lại; provider ném lỗi thì ném tiếp, KHÔNG ghi
+ * gì — để {@code DistanceMatrixService} điền sentinel như cũ và lần sau còn thử lại.
+ * Không dùng single-flight: hai luồng cùng miss một ô chỉ tốn thêm một query, còn
+ * trong một lần build mỗi ô (i, j) chỉ do đúng một luồng (hàng i) hỏi.
+ */
+public final class CachingDistanceProvider implements DistanceProvider {
+
+    private final DistanceProvider delegate;
+    private final DistanceCellCache cache;
+
+    public CachingDistanceProvider(DistanceProvider delegate, DistanceCellCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public DistanceMatrixEntry fetch(OptCoordinates from, OptCoordinates to) {
+        DistanceMatrixEntry cached = cache.get(from, to);
+        if (cached != null) {
+            return cached;
+        }
+        DistanceMatrixEntry fresh = delegate.fetch(from, to);
+        cache.put(from, to, fresh);
+        return fresh;
+    }
+
+    /**
+     * Hit đọc thẳng vào hai mảng của người gọi; các ô miss gom thành MỘT hàng con cho
+     * delegate. Chỉ hàng có miss mới cấp mảng phụ — hàng trúng hết không tạo object nào.
+     */
+    @Override
+    public void fetchRow(CoordinateColumns coordinates, int source, int[] targets,
+                         double[] meters, double[] seconds) {
+        double fromLat = coordinates.lat(source);
+        double fromLon = coordinates.lon(source);
+        int[] missAt = null;
+        int misses = 0;
+        for (int k = 0; k < targets.length; k++) {
+            int j = targets[k];
+            if (j == source) {
+                meters[k] = 0.0;
+                seconds[k] = 0.0;
+            } else if (!cache.get(fromLat, fromLon, coordinates.lat(j), coordinates.lon(j), meters, seconds, k)) {
+                if (missAt == null) missAt = new int[targets.length - k];
+                missAt[misses++] = k;
+            }
+        }
+        if (misses == 0) {
+            return;
+        }
+        int[] subTargets = new int[misses];
+        for (int t = 0; t < misses; t++) subTargets[t] = targets[missAt[t]];
+        double[] subMeters = new double[misses];
+        double[] subSeconds = new double[misses];
+        delegate.fetchRow(coordinates, source, subTargets, subMeters, subSeconds);
+        for (int t = 0; t < misses; t++) {
+            int k = missAt[t];
+            meters[k] = subMeters[t];
+            seconds[k] = subSeconds[t];
+            if (!Double.isNaN(subMeters[t])) {
+                int j = subTargets[t];
+                cache.put(fromLat, fromLon, coordinates.lat(j), coordinates.lon(j),
+                        subMeters[t], (long) subSeconds[t] * 1000);
+            }
+        }
+    }
+
+    /**
+     * Trả ngay các ô đã có; phần còn thiếu gom thành khối con (hàng có miss × cột có miss)
+     * và gọi provider thật MỘT lần, để không đánh mất lợi thế many-to-many của delegate.
+     * Ô trong khối con vốn đã hit thì không báo lại cho {@code sink}.
+     */
+    @Override
+    public void fetchBlock(List<OptCoordinates> sources, List<OptCoordinates> targets, PairSink sink) {
+        int n = sources.size();
+        int m = targets.size();
+        boolean[][] missing = new boolean[n][m];
+        boolean[] rowMiss = new boolean[n];
+        boolean[] colMiss = new boolean[m];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < m; j++) {
+                DistanceMatrixEntry cached = cache.get(sources.get(i), targets.get(j));
+                if (cached != null) {
+                    sink.accept(i, j, cached.distanceMeters(), cached.timeSeconds());
+                } else {
+                    missing[i][j] = true;
+                    rowMiss[i] = true;
+                    colMiss[j] = true;
+                }
+            }
+        }
+
+        int[] rows = indicesOf(rowMiss);
+        int[] cols = indicesOf(colMiss);
+        if (rows.length == 0) {
+            return;
+        }
+        List<OptCoordinates> subSources = new ArrayList<>(rows.length);
+        for (int i : rows) subSources.add(sources.get(i));
+        List<OptCoordinates> subTargets = new ArrayList<>(cols.length);
+        for (int j : cols) subTargets.add(targets.get(j));
+
+        delegate.fetchBlock(subSources, subTargets, (si, sj, meters, seconds) -> {
+            int i = rows[si];
+            int j = cols[sj];
+            if (!Double.isNaN(meters)) {
+                OptCoordinates from = sources.get(i);
+                OptCoordinates to = targets.get(j);
+                cache.put(from.latDouble(), from.lonDouble(), to.latDouble(), to.lonDouble(),
+                        meters, (long) seconds * 1000);
+            }
+            if (missing[i][j]) {
+                sink.accept(i, j, meters, seconds);
+            }
+        });
+    }
+
+    private static int[] indicesOf(boolean[] flags) {
+        int count = 0;
+        for (boolean f : flags) if (f) count++;
+        int[] out = new int[count];
+        int k = 0;
+        for (int i = 0; i < flags.length; i++) if (flags[i]) out[k++] = i;
+        return out;
+    }
+
+    @Override
+    public String cacheNamespace() {
+        return delegate.cacheNamespace();
+    }
+
+    public DistanceCellCache cache() {
+        return cache;
+    }
+}
@@ -0,0 +1,48 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+/**
+ * Cách mã hóa MỘT ô (distance + time) trong ma trận ({@code gvrp.matrix.cell-encoding}).
+ *
+ * <p>Mét và giây không cần 53 bit mantissa: tuyến dài nhất nội địa ~2 000 km, float32
+ * ở mức đó vẫn chính xác tới ~0.1 m; giây đã được cắt về số nguyên từ provider. Giảm
+ * từ 16 xuống 8 byte/ô làm bộ nhớ block giảm một nửa và trần dense
+ * {@link MatrixMemory#maxDenseSize} tăng √2.
+ *
+ * <pre>
+ *   DOUBLE64 : 16 byte/ô — chính xác tuyệt đối, mặc định (mọi con số đo đạc dùng nó)
+ *   FLOAT32  :  8 byte/ô — sentinel 1e9 / 1e7 biểu diễn ĐÚNG trong float (≤ 24 bit)
+ *   INT32    :  8 byte/ô — làm tròn mét/giây; mã {@link Integer#MAX_VALUE} dành riêng
+ *               cho sentinel, giá trị thật bị kẹp dưới mã đó
+ * </pre>
+ */
+public enum CellEncoding {
+
+    DOUBLE64(8),
+    FLOAT32(4),
+    INT32(4);
+
+    private final int bytesPerValue;
+
+    CellEncoding(int bytesPerValue) {
+        this.bytesPerValue = bytesPerValue;
+    }
+
+    /** Bytes của distance + time — hai giá trị nằm xen kẽ cạnh nhau. */
+    public int bytesPerCell() {
+        return MatrixMemory.MATRICES * bytesPerValue;
+    }
+
+    /** Số ô tối đa trong MỘT mảng xen kẽ (độ dài mảng Java là int). */
+    public int maxCellsPerStore() {
+        return (Integer.MAX_VALUE - 8) / MatrixMemory.MATRICES;
+    }
+
+    /** Cấp phát kho {@code cells} ô trên heap, giá trị ban đầu 0. */
+    public CellStore allocate(int cells) {
+        return switch (this) {
+            case DOUBLE64 -> new CellStore.Doubles(cells);
+            case FLOAT32 -> new CellStore.Floats(cells);
+            case INT32 -> new CellStore.Ints(cells);
+        };
+    }
+}
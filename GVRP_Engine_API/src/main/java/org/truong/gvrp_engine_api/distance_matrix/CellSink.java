@@ -0,0 +1,14 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+/**
+ * Nơi nhận kết quả một ô (i, j) từ các engine dựng cả hàng/khối một lần.
+ *
+ * <p>Dùng primitive thay vì {@link DistanceMatrixEntry}: một hàng block có thể vài
+ * nghìn ô, tạo record + BigDecimal cho từng ô chính là tầng object mà v2 đã bỏ.
+ * Ô không tìm được đường trả {@code NaN} — người gọi tự quyết fallback hay sentinel.
+ */
+@FunctionalInterface
+public interface CellSink {
+
+    void accept(int j, double meters, double seconds);
+}
@@ -0,0 +1,173 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+/**
+ * Một dãy ô (distance, time) XEN KẼ trong một mảng phẳng: {@code [d0, t0, d1, t1, ...]}.
+ *
+ * <p>Jsprit hầu như luôn đọc distance và time của CÙNG một cạnh liền nhau; hai mảng
+ * tách rời nghĩa là hai cache line cho một cạnh. Xen kẽ thì một lần nạp là đủ.
+ *
+ * <p>Thread-safety giống các ma trận dùng nó: mỗi ô một writer trong lúc build,
+ * chỉ-đọc sau đó.
+ */
+public interface CellStore {
+
+    double distance(int cell);
+
+    double time(int cell);
+
+    void put(int cell, double meters, double seconds);
+
+    int cells();
+
+    // ==================== HEAP ====================
+
+    final class Doubles implements CellStore {
+        private final double[] v;
+
+        Doubles(int cells) {
+            this.v = new double[2 * cells];
+        }
+
+        /** Mảng xen kẽ thật — cho view phẳng của {@link DenseCostMatrix}, không sao chép. */
+        double[] array() {
+            return v;
+        }
+
+        @Override
+        public double distance(int cell) {
+            return v[2 * cell];
+        }
+
+        @Override
+        public double time(int cell) {
+            return v[2 * cell + 1];
+        }
+
+        @Override
+        public void put(int cell, double meters, double seconds) {
+            v[2 * cell] = meters;
+            v[2 * cell + 1] = seconds;
+        }
+
+        @Override
+        public int cells() {
+            return v.length / 2;
+        }
+    }
+
+    final class Floats implements CellStore {
+        private final float[] v;
+
+        Floats(int cells) {
+            this.v = new float[2 * cells];
+        }
+
+        /** Mảng xen kẽ thật — cho view phẳng của {@link DenseCostMatrix}, không sao chép. */
+        float[] array() {
+            return v;
+        }
+
+        @Override
+        public double distance(int cell) {
+            return v[2 * cell];
+        }
+
+        @Override
+        public double time(int cell) {
+            return v[2 * cell + 1];
+        }
+
+        @Override
+        public void put(int cell, double meters, double seconds) {
+            v[2 * cell] = (float) meters;
+            v[2 * cell + 1] = (float) seconds;
+        }
+
+        @Override
+        public int cells() {
+            return v.length / 2;
+        }
+    }
+
+    final class Ints implements CellStore {
+
+        /** Mã dành riêng cho sentinel — giá trị thật không bao giờ được mã hóa thành nó. */
+        static final int SENTINEL_CODE = Integer.MAX_VALUE;
+
+        private final int[] v;
+
+        Ints(int cells) {
+            this.v = new int[2 * cells];
+        }
+
+        /** Mảng xen kẽ thật — cho view phẳng của {@link DenseCostMatrix}, không sao chép. */
+        int[] array() {
+            return v;
+        }
+
+        @Override
+        public double distance(int cell) {
+            return decode(v[2 * cell], MatrixMask.PRUNED_METERS);
+        }
+
+        @Override
+        public double time(int cell) {
+            return decode(v[2 * cell + 1], MatrixMask.PRUNED_SECONDS);
+        }
+
+        @Override
+        public void put(int cell, double meters, double seconds) {
+            v[2 * cell] = encode(meters, MatrixMask.PRUNED_METERS);
+            v[2 * cell + 1] = encode(seconds, MatrixMask.PRUNED_SECONDS);
+        }
+
+        @Override
+        public int cells() {
+            return v.length / 2;
+        }
+
+        static int encode(double value, double sentinel) {
+            if (value >= sentinel) return SENTINEL_CODE;
+            return (int) Math.min(Math.round(value), SENTINEL_CODE - 1L);
+        }
+
+        static double decode(int code, double sentinel) {
+            return code == SENTINEL_CODE ? sentinel : code;
+        }
+    }
+
+    /**
+     * Bọc hai mảng double có sẵn (KHÔNG sao chép) — cho constructor tương thích ngược
+     * {@code DenseCostMatrix(double[][], double[][])}: adapter Jsprit hứa "0 byte thêm".
+     */
+    final class SplitDoubles implements CellStore {
+        private final double[] d;
+        private final double[] t;
+
+        SplitDoubles(double[] d, double[] t) {
+            this.d = d;
+            this.t = t;
+        }
+
+        @Override
+        public double distance(int cell) {
+            return d[cell];
+        }
+
+        @Override
+        public double time(int cell) {
+            return t[cell];
+        }
+
+        @Override
+        public void put(int cell, double meters, double seconds) {
+            d[cell] = meters;
+            t[cell] = seconds;
+        }
+
+        @Override
+        public int cells() {
+            return d.length;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gộp các ORDER trùng / sát vị trí (cùng tòa nhà, cùng chợ, địa chỉ geocode về một điểm)
+ * vào MỘT index ma trận trước khi dựng — ô giữa hai điểm gộp chỉ tính một lần thay vì
+ * (số order)² lần. Dữ liệu giao hàng thực tế 5–20% order chung tọa độ với order khác.
+ * <p>
+ * Cách gộp: leader clustering theo thứ tự index trên lưới ô ≥ {@code tolerance} — order
+ * nhập vào leader GẦN NHẤT trong 3×3 ô lân cận nếu cách ≤ tolerance, không thì tự làm
+ * leader. Mọi thành viên cách leader ≤ tolerance (không bắc cầu: chuỗi điểm cách nhau
+ * 4 m không bị kéo thành một nhóm dài 100 m).
+ * <p>
+ * CHỈ gộp hai order cùng nhãn cụm và cùng halo trong mask: điểm gộp kế thừa nhãn của
+ * leader, lệch nhãn là ô cần thiết bị prune. Depot không bao giờ gộp (dải rộng giữ nguyên).
+ * <p>
+ * Service của Jsprit vẫn tách riêng, Location / index / id order KHÔNG đổi:
+ * {@link #expand} trả về {@link CollapsedCostMatrix} n × n, hai order cùng điểm gộp đi
+ * tới nhau mất 0 m / 0 s.
+ */
+public final class CoLocatedCollapse {
+
+    /** Sai số mặc định ~ sai số geocode cùng địa chỉ. */
+    public static final double DEFAULT_TOLERANCE_METERS = 5.0;
+
+    /** Xa hơn mức này thì "0 m giữa hai order" đã là sai số đáng kể trên route. */
+    public static final double MAX_TOLERANCE_METERS = 25.0;
+
+    private static final double METERS_PER_DEG_LAT = 111_320.0;
+
+    private final int[] repByLoc;
+    private final int[] locByRep;
+    private final double toleranceMeters;
+
+    private CoLocatedCollapse(int[] repByLoc, int[] locByRep, double toleranceMeters) {
+        this.repByLoc = repByLoc;
+        this.locByRep = locByRep;
+        this.toleranceMeters = toleranceMeters;
+    }
+
+    /**
+     * Gom nhóm trên tọa độ theo index location.
+     *
+     * @param mask            mask của job — phải biết depot ({@link MatrixMask#depotByLoc}),
+     *                        không thì không gộp gì (không phân biệt được order); mask kNN
+     *                        không gộp được (hàng láng giềng dựng trên index cũ)
+     * @param toleranceMeters ≤ 0 = chỉ gộp tọa độ TRÙNG KHÍT
+     */
+    public static CoLocatedCollapse of(List<OptCoordinates> coordinates, MatrixMask mask, double toleranceMeters) {
+        return of(CoordinateColumns.of(coordinates), mask, toleranceMeters);
+    }
+
+    /** Như trên, trên tọa độ dạng cột (đường chính của DistanceMatrixService). */
+    public static CoLocatedCollapse of(CoordinateColumns coordinates, MatrixMask mask, double toleranceMeters) {
+        int n = coordinates.size();
+        if (toleranceMeters > MAX_TOLERANCE_METERS || Double.isNaN(toleranceMeters)) {
+            throw new IllegalArgumentException(String.format(
+                    "CoLocatedCollapse: tolerance=%.1f m vượt trần %.0f m — route sẽ coi các order cách nhau "
+                            + "cả chục mét là cùng chỗ", toleranceMeters, MAX_TOLERANCE_METERS));
+        }
+        if (mask == null || mask.depotByLoc() == null || mask.depotByLoc().length != n || mask.isNearest()) {
+            return identity(n, toleranceMeters);
+        }
+        boolean[] depot = mask.depotByLoc();
+        int[] cluster = mask.clusterByLoc();
+        int[][] halo = mask.haloByLoc();
+
+        int[] repByLoc = new int[n];
+        int[] leaderLoc = new int[n];
+        int m = 0;
+        if (toleranceMeters <= 0) {
+            Map<List<Object>, Integer> byKey = new HashMap<>();
+            for (int i = 0; i < n; i++) {
+                if (depot[i]) {
+                    leaderLoc[m] = i;
+                    repByLoc[i] = m++;
+                    continue;
+                }
+                // +0.0 để -0.0 và 0.0 cùng khóa
+                List<Object> key = List.of(coordinates.lat(i) + 0.0, coordinates.lon(i) + 0.0,
+                        cluster != null ? cluster[i] : 0, haloKey(halo, i));
+                Integer rep = byKey.get(key);
+                if (rep == null) {
+                    rep = m;
+                    leaderLoc[m++] = i;
+                    byKey.put(key, rep);
+                }
+                repByLoc[i] = rep;
+            }
+        } else {
+            double maxAbsLat = 0;
+            for (double lat : coordinates.lat()) maxAbsLat = Math.max(maxAbsLat, Math.abs(lat));
+            // Ô lưới ≥ tolerance theo cả hai trục, kể cả ở vĩ độ cao nhất của job → 3×3 ô đủ phủ
+            double cellLat = toleranceMeters / METERS_PER_DEG_LAT;
+            double cellLon = toleranceMeters / (METERS_PER_DEG_LAT * Math.max(0.01, Math.cos(Math.toRadians(maxAbsLat))));
+            Map<Long, List<Integer>> leadersByCell = new HashMap<>();
+            for (int i = 0; i < n; i++) {
+                if (depot[i]) {
+                    leaderLoc[m] = i;
+                    repByLoc[i] = m++;
+                    continue;
+                }
+                double lat = coordinates.lat(i);
+                double lon = coordinates.lon(i);
+                long cy = (long) Math.floor(lat / cellLat);
+                long cx = (long) Math.floor(lon / cellLon);
+                int best = -1;
+                double bestD = Double.POSITIVE_INFINITY;
+                for (long dy = -1; dy <= 1; dy++) {
+                    for (long dx = -1; dx <= 1; dx++) {
+                        List<Integer> leaders = leadersByCell.get(cellKey(cy + dy, cx + dx));
+                        if (leaders == null) continue;
+                        for (int rep : leaders) {
+                            int l = leaderLoc[rep];
+                            if (!sameGroup(cluster, halo, i, l)) continue;
+                            double d = coordinates.haversineMeters(i, l);
+                            // hòa khoảng cách → leader index nhỏ hơn (kết quả không phụ thuộc thứ tự duyệt ô)
+                            if (d <= toleranceMeters && (d < bestD || (d == bestD && rep < best))) {
+                                best = rep;
+                                bestD = d;
+                            }
+                        }
+                    }
+                }
+                if (best < 0) {
+                    best = m;
+                    leaderLoc[m++] = i;
+                    leadersByCell.computeIfAbsent(cellKey(cy, cx), k -> new ArrayList<>()).add(best);
+                }
+                repByLoc[i] = best;
+            }
+        }
+        return new CoLocatedCollapse(repByLoc, Arrays.copyOf(leaderLoc, m), toleranceMeters);
+    }
+
+    private static CoLocatedCollapse identity(int n, double toleranceMeters) {
+        int[] id = new int[n];
+        for (int i = 0; i < n; i++) id[i] = i;
+        return new CoLocatedCollapse(id, id, toleranceMeters);
+    }
+
+    private static long cellKey(long cy, long cx) {
+        return cy * 0x9E3779B97F4A7C15L + cx;
+    }
+
+    private static boolean sameGroup(int[] cluster, int[][] halo, int i, int j) {
+        if (cluster != null && cluster[i] != cluster[j]) return false;
+        return Arrays.equals(haloOf(halo, i), haloOf(halo, j));
+    }
+
+    private static int[] haloOf(int[][] halo, int i) {
+        int[] h = halo != null ? halo[i] : null;
+        return h != null && h.length > 0 ? h : null;
+    }
+
+    private static List<Integer> haloKey(int[][] halo, int i) {
+        int[] h = haloOf(halo, i);
+        return h == null ? List.of() : Arrays.stream(h).boxed().toList();
+    }
+
+    /** Có gộp được gì không — false thì gọi thẳng build trên tọa độ gốc, không bọc. */
+    public boolean reduces() {
+        return locByRep.length < repByLoc.length;
+    }
+
+    public int originalSize() {
+        return repByLoc.length;
+    }
+
+    public int collapsedSize() {
+        return locByRep.length;
+    }
+
+    /** Location gốc -> index điểm gộp (mảng NỘI BỘ, chỉ đọc). */
+    public int[] repByLoc() {
+        return repByLoc;
+    }
+
+    /** Index điểm gộp -> location leader (mảng NỘI BỘ, chỉ đọc). */
+    public int[] locByRep() {
+        return locByRep;
+    }
+
+    /** Tọa độ của các điểm gộp (= tọa độ leader), theo index điểm gộp. */
+    public CoordinateColumns coordinates(CoordinateColumns coordinates) {
+        return coordinates.select(locByRep);
+    }
+
+    /**
+     * Mask trên các điểm gộp: nhãn cụm / halo / depot của leader, prune khả thi gộp theo
+     * nhóm ({@link PairFeasibility#collapse}) — chỉ prune cặp điểm gộp khi MỌI cặp thành
+     * viên đều bất khả thi.
+     */
+    public MatrixMask mask(MatrixMask mask) {
+        if (mask == null) return null;
+        PairFeasibility f = mask.feasibility();
+        return mask.select(locByRep, f != null ? f.collapse(repByLoc, locByRep, toleranceMeters) : null);
+    }
+
+    /** Nhìn ma trận m × m của điểm gộp như ma trận n × n theo location gốc. */
+    public CostMatrix expand(CostMatrix shared) {
+        if (shared.size() != locByRep.length) {
+            throw new IllegalStateException(String.format(
+                    "CoLocatedCollapse: ma trận chung %d×%d nhưng có %d điểm gộp",
+                    shared.size(), shared.size(), locByRep.length));
+        }
+        return reduces() ? new CollapsedCostMatrix(shared, repByLoc) : shared;
+    }
+
+    /** "n -> m điểm (giảm x%, y% ô)" cho log. */
+    public String summary() {
+        int n = originalSize();
+        int m = collapsedSize();
+        double cells = n == 0 ? 0 : 1.0 - ((double) m * m) / ((double) n * n);
+        return String.format("%d -> %d điểm (gộp %d order, giảm %.1f%% ô) | tolerance %.1f m",
+                n, m, n - m, 100.0 * cells, toleranceMeters);
+    }
+
+    @Override
+    public String toString() {
+        return "CoLocatedCollapse[" + summary() + "]";
+    }
+}
@@ -0,0 +1,60 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+/**
+ * Nhìn ma trận của các điểm ĐÃ GỘP ({@link CoLocatedCollapse}) như ma trận n × n theo
+ * location gốc: ô (i, j) đọc ô (rep[i], rep[j]) của ma trận chung; hai order cùng điểm
+ * gộp đi tới nhau mất 0 m / 0 s.
+ * <p>
+ * Location, index Jsprit và id order KHÔNG đổi — Service vẫn tách riêng, extractor / metric
+ * / constraint vẫn tra theo index cũ. Chỉ số hàng/cột phải tính giảm từ n xuống m.
+ * <p>
+ * Chỉ-đọc, không trạng thái ngoài hai tham chiếu final → an toàn đa luồng như ma trận nền.
+ */
+public final class CollapsedCostMatrix implements CostMatrix {
+
+    private final CostMatrix shared;
+    private final int[] repByLoc;
+
+    /**
+     * @param shared   ma trận m × m trên các điểm đã gộp
+     * @param repByLoc location gốc -> index trong {@code shared} (mảng KHÔNG được sửa sau khi bọc)
+     */
+    public CollapsedCostMatrix(CostMatrix shared, int[] repByLoc) {
+        this.shared = shared;
+        this.repByLoc = repByLoc;
+    }
+
+    @Override
+    public double distanceMeters(int i, int j) {
+        int a = repByLoc[i];
+        int b = repByLoc[j];
+        return a == b ? 0.0 : shared.distanceMeters(a, b);
+    }
+
+    @Override
+    public double timeSeconds(int i, int j) {
+        int a = repByLoc[i];
+        int b = repByLoc[j];
+        return a == b ? 0.0 : shared.timeSeconds(a, b);
+    }
+
+    @Override
+    public int size() {
+        return repByLoc.length;
+    }
+
+    @Override
+    public long allocatedBytes() {
+        return shared.allocatedBytes() + 4L * repByLoc.length;
+    }
+
+    @Override
+    public String layout() {
+        return String.format("COLLAPSED(%s, n=%d->%d)", shared.layout(), repByLoc.length, shared.size());
+    }
+
+    /** Ma trận chung bên dưới (vd. để đọc số liệu LAZY). */
+    public CostMatrix shared() {
+        return shared;
+    }
+}
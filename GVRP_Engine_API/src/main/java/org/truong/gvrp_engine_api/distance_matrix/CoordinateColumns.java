@@ -0,0 +1,120 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+import com.graphhopper.jsprit.core.problem.Location;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tọa độ dạng CỘT: {@code lat[i]}, {@code lon[i]} theo index location — thay cho
+ * {@code List<OptCoordinates>} trên đường nóng (K-means, merge, matrix build, provider).
+ * <p>
+ * {@link OptCoordinates} giữ hai BigDecimal mỗi điểm chỉ để mọi consumer đổi ngược lại
+ * bằng {@code latDouble()} / {@code lonDouble()}; với job 50k điểm đó là 100k object và
+ * hàng triệu lần đổi trong vòng lặp K-means. Ở đây chỉ có hai mảng double.
+ * <p>
+ * Đường lạnh vẫn nói {@code OptCoordinates} (khóa cell cache của fetchBlock, snap
+ * one-to-many, LAZY, refine quick plan) thì gọi {@link #asList()}: list chỉ được dựng ở
+ * lần gọi đầu, và job PER_PAIR không bao giờ gọi tới.
+ * <p>
+ * Bất biến: hai mảng KHÔNG được sửa sau khi bọc — được chia sẻ giữa nhiều luồng build.
+ */
+public final class CoordinateColumns {
+
+    private final double[] lat;
+    private final double[] lon;
+    /** Lười, dựng một lần; race vô hại (hai luồng dựng hai list bằng nhau). */
+    private volatile List<OptCoordinates> points;
+
+    public CoordinateColumns(double[] lat, double[] lon) {
+        if (lat.length != lon.length) {
+            throw new IllegalArgumentException(String.format(
+                    "CoordinateColumns: lat.length=%d khác lon.length=%d", lat.length, lon.length));
+        }
+        this.lat = lat;
+        this.lon = lon;
+    }
+
+    private CoordinateColumns(double[] lat, double[] lon, List<OptCoordinates> points) {
+        this(lat, lon);
+        this.points = points;
+    }
+
+    /** Từ list cũ — giữ luôn list đó cho {@link #asList()}, không dựng lại. */
+    public static CoordinateColumns of(List<OptCoordinates> coordinates) {
+        int n = coordinates.size();
+        double[] lat = new double[n];
+        double[] lon = new double[n];
+        for (int i = 0; i < n; i++) {
+            OptCoordinates c = coordinates.get(i);
+            lat[i] = c.latDouble();
+            lon[i] = c.lonDouble();
+        }
+        return new CoordinateColumns(lat, lon, coordinates);
+    }
+
+    /** Theo đúng thứ tự index của allLocations (= hàng/cột ma trận); X = kinh độ, Y = vĩ độ. */
+    public static CoordinateColumns ofLocations(List<Location> locations) {
+        int n = locations.size();
+        double[] lat = new double[n];
+        double[] lon = new double[n];
+        for (int i = 0; i < n; i++) {
+            lat[i] = locations.get(i).getCoordinate().getY();
+            lon[i] = locations.get(i).getCoordinate().getX();
+        }
+        return new CoordinateColumns(lat, lon);
+    }
+
+    public int size() {
+        return lat.length;
+    }
+
+    public double lat(int i) {
+        return lat[i];
+    }
+
+    public double lon(int i) {
+        return lon[i];
+    }
+
+    /** Cột vĩ độ (mảng NỘI BỘ, chỉ đọc). */
+    public double[] lat() {
+        return lat;
+    }
+
+    /** Cột kinh độ (mảng NỘI BỘ, chỉ đọc). */
+    public double[] lon() {
+        return lon;
+    }
+
+    public double haversineMeters(int i, int j) {
+        return GeoDistance.haversineMeters(lat[i], lon[i], lat[j], lon[j]);
+    }
+
+    /** Tập con theo index (index MỚI = vị trí trong {@code idx}). */
+    public CoordinateColumns select(int[] idx) {
+        double[] la = new double[idx.length];
+        double[] lo = new double[idx.length];
+        for (int k = 0; k < idx.length; k++) {
+            la[k] = lat[idx[k]];
+            lo[k] = lon[idx[k]];
+        }
+        return new CoordinateColumns(la, lo);
+    }
+
+    /** Dạng list cho các API còn nói {@link OptCoordinates} — dựng ở lần gọi đầu. */
+    public List<OptCoordinates> asList() {
+        List<OptCoordinates> p = points;
+        if (p == null) {
+            List<OptCoordinates> built = new ArrayList<>(lat.length);
+            for (int i = 0; i < lat.length; i++) {
+                built.add(new OptCoordinates(BigDecimal.valueOf(lat[i]), BigDecimal.valueOf(lon[i])));
+            }
+            p = Collections.unmodifiableList(built);
+            points = p;
+        }
+        return p;
+    }
+}
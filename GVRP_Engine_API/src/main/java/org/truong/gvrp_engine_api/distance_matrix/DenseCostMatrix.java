@@ -1,17 +1,42 @@
 package org.truong.gvrp_engine_api.distance_matrix;
 
+import java.nio.file.Path;
+
 /**
- * Lưu dày 2 × double[n][n] — cách cũ, GIỮ LẠI cho:
+ * Lưu dày n×n — cách cũ, GIỮ LẠI cho:
  * - nhánh Pareto (mask = null, job nhỏ),
  * - test đối chiếu (oracle để chứng minh BlockDiagonalCostMatrix trả cùng giá trị),
  * - job không bật cluster-first (N < CLUSTER_FIRST_ORDER_THRESHOLD).
  * <p>
- * Bộ nhớ O(n²) — xem {@link MatrixMemory#requireDenseFits(int)} để biết trần.
+ * Mỗi hàng là một {@link CellStore} (distance/time xen kẽ, mã hóa theo {@link CellEncoding}).
+ * Chia theo hàng để độ dài mảng không bao giờ vượt int, và để "mỗi hàng một writer"
+ * của nhánh build trùng đúng ranh giới object.
+ * <p>
+ * ĐỌC thì không qua {@link CellStore}: {@code rows[i].distance(j)} là một call site duy nhất
+ * cho mọi ma trận dày trong JVM, gặp đủ 4 lớp heap + 3 lớp ngoài heap → megamorphic, JIT
+ * không inline được lời gọi nằm trong vòng lặp nóng nhất của Jsprit. Ma trận heap giữ thêm
+ * VIEW PHẲNG — chính các mảng primitive của hàng, không sao chép — và đọc bằng switch trên
+ * {@link #view} (field final, mỗi ma trận một nhánh cố định). Chỉ ma trận ngoài heap còn đọc
+ * qua {@link CellStore}: call site đó chỉ thấy lớp slice của một encoding.
+ * <p>
+ * Bộ nhớ O(n²) — xem {@link MatrixMemory#requireDenseFits(int, CellEncoding)} để biết trần
+ * heap. Với {@link MatrixStorage#MAPPED}/{@link MatrixStorage#DIRECT} các hàng là lát cắt của
+ * một vùng {@link OffHeapCells}, chặn bởi {@link MatrixMemory#requireOffHeapFits} theo RAM vật
+ * lý thay vì -Xmx (nhánh Pareto luôn dày).
  */
 public final class DenseCostMatrix implements CostMatrix {
 
-    private final double[][] distanceMeters;
-    private final double[][] timeSeconds;
+    /** Cách đọc ô, chốt lúc dựng. SPLIT = hai mảng distance/time của constructor bọc. */
+    private enum View {SPLIT, DOUBLES, FLOATS, INTS, OFF_HEAP}
+
+    private final CellStore[] rows;       // ghi; và đọc khi OFF_HEAP
+    private final View view;
+    private final double[][] doubles;     // DOUBLES: xen kẽ; SPLIT: distance
+    private final double[][] splitTimes;  // SPLIT
+    private final float[][] floats;       // FLOATS
+    private final int[][] ints;           // INTS
+    private final CellEncoding encoding;
+    private final MatrixStorage storage;
 
     public DenseCostMatrix(double[][] distanceMeters, double[][] timeSeconds) {
         int n = distanceMeters.length;
@@ -28,43 +53,136 @@ public final class DenseCostMatrix implements CostMatrix {
                         i, distanceMeters[i].length, timeSeconds[i].length, n));
             }
         }
-        this.distanceMeters = distanceMeters;
-        this.timeSeconds = timeSeconds;
+        // Bọc, KHÔNG sao chép — người gọi cũ vẫn sở hữu hai mảng của họ.
+        this.rows = new CellStore[n];
+        for (int i = 0; i < n; i++) {
+            rows[i] = new CellStore.SplitDoubles(distanceMeters[i], timeSeconds[i]);
+        }
+        this.view = View.SPLIT;
+        this.doubles = distanceMeters;
+        this.splitTimes = timeSeconds;
+        this.floats = null;
+        this.ints = null;
+        this.encoding = CellEncoding.DOUBLE64;
+        this.storage = MatrixStorage.HEAP;
+    }
+
+    private DenseCostMatrix(CellStore[] rows, CellEncoding encoding, MatrixStorage storage) {
+        int n = rows.length;
+        this.rows = rows;
+        this.encoding = encoding;
+        this.storage = storage;
+        this.splitTimes = null;
+        if (storage.offHeap()) {
+            this.view = View.OFF_HEAP;
+            this.doubles = null;
+            this.floats = null;
+            this.ints = null;
+            return;
+        }
+        switch (encoding) {
+            case DOUBLE64 -> {
+                this.view = View.DOUBLES;
+                this.doubles = new double[n][];
+                for (int i = 0; i < n; i++) doubles[i] = ((CellStore.Doubles) rows[i]).array();
+                this.floats = null;
+                this.ints = null;
+            }
+            case FLOAT32 -> {
+                this.view = View.FLOATS;
+                this.floats = new float[n][];
+                for (int i = 0; i < n; i++) floats[i] = ((CellStore.Floats) rows[i]).array();
+                this.doubles = null;
+                this.ints = null;
+            }
+            case INT32 -> {
+                this.view = View.INTS;
+                this.ints = new int[n][];
+                for (int i = 0; i < n; i++) ints[i] = ((CellStore.Ints) rows[i]).array();
+                this.doubles = null;
+                this.floats = null;
+            }
+            default -> throw new IllegalArgumentException("Encoding không hỗ trợ: " + encoding);
+        }
     }
 
     /** Cấp phát mới, có guard bộ nhớ fail-loud. */
     public static DenseCostMatrix allocate(int n) {
-        MatrixMemory.requireDenseFits(n);
-        return new DenseCostMatrix(new double[n][n], new double[n][n]);
+        return allocate(n, CellEncoding.DOUBLE64);
+    }
+
+    public static DenseCostMatrix allocate(int n, CellEncoding encoding) {
+        return allocate(n, encoding, MatrixStorage.HEAP, null);
+    }
+
+    /**
+     * @param storage  {@link MatrixStorage#AUTO} được chốt theo {@link MatrixMemory#denseBytes}
+     * @param spillDir thư mục file tạm cho {@link MatrixStorage#MAPPED}
+     */
+    public static DenseCostMatrix allocate(int n, CellEncoding encoding, MatrixStorage storage, Path spillDir) {
+        long bytes = MatrixMemory.denseBytes(n, encoding);
+        MatrixStorage resolved = storage.resolve(bytes, Runtime.getRuntime().maxMemory());
+        CellStore[] rows = new CellStore[n];
+        if (resolved.offHeap()) {
+            OffHeapCells cells = OffHeapCells.allocate(bytes, encoding, resolved, spillDir);
+            for (int i = 0; i < n; i++) {
+                rows[i] = cells.slice(n);
+            }
+        } else {
+            MatrixMemory.requireDenseFits(n, encoding);
+            for (int i = 0; i < n; i++) {
+                rows[i] = encoding.allocate(n);
+            }
+        }
+        return new DenseCostMatrix(rows, encoding, resolved);
     }
 
     public void put(int i, int j, double distance, double time) {
-        distanceMeters[i][j] = distance;
-        timeSeconds[i][j] = time;
+        rows[i].put(j, distance, time);
     }
 
     @Override
     public double distanceMeters(int i, int j) {
-        return distanceMeters[i][j];
+        return switch (view) {
+            case DOUBLES -> doubles[i][2 * j];
+            case FLOATS -> floats[i][2 * j];
+            case INTS -> CellStore.Ints.decode(ints[i][2 * j], MatrixMask.PRUNED_METERS);
+            case SPLIT -> doubles[i][j];
+            case OFF_HEAP -> rows[i].distance(j);
+        };
     }
 
     @Override
     public double timeSeconds(int i, int j) {
-        return timeSeconds[i][j];
+        return switch (view) {
+            case DOUBLES -> doubles[i][2 * j + 1];
+            case FLOATS -> floats[i][2 * j + 1];
+            case INTS -> CellStore.Ints.decode(ints[i][2 * j + 1], MatrixMask.PRUNED_SECONDS);
+            case SPLIT -> splitTimes[i][j];
+            case OFF_HEAP -> rows[i].time(j);
+        };
     }
 
     @Override
     public int size() {
-        return distanceMeters.length;
+        return rows.length;
     }
 
     @Override
     public long allocatedBytes() {
-        return MatrixMemory.denseBytes(size());
+        return MatrixMemory.denseBytes(size(), encoding);
     }
 
     @Override
     public String layout() {
-        return "DENSE";
+        return "DENSE" + MatrixMemory.layoutQualifiers("", encoding, storage);
+    }
+
+    public CellEncoding encoding() {
+        return encoding;
+    }
+
+    public MatrixStorage storage() {
+        return storage;
     }
 }
@@ -0,0 +1,358 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Kho ô (from → to) bền vững, ánh xạ bộ nhớ (memory-mapped), dùng chung giữa các job.
+ *
+ * <p>Các chi nhánh lập kế hoạch lại gần như cùng một tập địa chỉ mỗi ngày, nhưng mỗi job
+ * lại hỏi GraphHopper toàn bộ cặp từ đầu (~76-91 ms/location). Lớp này giữ kết quả
+ * từng ô trên đĩa để job sau chỉ còn là đọc bộ nhớ, và sống sót qua restart vì nằm trong
+ * file chứ không phải HashMap trên heap.
+ *
+ * <p><b>Khóa</b> là cặp tọa độ đã lượng tử hóa về lưới 1e-5° (~1.1 m): hai đơn giao
+ * cùng một cửa hàng nhưng khác chữ số thập phân thứ 7 vẫn trúng cùng ô, trong khi
+ * GraphHopper snap hai điểm cách nhau 1 m về cùng một cạnh đường nên sai số là 0.
+ *
+ * <p><b>Bố cục file</b> — set-associative, mỗi bucket {@value #WAYS} slot cố định:
+ * <pre>
+ *   header (64 B): magic | version | slotBytes | bucketCount | namespaceHash | clock (long)
+ *   bucket[b]    : slot × WAYS, slot = fromLat fromLon toLat toLon (int×4)
+ *                                     | distance (float, m) | time (int, ms) | stamp (long)
+ * </pre>
+ * Dung lượng cố định theo cấu hình nên file KHÔNG bao giờ phình; khi bucket đầy thì
+ * đè slot có stamp nhỏ nhất (LRU xấp xỉ trong bucket). Stamp là long vì đồng hồ được lưu
+ * qua restart: đồng hồ int tràn sau 2^32 lượt đọc/ghi — stamp quay vòng làm LRU đè ô MỚI
+ * nhất, và chạm 0 thì trùng dấu "slot trống". Bảng băm mở (open addressing)
+ * toàn cục sẽ khít hơn nhưng phải rehash khi đầy — không làm được trên file đang map.
+ *
+ * <p><b>Không cache lỗi</b>: chỉ {@link #put} giá trị provider trả về thành công. Ô lỗi
+ * (sentinel) mà lưu lại sẽ biến một lần mất kết nối thành route rác vĩnh viễn.
+ *
+ * <p><b>Đổi bản đồ / profile</b>: header mang hash của {@code namespace} (file OSM +
+ * custom model). Lệch hash thì xóa trắng file khi mở — số liệu của map cũ sai lặng lẽ,
+ * nguy hiểm hơn nhiều so với một lần build nguội.
+ */
+@Slf4j
+public final class DistanceCellCache implements AutoCloseable {
+
+    static final long MAGIC = 0x4756_5250_4345_4C4CL; // "GVRPCELL"
+    static final int VERSION = 2; // v1: stamp/đồng hồ int — mở file v1 thì xóa trắng
+    static final int HEADER_BYTES = 64;
+    static final int SLOT_BYTES = 32;
+    static final int WAYS = 8;
+    static final int BUCKET_BYTES = SLOT_BYTES * WAYS;
+
+    /** Một MappedByteBuffer chỉ đánh chỉ số được bằng int → trần 1 GiB cho gọn và an toàn. */
+    static final long MAX_BYTES = 1L << 30;
+
+    /** Lưới lượng tử hóa: 1e-5° ≈ 1.1 m ở xích đạo. */
+    static final double QUANTUM = 1e5;
+
+    private static final int LOCK_STRIPES = 1024;
+
+    // Offset trong header
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 8;
+    private static final int H_SLOT = 12;
+    private static final int H_BUCKETS = 16;
+    private static final int H_NAMESPACE = 24;
+    static final int H_CLOCK = 32;
+
+    // Offset trong slot
+    private static final int S_FROM_LAT = 0;
+    private static final int S_FROM_LON = 4;
+    private static final int S_TO_LAT = 8;
+    private static final int S_TO_LON = 12;
+    private static final int S_DIST = 16;
+    private static final int S_TIME = 20;
+    private static final int S_STAMP = 24;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int bucketCount;
+
+    /**
+     * Khóa phân dải theo bucket. Đọc cũng phải khóa vì hit cập nhật stamp, và một slot
+     * đang bị đè dở (key mới, value cũ) tuyệt đối không được trả ra ngoài.
+     */
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    /** Đồng hồ logic cho LRU. Bắt đầu từ 1 — stamp 0 nghĩa là slot trống. */
+    private final AtomicLong clock;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /** Ảnh chụp bộ đếm — lấy hiệu hai ảnh để ra số liệu của một lần build. */
+    public record Stats(long hits, long misses, long evictions) {
+        public Stats minus(Stats before) {
+            return new Stats(hits - before.hits, misses - before.misses, evictions - before.evictions);
+        }
+
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0.0 : (double) hits / total;
+        }
+    }
+
+    private DistanceCellCache(Path file, FileChannel channel, MappedByteBuffer buffer,
+                              int bucketCount, long clockStart) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.bucketCount = bucketCount;
+        this.clock = new AtomicLong(Math.max(1, clockStart));
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Mở (hoặc tạo) file cache với dung lượng cố định {@code maxBytes}.
+     *
+     * <p>File mới được cấp phát thưa (sparse) nên {@code maxBytes} lớn không tốn đĩa ngay.
+     * Header lệch (magic/version/kích thước/namespace) → xóa trắng, không cố "cứu".
+     */
+    public static DistanceCellCache open(Path file, long maxBytes, String namespace) {
+        long capped = Math.min(maxBytes, MAX_BYTES);
+        if (capped < maxBytes) {
+            log.warn("[CellCache] max-bytes={} vượt trần 1 GiB của một vùng map — hạ xuống {}",
+                    MatrixMemory.humanBytes(maxBytes), MatrixMemory.humanBytes(capped));
+        }
+        long buckets = (capped - HEADER_BYTES) / BUCKET_BYTES;
+        if (buckets < 1) {
+            throw new IllegalStateException(String.format(
+                    "Cell cache quá nhỏ: %d bytes, cần ít nhất %d bytes (header + 1 bucket)",
+                    maxBytes, HEADER_BYTES + BUCKET_BYTES));
+        }
+        int bucketCount = (int) buckets;
+        long fileBytes = HEADER_BYTES + (long) bucketCount * BUCKET_BYTES;
+        long nsHash = namespaceHash(namespace);
+
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            FileChannel ch = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            boolean compatible = ch.size() == fileBytes;
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, fileBytes);
+
+            compatible = compatible
+                    && buf.getLong(H_MAGIC) == MAGIC
+                    && buf.getInt(H_VERSION) == VERSION
+                    && buf.getInt(H_SLOT) == SLOT_BYTES
+                    && buf.getLong(H_BUCKETS) == bucketCount
+                    && buf.getLong(H_NAMESPACE) == nsHash;
+
+            long clockStart = 1;
+            if (compatible) {
+                clockStart = buf.getLong(H_CLOCK);
+                log.info("[CellCache] Mở lại {} | {} bucket × {} slot | {} | namespace khớp",
+                        file.toAbsolutePath(), bucketCount, WAYS, MatrixMemory.humanBytes(fileBytes));
+            } else {
+                // Không map lại được vùng cũ với kích thước khác → truncate rồi map mới.
+                ch.truncate(0);
+                buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, fileBytes);
+                buf.putLong(H_MAGIC, MAGIC);
+                buf.putInt(H_VERSION, VERSION);
+                buf.putInt(H_SLOT, SLOT_BYTES);
+                buf.putLong(H_BUCKETS, bucketCount);
+                buf.putLong(H_NAMESPACE, nsHash);
+                buf.putLong(H_CLOCK, 1);
+                log.info("[CellCache] Tạo mới {} | {} bucket × {} slot | {} | namespace='{}'",
+                        file.toAbsolutePath(), bucketCount, WAYS, MatrixMemory.humanBytes(fileBytes),
+                        namespace);
+            }
+            return new DistanceCellCache(file, ch, buf, bucketCount, clockStart);
+        } catch (IOException e) {
+            throw new IllegalStateException("Không mở được cell cache " + file.toAbsolutePath(), e);
+        }
+    }
+
+    /** @return ô đã lưu, hoặc {@code null} nếu chưa có. */
+    public DistanceMatrixEntry get(OptCoordinates from, OptCoordinates to) {
+        int fLat = quantize(from.latDouble());
+        int fLon = quantize(from.lonDouble());
+        int tLat = quantize(to.latDouble());
+        int tLon = quantize(to.lonDouble());
+        int bucket = bucketOf(fLat, fLon, tLat, tLon);
+        int base = HEADER_BYTES + bucket * BUCKET_BYTES;
+
+        synchronized (lockFor(bucket)) {
+            for (int w = 0; w < WAYS; w++) {
+                int slot = base + w * SLOT_BYTES;
+                if (buffer.getLong(slot + S_STAMP) != 0 && matches(slot, fLat, fLon, tLat, tLon)) {
+                    buffer.putLong(slot + S_STAMP, clock.getAndIncrement());
+                    hits.increment();
+                    return new DistanceMatrixEntry(
+                            Duration.ofMillis(Integer.toUnsignedLong(buffer.getInt(slot + S_TIME))),
+                            Distance.ofMeters(buffer.getFloat(slot + S_DIST)));
+                }
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Như {@link #get} nhưng ghi thẳng vào {@code meters[k]} / {@code seconds[k]} — không tạo
+     * object nào (đường nóng {@link CachingDistanceProvider#fetchRow}). Giá trị trùng khít
+     * {@code get(...).distanceMeters()} / {@code timeSeconds()}.
+     *
+     * @return true nếu trúng; miss thì không đụng tới hai mảng
+     */
+    public boolean get(double fromLat, double fromLon, double toLat, double toLon,
+                       double[] meters, double[] seconds, int k) {
+        int fLat = quantize(fromLat);
+        int fLon = quantize(fromLon);
+        int tLat = quantize(toLat);
+        int tLon = quantize(toLon);
+        int bucket = bucketOf(fLat, fLon, tLat, tLon);
+        int base = HEADER_BYTES + bucket * BUCKET_BYTES;
+
+        synchronized (lockFor(bucket)) {
+            for (int w = 0; w < WAYS; w++) {
+                int slot = base + w * SLOT_BYTES;
+                if (buffer.getLong(slot + S_STAMP) != 0 && matches(slot, fLat, fLon, tLat, tLon)) {
+                    buffer.putLong(slot + S_STAMP, clock.getAndIncrement());
+                    hits.increment();
+                    meters[k] = buffer.getFloat(slot + S_DIST);
+                    // cắt về giây nguyên như Duration.getSeconds() của get(...)
+                    seconds[k] = Integer.toUnsignedLong(buffer.getInt(slot + S_TIME)) / 1000;
+                    return true;
+                }
+            }
+        }
+        misses.increment();
+        return false;
+    }
+
+    /** Ghi (hoặc cập nhật) một ô. Bucket đầy → đè slot có stamp nhỏ nhất. */
+    public void put(OptCoordinates from, OptCoordinates to, DistanceMatrixEntry entry) {
+        put(from.latDouble(), from.lonDouble(), to.latDouble(), to.lonDouble(),
+                entry.distanceMeters(), entry.time().toMillis());
+    }
+
+    /** Bản primitive của {@link #put(OptCoordinates, OptCoordinates, DistanceMatrixEntry)}. */
+    public void put(double fromLat, double fromLon, double toLat, double toLon, double meters, long millis) {
+        int fLat = quantize(fromLat);
+        int fLon = quantize(fromLon);
+        int tLat = quantize(toLat);
+        int tLon = quantize(toLon);
+        int bucket = bucketOf(fLat, fLon, tLat, tLon);
+        int base = HEADER_BYTES + bucket * BUCKET_BYTES;
+
+        // int không dấu chứa được ~49 ngày — thừa cho mọi tuyến nội địa.
+        int timeMs = (int) Math.min(millis, 0xFFFF_FFFFL);
+
+        synchronized (lockFor(bucket)) {
+            int victim = base;
+            long oldest = Long.MAX_VALUE;
+            boolean evict = true;
+            for (int w = 0; w < WAYS; w++) {
+                int slot = base + w * SLOT_BYTES;
+                long stamp = buffer.getLong(slot + S_STAMP);
+                if (stamp == 0 || matches(slot, fLat, fLon, tLat, tLon)) {
+                    victim = slot;
+                    evict = false;
+                    break;
+                }
+                if (stamp < oldest) {
+                    oldest = stamp;
+                    victim = slot;
+                }
+            }
+            if (evict) {
+                evictions.increment();
+            }
+            buffer.putInt(victim + S_FROM_LAT, fLat);
+            buffer.putInt(victim + S_FROM_LON, fLon);
+            buffer.putInt(victim + S_TO_LAT, tLat);
+            buffer.putInt(victim + S_TO_LON, tLon);
+            buffer.putFloat(victim + S_DIST, (float) meters);
+            buffer.putInt(victim + S_TIME, timeMs);
+            buffer.putLong(victim + S_STAMP, clock.getAndIncrement());
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    public long capacityCells() {
+        return (long) bucketCount * WAYS;
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    /**
+     * Ghi đồng hồ LRU vào header rồi force xuống đĩa. Nếu process chết trước khi close,
+     * các ô đã ghi vẫn còn (page cache của OS), chỉ có đồng hồ lùi — LRU lệch nhẹ, không sai số liệu.
+     */
+    @Override
+    public void close() {
+        try {
+            buffer.putLong(H_CLOCK, clock.get());
+            buffer.force();
+            channel.close();
+            log.info("[CellCache] Đã đóng {} | {}", file.toAbsolutePath(), stats());
+        } catch (IOException e) {
+            log.warn("[CellCache] Đóng cache lỗi: {}", e.getMessage());
+        }
+    }
+
+    // ==================== NỘI BỘ ====================
+
+    static int quantize(double degrees) {
+        return (int) Math.round(degrees * QUANTUM);
+    }
+
+    private boolean matches(int slot, int fLat, int fLon, int tLat, int tLon) {
+        return buffer.getInt(slot + S_FROM_LAT) == fLat
+                && buffer.getInt(slot + S_FROM_LON) == fLon
+                && buffer.getInt(slot + S_TO_LAT) == tLat
+                && buffer.getInt(slot + S_TO_LON) == tLon;
+    }
+
+    private int bucketOf(int fLat, int fLon, int tLat, int tLon) {
+        long h = mix(((long) fLat << 32) ^ (fLon & 0xFFFF_FFFFL));
+        h = mix(h ^ (((long) tLat << 32) ^ (tLon & 0xFFFF_FFFFL)));
+        return (int) Long.remainderUnsigned(h, bucketCount);
+    }
+
+    private Object lockFor(int bucket) {
+        return locks[bucket & (LOCK_STRIPES - 1)];
+    }
+
+    /** SplitMix64 finalizer — toạ độ liền kề phải rơi vào bucket xa nhau. */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58_476D_1CE4_E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D0_49BB_1331_11EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static long namespaceHash(String namespace) {
+        long h = 0x9E37_79B9_7F4A_7C15L;
+        for (byte b : namespace.getBytes(StandardCharsets.UTF_8)) {
+            h = mix(h ^ b);
+        }
+        return h;
+    }
+}
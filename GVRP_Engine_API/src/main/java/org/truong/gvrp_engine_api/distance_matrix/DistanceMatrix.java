@@ -1,7 +1,6 @@
 package org.truong.gvrp_engine_api.distance_matrix;
 
 import java.time.Duration;
-import java.util.List;
 
 /**
  * Ma trận khoảng cách/thời gian. Việc LƯU TRỮ được uỷ cho {@link CostMatrix}:
@@ -14,7 +13,7 @@ import java.util.List;
  * chặn được cạnh xuyên cụm thay vì coi nó là cạnh miễn phí.
  */
 public record DistanceMatrix(
-        List<OptCoordinates> coordinates,
+        CoordinateColumns coordinates,
         CostMatrix costs
 ) {
     /** Khoảng cách (m) từ i -> j. */
@@ -5,207 +5,1040 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.truong.gvrp_engine_api.distance_matrix.Impl.ApproximateDistanceProvider;
+import org.truong.gvrp_engine_api.distance_matrix.Impl.BatchGraphHopperMatrixProvider;
 import org.truong.gvrp_engine_api.job.JobCancelledException;
+import org.truong.gvrp_engine_api.model.OptimizationContext;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BooleanSupplier;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntFunction;
 import java.util.stream.IntStream;
 
 @Slf4j
 @Service
 public class DistanceMatrixService {
 
+    /** Provider thực sự được gọi — đã bọc {@link CachingDistanceProvider} nếu bật cell cache. */
     private final DistanceProvider primaryProvider;
 
+    /** null nếu tắt cell cache ({@code gvrp.matrix.cell-cache.enabled=false}). */
+    private final DistanceCellCache cellCache;
+
     /**
      * Pool RIÊNG cho matrix build — KHÔNG dùng common ForkJoinPool để tránh
      * giành luồng với request threads / CompletableFuture async của toàn app.
      */
     private final ForkJoinPool matrixPool;
 
+    /**
+     * Cận weight của cây one-to-many theo khoảng cách chim bay tới target xa nhất của hàng.
+     * Weight của custom model ≈ giây; 1.5 s/m chim bay = đường vòng ×3 ở ~7 km/h — rộng
+     * hơn mọi tuyến nội đô thực tế. Đây chỉ là chốt chặn để cây không nở ra cả nước khi
+     * target nằm ở subnetwork khác; ô vượt cận vẫn được tính lại bằng per-pair.
+     */
+    static final double ONE_TO_MANY_SECONDS_PER_CROW_METER = 1.5;
+    static final double ONE_TO_MANY_LIMIT_SLACK_SECONDS = 600;
+
+    private final MatrixBuildMode buildMode;
+    private final BatchGraphHopperMatrixProvider batchProvider;
+    private final CellEncoding cellEncoding;
+    private final MatrixStorage storage;
+    private final Path offHeapDir;
+    private final int knnK;
+    private final int knnMinLocations;
+    private final int knnCandidateFactor;
+    private final ApproximateDistanceProvider approximateProvider;
+    private final boolean wideBandGraphSearch;
+    private final boolean feasibilityPrune;
+    private final double pruneMaxSpeedKmh;
+    private final boolean collapseEnabled;
+    private final double collapseToleranceMeters;
+
+    /** Cùng chữ ký put(i, j, d, t) của Dense/Block — để hai nhánh dùng chung {@link #fillRow}. */
+    @FunctionalInterface
+    private interface CellWriter {
+        void put(int i, int j, double meters, double seconds);
+    }
+
     public DistanceMatrixService(
             @Qualifier(value = "graphHoperDistanceProvider") DistanceProvider primaryProvider,
-            @Value("${gvrp.matrix.parallelism:0}") int configuredParallelism) {
-        this.primaryProvider = primaryProvider;
+            BatchGraphHopperMatrixProvider batchProvider,
+            @Value("${gvrp.matrix.build-mode:PER_PAIR}") MatrixBuildMode buildMode,
+            @Value("${gvrp.matrix.parallelism:0}") int configuredParallelism,
+            @Value("${gvrp.matrix.cell-encoding:DOUBLE64}") CellEncoding cellEncoding,
+            @Value("${gvrp.matrix.storage:AUTO}") MatrixStorage storage,
+            @Value("${gvrp.matrix.off-heap.dir:${java.io.tmpdir}}") String offHeapDir,
+            @Value("${gvrp.matrix.knn.k:0}") int knnK,
+            @Value("${gvrp.matrix.knn.min-locations:2000}") int knnMinLocations,
+            @Value("${gvrp.matrix.knn.candidate-factor:2}") int knnCandidateFactor,
+            @Value("${gvrp.matrix.approx.circuity-factor:1.4}") double approxCircuityFactor,
+            @Value("${gvrp.matrix.approx.speed-kmh:25}") double approxSpeedKmh,
+            @Value("${gvrp.matrix.wide-band.graph-search:false}") boolean wideBandGraphSearch,
+            @Value("${gvrp.matrix.prune.feasibility.enabled:true}") boolean feasibilityPrune,
+            @Value("${gvrp.matrix.prune.max-speed-kmh:50}") double pruneMaxSpeedKmh,
+            @Value("${gvrp.matrix.collapse.enabled:true}") boolean collapseEnabled,
+            @Value("${gvrp.matrix.collapse.tolerance-meters:5}") double collapseToleranceMeters,
+            @Value("${gvrp.matrix.cell-cache.enabled:true}") boolean cellCacheEnabled,
+            @Value("${gvrp.matrix.cell-cache.file:./.cache/distance-cells.bin}") String cellCacheFile,
+            @Value("${gvrp.matrix.cell-cache.max-mb:512}") long cellCacheMaxMb) {
+        // Cache nằm TRƯỚC provider: job lặp lại trên cùng tập địa chỉ chỉ còn đọc mmap,
+        // thay vì hàng phút query CH. Mở lỗi (đĩa đầy, quyền) thì chạy không cache chứ
+        // không chặn engine khởi động — cache là tăng tốc, không phải tính đúng.
+        DistanceCellCache cache = null;
+        if (cellCacheEnabled) {
+            try {
+                cache = DistanceCellCache.open(Paths.get(cellCacheFile), cellCacheMaxMb * 1024 * 1024,
+                        primaryProvider.cacheNamespace());
+            } catch (Exception e) {
+                log.warn("[Matrix] Không mở được cell cache {} — chạy không cache: {}",
+                        cellCacheFile, e.getMessage());
+            }
+        }
+        this.cellCache = cache;
+        this.primaryProvider = cache != null
+                ? new CachingDistanceProvider(primaryProvider, cache)
+                : primaryProvider;
         // 0 = tự chọn (số core - 1); đặt >0 trong config để ghim cho benchmark.
         int parallelism = configuredParallelism > 0
                 ? configuredParallelism
                 : Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
         this.matrixPool = new ForkJoinPool(parallelism);
-        log.info("[Matrix] Khởi tạo pool riêng cho matrix build: parallelism={}", parallelism);
+        this.buildMode = buildMode;
+        this.batchProvider = batchProvider;
+        this.cellEncoding = cellEncoding;
+        this.storage = storage;
+        this.offHeapDir = Paths.get(offHeapDir);
+        this.knnK = knnK;
+        this.knnMinLocations = knnMinLocations;
+        if (knnCandidateFactor < 1) {
+            throw new IllegalStateException(
+                    "gvrp.matrix.knn.candidate-factor phải >= 1, got " + knnCandidateFactor);
+        }
+        this.knnCandidateFactor = knnCandidateFactor;
+        this.approximateProvider = new ApproximateDistanceProvider(approxCircuityFactor, approxSpeedKmh);
+        this.wideBandGraphSearch = wideBandGraphSearch;
+        if (feasibilityPrune && pruneMaxSpeedKmh < approxSpeedKmh) {
+            // Cận dưới chậm hơn cả ma trận xấp xỉ: quick plan sẽ có cạnh nhanh hơn "cận dưới"
+            throw new IllegalStateException(String.format(
+                    "gvrp.matrix.prune.max-speed-kmh=%.1f < approx.speed-kmh=%.1f — cận dưới thời gian chạy "
+                            + "sai, prune sẽ cắt cả cặp khả thi", pruneMaxSpeedKmh, approxSpeedKmh));
+        }
+        this.feasibilityPrune = feasibilityPrune;
+        this.pruneMaxSpeedKmh = pruneMaxSpeedKmh;
+        if (collapseEnabled && collapseToleranceMeters > CoLocatedCollapse.MAX_TOLERANCE_METERS) {
+            throw new IllegalStateException(String.format(
+                    "gvrp.matrix.collapse.tolerance-meters=%.1f vượt trần %.0f m — order cách nhau cả chục mét "
+                            + "sẽ bị coi là cùng chỗ (0 m trên route)",
+                    collapseToleranceMeters, CoLocatedCollapse.MAX_TOLERANCE_METERS));
+        }
+        this.collapseEnabled = collapseEnabled;
+        this.collapseToleranceMeters = collapseToleranceMeters;
+        log.info("[Matrix] Khởi tạo pool riêng cho matrix build: parallelism={} mode={} encoding={} storage={}",
+                parallelism, buildMode, cellEncoding, storage);
     }
 
     @PreDestroy
     void shutdownPool() {
         matrixPool.shutdown();
         log.info("[Matrix] Đã shutdown pool riêng của matrix build");
+        if (cellCache != null) {
+            cellCache.close();
+        }
+    }
+
+    /**
+     * Gắn prune cửa sổ thời gian / ca làm ({@link PairFeasibility}) lên mask của job, nếu
+     * bật {@code gvrp.matrix.prune.feasibility.enabled}. Mask null giữ nguyên (lời gọi cũ).
+     */
+    public MatrixMask withFeasibility(MatrixMask mask, OptimizationContext context) {
+        if (!feasibilityPrune || mask == null) {
+            return mask;
+        }
+        return mask.withFeasibility(PairFeasibility.fromContext(context, pruneMaxSpeedKmh));
     }
 
     /** Overload giữ tương thích (không hỗ trợ hủy) — dùng cho test / lời gọi cũ. */
     public DistanceMatrix createDistanceMatrix(List<OptCoordinates> coordinates, MatrixMask mask) {
-        return createDistanceMatrix(coordinates, mask, () -> false);
+        return createDistanceMatrix(CoordinateColumns.of(coordinates), mask, () -> false);
+    }
+
+    /** Overload giữ tương thích cho lời gọi còn dùng {@code List<OptCoordinates>}. */
+    public DistanceMatrix createDistanceMatrix(List<OptCoordinates> coordinates, MatrixMask mask,
+                                               BooleanSupplier cancelled) {
+        return createDistanceMatrix(CoordinateColumns.of(coordinates), mask, cancelled);
     }
 
     /**
      * Dựng ma trận khoảng cách/thời gian.
      * <p>
-     * HAI NHÁNH LƯU TRỮ:
+     * BA NHÁNH LƯU TRỮ:
      * <ul>
      *   <li><b>BLOCK</b> (mask có cụm): chỉ cấp phát và chỉ duyệt những ô mà
      *       {@link MatrixMask#needed} trả true. Bộ nhớ O(N·S), vòng lặp O(N·S).</li>
+     *   <li><b>K_NEAREST</b> (mask đầy, bật {@code gvrp.matrix.knn.k} và n đủ lớn): mask
+     *       được đổi sang kNN, lưu bằng {@link KNearestCostMatrix}. Bộ nhớ O(n·k).</li>
      *   <li><b>DÀY</b> (mask null/đầy): 2 × double[n][n], có guard fail-loud.
      *       Bộ nhớ O(n²) — n = 50 010 cần 37 GiB, không khả thi trên máy local.</li>
      * </ul>
      * Bản cũ luôn cấp phát dày rồi ghi sentinel vào 99.66% ô: prune giảm số lần gọi
      * GraphHopper nhưng KHÔNG giảm một byte nào, và vòng lặp vẫn chạy đủ n² vòng.
      *
+     * <p>
+     * Trước cả ba nhánh, order trùng / sát vị trí được gộp ({@link CoLocatedCollapse}): ma
+     * trận dựng trên các điểm gộp rồi được nhìn lại theo index gốc — kết quả vẫn n × n.
+     *
      * @param cancelled cờ hủy hợp tác — kiểm ở đầu mỗi hàng; nếu bật thì ném
      *                  JobCancelledException để thoát sớm (cho phép cancel job
      *                  ngay trong lúc dựng ma trận, vốn có thể mất nhiều phút).
      */
-    public DistanceMatrix createDistanceMatrix(List<OptCoordinates> coordinates, MatrixMask mask,
+    public DistanceMatrix createDistanceMatrix(CoordinateColumns coordinates, MatrixMask mask,
                                                BooleanSupplier cancelled) {
+        CoLocatedCollapse collapse = collapseIfEnabled(coordinates, mask);
+        if (collapse == null) {
+            return build(coordinates, mask, cancelled);
+        }
+        DistanceMatrix shared = build(collapse.coordinates(coordinates), collapse.mask(mask), cancelled);
+        return new DistanceMatrix(coordinates, collapse.expand(shared.costs()));
+    }
+
+    /**
+     * Gộp order cùng vị trí nếu bật {@code gvrp.matrix.collapse.enabled} và có gì để gộp;
+     * null = dựng thẳng trên tọa độ gốc.
+     */
+    private CoLocatedCollapse collapseIfEnabled(CoordinateColumns coordinates, MatrixMask mask) {
+        if (!collapseEnabled) {
+            return null;
+        }
+        long t0 = System.nanoTime();
+        CoLocatedCollapse collapse = CoLocatedCollapse.of(coordinates, mask, collapseToleranceMeters);
+        if (!collapse.reduces()) {
+            return null;
+        }
+        log.info("[Matrix] Gộp order cùng vị trí: {} trong {} ms",
+                collapse.summary(), (System.nanoTime() - t0) / 1_000_000);
+        return collapse;
+    }
+
+    private DistanceMatrix build(CoordinateColumns coordinates, MatrixMask mask, BooleanSupplier cancelled) {
         int n = coordinates.size();
+        PairFeasibility.Tally tally = new PairFeasibility.Tally();
+        mask = nearestIfEligible(coordinates, mask, tally, cancelled);
+        if (buildMode == MatrixBuildMode.LAZY) {
+            LazyCostMatrix lazy = new LazyCostMatrix(coordinates.asList(), mask, primaryProvider);
+            log.info("[Matrix] Bố cục LAZY {}x{} | mask {} ô, chưa tính ô nào — tính khi solver đọc{}",
+                    n, n, lazy.maskCells(),
+                    mask != null && mask.feasibility() != null ? " | prune khả thi áp lúc đọc" : "");
+            return new DistanceMatrix(coordinates, lazy);
+        }
         boolean blockLayout = mask != null && !mask.isFull() && mask.clusterByLoc() != null;
+        BatchGraphHopperMatrixProvider.Session session = openOneToMany(coordinates);
+
+        DistanceMatrix result;
+        if (mask != null && mask.isNearest()) {
+            // Hàng láng giềng đã được lọc khi dựng mask kNN — ô bị prune không có chỗ lưu
+            result = buildNearest(coordinates, mask, cancelled, n, session, tally);
+        } else {
+            PairFeasibility feasibility = mask != null ? mask.feasibility() : null;
+            result = blockLayout
+                    ? buildBlock(coordinates, mask, cancelled, n, session, feasibility, tally)
+                    : buildDense(coordinates, cancelled, n, session, feasibility, tally);
+        }
+        if (mask != null && mask.feasibility() != null) {
+            log.info("[Matrix] Prune khả thi: {} — các ô này KHÔNG gọi GraphHopper, đọc ra sentinel",
+                    tally.summary());
+        }
+        return result;
+    }
+
+    /**
+     * Mask đầy → kNN khi được bật và job đủ lớn để O(n²) đáng lo. Job nhỏ giữ dày: ma
+     * trận vài chục MB không đáng để bớt lựa chọn cạnh của solver. Mask không có nhãn
+     * depot (lời gọi cũ truyền null) thì giữ nguyên — đoán sai depot là order bất khả đạt.
+     * <p>
+     * {@code cancelled} != null: láng giềng chốt theo ĐƯỜNG BỘ — route
+     * {@code candidate-factor}·k ứng viên chim bay qua provider thật (có cell cache) rồi giữ
+     * k gần nhất. null (quick plan): chỉ chim bay — ma trận xấp xỉ là chim bay × hằng số,
+     * route thêm cũng cho đúng thứ tự đó.
+     */
+    private MatrixMask nearestIfEligible(CoordinateColumns coordinates, MatrixMask mask,
+                                         PairFeasibility.Tally tally, BooleanSupplier cancelled) {
+        if (knnK <= 0 || mask == null || !mask.isFull() || mask.depotByLoc() == null) {
+            return mask;
+        }
+        int n = coordinates.size();
+        if (n < knnMinLocations || n <= knnK + 1) {
+            return mask;
+        }
+        long t0 = System.nanoTime();
+        int candidates = knnK * knnCandidateFactor;
+        MatrixMask nearest;
+        if (cancelled == null || candidates == knnK) {
+            nearest = mask.withNearestNeighbours(coordinates, knnK, tally);
+        } else {
+            MatrixMask.RoadRow road = (i, targets, meters) -> {
+                if (cancelled.getAsBoolean()) {
+                    throw new JobCancelledException("Job bị hủy trong lúc dựng mask kNN (matrix build)");
+                }
+                primaryProvider.fetchRow(coordinates, i, targets, meters, new double[targets.length]);
+            };
+            nearest = matrixPool.submit(() ->
+                    mask.withRoadNearestNeighbours(coordinates, knnK, candidates, road, tally)).join();
+        }
+        log.info("[Matrix] Mask kNN k={} ({}) cho {} location trong {} ms (thay cho mask đầy)",
+                knnK, candidates == knnK || cancelled == null ? "chim bay" : "đường bộ, " + candidates + " ứng viên",
+                n, (System.nanoTime() - t0) / 1_000_000);
+        return nearest;
+    }
 
-        return blockLayout
-                ? buildBlock(coordinates, mask, cancelled, n)
-                : buildDense(coordinates, cancelled, n);
+    /** null = chạy per-pair (mode PER_PAIR, hoặc GraphHopper chưa sẵn sàng). */
+    private BatchGraphHopperMatrixProvider.Session openOneToMany(CoordinateColumns coordinates) {
+        if (buildMode != MatrixBuildMode.ONE_TO_MANY) {
+            return null;
+        }
+        if (!batchProvider.isReady()) {
+            log.warn("[Matrix] build-mode=ONE_TO_MANY nhưng GraphHopper chưa sẵn sàng — chạy PER_PAIR");
+            return null;
+        }
+        return batchProvider.open(coordinates);
     }
 
     // ==================== NHÁNH BLOCK — O(N·S) bộ nhớ và thời gian ====================
 
-    private DistanceMatrix buildBlock(List<OptCoordinates> coordinates, MatrixMask mask,
-                                      BooleanSupplier cancelled, int n) {
+    private DistanceMatrix buildBlock(CoordinateColumns coordinates, MatrixMask mask,
+                                      BooleanSupplier cancelled, int n,
+                                      BatchGraphHopperMatrixProvider.Session session,
+                                      PairFeasibility feasibility, PairFeasibility.Tally tally) {
         long t0 = System.nanoTime();
+        DistanceCellCache.Stats cacheBefore = cacheStats();
 
-        BlockDiagonalCostMatrix matrix = BlockDiagonalCostMatrix.allocate(mask.clusterByLoc());
+        BlockDiagonalCostMatrix matrix = BlockDiagonalCostMatrix.allocate(
+                mask.clusterByLoc(), mask.servedClusters(), mask.haloByLoc(),
+                cellEncoding, storage, offHeapDir);
 
         long stored = matrix.storedCells();
         long densePairs = (long) n * n;
-        log.info("[Matrix] Bố cục BLOCK {}x{} | {} cụm, dải rộng {} | lưu {} / {} ô ({}% ô dày là rác) "
-                        + "| {} thay vì {} (giảm {}×) | threads={}",
-                n, n, matrix.clusterCount(), matrix.wideCount(),
+        log.info("[Matrix] Bố cục BLOCK {}x{} | {} cụm, dải rộng {}, depot một phần {} | lưu {} / {} ô "
+                        + "({}% ô dày là rác) | {} thay vì {} (giảm {}×) | threads={}",
+                n, n, matrix.clusterCount(), matrix.wideCount(), matrix.partialCount(),
                 stored, densePairs,
                 String.format("%.2f", 100.0 * matrix.savedFraction()),
                 MatrixMemory.humanBytes(matrix.allocatedBytes()),
-                MatrixMemory.humanBytes(MatrixMemory.denseBytes(n)),
-                MatrixMemory.denseBytes(n) / Math.max(1, matrix.allocatedBytes()),
+                MatrixMemory.humanBytes(MatrixMemory.denseBytes(n, cellEncoding)),
+                MatrixMemory.denseBytes(n, cellEncoding) / Math.max(1, matrix.allocatedBytes()),
                 matrixPool.getParallelism());
 
         LongAdder computed = new LongAdder();
         LongAdder failed = new LongAdder();
-        AtomicInteger rowsDone = new AtomicInteger();
-        int logEvery = Math.max(1, n / 10);
+        LongAdder fallback = new LongAdder();
+        FeasibleFilter filter = new FeasibleFilter(feasibility, n, matrix::put, tally);
+        boolean bandDone = fillWideBand(matrix.bandMembers(), matrix::bandRowTargets, matrix::bandColSources,
+                n, coordinates, session, matrix::put, filter, cancelled, computed, failed, fallback);
+        if (buildMode == MatrixBuildMode.MANY_TO_MANY) {
+            runBlockTasks(blockTasks(matrix, n, !bandDone), matrix.hasHalo() ? matrix::ownerCluster : null,
+                    filter, coordinates, matrix::put, cancelled, t0,
+                    computed, failed, fallback);
+        } else {
+            // CHỈ duyệt các ô có chỗ lưu. Bản cũ duyệt cả n cột cho mỗi hàng
+            // (n=50 010 -> 2.5 tỉ vòng + 2.5 tỉ atomic increment bị tranh chấp).
+            // Hàng gom theo cụm để truy vấn liên tiếp chạm cùng vùng đồ thị.
+            runRowPlan(filter.rows(IntStream.range(0, n).toArray(),
+                            bandDone ? matrix::clusterTargetsFor : matrix::targetsFor, true),
+                    mask.clusterByLoc(), n,
+                    coordinates, session, matrix::put, cancelled, t0, computed, failed, fallback);
+        }
+
+        logSummary(n, t0, computed.sum(), failed.sum(), densePairs - computed.sum() - failed.sum(),
+                matrix, cacheBefore, effectiveMode(session), fallback.sum());
+        warnIfSuspicious(failed.sum(), computed.sum(), matrix.clusterCount());
+        return new DistanceMatrix(coordinates, matrix);
+    }
+
+    // ==================== NHÁNH kNN — O(n·k), không cần cụm ====================
+
+    private DistanceMatrix buildNearest(CoordinateColumns coordinates, MatrixMask mask,
+                                        BooleanSupplier cancelled, int n,
+                                        BatchGraphHopperMatrixProvider.Session session,
+                                        PairFeasibility.Tally tally) {
+        long t0 = System.nanoTime();
+        DistanceCellCache.Stats cacheBefore = cacheStats();
+
+        KNearestCostMatrix matrix = KNearestCostMatrix.allocate(mask, cellEncoding, storage, offHeapDir);
+
+        long stored = matrix.storedCells();
+        long densePairs = (long) n * n;
+        log.info("[Matrix] Bố cục K_NEAREST {}x{} | bậc TB {}, depot {} | lưu {} / {} ô | {} thay vì {} "
+                        + "| threads={}",
+                n, n, String.format("%.1f", matrix.averageDegree()), matrix.depotCount(),
+                stored, densePairs,
+                MatrixMemory.humanBytes(matrix.allocatedBytes()),
+                MatrixMemory.humanBytes(MatrixMemory.denseBytes(n, cellEncoding)),
+                matrixPool.getParallelism());
+
+        LongAdder computed = new LongAdder();
+        LongAdder failed = new LongAdder();
+        LongAdder fallback = new LongAdder();
+        boolean[] depot = mask.depotByLoc();
+        int[] all = IntStream.range(0, n).toArray();
+        int[] orders = IntStream.range(0, n).filter(i -> !depot[i]).toArray();
+        // Dải kNN chỉ gồm depot — prune khả thi không đụng tới, lọc rỗng chỉ để giữ chung chữ ký
+        FeasibleFilter noPrune = new FeasibleFilter(null, n, matrix::put, tally);
+        boolean bandDone = fillWideBand(IntStream.range(0, n).filter(i -> depot[i]).toArray(),
+                i -> all, i -> orders, n, coordinates, session, matrix::put, noPrune,
+                cancelled, computed, failed, fallback);
+        int[][] neighbours = mask.neighbours();
+        IntFunction<int[]> targets = bandDone
+                ? i -> depot[i] ? new int[0] : neighbours[i]
+                : matrix::targetsFor;
+        if (buildMode == MatrixBuildMode.MANY_TO_MANY) {
+            // Hàng thưa không chung đích nên không ghép được khối vuông: mỗi hàng một
+            // lời gọi 1×(k+D) — bucket nhỏ nhưng vẫn giữ turn cost của CH.
+            List<BlockTask> tasks = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                int[] t = targets.apply(i);
+                if (t.length > 0) tasks.add(new BlockTask(new int[]{i}, t));
+            }
+            runBlockTasks(tasks, null, noPrune, coordinates, matrix::put, cancelled, t0, computed, failed, fallback);
+        } else {
+            runRowPlan(targets, null, n, coordinates, session, matrix::put,
+                    cancelled, t0, computed, failed, fallback);
+        }
+
+        logSummary(n, t0, computed.sum(), failed.sum(), densePairs - computed.sum() - failed.sum(),
+                matrix, cacheBefore, effectiveMode(session), fallback.sum());
+        warnIfSuspicious(failed.sum(), computed.sum(), 0);
+        return new DistanceMatrix(coordinates, matrix);
+    }
+
+    // ==================== XẤP XỈ (quick plan) ====================
+
+    /**
+     * Ma trận XẤP XỈ (chim bay × circuity, tốc độ TB) trên ĐÚNG bố cục mà
+     * {@link #createDistanceMatrix} sẽ chọn cho mask này — cùng tập ô được lưu, cùng
+     * sentinel — để solver và các constraint hành xử y hệt, chỉ khác giá trị ô.
+     * Không gọi GraphHopper, không đụng cell cache: dựng trong mili-giây ở job nhỏ — job
+     * 50k dày vẫn là n² ô, nên cờ hủy được kiểm ở đầu mỗi hàng như bản chính xác.
+     */
+    public DistanceMatrix createApproximateDistanceMatrix(List<OptCoordinates> coordinates, MatrixMask mask) {
+        return createApproximateDistanceMatrix(CoordinateColumns.of(coordinates), mask, () -> false);
+    }
+
+    /** Như trên, trên tọa độ dạng cột (đường chính của OptimizationService). */
+    public DistanceMatrix createApproximateDistanceMatrix(CoordinateColumns coordinates, MatrixMask mask,
+                                                          BooleanSupplier cancelled) {
+        CoLocatedCollapse collapse = collapseIfEnabled(coordinates, mask);
+        if (collapse == null) {
+            return buildApproximate(coordinates, mask, cancelled);
+        }
+        DistanceMatrix shared = buildApproximate(collapse.coordinates(coordinates), collapse.mask(mask), cancelled);
+        return new DistanceMatrix(coordinates, collapse.expand(shared.costs()));
+    }
+
+    private DistanceMatrix buildApproximate(CoordinateColumns coordinates, MatrixMask mask,
+                                            BooleanSupplier cancelled) {
+        long t0 = System.nanoTime();
+        int n = coordinates.size();
+        mask = nearestIfEligible(coordinates, mask, new PairFeasibility.Tally(), null);
+        PairFeasibility feasibility = mask != null ? mask.feasibility() : null;
+
+        CostMatrix matrix;
+        CellWriter writer;
+        IntFunction<int[]> targets;
+        if (mask != null && mask.isNearest()) {
+            KNearestCostMatrix m = KNearestCostMatrix.allocate(mask, cellEncoding, storage, offHeapDir);
+            matrix = m;
+            writer = m::put;
+            targets = m::targetsFor;
+        } else if (mask != null && !mask.isFull() && mask.clusterByLoc() != null) {
+            BlockDiagonalCostMatrix m = BlockDiagonalCostMatrix.allocate(
+                    mask.clusterByLoc(), mask.servedClusters(), mask.haloByLoc(),
+                    cellEncoding, storage, offHeapDir);
+            matrix = m;
+            writer = m::put;
+            targets = m::targetsFor;
+        } else {
+            DenseCostMatrix m = DenseCostMatrix.allocate(n, cellEncoding, storage, offHeapDir);
+            int[] all = IntStream.range(0, n).toArray();
+            matrix = m;
+            writer = m::put;
+            targets = i -> all;
+        }
 
         matrixPool.submit(() ->
                 IntStream.range(0, n).parallel().forEach(i -> {
                     if (cancelled.getAsBoolean()) {
-                        throw new JobCancelledException("Job bị hủy trong lúc dựng ma trận (matrix build)");
+                        throw new JobCancelledException("Job bị hủy trong lúc dựng ma trận xấp xỉ (quick plan)");
                     }
-                    // CHỈ duyệt các ô có chỗ lưu. Bản cũ duyệt cả n cột cho mỗi hàng
-                    // (n=50 010 -> 2.5 tỉ vòng + 2.5 tỉ atomic increment bị tranh chấp).
-                    int[] targets = matrix.targetsFor(i);
-                    for (int j : targets) {
+                    writer.put(i, i, 0.0, 0.0);
+                    int[] t = targets.apply(i);
+                    RowBuffer buf = ROW_BUFFER.get().ensure(t.length);
+                    approximateProvider.fetchRow(coordinates, i, t, buf.meters, buf.seconds);
+                    for (int k = 0; k < t.length; k++) {
+                        int j = t[k];
                         if (i == j) continue;
-                        try {
-                            DistanceMatrixEntry e = primaryProvider.fetch(coordinates.get(i), coordinates.get(j));
-                            matrix.put(i, j, e.distanceMeters(), e.timeSeconds());
-                            computed.increment();
-                        } catch (Exception e) {
-                            log.warn("[Matrix] Route {}->{} lỗi, điền SENTINEL (KHÔNG dùng ZERO để tránh route rác): {}",
-                                    i, j, e.getMessage());
-                            matrix.put(i, j, MatrixMask.PRUNED_METERS, MatrixMask.PRUNED_SECONDS);
-                            failed.increment();
+                        if (feasibility != null && !feasibility.feasible(i, j)) {
+                            writer.put(i, j, MatrixMask.PRUNED_METERS, MatrixMask.PRUNED_SECONDS);
+                        } else {
+                            writer.put(i, j, buf.meters[k], buf.seconds[k]);
                         }
                     }
-                    int done = rowsDone.incrementAndGet();
-                    if (done % logEvery == 0 || done == n) {
-                        long elapsedMs = (System.nanoTime() - t0) / 1_000_000;
-                        log.info("[Matrix] Tiến độ {}/{} hàng ({}%) | computed={} failed={} | {} ms",
-                                done, n, 100 * done / n, computed.sum(), failed.sum(), elapsedMs);
-                    }
                 })
         ).join();
 
-        logSummary(n, t0, computed.sum(), failed.sum(), densePairs - computed.sum() - failed.sum(),
-                matrix);
-        warnIfSuspicious(failed.sum(), computed.sum(), matrix.clusterCount());
+        log.info("[Matrix] XẤP XỈ {} {}x{} trong {} ms | circuity={} speed={} km/h | {}",
+                matrix.layout(), n, n, (System.nanoTime() - t0) / 1_000_000,
+                approximateProvider.circuityFactor(), approximateProvider.speedKmh(),
+                MatrixMemory.humanBytes(matrix.allocatedBytes()));
         return new DistanceMatrix(coordinates, matrix);
     }
 
+    /**
+     * Một ô CHÍNH XÁC (qua cell cache + provider thật) trên matrixPool — cho việc vá cạnh
+     * của lời giải quick-plan chạy nền trong lúc Jsprit vẫn đang solve.
+     */
+    public CompletableFuture<DistanceMatrixEntry> fetchExactAsync(OptCoordinates from, OptCoordinates to) {
+        return CompletableFuture.supplyAsync(() -> primaryProvider.fetch(from, to), matrixPool);
+    }
+
     // ==================== NHÁNH DÀY — chỉ cho job nhỏ / Pareto ====================
 
-    private DistanceMatrix buildDense(List<OptCoordinates> coordinates,
-                                      BooleanSupplier cancelled, int n) {
+    private DistanceMatrix buildDense(CoordinateColumns coordinates,
+                                      BooleanSupplier cancelled, int n,
+                                      BatchGraphHopperMatrixProvider.Session session,
+                                      PairFeasibility feasibility, PairFeasibility.Tally tally) {
         long t0 = System.nanoTime();
+        DistanceCellCache.Stats cacheBefore = cacheStats();
         long densePairs = (long) n * n;
 
         log.info("[Matrix] Bố cục DÀY {}x{} = {} cặp | {} | threads={} "
                         + "| KHÔNG có mask cụm nên không thể lưu block",
-                n, n, densePairs, MatrixMemory.humanBytes(MatrixMemory.denseBytes(n)),
+                n, n, densePairs, MatrixMemory.humanBytes(MatrixMemory.denseBytes(n, cellEncoding)),
                 matrixPool.getParallelism());
 
-        // Guard TRƯỚC khi cấp phát: thà chết ngay với con số rõ ràng hơn là GC-thrash 20 phút.
-        DenseCostMatrix matrix = DenseCostMatrix.allocate(n);
+        // allocate guard TRƯỚC khi cấp phát, ở cả hai nhánh: thà chết ngay với con số rõ ràng
+        // hơn là GC-thrash hay page-fault 20 phút. AUTO đưa ma trận quá 25% heap ra file map
+        // nên job Pareto/không cụm cỡ vừa chạy được mà không nâng -Xmx — trần heap áp cho
+        // HEAP, trần RAM vật lý (MatrixMemory.requireOffHeapFits) áp cho ngoài heap.
+        DenseCostMatrix matrix = DenseCostMatrix.allocate(n, cellEncoding, storage, offHeapDir);
+        int[] allTargets = IntStream.range(0, n).toArray();
 
         LongAdder computed = new LongAdder();
         LongAdder failed = new LongAdder();
-        AtomicInteger rowsDone = new AtomicInteger();
-        int logEvery = Math.max(1, n / 10);
+        LongAdder fallback = new LongAdder();
+        FeasibleFilter filter = new FeasibleFilter(feasibility, n, matrix::put, tally);
+        if (buildMode == MatrixBuildMode.MANY_TO_MANY) {
+            runBlockTasks(denseTasks(n), null, filter, coordinates, matrix::put, cancelled, t0,
+                    computed, failed, fallback);
+        } else {
+            for (int i = 0; i < n; i++) {
+                matrix.put(i, i, 0.0, 0.0);
+            }
+            runRowPlan(filter.rows(allTargets, i -> allTargets, true), null, n, coordinates, session, matrix::put,
+                    cancelled, t0, computed, failed, fallback);
+        }
+
+        logSummary(n, t0, computed.sum(), failed.sum(), 0, matrix, cacheBefore, effectiveMode(session),
+                fallback.sum());
+        warnIfSuspicious(failed.sum(), computed.sum(), 0);
+        return new DistanceMatrix(coordinates, matrix);
+    }
 
+    // ==================== THEO HÀNG (PER_PAIR / ONE_TO_MANY) ====================
+
+    /**
+     * Chạy các hàng theo {@link MatrixWorkPlan}: task ≈ bằng nhau về SỐ Ô, hàng rộng cắt
+     * theo cột (PER_PAIR), work stealing của matrixPool lo phần cân tải còn lại. Cuối
+     * cùng log hệ số tận dụng luồng — dưới ~85% là lịch còn đuôi, không phải CH chậm.
+     */
+    private void runRowPlan(IntFunction<int[]> targets, int[] groupOf, int n,
+                            CoordinateColumns coordinates,
+                            BatchGraphHopperMatrixProvider.Session session, CellWriter writer,
+                            BooleanSupplier cancelled, long t0,
+                            LongAdder computed, LongAdder failed, LongAdder fallback) {
+        int[] rowCells = new int[n];
+        for (int i = 0; i < n; i++) {
+            int[] t = targets.apply(i);
+            // Ô chéo không tính (fillRow bỏ qua j == i) nhưng vẫn nằm trong mảng đích
+            rowCells[i] = t.length;
+        }
+        int parallelism = matrixPool.getParallelism();
+        MatrixWorkPlan plan = MatrixWorkPlan.of(rowCells, groupOf, parallelism, session == null);
+        MatrixWorkPlan.Utilization util = new MatrixWorkPlan.Utilization();
+        long total = Math.max(1, plan.totalCells());
+        AtomicLong cellsDone = new AtomicLong();
+
+        long tStart = System.nanoTime();
         matrixPool.submit(() ->
-                IntStream.range(0, n).parallel().forEach(i -> {
+                plan.tasks().parallelStream().forEach(task -> {
                     if (cancelled.getAsBoolean()) {
                         throw new JobCancelledException("Job bị hủy trong lúc dựng ma trận (matrix build)");
                     }
-                    for (int j = 0; j < n; j++) {
+                    long s = System.nanoTime();
+                    for (int i : task.rows()) {
+                        int[] t = targets.apply(i);
+                        if (!task.wholeRows()) {
+                            t = Arrays.copyOfRange(t, task.colFrom(), Math.min(t.length, task.colTo()));
+                        }
+                        fillRow(i, t, coordinates, session, writer, computed, failed, fallback);
+                    }
+                    util.record(System.nanoTime() - s);
+                    long after = cellsDone.addAndGet(task.cells());
+                    long before = after - task.cells();
+                    if (after * 10 / total != before * 10 / total) {
+                        long elapsedMs = (System.nanoTime() - t0) / 1_000_000;
+                        log.info("[Matrix] Tiến độ {}/{} ô ({}%) | computed={} failed={} | {} ms",
+                                after, total, 100 * after / total, computed.sum(), failed.sum(), elapsedMs);
+                    }
+                })
+        ).join();
+
+        long wallMs = (System.nanoTime() - tStart) / 1_000_000;
+        long[] busy = util.busyMillis(parallelism);
+        log.info("[Matrix] Lịch {} task (grain {} ô, task lớn nhất {} ô) | tận dụng {}% trên {} luồng "
+                        + "| bận/luồng min={} max={} ms | rảnh tổng {} ms",
+                plan.tasks().size(), plan.grain(), plan.maxTaskCells(),
+                String.format("%.1f", 100.0 * util.utilization(wallMs, parallelism)), util.threadsUsed(),
+                busy[0], busy[1], Math.max(0, wallMs * parallelism - busy[2]));
+    }
+
+    // ==================== DẢI RỘNG BẰNG CÂY MỘT-TỚI-TẤT-CẢ ====================
+
+    /**
+     * Hàng + cột của mỗi thành viên dải rộng (depot / order chưa gán cụm) bằng MỘT cây
+     * xuôi ({@code oneToAll}) và MỘT cây ngược ({@code allToOne}) trên đồ thị, thay cho
+     * 2·n truy vấn point-to-point mỗi thành viên. Ở chi nhánh nhiều depot, 2·W·n ô này
+     * chiếm phần lớn thời gian dựng ma trận dù chỉ là vài chục "hàng".
+     * <p>
+     * Node-based như ONE_TO_MANY (bỏ turn cost) nên là tùy chọn
+     * ({@code gvrp.matrix.wide-band.graph-search}). Ô cây không chốt được trong cận
+     * rơi về per-pair như mọi chế độ khác — không bao giờ thành sentinel chỉ vì cận.
+     * <p>
+     * Đích / nguồn của từng cây do bố cục quyết định: depot một phần của block chỉ có
+     * hàng/cột tới các cụm nó phục vụ, cây dừng sớm khi chốt hết các đích đó.
+     *
+     * @param rowTargets j của các ô (w, j) thuộc hàng w
+     * @param colSources i của các ô (i, w) thuộc cột w (không lặp ô đã có trong hàng của thành viên khác)
+     * @return true nếu dải rộng ĐÃ được điền — người gọi phải bỏ các ô đó khỏi phần còn lại
+     */
+    private boolean fillWideBand(int[] wide, IntFunction<int[]> rowTargets, IntFunction<int[]> colSources,
+                                 int n, CoordinateColumns coordinates,
+                                 BatchGraphHopperMatrixProvider.Session session, CellWriter writer,
+                                 FeasibleFilter filter, BooleanSupplier cancelled,
+                                 LongAdder computed, LongAdder failed, LongAdder fallback) {
+        if (!wideBandGraphSearch || wide.length == 0) {
+            return false;
+        }
+        if (session == null) {
+            if (!batchProvider.isReady()) {
+                log.warn("[Matrix] wide-band.graph-search bật nhưng GraphHopper chưa sẵn sàng — dải rộng chạy per-cặp");
+                return false;
+            }
+            session = batchProvider.open(coordinates);
+        }
+        // Chỉ lọc khi chắc chắn dải được điền ở đây — nếu không, ô dải nằm trong targetsFor
+        // và được lọc (và đếm) một lần ở đó
+        rowTargets = filter.rows(wide, rowTargets, true);
+        colSources = filter.rows(wide, colSources, false);
+        long t0 = System.nanoTime();
+        long pairs = 0;
+        for (int w : wide) {
+            for (int j : rowTargets.apply(w)) if (j != w) pairs++;
+            pairs += colSources.apply(w).length;
+        }
+        long fallbackBefore = fallback.sum();
+
+        BatchGraphHopperMatrixProvider.Session s = session;
+        IntFunction<int[]> rowT = rowTargets;
+        IntFunction<int[]> colS = colSources;
+        matrixPool.submit(() ->
+                IntStream.range(0, 2 * wide.length).parallel().forEach(k -> {
+                    if (cancelled.getAsBoolean()) {
+                        throw new JobCancelledException("Job bị hủy trong lúc dựng ma trận (matrix build)");
+                    }
+                    int w = wide[k >> 1];
+                    if ((k & 1) == 0) {
+                        // Hàng w -> các j của hàng (WIDE: mọi j, kể cả thành viên dải rộng khác)
+                        int[] targets = rowT.apply(w);
+                        s.oneToAll(w, targets, wideBandWeightLimit(w, targets, coordinates),
+                                (j, meters, seconds) ->
+                                acceptOrFallback(w, j, meters, seconds, coordinates, writer,
+                                        computed, failed, fallback));
+                    } else {
+                        // Cột i -> w chỉ cho i ngoài dải rộng: ô w' -> w đã nằm trong hàng của w'
+                        int[] sources = colS.apply(w);
+                        s.allToOne(w, sources, wideBandWeightLimit(w, sources, coordinates),
+                                (i, meters, seconds) ->
+                                acceptOrFallback(i, w, meters, seconds, coordinates, writer,
+                                        computed, failed, fallback));
+                    }
+                })
+        ).join();
+
+        log.info("[Matrix] Dải rộng W={} bằng {} cây xuôi + {} cây ngược trong {} ms "
+                        + "(thay cho {} truy vấn point-to-point) | fallback-per-pair={}",
+                wide.length, wide.length, wide.length, (System.nanoTime() - t0) / 1_000_000,
+                pairs, fallback.sum() - fallbackBefore);
+        return true;
+    }
+
+    /** Cùng cận với {@link #fillRow}: chim bay tới location xa nhất trong các đầu của cây. */
+    private static double wideBandWeightLimit(int w, int[] ends, CoordinateColumns coordinates) {
+        double maxCrow = 0;
+        for (int e : ends) {
+            maxCrow = Math.max(maxCrow, coordinates.haversineMeters(w, e));
+        }
+        return ONE_TO_MANY_LIMIT_SLACK_SECONDS + maxCrow * ONE_TO_MANY_SECONDS_PER_CROW_METER;
+    }
+
+    private void acceptOrFallback(int i, int j, double meters, double seconds,
+                                  CoordinateColumns coordinates, CellWriter writer,
+                                  LongAdder computed, LongAdder failed, LongAdder fallback) {
+        if (Double.isNaN(meters)) {
+            fallback.increment();
+            fetchPair(i, j, coordinates, writer, computed, failed);
+        } else {
+            writer.put(i, j, meters, seconds);
+            computed.increment();
+        }
+    }
+
+    // ==================== THEO KHỐI (MANY_TO_MANY) ====================
+
+    /**
+     * Một lời gọi {@link DistanceProvider#fetchBlock}. Mỗi ô (i, j) thuộc ĐÚNG một task,
+     * nên các task chạy song song vẫn giữ hợp đồng "mỗi slot một writer" của matrix.
+     * {@code owner >= 0}: khối halo — ô chung nhiều khối chỉ được ghi khi khối sở hữu nó
+     * là {@code owner} (ô còn lại vẫn bị tính, đó là giá của khối vuông).
+     */
+    private record BlockTask(int[] sources, int[] targets, int owner) {
+
+        BlockTask(int[] sources, int[] targets) {
+            this(sources, targets, -1);
+        }
+    }
+
+    /**
+     * Cắt dải rộng thành mảnh để bucket của một lời gọi không phình theo n: dải rộng
+     * đầy đủ là W × n đích — 50 010 lượt tìm kiếm ngược giữ bucket cùng lúc.
+     */
+    static final int BLOCK_CHUNK = 512;
+
+    /**
+     * Phủ ĐÚNG tập ô có chỗ lưu của block layout:
+     * <pre>
+     *   cụm c         : members(c) × members(c)   (nhà + halo, ghi theo ownerCluster)
+     *   hàng dải rộng : WIDE × [mọi j], chia mảnh theo j
+     *   cột dải rộng  : [mọi i không WIDE] × WIDE, chia mảnh theo i
+     *   depot một phần: p × bandRowTargets(p), bandColSources(p) × p
+     * </pre>
+     */
+    private List<BlockTask> blockTasks(BlockDiagonalCostMatrix matrix, int n, boolean includeWideBand) {
+        List<BlockTask> tasks = new ArrayList<>();
+        for (int c = 0; c < matrix.clusterCount(); c++) {
+            int[] members = matrix.membersOf(c);
+            tasks.add(new BlockTask(members, members, matrix.hasHalo() ? c : -1));
+        }
+        int[] wide = matrix.wideMembers();
+        if (includeWideBand && wide.length > 0) {
+            boolean[] isWide = new boolean[n];
+            for (int w : wide) isWide[w] = true;
+            int[] all = IntStream.range(0, n).toArray();
+            int[] nonWide = IntStream.range(0, n).filter(i -> !isWide[i]).toArray();
+            for (int from = 0; from < all.length; from += BLOCK_CHUNK) {
+                tasks.add(new BlockTask(wide, Arrays.copyOfRange(all, from, Math.min(n, from + BLOCK_CHUNK))));
+            }
+            for (int from = 0; from < nonWide.length; from += BLOCK_CHUNK) {
+                tasks.add(new BlockTask(Arrays.copyOfRange(nonWide, from,
+                        Math.min(nonWide.length, from + BLOCK_CHUNK)), wide));
+            }
+        }
+        if (includeWideBand) {
+            for (int p : matrix.partialDepots()) {
+                int[] row = matrix.bandRowTargets(p);
+                for (int from = 0; from < row.length; from += BLOCK_CHUNK) {
+                    tasks.add(new BlockTask(new int[]{p},
+                            Arrays.copyOfRange(row, from, Math.min(row.length, from + BLOCK_CHUNK))));
+                }
+                int[] col = matrix.bandColSources(p);
+                for (int from = 0; from < col.length; from += BLOCK_CHUNK) {
+                    tasks.add(new BlockTask(Arrays.copyOfRange(col, from, Math.min(col.length, from + BLOCK_CHUNK)),
+                            new int[]{p}));
+                }
+            }
+        }
+        return tasks;
+    }
+
+    /** Ma trận dày: lưới ô vuông BLOCK_CHUNK × BLOCK_CHUNK. */
+    private List<BlockTask> denseTasks(int n) {
+        List<BlockTask> tasks = new ArrayList<>();
+        for (int r = 0; r < n; r += BLOCK_CHUNK) {
+            int[] rows = IntStream.range(r, Math.min(n, r + BLOCK_CHUNK)).toArray();
+            for (int c = 0; c < n; c += BLOCK_CHUNK) {
+                tasks.add(new BlockTask(rows, IntStream.range(c, Math.min(n, c + BLOCK_CHUNK)).toArray()));
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * @param ownerOf khối sở hữu ô (i, j) — chỉ cần khi có task {@code owner >= 0}
+     * @param filter  ô bất khả thi vẫn bị khối vuông tính (không tách được khỏi bucket) nhưng
+     *                được ghi sentinel thay cho giá trị
+     */
+    private void runBlockTasks(List<BlockTask> tasks, IntBinaryOperator ownerOf, FeasibleFilter filter,
+                               CoordinateColumns coordinates, CellWriter writer,
+                               BooleanSupplier cancelled, long t0,
+                               LongAdder computed, LongAdder failed, LongAdder fallback) {
+        AtomicInteger tasksDone = new AtomicInteger();
+        int total = tasks.size();
+        int logEvery = Math.max(1, total / 10);
+
+        matrixPool.submit(() ->
+                tasks.parallelStream().forEach(task -> {
+                    if (cancelled.getAsBoolean()) {
+                        throw new JobCancelledException("Job bị hủy trong lúc dựng ma trận (matrix build)");
+                    }
+                    // CH many-to-many khóa snap theo OptCoordinates — list dựng một lần cho cả build
+                    List<OptCoordinates> points = coordinates.asList();
+                    List<OptCoordinates> src = pick(points, task.sources());
+                    List<OptCoordinates> dst = task.sources() == task.targets() ? src : pick(points, task.targets());
+                    primaryProvider.fetchBlock(src, dst, (si, sj, meters, seconds) -> {
+                        int i = task.sources()[si];
+                        int j = task.targets()[sj];
+                        if (task.owner() >= 0 && i != j && ownerOf.applyAsInt(i, j) != task.owner()) {
+                            return; // ô thuộc khối halo khác
+                        }
                         if (i == j) {
-                            matrix.put(i, j, 0.0, 0.0);
+                            writer.put(i, j, 0.0, 0.0);
+                        } else if (filter.pruned(i, j)) {
+                            return; // sentinel đã được ghi
+                        } else if (Double.isNaN(meters)) {
+                            fallback.increment();
+                            fetchPair(i, j, coordinates, writer, computed, failed);
                         } else {
-                            try {
-                                DistanceMatrixEntry e = primaryProvider.fetch(coordinates.get(i), coordinates.get(j));
-                                matrix.put(i, j, e.distanceMeters(), e.timeSeconds());
-                                computed.increment();
-                            } catch (Exception e) {
-                                log.warn("[Matrix] Route {}->{} lỗi, điền SENTINEL (KHÔNG dùng ZERO để tránh route rác): {}",
-                                        i, j, e.getMessage());
-                                matrix.put(i, j, MatrixMask.PRUNED_METERS, MatrixMask.PRUNED_SECONDS);
-                                failed.increment();
-                            }
+                            writer.put(i, j, meters, seconds);
+                            computed.increment();
                         }
-                    }
-                    int done = rowsDone.incrementAndGet();
-                    if (done % logEvery == 0 || done == n) {
+                    });
+                    int done = tasksDone.incrementAndGet();
+                    if (done % logEvery == 0 || done == total) {
                         long elapsedMs = (System.nanoTime() - t0) / 1_000_000;
-                        log.info("[Matrix] Tiến độ {}/{} hàng ({}%) | computed={} failed={} | {} ms",
-                                done, n, 100 * done / n, computed.sum(), failed.sum(), elapsedMs);
+                        log.info("[Matrix] Tiến độ {}/{} khối ({}%) | computed={} failed={} | {} ms",
+                                done, total, 100 * done / total, computed.sum(), failed.sum(), elapsedMs);
                     }
                 })
         ).join();
+    }
 
-        logSummary(n, t0, computed.sum(), failed.sum(), 0, matrix);
-        warnIfSuspicious(failed.sum(), computed.sum(), 0);
-        return new DistanceMatrix(coordinates, matrix);
+    private static List<OptCoordinates> pick(List<OptCoordinates> coordinates, int[] idx) {
+        List<OptCoordinates> out = new ArrayList<>(idx.length);
+        for (int i : idx) out.add(coordinates.get(i));
+        return out;
+    }
+
+    private MatrixBuildMode effectiveMode(BatchGraphHopperMatrixProvider.Session session) {
+        if (buildMode == MatrixBuildMode.ONE_TO_MANY && session == null) {
+            return MatrixBuildMode.PER_PAIR;
+        }
+        return buildMode;
+    }
+
+    // ==================== PRUNE KHẢ THI ====================
+
+    /**
+     * Áp {@link PairFeasibility} lên danh sách đích của bố cục block / dày: ô bất khả thi
+     * được ghi sentinel NGAY (bố cục vẫn có chỗ cho nó) và rút khỏi danh sách, nên không
+     * bao giờ tới GraphHopper. Mỗi ô xét được đếm đúng một lần vào {@code tally}.
+     */
+    private final class FeasibleFilter {
+        private final PairFeasibility feasibility;
+        private final int n;
+        private final CellWriter writer;
+        private final PairFeasibility.Tally tally;
+
+        FeasibleFilter(PairFeasibility feasibility, int n, CellWriter writer, PairFeasibility.Tally tally) {
+            this.feasibility = feasibility;
+            this.n = n;
+            this.writer = writer;
+            this.tally = tally;
+        }
+
+        /**
+         * Lọc một lần rồi tra theo location: runRowPlan hỏi danh sách đích của mỗi hàng hai
+         * lần (đếm ô rồi chạy), lọc lười sẽ tính haversine — và đếm — hai lần.
+         * Hàng không mất ô nào giữ NGUYÊN mảng gốc (targetsFor của block dùng chung mảng theo cụm).
+         *
+         * @param keyIsSource true = keys là hàng (k -> others), false = keys là cột (others -> k)
+         */
+        IntFunction<int[]> rows(int[] keys, IntFunction<int[]> others, boolean keyIsSource) {
+            if (feasibility == null) {
+                return others;
+            }
+            int[][] kept = new int[n][];
+            matrixPool.submit(() ->
+                    Arrays.stream(keys).parallel().forEach(k -> {
+                        int[] list = others.apply(k);
+                        int[] out = null;
+                        int u = 0;
+                        for (int t = 0; t < list.length; t++) {
+                            int o = list[t];
+                            boolean drop = o != k && (keyIsSource ? pruned(k, o) : pruned(o, k));
+                            if (drop && out == null) {
+                                out = Arrays.copyOf(list, list.length);
+                                u = t;
+                            } else if (!drop && out != null) {
+                                out[u++] = o;
+                            }
+                        }
+                        kept[k] = out == null ? list : Arrays.copyOf(out, u);
+                    })
+            ).join();
+            return k -> kept[k];
+        }
+
+        /** Đếm ô (i, j) và — nếu bất khả thi — ghi sentinel cho nó. */
+        boolean pruned(int i, int j) {
+            if (feasibility == null) return false;
+            if (tally.record(feasibility.reason(i, j)) == PairFeasibility.FEASIBLE) return false;
+            writer.put(i, j, MatrixMask.PRUNED_METERS, MatrixMask.PRUNED_SECONDS);
+            return true;
+        }
+    }
+
+    // ==================== MỘT HÀNG ====================
+
+    /**
+     * Mảng đệm một hàng cho {@link DistanceProvider#fetchRow}, mỗi luồng một bộ. Luồng của
+     * matrixPool sống suốt đời service nên sau vài hàng đầu build không cấp phát gì theo ô.
+     */
+    private static final class RowBuffer {
+        double[] meters = new double[0];
+        double[] seconds = new double[0];
+
+        RowBuffer ensure(int length) {
+            if (meters.length < length) {
+                meters = new double[length];
+                seconds = new double[length];
+            }
+            return this;
+        }
+    }
+
+    private static final ThreadLocal<RowBuffer> ROW_BUFFER = ThreadLocal.withInitial(RowBuffer::new);
+
+    /**
+     * Tính và ghi các ô (i, j) với j ∈ targets, j ≠ i.
+     * <ul>
+     *   <li>PER_PAIR ({@code session == null}): cả hàng một {@link DistanceProvider#fetchRow}
+     *       vào mảng đệm primitive của luồng — không object nào theo ô.</li>
+     *   <li>ONE_TO_MANY: một cây Dijkstra cho cả hàng, target xếp gần → xa theo chim
+     *       bay, cận weight theo target xa nhất (≈ bán kính cụm với hàng trong cụm).
+     *       Ô cây không chạm tới thì fetch per-pair — không bao giờ điền sentinel
+     *       chỉ vì cận ước lượng quá chặt.</li>
+     * </ul>
+     */
+    private void fillRow(int i, int[] targets, CoordinateColumns coordinates,
+                         BatchGraphHopperMatrixProvider.Session session, CellWriter writer,
+                         LongAdder computed, LongAdder failed, LongAdder fallback) {
+        if (session == null) {
+            RowBuffer buf = ROW_BUFFER.get().ensure(targets.length);
+            primaryProvider.fetchRow(coordinates, i, targets, buf.meters, buf.seconds);
+            for (int k = 0; k < targets.length; k++) {
+                int j = targets[k];
+                if (i == j) continue;
+                if (Double.isNaN(buf.meters[k])) {
+                    log.warn("[Matrix] Route {}->{} lỗi, điền SENTINEL (KHÔNG dùng ZERO để tránh route rác)", i, j);
+                    writer.put(i, j, MatrixMask.PRUNED_METERS, MatrixMask.PRUNED_SECONDS);
+                    failed.increment();
+                } else {
+                    writer.put(i, j, buf.meters[k], buf.seconds[k]);
+                    computed.increment();
+                }
+            }
+            return;
+        }
+
+        int m = targets.length;
+        double[] crow = new double[m];
+        Integer[] order = new Integer[m];
+        double maxCrow = 0;
+        for (int k = 0; k < m; k++) {
+            crow[k] = coordinates.haversineMeters(i, targets[k]);
+            order[k] = k;
+            maxCrow = Math.max(maxCrow, crow[k]);
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(crow[a], crow[b]));
+        int[] sorted = new int[m];
+        for (int k = 0; k < m; k++) {
+            sorted[k] = targets[order[k]];
+        }
+        double weightLimit = ONE_TO_MANY_LIMIT_SLACK_SECONDS + maxCrow * ONE_TO_MANY_SECONDS_PER_CROW_METER;
+
+        session.row(i, sorted, weightLimit, (j, meters, seconds) -> {
+            if (Double.isNaN(meters)) {
+                fallback.increment();
+                fetchPair(i, j, coordinates, writer, computed, failed);
+            } else {
+                writer.put(i, j, meters, seconds);
+                computed.increment();
+            }
+        });
+    }
+
+    private void fetchPair(int i, int j, CoordinateColumns coordinates, CellWriter writer,
+                           LongAdder computed, LongAdder failed) {
+        // Đường fallback (ô cây / khối không tới được) — hàng một ô, mảng cục bộ
+        double[] meters = new double[1];
+        double[] seconds = new double[1];
+        primaryProvider.fetchRow(coordinates, i, new int[]{j}, meters, seconds);
+        if (Double.isNaN(meters[0])) {
+            log.warn("[Matrix] Route {}->{} lỗi, điền SENTINEL (KHÔNG dùng ZERO để tránh route rác)", i, j);
+            writer.put(i, j, MatrixMask.PRUNED_METERS, MatrixMask.PRUNED_SECONDS);
+            failed.increment();
+        } else {
+            writer.put(i, j, meters[0], seconds[0]);
+            computed.increment();
+        }
     }
 
     // ==================== LOG ====================
 
+    private DistanceCellCache.Stats cacheStats() {
+        return cellCache != null ? cellCache.stats() : new DistanceCellCache.Stats(0, 0, 0);
+    }
+
     private void logSummary(int n, long t0, long computed, long failed, long notStored,
-                            CostMatrix matrix) {
+                            CostMatrix matrix, DistanceCellCache.Stats cacheBefore,
+                            MatrixBuildMode mode, long fallback) {
         long elapsedMs = (System.nanoTime() - t0) / 1_000_000;
         double throughput = computed / Math.max(1e-3, elapsedMs / 1000.0);
         double msPerLocation = elapsedMs / (double) Math.max(1, n);
 
         // ms/location là hằng số đo được ~76-91 ms trên dải 10k-18k order (prep TUYẾN TÍNH).
         // In ra để mỗi job tự cập nhật hằng số, thay vì phải suy ngược từ mốc thời gian.
-        log.info("[Matrix] XONG {} {}x{} trong {} ms | computed={} ({} route/s) | không-lưu={} | failed={} "
-                        + "| {} | {} ms/location (hằng số chiếu quy mô)",
-                matrix.layout(), n, n, elapsedMs, computed,
-                String.format("%.0f", throughput), notStored, failed,
+        // Hiệu hai ảnh chụp bộ đếm toàn cục: nếu hai job dựng ma trận CHỒNG nhau thì
+        // số hit/miss là của cả hai — chấp nhận, vì engine hầu như chạy từng job một.
+        // computed = hit + miss thành công; ms/location chỉ còn là hằng số CH khi hit ≈ 0.
+        DistanceCellCache.Stats cache = cacheStats().minus(cacheBefore);
+        log.info("[Matrix] XONG {} {}x{} trong {} ms | mode={} | computed={} ({} route/s) | không-lưu={} "
+                        + "| failed={} | fallback-per-pair={} "
+                        + "| cache hit={} miss={} ({}%) evict={} | {} | {} ms/location (hằng số chiếu quy mô)",
+                matrix.layout(), n, n, elapsedMs,
+                mode, computed,
+                String.format("%.0f", throughput), notStored, failed, fallback,
+                cache.hits(), cache.misses(), String.format("%.1f", 100.0 * cache.hitRate()),
+                cache.evictions(),
                 MatrixMemory.humanBytes(matrix.allocatedBytes()),
                 String.format("%.1f", msPerLocation));
     }
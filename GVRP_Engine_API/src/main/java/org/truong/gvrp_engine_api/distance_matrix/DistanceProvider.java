@@ -1,5 +1,7 @@
 package org.truong.gvrp_engine_api.distance_matrix;
 
+import java.util.List;
+
 public interface DistanceProvider {
 
     /**
@@ -7,4 +9,67 @@ public interface DistanceProvider {
      */
     DistanceMatrixEntry fetch(OptCoordinates from, OptCoordinates to);
 
+    /**
+     * Một hàng: nguồn {@code source} tới {@code targets[k]} (index trong {@code coordinates}), ghi
+     * vào {@code meters[k]} / {@code seconds[k]} (hai mảng dài ≥ {@code targets.length},
+     * người gọi cấp và tái dùng). Ô lỗi / không có đường → NaN; {@code targets[k] == source}
+     * → 0.
+     *
+     * <p>Đường nóng của matrix build PER_PAIR: một {@link DistanceMatrixEntry} mỗi ô là
+     * record + Duration + Distance + BigDecimal — hàng triệu object sống vài micro-giây mỗi
+     * job. Mặc định là adapter qua {@link #fetch} (provider cũ vẫn chạy); provider trên
+     * đường nóng override để không tạo object nào theo ô.
+     */
+    default void fetchRow(CoordinateColumns coordinates, int source, int[] targets,
+                          double[] meters, double[] seconds) {
+        List<OptCoordinates> points = coordinates.asList();
+        OptCoordinates from = points.get(source);
+        for (int k = 0; k < targets.length; k++) {
+            int j = targets[k];
+            if (j == source) {
+                meters[k] = 0.0;
+                seconds[k] = 0.0;
+                continue;
+            }
+            try {
+                DistanceMatrixEntry e = fetch(from, points.get(j));
+                meters[k] = e.distanceMeters();
+                seconds[k] = e.timeSeconds();
+            } catch (Exception e) {
+                meters[k] = Double.NaN;
+                seconds[k] = Double.NaN;
+            }
+        }
+    }
+
+    /**
+     * Tính cả khối {@code sources × targets} một lần; {@code sink} nhận chỉ số CỤC BỘ
+     * (vị trí trong hai list), đúng một lần cho mỗi cặp. Cặp lỗi / không có đường → NaN,
+     * người gọi tự quyết fallback hay sentinel.
+     *
+     * <p>Mặc định là vòng lặp {@link #fetch} — provider nào có thuật toán many-to-many
+     * thật (CH bucket) thì override để S² truy vấn còn ~2·S lượt tìm kiếm.
+     */
+    default void fetchBlock(List<OptCoordinates> sources, List<OptCoordinates> targets, PairSink sink) {
+        for (int i = 0; i < sources.size(); i++) {
+            for (int j = 0; j < targets.size(); j++) {
+                try {
+                    DistanceMatrixEntry e = fetch(sources.get(i), targets.get(j));
+                    sink.accept(i, j, e.distanceMeters(), e.timeSeconds());
+                } catch (Exception e) {
+                    sink.accept(i, j, Double.NaN, Double.NaN);
+                }
+            }
+        }
+    }
+
+    /**
+     * Định danh "thế giới" mà provider trả lời — bản đồ + profile định tuyến.
+     * {@link DistanceCellCache} băm chuỗi này vào header: đổi map/profile thì cache cũ
+     * bị xóa thay vì phục vụ số liệu của đường xá đã thay đổi.
+     */
+    default String cacheNamespace() {
+        return getClass().getName();
+    }
+
 }
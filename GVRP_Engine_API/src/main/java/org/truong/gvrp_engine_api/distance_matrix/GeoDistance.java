@@ -0,0 +1,28 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+/**
+ * Khoảng cách đường chim bay (haversine). Chỉ dùng để ƯỚC LƯỢNG — cận, sắp xếp, lọc
+ * ứng viên — không bao giờ thay cho khoảng cách đường bộ trong ma trận.
+ */
+public final class GeoDistance {
+
+    private static final double EARTH_RADIUS = 6_371_000; // meters
+
+    private GeoDistance() {
+        // Utility class
+    }
+
+    public static double haversineMeters(double lat1Deg, double lon1Deg, double lat2Deg, double lon2Deg) {
+        double lat1 = Math.toRadians(lat1Deg);
+        double lat2 = Math.toRadians(lat2Deg);
+        double sinLat = Math.sin((lat2 - lat1) / 2);
+        double sinLon = Math.sin(Math.toRadians(lon2Deg - lon1Deg) / 2);
+
+        double h = sinLat * sinLat + Math.cos(lat1) * Math.cos(lat2) * sinLon * sinLon;
+        return 2 * EARTH_RADIUS * Math.atan2(Math.sqrt(h), Math.sqrt(1 - h));
+    }
+
+    public static double haversineMeters(OptCoordinates a, OptCoordinates b) {
+        return haversineMeters(a.latDouble(), a.lonDouble(), b.latDouble(), b.lonDouble());
+    }
+}
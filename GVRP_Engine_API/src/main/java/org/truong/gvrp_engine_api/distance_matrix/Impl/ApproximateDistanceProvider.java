@@ -0,0 +1,70 @@
+package org.truong.gvrp_engine_api.distance_matrix.Impl;
+
+import org.truong.gvrp_engine_api.distance_matrix.CoordinateColumns;
+import org.truong.gvrp_engine_api.distance_matrix.Distance;
+import org.truong.gvrp_engine_api.distance_matrix.DistanceMatrixEntry;
+import org.truong.gvrp_engine_api.distance_matrix.DistanceProvider;
+import org.truong.gvrp_engine_api.distance_matrix.GeoDistance;
+import org.truong.gvrp_engine_api.distance_matrix.OptCoordinates;
+
+import java.time.Duration;
+
+/**
+ * Ước lượng đường bộ = chim bay × hệ số circuity, thời gian = quãng đường / tốc độ TB.
+ * Không I/O, không GraphHopper — cả ma trận dựng trong mili-giây, dùng cho job "quick plan"
+ * để solver chạy NGAY; cạnh thật được {@code ExactEdgeRefiner} bù sau.
+ * <p>
+ * Hệ số mặc định lấy từ {@code CircuityFactorMeasurementTest} /
+ * {@code BridgeCrossingWorstCaseTest} (báo cáo ở {@code build/circuity-reports/}) — cập
+ * nhật {@code gvrp.matrix.approx.*} khi đo lại trên tọa độ thật.
+ * <p>
+ * Không bao giờ ghi vào cell cache: giá trị xấp xỉ lẫn vào cache là sai lặng lẽ cho
+ * mọi job chính xác về sau.
+ */
+public class ApproximateDistanceProvider implements DistanceProvider {
+
+    private final double circuityFactor;
+    private final double metersPerSecond;
+
+    public ApproximateDistanceProvider(double circuityFactor, double speedKmh) {
+        if (circuityFactor < 1.0 || speedKmh <= 0) {
+            throw new IllegalArgumentException(String.format(
+                    "circuity=%.3f phải ≥ 1 (đường bộ không ngắn hơn chim bay), speed=%.1f km/h phải > 0",
+                    circuityFactor, speedKmh));
+        }
+        this.circuityFactor = circuityFactor;
+        this.metersPerSecond = speedKmh / 3.6;
+    }
+
+    @Override
+    public DistanceMatrixEntry fetch(OptCoordinates from, OptCoordinates to) {
+        double meters = GeoDistance.haversineMeters(from, to) * circuityFactor;
+        // Cắt về giây nguyên như provider thật, để patch về sau không đổi đơn vị làm tròn.
+        return new DistanceMatrixEntry(Duration.ofSeconds((long) (meters / metersPerSecond)),
+                Distance.ofMeters(meters));
+    }
+
+    /** Cùng công thức {@link #fetch}, ghi thẳng vào mảng — không object theo ô. */
+    @Override
+    public void fetchRow(CoordinateColumns coordinates, int source, int[] targets,
+                         double[] meters, double[] seconds) {
+        for (int k = 0; k < targets.length; k++) {
+            double m = coordinates.haversineMeters(source, targets[k]) * circuityFactor;
+            meters[k] = m;
+            seconds[k] = (long) (m / metersPerSecond);
+        }
+    }
+
+    @Override
+    public String cacheNamespace() {
+        return String.format("approx#circuity=%.4f#mps=%.4f", circuityFactor, metersPerSecond);
+    }
+
+    public double circuityFactor() {
+        return circuityFactor;
+    }
+
+    public double speedKmh() {
+        return metersPerSecond * 3.6;
+    }
+}
@@ -10,88 +10,210 @@ import com.graphhopper.routing.util.DefaultSnapFilter;
 import com.graphhopper.routing.util.EdgeFilter;
 import com.graphhopper.routing.util.TraversalMode;
 import com.graphhopper.routing.weighting.Weighting;
-import com.graphhopper.storage.BaseGraph;
 import com.graphhopper.storage.index.LocationIndex;
 import com.graphhopper.storage.index.Snap;
 import com.graphhopper.util.PMap;
 import lombok.extern.slf4j.Slf4j;
-import org.truong.gvrp_engine_api.distance_matrix.*;
+import org.springframework.stereotype.Component;
+import org.truong.gvrp_engine_api.distance_matrix.CellSink;
+import org.truong.gvrp_engine_api.distance_matrix.CoordinateColumns;
+import org.truong.gvrp_engine_api.distance_matrix.OptCoordinates;
 
-import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
 
 /**
- * Dựng cả ma trận bằng one-to-many (DijkstraOneToMany trên base graph GH 11).
- * - Snap toàn bộ điểm 1 lần, build QueryGraph 1 lần.
- * - Mỗi source: 1 lần clear() rồi calcPath tới từng target CẦN (theo mask).
+ * Dựng ma trận theo HÀNG bằng one-to-many (DijkstraOneToMany trên base graph GH 11).
+ * - Snap toàn bộ điểm 1 lần, build QueryGraph 1 lần cho cả job ({@link #open}).
+ * - Mỗi hàng i: 1 cây Dijkstra từ i, lần lượt calcPath tới các target CẦN (theo mask)
+ *   — cây được giữ giữa các target nên target sau chỉ nở tiếp phần còn thiếu.
+ * - Song song: QueryGraph chỉ ĐỌC sau khi tạo nên dùng chung được; DijkstraOneToMany
+ *   có state (heap, mảng weight cỡ số node) nên mỗi luồng mượn một instance riêng từ
+ *   pool của {@link Session}. Không dùng ThreadLocal: worker của matrixPool sống qua
+ *   nhiều job, ThreadLocal sẽ giữ mảng cỡ số node của QueryGraph cũ sau khi build xong.
  * ĐÁNH ĐỔI: node-based (bỏ turn cost). Chỉ hiệu quả khi target cục bộ (ghép cluster-block + weightLimit).
+ * Dải rộng (depot) thì ngược lại — đích là CẢ job — nên có riêng {@link Session#oneToAll} /
+ * {@link Session#allToOne}: một cây xuôi + một cây ngược cho mỗi thành viên dải rộng.
  */
 @Slf4j
+@Component
 public class BatchGraphHopperMatrixProvider {
 
-    private final GraphHopper hopper;
-    private final String profileName;
+    private static final String PROFILE_NAME = "car";
 
-    public BatchGraphHopperMatrixProvider(GraphHopper hopper, String profileName) {
-        this.hopper = hopper;
-        this.profileName = profileName;
+    private final GraphHoperDistanceProvider routing;
+
+    public BatchGraphHopperMatrixProvider(GraphHoperDistanceProvider routing) {
+        this.routing = routing;
     }
 
-    public DistanceMatrixEntry[][] computeMatrix(List<OptCoordinates> coords, MatrixMask mask, Double weightLimit) {
-        int n = coords.size();
-        BaseGraph baseGraph = hopper.getBaseGraph();
+    /** false khi GraphHopper chưa khởi tạo (thiếu file OSM) — service rơi về per-pair. */
+    public boolean isReady() {
+        return routing.getGraphHopper() != null;
+    }
+
+    /**
+     * Snap mọi điểm và dựng QueryGraph cho một lần build. Điểm không snap được KHÔNG làm
+     * hỏng cả job như bản cũ (ném ngay): hàng/cột của nó trả NaN để người gọi fallback.
+     */
+    public Session open(List<OptCoordinates> coords) {
+        return open(CoordinateColumns.of(coords));
+    }
+
+    /** Như trên, đọc thẳng tọa độ dạng cột. */
+    public Session open(CoordinateColumns coords) {
+        GraphHopper hopper = routing.getGraphHopper();
+        if (hopper == null) {
+            throw new IllegalStateException("GraphHopper chưa khởi tạo — không dựng được one-to-many");
+        }
+        long t0 = System.nanoTime();
         LocationIndex index = hopper.getLocationIndex();
-        Profile profile = hopper.getProfile(profileName);
+        Profile profile = hopper.getProfile(PROFILE_NAME);
 
         // Weighting bỏ turn cost (node-based) — cho cả snap filter lẫn routing.
         Weighting weighting = hopper.createWeighting(profile, new PMap(), true);
         EdgeFilter snapFilter = new DefaultSnapFilter(
                 weighting,
-                hopper.getEncodingManager().getBooleanEncodedValue(Subnetwork.key(profileName)));
-
-        // 1) Snap tất cả điểm 1 lần
-        List<Snap> snaps = new ArrayList<>(n);
-        for (OptCoordinates c : coords) {
-            Snap s = index.findClosest(c.latDouble(), c.lonDouble(), snapFilter);
-            if (!s.isValid()) {
-                throw new IllegalStateException("Không snap được điểm " + c.latDouble() + "," + c.lonDouble());
+                hopper.getEncodingManager().getBooleanEncodedValue(Subnetwork.key(PROFILE_NAME)));
+
+        int n = coords.size();
+        Snap[] snapByLoc = new Snap[n];
+        List<Snap> valid = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Snap s = index.findClosest(coords.lat(i), coords.lon(i), snapFilter);
+            if (s.isValid()) {
+                snapByLoc[i] = s;
+                valid.add(s);
+            } else {
+                log.warn("[OneToMany] Không snap được điểm {} ({},{}) — hàng/cột này sẽ fallback per-pair",
+                        i, coords.lat(i), coords.lon(i));
             }
-            snaps.add(s);
         }
 
-        // 2) QueryGraph 1 lần (virtual node cho mọi điểm) + wrap weighting theo query graph
-        QueryGraph queryGraph = QueryGraph.create(baseGraph, snaps);
+        // QueryGraph 1 lần (virtual node cho mọi điểm) + wrap weighting theo query graph.
+        // Sau create(), getClosestNode() của từng Snap đã trỏ vào node ảo tương ứng.
+        QueryGraph queryGraph = QueryGraph.create(hopper.getBaseGraph(), valid);
         Weighting qWeighting = queryGraph.wrapWeighting(weighting);
 
-        DistanceMatrixEntry[][] m = new DistanceMatrixEntry[n][n];
-        DijkstraOneToMany algo = new DijkstraOneToMany(queryGraph, qWeighting, TraversalMode.NODE_BASED);
-        if (weightLimit != null) algo.setWeightLimit(weightLimit); // cắt sớm khi target chỉ trong bán kính cụm
-
-        long calls = 0;
+        int[] nodeByLoc = new int[n];
         for (int i = 0; i < n; i++) {
-            algo.clear();                              // đổi source -> phải clear cache
-            int fromNode = snaps.get(i).getClosestNode();
-            for (int j = 0; j < n; j++) {
-                if (i == j) { m[i][j] = DistanceMatrixEntry.ZERO; continue; }
-                if (mask != null && !mask.needed(i, j)) {
-                    m[i][j] = sentinel(); continue;
+            nodeByLoc[i] = snapByLoc[i] != null ? snapByLoc[i].getClosestNode() : -1;
+        }
+        log.info("[OneToMany] Snap {} / {} điểm + QueryGraph trong {} ms",
+                valid.size(), n, (System.nanoTime() - t0) / 1_000_000);
+        return new Session(queryGraph, qWeighting, nodeByLoc);
+    }
+
+    /** Trạng thái dùng chung của một lần build. Hủy theo GC khi build xong. */
+    public static final class Session {
+
+        private final QueryGraph queryGraph;
+        private final Weighting qWeighting;
+        private final int[] nodeByLoc;
+
+        /** Instance rảnh — tối đa bằng số luồng từng chạy đồng thời. */
+        private final ConcurrentLinkedDeque<DijkstraOneToMany> idle = new ConcurrentLinkedDeque<>();
+        private final ConcurrentLinkedDeque<GraphSweep> idleSweeps = new ConcurrentLinkedDeque<>();
+
+        private Session(QueryGraph queryGraph, Weighting qWeighting, int[] nodeByLoc) {
+            this.queryGraph = queryGraph;
+            this.qWeighting = qWeighting;
+            this.nodeByLoc = nodeByLoc;
+        }
+
+        /**
+         * Tính hàng i tới {@code targets}, GỌI {@code sink} đúng một lần cho mỗi j ≠ i.
+         * Target nên xếp tăng dần theo khoảng cách chim bay: cây nở dần, target gần
+         * không phải trả giá cho target xa.
+         *
+         * @param weightLimit cận trên của weight (≈ giây) — cắt cây khi target
+         *                    không tới được, thay vì nở ra cả nước. Ô vượt cận → NaN.
+         */
+        public void row(int i, int[] targets, double weightLimit, CellSink sink) {
+            int from = nodeByLoc[i];
+            if (from < 0) {
+                for (int j : targets) {
+                    if (j != i) sink.accept(j, Double.NaN, Double.NaN);
+                }
+                return;
+            }
+            DijkstraOneToMany dijkstra = idle.pollFirst();
+            if (dijkstra == null) {
+                dijkstra = new DijkstraOneToMany(queryGraph, qWeighting, TraversalMode.NODE_BASED);
+            }
+            try {
+                dijkstra.clear();                          // đổi source -> phải clear cache
+                dijkstra.setWeightLimit(weightLimit);
+                for (int j : targets) {
+                    if (j == i) continue;
+                    int to = nodeByLoc[j];
+                    if (to < 0) {
+                        sink.accept(j, Double.NaN, Double.NaN);
+                        continue;
+                    }
+                    Path p = dijkstra.calcPath(from, to);  // reuse cây đường đi của source i
+                    if (p.isFound()) {
+                        // Cắt về giây nguyên như Duration.getSeconds() của nhánh per-pair,
+                        // để hai chế độ (và cell cache) cho cùng đơn vị làm tròn.
+                        sink.accept(j, p.getDistance(), (double) (p.getTime() / 1000));
+                    } else {
+                        sink.accept(j, Double.NaN, Double.NaN);
+                    }
                 }
-                int toNode = snaps.get(j).getClosestNode();
-                Path p = algo.calcPath(fromNode, toNode); // reuse cây đường đi của source i
-                calls++;
-                m[i][j] = p.isFound()
-                        ? new DistanceMatrixEntry(Duration.ofMillis(p.getTime()), Distance.ofMeters(p.getDistance()))
-                        : sentinel();
+            } finally {
+                idle.offerFirst(dijkstra);
             }
         }
-        log.info("One-to-many xong: {} calcPath (thay vì {} route CH)", calls, (long) n * (n - 1));
-        return m;
-    }
 
-    private static DistanceMatrixEntry sentinel() {
-        return new DistanceMatrixEntry(
-                Duration.ofSeconds((long) MatrixMask.PRUNED_SECONDS),
-                Distance.ofMeters(MatrixMask.PRUNED_METERS));
+        /**
+         * Hàng dải rộng: MỘT cây xuôi từ i, chốt mọi {@code targets} — thay cho
+         * {@code targets.length} truy vấn point-to-point. {@code sink} nhận j ≠ i,
+         * NaN nếu j không snap được hoặc vượt {@code weightLimit}.
+         */
+        public void oneToAll(int i, int[] targets, double weightLimit, CellSink sink) {
+            sweep(i, false, targets, weightLimit, sink);
+        }
+
+        /**
+         * Cột dải rộng: MỘT cây NGƯỢC về j, chốt mọi {@code sources} — {@code sink} nhận
+         * chỉ số NGUỒN i (ô i → j), cùng quy ước NaN như {@link #oneToAll}.
+         */
+        public void allToOne(int j, int[] sources, double weightLimit, CellSink sink) {
+            sweep(j, true, sources, weightLimit, sink);
+        }
+
+        private void sweep(int root, boolean reverse, int[] others, double weightLimit, CellSink sink) {
+            int rootNode = nodeByLoc[root];
+            if (rootNode < 0) {
+                for (int o : others) {
+                    if (o != root) sink.accept(o, Double.NaN, Double.NaN);
+                }
+                return;
+            }
+            int[] nodes = new int[others.length];
+            for (int k = 0; k < others.length; k++) {
+                nodes[k] = others[k] == root ? -1 : nodeByLoc[others[k]];
+            }
+            GraphSweep sweep = idleSweeps.pollFirst();
+            if (sweep == null) {
+                sweep = new GraphSweep(queryGraph, qWeighting);
+            }
+            try {
+                sweep.run(rootNode, reverse, nodes, weightLimit);
+                for (int k = 0; k < others.length; k++) {
+                    int o = others[k];
+                    if (o == root) continue;
+                    if (sweep.reached(nodes[k])) {
+                        // Giây nguyên, cùng quy ước với row() và nhánh per-pair
+                        sink.accept(o, sweep.meters(nodes[k]), (double) (sweep.millis(nodes[k]) / 1000));
+                    } else {
+                        sink.accept(o, Double.NaN, Double.NaN);
+                    }
+                }
+            } finally {
+                idleSweeps.offerFirst(sweep);
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,273 @@
+package org.truong.gvrp_engine_api.distance_matrix.Impl;
+
+import com.graphhopper.GraphHopper;
+import com.graphhopper.routing.ch.ShortcutUnpacker;
+import com.graphhopper.routing.ev.Subnetwork;
+import com.graphhopper.routing.querygraph.QueryGraph;
+import com.graphhopper.routing.querygraph.QueryRoutingCHGraph;
+import com.graphhopper.routing.util.DefaultSnapFilter;
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.storage.RoutingCHEdgeExplorer;
+import com.graphhopper.storage.RoutingCHEdgeIterator;
+import com.graphhopper.storage.RoutingCHGraph;
+import com.graphhopper.storage.index.LocationIndex;
+import com.graphhopper.storage.index.Snap;
+import com.graphhopper.util.EdgeIterator;
+import com.graphhopper.util.GHUtility;
+import lombok.extern.slf4j.Slf4j;
+import org.truong.gvrp_engine_api.distance_matrix.OptCoordinates;
+import org.truong.gvrp_engine_api.distance_matrix.PairSink;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Many-to-many trên CH sẵn có của profile "car" — thuật toán bucket (Knopp et al.).
+ *
+ * <pre>
+ *   1) Mỗi target t: MỘT lượt tìm kiếm ngược chỉ-đi-lên (upward) → mỗi nhãn (v, w_b)
+ *      được thả vào bucket[v] dưới dạng (t, w_b).
+ *   2) Mỗi source s: MỘT lượt tìm kiếm xuôi upward → tại mỗi nhãn (v, w_f), quét
+ *      bucket[v]: d(s, t) = min(w_f + w_b) trên mọi v gặp nhau.
+ * </pre>
+ * Một khối S×S từ S² truy vấn point-to-point còn 2·S lượt tìm kiếm upward (mỗi lượt
+ * chỉ chạm vài trăm-vài nghìn nút nhờ CH) + phép ghép qua bucket.
+ *
+ * <p><b>Edge-based:</b> profile có turn cost nên đồ thị CH là edge-based. Trạng thái của
+ * tìm kiếm là CẠNH GỐC đi vào (xuôi) / đi ra (ngược) nút, không phải nút; turn cost
+ * cộng khi nối hai cạnh tại nút — kể cả tại nút gặp nhau giữa hai chiều. Vì vậy kết
+ * quả khớp {@code graphHopper.route()} (có turn cost), khác ONE_TO_MANY node-based.
+ *
+ * <p><b>Distance/time:</b> CH chỉ lưu weight. Mỗi cạnh CH được unpack (ShortcutUnpacker)
+ * MỘT lần trong khối để lấy mét + ms của các cạnh gốc bên trong, rồi cộng dọn theo nhãn —
+ * không phải dựng lại đường đi cho S² cặp.
+ *
+ * <p>Không thread-safe theo instance khối: mỗi lời gọi {@link #compute} tự tạo QueryGraph
+ * và state riêng, nên nhiều luồng gọi song song trên nhiều khối là an toàn.
+ */
+@Slf4j
+public final class ChManyToManyEngine {
+
+    private final GraphHopper hopper;
+    private final RoutingCHGraph chGraph;
+    private final EdgeFilter snapFilter;
+
+    /** Nút có id >= số nút CH gốc là nút ảo của QueryGraph — luôn được đi qua. */
+    private final int realNodes;
+
+    public ChManyToManyEngine(GraphHopper hopper, String profileName) {
+        this.hopper = hopper;
+        this.chGraph = hopper.getCHGraphs().get(profileName);
+        if (chGraph == null) {
+            throw new IllegalStateException("Không có CH graph cho profile '" + profileName
+                    + "' — kiểm tra CHProfile trong GraphHoperDistanceProvider");
+        }
+        this.realNodes = chGraph.getNodes();
+        this.snapFilter = new DefaultSnapFilter(
+                chGraph.getWeighting(),
+                hopper.getEncodingManager().getBooleanEncodedValue(Subnetwork.key(profileName)));
+    }
+
+    /** Nhãn của một trạng thái tìm kiếm. key = cạnh gốc vào (xuôi) / ra (ngược), -1 ở gốc. */
+    private record Label(int node, int key, double weight, double meters, long millis) {
+    }
+
+    /** Phần tử bucket của target t tại một nút. */
+    private record BucketEntry(int target, int key, double weight, double meters, long millis) {
+    }
+
+    /** Trạng thái dùng chung trong một khối: QueryGraph + bộ nhớ unpack cạnh CH. */
+    private final class Block {
+        final QueryRoutingCHGraph graph;
+        final RoutingCHEdgeExplorer outExplorer;
+        final RoutingCHEdgeExplorer inExplorer;
+        final ShortcutUnpacker unpacker;
+        final Map<Long, double[]> unpacked = new HashMap<>();
+
+        // Tích lũy của lần unpack hiện tại (visitor không trả giá trị)
+        double accMeters;
+        long accMillis;
+
+        Block(QueryGraph queryGraph) {
+            this.graph = new QueryRoutingCHGraph(chGraph, queryGraph);
+            this.outExplorer = graph.createOutEdgeExplorer();
+            this.inExplorer = graph.createInEdgeExplorer();
+            this.unpacker = new ShortcutUnpacker(graph, (edge, reverse, prevOrNextEdgeId) -> {
+                accMeters += edge.getDistance();
+                accMillis += GHUtility.calcMillisWithTurnMillis(
+                        graph.getWeighting(), edge, reverse, prevOrNextEdgeId);
+            }, true);
+        }
+
+        /** {meters, millis} của cạnh CH khi đi xuôi và kết thúc tại {@code endNode}. */
+        double[] cost(int chEdge, int endNode) {
+            long memoKey = ((long) chEdge << 32) | (endNode & 0xFFFF_FFFFL);
+            double[] c = unpacked.get(memoKey);
+            if (c == null) {
+                accMeters = 0;
+                accMillis = 0;
+                // NO_EDGE ở đầu: turn cost khi VÀO cạnh này được cộng riêng lúc relax,
+                // để giá trị memo không phụ thuộc cạnh đi trước.
+                unpacker.visitOriginalEdgesFwd(chEdge, endNode, false, EdgeIterator.NO_EDGE);
+                c = new double[]{accMeters, accMillis};
+                unpacked.put(memoKey, c);
+            }
+            return c;
+        }
+
+        double turnWeight(int inKey, int via, int outKey) {
+            if (inKey < 0 || outKey < 0) return 0;
+            return graph.getTurnWeight(
+                    GHUtility.getEdgeFromEdgeKey(inKey), via, GHUtility.getEdgeFromEdgeKey(outKey));
+        }
+
+        boolean upward(int base, int adj) {
+            return base >= realNodes || adj >= realNodes || graph.getLevel(base) <= graph.getLevel(adj);
+        }
+    }
+
+    /**
+     * Tính cả khối sources × targets. {@code sink} nhận chỉ số cục bộ đúng một lần mỗi
+     * cặp; điểm không snap được hoặc cặp không có đường → NaN.
+     */
+    public void compute(List<OptCoordinates> sources, List<OptCoordinates> targets, PairSink sink) {
+        LocationIndex index = hopper.getLocationIndex();
+        Map<OptCoordinates, Snap> snapByPoint = new HashMap<>();
+        List<Snap> valid = new ArrayList<>();
+        Snap[] srcSnap = snapAll(sources, index, snapByPoint, valid);
+        Snap[] dstSnap = sources == targets ? srcSnap : snapAll(targets, index, snapByPoint, valid);
+
+        // Sau create(), getClosestNode() của mỗi Snap trỏ vào nút ảo tương ứng.
+        Block block = new Block(QueryGraph.create(hopper.getBaseGraph(), valid));
+
+        // 1) Tìm kiếm ngược từ mỗi target → buckets theo nút
+        Map<Integer, List<BucketEntry>> buckets = new HashMap<>();
+        for (int t = 0; t < targets.size(); t++) {
+            if (dstSnap[t] == null) continue;
+            for (Label l : upwardSearch(block, dstSnap[t].getClosestNode(), false)) {
+                buckets.computeIfAbsent(l.node(), k -> new ArrayList<>())
+                        .add(new BucketEntry(t, l.key(), l.weight(), l.meters(), l.millis()));
+            }
+        }
+
+        // 2) Tìm kiếm xuôi từ mỗi source, ghép qua bucket
+        int m = targets.size();
+        double[] bestW = new double[m];
+        double[] bestM = new double[m];
+        long[] bestMs = new long[m];
+        for (int s = 0; s < sources.size(); s++) {
+            if (srcSnap[s] == null) {
+                for (int t = 0; t < m; t++) sink.accept(s, t, Double.NaN, Double.NaN);
+                continue;
+            }
+            Arrays.fill(bestW, Double.POSITIVE_INFINITY);
+            for (Label f : upwardSearch(block, srcSnap[s].getClosestNode(), true)) {
+                List<BucketEntry> bucket = buckets.get(f.node());
+                if (bucket == null) continue;
+                for (BucketEntry b : bucket) {
+                    double turn = block.turnWeight(f.key(), f.node(), b.key());
+                    if (Double.isInfinite(turn)) continue;
+                    double w = f.weight() + turn + b.weight();
+                    if (w < bestW[b.target()]) {
+                        bestW[b.target()] = w;
+                        bestM[b.target()] = f.meters() + b.meters();
+                        // Turn cost của GH tính bằng giây → ms = weight × 1000
+                        bestMs[b.target()] = f.millis() + b.millis() + Math.round(turn * 1000);
+                    }
+                }
+            }
+            for (int t = 0; t < m; t++) {
+                if (Double.isInfinite(bestW[t])) {
+                    sink.accept(s, t, Double.NaN, Double.NaN);
+                } else {
+                    // Cắt về giây nguyên như Duration.getSeconds() của nhánh per-pair.
+                    sink.accept(s, t, bestM[t], (double) (bestMs[t] / 1000));
+                }
+            }
+        }
+    }
+
+    private Snap[] snapAll(List<OptCoordinates> points, LocationIndex index,
+                           Map<OptCoordinates, Snap> snapByPoint, List<Snap> valid) {
+        Snap[] out = new Snap[points.size()];
+        for (int k = 0; k < points.size(); k++) {
+            OptCoordinates c = points.get(k);
+            Snap s = snapByPoint.get(c);
+            if (s == null && !snapByPoint.containsKey(c)) {
+                Snap found = index.findClosest(c.latDouble(), c.lonDouble(), snapFilter);
+                s = found.isValid() ? found : null;
+                snapByPoint.put(c, s);
+                if (s != null) {
+                    valid.add(s);
+                } else {
+                    log.warn("[ManyToMany] Không snap được điểm ({},{})", c.latDouble(), c.lonDouble());
+                }
+            }
+            out[k] = s;
+        }
+        return out;
+    }
+
+    /**
+     * Dijkstra edge-based chỉ đi lên trong hierarchy, chạy tới khi cạn hàng đợi (không
+     * có điều kiện dừng — many-to-many cần TOÀN BỘ không gian tìm kiếm upward).
+     *
+     * @return nhãn tốt nhất của mọi trạng thái đã chạm
+     */
+    private List<Label> upwardSearch(Block block, int start, boolean forward) {
+        final int startKey = Integer.MIN_VALUE; // khác mọi edge key (>= 0)
+        Map<Integer, Label> best = new HashMap<>();
+        PriorityQueue<Label> queue = new PriorityQueue<>((a, b) -> Double.compare(a.weight(), b.weight()));
+        Label root = new Label(start, -1, 0, 0, 0);
+        best.put(startKey, root);
+        queue.add(root);
+
+        while (!queue.isEmpty()) {
+            Label cur = queue.poll();
+            Label known = best.get(cur.key() < 0 ? startKey : cur.key());
+            if (known != cur) continue; // nhãn cũ đã bị thay
+
+            RoutingCHEdgeIterator it = forward
+                    ? block.outExplorer.setBaseNode(cur.node())
+                    : block.inExplorer.setBaseNode(cur.node());
+            while (it.next()) {
+                int adj = it.getAdjNode();
+                if (!block.upward(cur.node(), adj)) continue;
+
+                double edgeWeight = it.getWeight(!forward);
+                if (Double.isInfinite(edgeWeight)) continue;
+
+                int key;
+                double turn;
+                double[] cost;
+                if (forward) {
+                    // Đi cur → adj: cạnh gốc đầu tiên rời cur, cạnh gốc cuối cùng vào adj
+                    key = it.getOrigEdgeKeyLast();
+                    turn = block.turnWeight(cur.key(), cur.node(), it.getOrigEdgeKeyFirst());
+                    cost = block.cost(it.getEdge(), adj);
+                } else {
+                    // Chiều xuôi là adj → cur: cạnh gốc cuối vào cur, cạnh gốc đầu rời adj
+                    key = it.getOrigEdgeKeyFirst();
+                    turn = block.turnWeight(it.getOrigEdgeKeyLast(), cur.node(), cur.key());
+                    cost = block.cost(it.getEdge(), cur.node());
+                }
+                if (Double.isInfinite(turn)) continue;
+
+                double w = cur.weight() + edgeWeight + turn;
+                Label prev = best.get(key);
+                if (prev == null || w < prev.weight()) {
+                    Label next = new Label(adj, key, w,
+                            cur.meters() + cost[0],
+                            cur.millis() + (long) cost[1] + Math.round(turn * 1000));
+                    best.put(key, next);
+                    queue.add(next);
+                }
+            }
+        }
+        return new ArrayList<>(best.values());
+    }
+}
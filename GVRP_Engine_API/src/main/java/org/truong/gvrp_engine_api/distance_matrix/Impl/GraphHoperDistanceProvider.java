@@ -14,10 +14,12 @@ import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.truong.gvrp_engine_api.distance_matrix.CoordinateColumns;
 import org.truong.gvrp_engine_api.distance_matrix.Distance;
 import org.truong.gvrp_engine_api.distance_matrix.DistanceMatrixEntry;
 import org.truong.gvrp_engine_api.distance_matrix.DistanceProvider;
 import org.truong.gvrp_engine_api.distance_matrix.OptCoordinates;
+import org.truong.gvrp_engine_api.distance_matrix.PairSink;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -40,9 +42,16 @@ public class GraphHoperDistanceProvider implements DistanceProvider {
 //    @Value("${graphhopper.profile}")
 //    private String profile;
 
+    /** Tóm tắt profile "car" bên dưới — một phần namespace của cell cache. */
+    static final String PROFILE_SIGNATURE =
+            "car|custom|speed<=50|destination*0.5|turn=motorcar,motor_vehicle,delivery:60";
+
     @Getter
     private GraphHopper graphHopper;
 
+    /** Tạo lười ở lần fetchBlock đầu tiên — cần graphHopper đã import xong. */
+    private volatile ChManyToManyEngine manyToMany;
+
     @PostConstruct
     public void init() {
         try {
@@ -84,6 +93,23 @@ public class GraphHoperDistanceProvider implements DistanceProvider {
         // Set graph storage location
         hopper.setGraphHopperLocation(graphLocation);
 
+        configureCarProfile(hopper);
+
+        // Import or load (will use cached graph if available)
+        long startTime = System.currentTimeMillis();
+        hopper.importOrLoad();
+        long elapsed = System.currentTimeMillis() - startTime;
+
+        log.info("✓ Graph built/loaded in {} seconds", elapsed / 1000);
+
+        return hopper;
+    }
+
+    /**
+     * Profile "car" (custom model + turn cost) và CH của nó — tách riêng để test dựng đồ thị
+     * nhỏ với ĐÚNG profile production. Sửa ở đây thì sửa {@link #PROFILE_SIGNATURE} theo.
+     */
+    static void configureCarProfile(GraphHopper hopper) {
         hopper.setEncodedValuesString("road_access");
 
         TurnCostsConfig turnCostsConfig = new TurnCostsConfig(
@@ -116,15 +142,6 @@ public class GraphHoperDistanceProvider implements DistanceProvider {
         // Enable Contraction Hierarchies for faster routing
         hopper.getCHPreparationHandler()
                 .setCHProfiles(new CHProfile("car"));
-
-        // Import or load (will use cached graph if available)
-        long startTime = System.currentTimeMillis();
-        hopper.importOrLoad();
-        long elapsed = System.currentTimeMillis() - startTime;
-
-        log.info("✓ Graph built/loaded in {} seconds", elapsed / 1000);
-
-        return hopper;
     }
 
     @Override
@@ -154,6 +171,82 @@ public class GraphHoperDistanceProvider implements DistanceProvider {
         );
     }
 
+    /**
+     * Cùng truy vấn {@link #fetch} cho từng ô, nhưng ghi primitive thẳng vào mảng: bỏ
+     * DistanceMatrixEntry / Duration / Distance / BigDecimal và exception theo ô lỗi.
+     * Request/response của GraphHopper vẫn cấp phát như cũ — phần đó nằm trong thư viện.
+     */
+    @Override
+    public void fetchRow(CoordinateColumns coordinates, int source, int[] targets,
+                         double[] meters, double[] seconds) {
+        if (graphHopper == null) {
+            DistanceProvider.super.fetchRow(coordinates, source, targets, meters, seconds);
+            return;
+        }
+        double fromLat = coordinates.lat(source);
+        double fromLon = coordinates.lon(source);
+        for (int k = 0; k < targets.length; k++) {
+            int j = targets[k];
+            if (j == source) {
+                meters[k] = 0.0;
+                seconds[k] = 0.0;
+                continue;
+            }
+            GHResponse response = graphHopper.route(
+                    new GHRequest(fromLat, fromLon, coordinates.lat(j), coordinates.lon(j))
+                            .setProfile("car")
+                            .setLocale(Locale.ENGLISH));
+            if (response.hasErrors()) {
+                log.warn("GraphHopper routing error: {}", response.getErrors());
+                meters[k] = Double.NaN;
+                seconds[k] = Double.NaN;
+                continue;
+            }
+            var path = response.getBest();
+            meters[k] = path.getDistance();
+            // giây nguyên như Duration.ofMillis(...).getSeconds() của fetch
+            seconds[k] = path.getTime() / 1000;
+        }
+    }
+
+    /**
+     * Khối sources × targets bằng CH bucket many-to-many ({@link ChManyToManyEngine}):
+     * ~2·S lượt tìm kiếm upward thay vì S² lần {@code graphHopper.route()}, vẫn có turn cost.
+     */
+    @Override
+    public void fetchBlock(List<OptCoordinates> sources, List<OptCoordinates> targets, PairSink sink) {
+        if (graphHopper == null) {
+            DistanceProvider.super.fetchBlock(sources, targets, sink);
+            return;
+        }
+        ChManyToManyEngine engine = manyToMany;
+        if (engine == null) {
+            synchronized (this) {
+                if (manyToMany == null) {
+                    manyToMany = new ChManyToManyEngine(graphHopper, "car");
+                }
+                engine = manyToMany;
+            }
+        }
+        engine.compute(sources, targets, sink);
+    }
+
+    /**
+     * File OSM (đường dẫn + kích thước) + chữ ký custom model. Sửa tốc độ / turn cost ở
+     * {@link #configureCarProfile} thì PHẢI sửa {@link #PROFILE_SIGNATURE} theo,
+     * nếu không cell cache sẽ tiếp tục trả số liệu của profile cũ.
+     */
+    @Override
+    public String cacheNamespace() {
+        long osmBytes;
+        try {
+            osmBytes = Files.size(Paths.get(osmFilePath));
+        } catch (Exception e) {
+            osmBytes = -1;
+        }
+        return osmFilePath + "#" + osmBytes + "|" + PROFILE_SIGNATURE;
+    }
+
     @PreDestroy
     public void cleanup() {
         if (graphHopper != null) {
@@ -0,0 +1,162 @@
+package org.truong.gvrp_engine_api.distance_matrix.Impl;
+
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.util.EdgeExplorer;
+import com.graphhopper.util.EdgeIterator;
+
+import java.util.Arrays;
+
+/**
+ * Dijkstra một nguồn → NHIỀU đích (xuôi) hoặc nhiều nguồn → một đích (ngược), chạy
+ * thẳng trên đồ thị, dừng khi mọi node đích đã chốt — cho dải rộng (depot) của ma trận.
+ * <p>
+ * VÌ SAO không dùng {@code DijkstraOneToMany}: nó chỉ có chiều XUÔI. Cột depot (mọi
+ * order → depot) cần cây NGƯỢC: duyệt cạnh theo chiều ngược, weight của cạnh adj → base
+ * ({@code calcEdgeWeight(edge, reverse=true)}). Một cây ngược thay cho n truy vấn
+ * point-to-point — đó là toàn bộ điểm của lớp này.
+ * <p>
+ * Quãng đường / thời gian cộng dồn dọc đúng cây weight nhỏ nhất, nên khớp {@code Path}
+ * mà Dijkstra của GraphHopper trả về cho cùng cặp (node-based, không turn cost).
+ * <p>
+ * KHÔNG thread-safe: mảng cỡ số node + heap là trạng thái; mỗi luồng mượn một instance
+ * (xem {@code Session}). Dùng "tem" vòng chạy thay cho {@code Arrays.fill} mỗi lần: xóa
+ * mảng cỡ vài triệu node cho mỗi depot đắt hơn chính cây tìm kiếm cục bộ.
+ */
+final class GraphSweep {
+
+    private final Weighting weighting;
+    private final EdgeExplorer explorer;
+
+    private final double[] weight;
+    private final double[] meters;
+    private final long[] millis;
+    private final int[] seenStamp;
+    private final int[] settledStamp;
+    private final int[] targetStamp;
+    private int round;
+
+    // Heap nhị phân (weight, node) với xóa lười: node có thể nằm nhiều lần, bản cũ bị bỏ khi pop.
+    private int[] heapNode = new int[1024];
+    private double[] heapKey = new double[1024];
+    private int heapSize;
+
+    GraphSweep(Graph graph, Weighting weighting) {
+        this.weighting = weighting;
+        this.explorer = graph.createEdgeExplorer(EdgeFilter.ALL_EDGES);
+        int nodes = graph.getNodes();
+        this.weight = new double[nodes];
+        this.meters = new double[nodes];
+        this.millis = new long[nodes];
+        this.seenStamp = new int[nodes];
+        this.settledStamp = new int[nodes];
+        this.targetStamp = new int[nodes];
+    }
+
+    /**
+     * Chạy một cây từ {@code root}.
+     *
+     * @param reverse     false = root → mọi đích; true = mọi đích → root
+     * @param targetNodes node cần chốt (âm = bỏ qua); cây dừng khi chốt hết
+     * @param weightLimit weight vượt cận thì không nở tiếp — đích ngoài cận coi như không tới được
+     */
+    void run(int root, boolean reverse, int[] targetNodes, double weightLimit) {
+        if (++round == Integer.MAX_VALUE) {
+            // Tem quấn vòng sau ~2 tỉ lần chạy — xóa thật một lần cho chắc
+            Arrays.fill(seenStamp, 0);
+            Arrays.fill(settledStamp, 0);
+            Arrays.fill(targetStamp, 0);
+            round = 1;
+        }
+        int remaining = 0;
+        for (int t : targetNodes) {
+            if (t >= 0 && targetStamp[t] != round) {
+                targetStamp[t] = round;
+                remaining++;
+            }
+        }
+        heapSize = 0;
+        seenStamp[root] = round;
+        weight[root] = 0;
+        meters[root] = 0;
+        millis[root] = 0;
+        push(root, 0);
+
+        while (heapSize > 0 && remaining > 0) {
+            double key = heapKey[0];
+            int node = pop();
+            if (settledStamp[node] == round || key > weight[node]) continue;
+            settledStamp[node] = round;
+            if (targetStamp[node] == round) remaining--;
+
+            EdgeIterator it = explorer.setBaseNode(node);
+            while (it.next()) {
+                int adj = it.getAdjNode();
+                if (settledStamp[adj] == round) continue;
+                double w = weighting.calcEdgeWeight(it, reverse);
+                if (Double.isInfinite(w)) continue;
+                double nw = key + w;
+                if (nw > weightLimit) continue;
+                if (seenStamp[adj] != round || nw < weight[adj]) {
+                    seenStamp[adj] = round;
+                    weight[adj] = nw;
+                    meters[adj] = meters[node] + it.getDistance();
+                    millis[adj] = millis[node] + weighting.calcEdgeMillis(it, reverse);
+                    push(adj, nw);
+                }
+            }
+        }
+    }
+
+    /** Node đã chốt ở lần {@link #run} gần nhất (tức là có đường trong cận). */
+    boolean reached(int node) {
+        return node >= 0 && settledStamp[node] == round;
+    }
+
+    double meters(int node) {
+        return meters[node];
+    }
+
+    long millis(int node) {
+        return millis[node];
+    }
+
+    // ==================== HEAP ====================
+
+    private void push(int node, double key) {
+        if (heapSize == heapNode.length) {
+            heapNode = Arrays.copyOf(heapNode, heapSize * 2);
+            heapKey = Arrays.copyOf(heapKey, heapSize * 2);
+        }
+        int k = heapSize++;
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+            if (heapKey[parent] <= key) break;
+            heapNode[k] = heapNode[parent];
+            heapKey[k] = heapKey[parent];
+            k = parent;
+        }
+        heapNode[k] = node;
+        heapKey[k] = key;
+    }
+
+    private int pop() {
+        int top = heapNode[0];
+        int lastNode = heapNode[--heapSize];
+        double lastKey = heapKey[heapSize];
+        int k = 0;
+        int half = heapSize >>> 1;
+        while (k < half) {
+            int child = 2 * k + 1;
+            if (child + 1 < heapSize && heapKey[child + 1] < heapKey[child]) child++;
+            if (lastKey <= heapKey[child]) break;
+            heapNode[k] = heapNode[child];
+            heapKey[k] = heapKey[child];
+            k = child;
+        }
+        heapNode[k] = lastNode;
+        heapKey[k] = lastKey;
+        return top;
+    }
+}
@@ -0,0 +1,200 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Lưu ma trận THƯA theo k láng giềng gần nhất — cho job KHÔNG có cụm (dưới
+ * {@code CLUSTER_FIRST_ORDER_THRESHOLD}, nhánh Pareto) thay vì rơi về dày O(n²).
+ * <p>
+ * Tập ô lưu khớp TUYỆT ĐỐI tập {@link MatrixMask#needed} của mask kNN:
+ * <pre>
+ *   needed(i,j) = (i hoặc j là DEPOT)      -> dải rộng, như block
+ *              ∨ (j ∈ neighbours[i])       -> hàng thưa của i
+ * </pre>
+ * Mọi ô khác đọc ra sentinel, nên {@code NoPrunedEdgeConstraint} chặn chúng y như
+ * cạnh xuyên cụm — không constraint nào phải đổi.
+ * <p>
+ * <b>Bộ nhớ:</b> {@code bytesPerCell × (Σ|neighbours[i]| + 2·D·n)} ≤
+ * {@code 16 × (2·k·N + 2·D·n)}. N = 10 000, k = 40, D = 5: 14.4 MB thay vì 1.49 GiB dày.
+ * <p>
+ * <b>Đọc:</b> O(log k) — tìm nhị phân j trong hàng đã sắp của i. Chậm hơn block
+ * (O(1)) vài ns mỗi lần, đổi lấy việc không cần gán cụm.
+ * <p>
+ * <b>Thread-safety khi ghi:</b> như {@link BlockDiagonalCostMatrix} — hàng thưa của i
+ * và {@code wideCol[d][i]} chỉ được ghi bởi thread sở hữu hàng i.
+ */
+public final class KNearestCostMatrix implements CostMatrix {
+
+    private final int n;
+    private final int[][] neighbours;     // [i] tăng dần, rỗng với depot
+    private final CellStore[] rows;       // [i] song song với neighbours[i]
+    private final int[] wideIdx;          // index trong dải depot, -1 nếu không phải depot
+    private final CellStore[] wideRow;    // [d] ô j : depot -> j
+    private final CellStore[] wideCol;    // [d] ô i : i -> depot
+    private final int[] depots;
+    private final int[] allTargets;
+    private final CellEncoding encoding;
+    private final MatrixStorage storage;
+
+    private KNearestCostMatrix(int n, int[][] neighbours, CellStore[] rows, int[] wideIdx,
+                               CellStore[] wideRow, CellStore[] wideCol, int[] depots,
+                               CellEncoding encoding, MatrixStorage storage) {
+        this.n = n;
+        this.neighbours = neighbours;
+        this.rows = rows;
+        this.wideIdx = wideIdx;
+        this.wideRow = wideRow;
+        this.wideCol = wideCol;
+        this.depots = depots;
+        this.allTargets = new int[n];
+        for (int i = 0; i < n; i++) allTargets[i] = i;
+        this.encoding = encoding;
+        this.storage = storage;
+    }
+
+    // ==================== BUILD ====================
+
+    public static KNearestCostMatrix allocate(MatrixMask mask) {
+        return allocate(mask, CellEncoding.DOUBLE64, MatrixStorage.HEAP, null);
+    }
+
+    public static KNearestCostMatrix allocate(MatrixMask mask, CellEncoding encoding,
+                                              MatrixStorage storage, Path spillDir) {
+        if (!mask.isNearest()) {
+            throw new IllegalArgumentException("KNearestCostMatrix cần mask kNN (MatrixMask.nearest)");
+        }
+        int[][] neighbours = mask.neighbours();
+        boolean[] depotByLoc = mask.depotByLoc();
+        int n = neighbours.length;
+
+        int[] wideIdx = new int[n];
+        int d = 0;
+        long sparseCells = 0;
+        for (int i = 0; i < n; i++) {
+            wideIdx[i] = depotByLoc[i] ? d++ : -1;
+            sparseCells += neighbours[i].length;
+        }
+        int[] depots = new int[d];
+        for (int i = 0; i < n; i++) {
+            if (wideIdx[i] >= 0) depots[wideIdx[i]] = i;
+        }
+
+        long bytes = encoding.bytesPerCell() * (sparseCells + 2L * d * n);
+        MatrixStorage resolved = storage.resolve(bytes, Runtime.getRuntime().maxMemory());
+        OffHeapCells offHeap = resolved.offHeap()
+                ? OffHeapCells.allocate(bytes, encoding, resolved, spillDir)
+                : null;
+
+        CellStore[] rows = new CellStore[n];
+        for (int i = 0; i < n; i++) {
+            int cells = neighbours[i].length;
+            rows[i] = offHeap != null ? offHeap.slice(cells) : encoding.allocate(cells);
+        }
+        CellStore[] wideRow = new CellStore[d];
+        CellStore[] wideCol = new CellStore[d];
+        for (int k = 0; k < d; k++) {
+            wideRow[k] = offHeap != null ? offHeap.slice(n) : encoding.allocate(n);
+            wideCol[k] = offHeap != null ? offHeap.slice(n) : encoding.allocate(n);
+        }
+        return new KNearestCostMatrix(n, neighbours, rows, wideIdx, wideRow, wideCol, depots,
+                encoding, resolved);
+    }
+
+    /** Các j cần tính cho hàng i: depot → cả hàng; order → láng giềng ∪ depot. */
+    public int[] targetsFor(int i) {
+        if (wideIdx[i] >= 0) return allTargets;
+        int[] nb = neighbours[i];
+        int[] t = Arrays.copyOf(nb, nb.length + depots.length);
+        System.arraycopy(depots, 0, t, nb.length, depots.length);
+        return t;
+    }
+
+    /** Ghi một ô; cặp không có chỗ lưu bị BỎ QUA im lặng (getter trả sentinel). */
+    public void put(int i, int j, double distance, double time) {
+        if (i == j) return;
+        int wi = wideIdx[i];
+        if (wi >= 0) {
+            wideRow[wi].put(j, distance, time);
+            return;
+        }
+        int wj = wideIdx[j];
+        if (wj >= 0) {
+            wideCol[wj].put(i, distance, time);
+            return;
+        }
+        int k = Arrays.binarySearch(neighbours[i], j);
+        if (k >= 0) rows[i].put(k, distance, time);
+    }
+
+    // ==================== READ ====================
+    // Thứ tự nhánh PHẢI khớp put() và MatrixMask.needed().
+
+    @Override
+    public double distanceMeters(int i, int j) {
+        if (i == j) return 0.0;
+        int wi = wideIdx[i];
+        if (wi >= 0) return wideRow[wi].distance(j);
+        int wj = wideIdx[j];
+        if (wj >= 0) return wideCol[wj].distance(i);
+        int k = Arrays.binarySearch(neighbours[i], j);
+        return k >= 0 ? rows[i].distance(k) : MatrixMask.PRUNED_METERS;
+    }
+
+    @Override
+    public double timeSeconds(int i, int j) {
+        if (i == j) return 0.0;
+        int wi = wideIdx[i];
+        if (wi >= 0) return wideRow[wi].time(j);
+        int wj = wideIdx[j];
+        if (wj >= 0) return wideCol[wj].time(i);
+        int k = Arrays.binarySearch(neighbours[i], j);
+        return k >= 0 ? rows[i].time(k) : MatrixMask.PRUNED_SECONDS;
+    }
+
+    @Override
+    public int size() {
+        return n;
+    }
+
+    @Override
+    public long allocatedBytes() {
+        return encoding.bytesPerCell() * storedCells();
+    }
+
+    @Override
+    public String layout() {
+        return "K_NEAREST" + MatrixMemory.layoutQualifiers(
+                String.format("deg≈%.1f, D=%d", averageDegree(), depots.length), encoding, storage);
+    }
+
+    // ==================== THÔNG TIN CHO LOG / TEST ====================
+
+    /** Số ô có chỗ lưu (cùng quy ước đếm dải rộng với {@link MatrixMemory#blockCells}). */
+    public long storedCells() {
+        long cells = 2L * depots.length * n;
+        for (int[] nb : neighbours) cells += nb.length;
+        return cells;
+    }
+
+    /** Số láng giềng trung bình của một order sau đối xứng hóa (k ≤ deg ≤ 2k). */
+    public double averageDegree() {
+        int orders = n - depots.length;
+        if (orders <= 0) return 0;
+        long sum = 0;
+        for (int[] nb : neighbours) sum += nb.length;
+        return sum / (double) orders;
+    }
+
+    public int depotCount() {
+        return depots.length;
+    }
+
+    public CellEncoding encoding() {
+        return encoding;
+    }
+
+    public MatrixStorage storage() {
+        return storage;
+    }
+}
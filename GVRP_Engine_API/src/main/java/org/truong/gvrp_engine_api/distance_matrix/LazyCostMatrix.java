@@ -0,0 +1,408 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Ma trận TÍNH KHI ĐỌC: ô (i, j) chỉ được hỏi {@link DistanceProvider} ở lần đầu Jsprit
+ * đọc nó ({@code gvrp.matrix.build-mode=LAZY}).
+ * <p>
+ * Bản build trước trả tiền cho MỌI ô của mask, nhưng ruin-recreate chỉ thử chèn mỗi
+ * order cạnh các láng giềng đang nằm trên route — phần lớn ô không bao giờ được đọc.
+ * {@link #touchedCells()} / {@link #maskCells()} đo đúng tỉ lệ đó cho từng job, để
+ * quyết định build trước hay lazy bằng số liệu chứ không phải cảm giác.
+ * <p>
+ * <b>Lưu trữ:</b> {@value #STRIPES} bảng băm mở (open addressing) trên mảng nguyên
+ * thủy {@code long[] key / double[] dist / double[] time}, mỗi bảng một
+ * {@link StampedLock}. Đọc dùng optimistic read — không CAS, không ghi bộ nhớ dùng chung
+ * trên đường nóng; chỉ khi có ghi đồng thời vào CÙNG sọc mới rơi về read lock.
+ * {@code ConcurrentHashMap<Long, double[]>} sẽ tốn ~96 B/ô (xem {@link PatchedCostMatrix})
+ * thay vì ~48 B/ô ở tải 0.5.
+ * <p>
+ * <b>Single-flight:</b> hai luồng Jsprit cùng miss một ô thì chỉ một luồng gọi provider,
+ * luồng kia đợi future của nó. Khác {@link CachingDistanceProvider} (nơi mỗi ô chỉ có
+ * một người hỏi): ở đây các luồng insertion song song đọc trùng ô liên tục.
+ * <p>
+ * <b>Hợp đồng sentinel giữ nguyên:</b> ô ngoài mask trả sentinel mà không gọi provider;
+ * ô provider lỗi được lưu sentinel (như {@code fetchPair}) để không hỏi lại mỗi lần đọc.
+ */
+@Slf4j
+public final class LazyCostMatrix implements CostMatrix {
+
+    /** Lũy thừa của 2 — đủ rộng để ~nCPU luồng Jsprit hiếm khi ghi trùng sọc. */
+    static final int STRIPES = 64;
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final long EMPTY = -1L;
+    /** key(i) + dist + time */
+    private static final int BYTES_PER_SLOT = 24;
+
+    private final List<OptCoordinates> coordinates;
+    private final MatrixMask mask;
+    private final DistanceProvider provider;
+    private final int n;
+    private final long maskCells;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final ConcurrentHashMap<Long, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder computed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder waited = new LongAdder();
+
+    /**
+     * @param mask null = không prune (mọi ô i ≠ j đều có thể được hỏi)
+     */
+    public LazyCostMatrix(List<OptCoordinates> coordinates, MatrixMask mask, DistanceProvider provider) {
+        this.coordinates = coordinates;
+        // Mask đầy vẫn giữ lại nếu mang prune khả thi — nếu không ô bất khả thi sẽ bị tính
+        this.mask = mask != null && mask.isFull() && mask.feasibility() == null ? null : mask;
+        this.provider = provider;
+        this.n = coordinates.size();
+        this.maskCells = countNeeded(this.mask, n);
+        for (int s = 0; s < STRIPES; s++) stripes[s] = new Stripe();
+    }
+
+    // ==================== READ ====================
+
+    @Override
+    public double distanceMeters(int i, int j) {
+        if (i == j) return 0.0;
+        if (mask != null && !mask.needed(i, j)) return MatrixMask.PRUNED_METERS;
+        long key = (long) i * n + j;
+        Stripe s = stripeOf(key);
+        double v = s.get(key, false);
+        if (Double.isNaN(v)) {
+            load(i, j, key, s);
+            v = s.get(key, false);
+        }
+        return v;
+    }
+
+    @Override
+    public double timeSeconds(int i, int j) {
+        if (i == j) return 0.0;
+        if (mask != null && !mask.needed(i, j)) return MatrixMask.PRUNED_SECONDS;
+        long key = (long) i * n + j;
+        Stripe s = stripeOf(key);
+        double v = s.get(key, true);
+        if (Double.isNaN(v)) {
+            load(i, j, key, s);
+            v = s.get(key, true);
+        }
+        return v;
+    }
+
+    /** Miss → đúng MỘT luồng gọi provider cho ô này, các luồng khác đợi kết quả của nó. */
+    private void load(int i, int j, long key, Stripe s) {
+        CompletableFuture<Void> mine = new CompletableFuture<>();
+        CompletableFuture<Void> other = inFlight.putIfAbsent(key, mine);
+        if (other != null) {
+            waited.increment();
+            other.join();
+            return;
+        }
+        try {
+            // Luồng khác có thể đã nạp xong và gỡ future giữa lần đọc miss và putIfAbsent.
+            if (!Double.isNaN(s.get(key, false))) return;
+            double meters;
+            double seconds;
+            try {
+                DistanceMatrixEntry e = provider.fetch(coordinates.get(i), coordinates.get(j));
+                meters = e.distanceMeters();
+                seconds = e.timeSeconds();
+                computed.increment();
+            } catch (Exception e) {
+                log.warn("[Matrix] LAZY route {}->{} lỗi, lưu SENTINEL: {}", i, j, e.getMessage());
+                meters = MatrixMask.PRUNED_METERS;
+                seconds = MatrixMask.PRUNED_SECONDS;
+                failed.increment();
+            }
+            s.put(key, meters, seconds);
+        } finally {
+            inFlight.remove(key);
+            mine.complete(null);
+        }
+    }
+
+    private Stripe stripeOf(long key) {
+        return stripes[(int) (mix(key) >>> 58) & (STRIPES - 1)];
+    }
+
+    /** Murmur3 fmix64 — key liền nhau (cùng hàng i) phải rải đều qua sọc và slot. */
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    @Override
+    public int size() {
+        return n;
+    }
+
+    @Override
+    public long allocatedBytes() {
+        long bytes = 0;
+        for (Stripe s : stripes) bytes += s.capacityBytes();
+        return bytes;
+    }
+
+    @Override
+    public String layout() {
+        return String.format("LAZY(touched=%d/%d)", touchedCells(), maskCells);
+    }
+
+    // ==================== BỘ ĐẾM ====================
+
+    /** Số ô đã thực sự hỏi provider (kể cả ô lỗi) — mỗi ô đếm đúng một lần. */
+    public long touchedCells() {
+        return computed.sum() + failed.sum();
+    }
+
+    public long failedCells() {
+        return failed.sum();
+    }
+
+    /** Số lần một luồng phải đợi luồng khác đang hỏi cùng ô (single-flight có tác dụng). */
+    public long singleFlightWaits() {
+        return waited.sum();
+    }
+
+    /** Số ô i ≠ j mà mask cho phép — đúng số ô bản build trước sẽ tính. */
+    public long maskCells() {
+        return maskCells;
+    }
+
+    /** Phần ô của mask đã bị đọc; 1 − giá trị này là phần build trước trả tiền vô ích. */
+    public double touchedFraction() {
+        return maskCells == 0 ? 0.0 : touchedCells() / (double) maskCells;
+    }
+
+    /**
+     * Đếm ô needed(i, j), i ≠ j, bằng số học thay vì duyệt n² cặp:
+     * cặp có ít nhất một đầu "rộng" (depot / chưa gán cụm) + cặp hẹp hợp lệ (cùng cụm,
+     * láng giềng kNN, hoặc depot một phần ↔ cụm nó phục vụ).
+     * <p>
+     * Đếm theo BỐ CỤC ({@link MatrixMask#inLayout}): prune cửa sổ thời gian / ca làm không
+     * đếm được bằng số học, nên với mask có {@link PairFeasibility} đây là cận trên.
+     */
+    static long countNeeded(MatrixMask mask, int n) {
+        long all = (long) n * (n - 1);
+        if (mask == null || mask.isFull()) return all;
+
+        long narrowPairs = 0;
+        int wide = 0;
+        if (mask.isNearest()) {
+            boolean[] depot = mask.depotByLoc();
+            int[][] nb = mask.neighbours();
+            for (int i = 0; i < n; i++) {
+                if (depot[i]) wide++;
+                else narrowPairs += nb[i].length;
+            }
+        } else if (mask.haloByLoc() != null) {
+            return countNeededWithHalo(mask, n);
+        } else {
+            int[] labels = mask.clusterByLoc();
+            int maxLabel = -1;
+            for (int c : labels) maxLabel = Math.max(maxLabel, c);
+            long[] sizes = new long[maxLabel + 1];
+            int[][] served = mask.servedClusters();
+            long partial = 0;
+            for (int i = 0; i < n; i++) {
+                int c = labels[i];
+                if (c >= 0) sizes[c]++;
+                else if (c == MatrixMask.DEPOT && served != null && served[i] != null) partial++;
+                else wide++;
+            }
+            for (long s : sizes) narrowPairs += s * (s - 1);
+            // depot một phần ↔ depot một phần, và hai chiều tới order các cụm nó phục vụ
+            narrowPairs += partial * (partial - 1);
+            if (served != null) {
+                for (int[] list : served) {
+                    if (list == null) continue;
+                    for (int c : list) {
+                        if (c >= 0 && c <= maxLabel) narrowPairs += 2 * sizes[c];
+                    }
+                }
+            }
+        }
+        long narrow = n - wide;
+        return all - narrow * (narrow - 1) + narrowPairs;
+    }
+
+    /**
+     * Có halo thì cặp order–order là "chung một khối bất kỳ" — không còn là ΣS(S−1).
+     * Đếm theo khối: với mỗi order i, |hợp các khối của i| − 1 (dấu tem, O(N·S));
+     * depot một phần tương tự trên hợp các khối nó phục vụ.
+     */
+    private static long countNeededWithHalo(MatrixMask mask, int n) {
+        int[] labels = mask.clusterByLoc();
+        int[][] halo = mask.haloByLoc();
+        int[][] served = mask.servedClusters();
+        Map<Integer, List<Integer>> blocks = new HashMap<>();
+        long wide = 0, partial = 0;
+        for (int i = 0; i < n; i++) {
+            int c = labels[i];
+            if (c >= 0) {
+                blocks.computeIfAbsent(c, k -> new ArrayList<>()).add(i);
+                if (halo[i] != null) {
+                    for (int h : halo[i]) if (h != c) blocks.computeIfAbsent(h, k -> new ArrayList<>()).add(i);
+                }
+            } else if (c == MatrixMask.DEPOT && served != null && served[i] != null) {
+                partial++;
+            } else {
+                wide++;
+            }
+        }
+        int[] seen = new int[n];
+        int stamp = 0;
+        long narrowPairs = partial * (partial - 1);
+        for (int i = 0; i < n; i++) {
+            int c = labels[i];
+            if (c >= 0) {
+                stamp++;
+                long union = mark(blocks.get(c), seen, stamp);
+                if (halo[i] != null) {
+                    for (int h : halo[i]) union += mark(blocks.get(h), seen, stamp);
+                }
+                narrowPairs += union - 1;
+            } else if (c == MatrixMask.DEPOT && served != null && served[i] != null) {
+                stamp++;
+                long union = 0;
+                for (int s : served[i]) union += mark(blocks.get(s), seen, stamp);
+                narrowPairs += 2 * union;
+            }
+        }
+        long narrow = n - wide;
+        return (long) n * (n - 1) - narrow * (narrow - 1) + narrowPairs;
+    }
+
+    /** Đánh tem các phần tử chưa có tem; trả về số phần tử MỚI. */
+    private static long mark(List<Integer> members, int[] seen, int stamp) {
+        if (members == null) return 0;
+        long added = 0;
+        for (int m : members) {
+            if (seen[m] != stamp) {
+                seen[m] = stamp;
+                added++;
+            }
+        }
+        return added;
+    }
+
+    // ==================== BẢNG BĂM MỘT SỌC ====================
+
+    /**
+     * Bảng băm mở, dò tuyến tính, tải tối đa 0.5. Chỉ thêm, không xóa — nên chuỗi dò
+     * không bao giờ bị đứt và không cần tombstone.
+     */
+    private static final class Stripe {
+
+        private final StampedLock lock = new StampedLock();
+        private long[] keys;
+        private double[] dist;
+        private double[] time;
+        private int size;
+
+        Stripe() {
+            allocate(INITIAL_CAPACITY);
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            dist = new double[capacity];
+            time = new double[capacity];
+        }
+
+        /** NaN nếu chưa có. */
+        double get(long key, boolean wantTime) {
+            long stamp = lock.tryOptimisticRead();
+            double v = probe(key, wantTime);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    v = probe(key, wantTime);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return v;
+        }
+
+        /**
+         * Đọc qua biến cục bộ và giới hạn số bước dò theo độ dài mảng: dưới optimistic
+         * read, mảng có thể đang bị thay khi resize — kết quả khi đó bị validate() loại,
+         * nhưng vòng dò vẫn phải kết thúc và không được ra ngoài biên.
+         */
+        private double probe(long key, boolean wantTime) {
+            long[] k = keys;
+            double[] v = wantTime ? time : dist;
+            int mask = Math.min(k.length, v.length) - 1;
+            int slot = (int) mix(key) & mask;
+            for (int step = 0; step <= mask; step++) {
+                long cur = k[slot];
+                if (cur == key) return v[slot];
+                if (cur == EMPTY) return Double.NaN;
+                slot = (slot + 1) & mask;
+            }
+            return Double.NaN;
+        }
+
+        void put(long key, double meters, double seconds) {
+            long stamp = lock.writeLock();
+            try {
+                if ((size + 1) * 2 > keys.length) {
+                    rehash(keys.length * 2);
+                }
+                if (insert(key, meters, seconds)) size++;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private boolean insert(long key, double meters, double seconds) {
+            int mask = keys.length - 1;
+            int slot = (int) mix(key) & mask;
+            while (keys[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            boolean fresh = keys[slot] == EMPTY;
+            dist[slot] = meters;
+            time[slot] = seconds;
+            keys[slot] = key;
+            return fresh;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            double[] oldDist = dist;
+            double[] oldTime = time;
+            allocate(capacity);
+            for (int s = 0; s < oldKeys.length; s++) {
+                if (oldKeys[s] != EMPTY) insert(oldKeys[s], oldDist[s], oldTime[s]);
+            }
+        }
+
+        long capacityBytes() {
+            long stamp = lock.readLock();
+            try {
+                return (long) BYTES_PER_SLOT * keys.length;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+/**
+ * Cách {@link DistanceMatrixService} tính các ô của ma trận ({@code gvrp.matrix.build-mode}).
+ */
+public enum MatrixBuildMode {
+
+    /**
+     * Mỗi ô một lần {@link DistanceProvider#fetch} (CH point-to-point, có turn cost).
+     * Chậm nhất nhưng là chuẩn đối chiếu — mặc định.
+     */
+    PER_PAIR,
+
+    /**
+     * Mỗi HÀNG một cây Dijkstra one-to-many trên QueryGraph dùng chung, song song trên
+     * matrixPool. Node-based nên bỏ turn cost (lệch vài chục giây mỗi tuyến); ô nào cây
+     * không chạm tới trong weightLimit thì rơi về {@link #PER_PAIR} cho riêng ô đó.
+     */
+    ONE_TO_MANY,
+
+    /**
+     * Mỗi KHỐI (cụm S×S, dải rộng chia mảnh) một lần {@link DistanceProvider#fetchBlock}:
+     * với GraphHopper là CH bucket many-to-many, ~2·S lượt tìm kiếm thay vì S² truy vấn,
+     * vẫn giữ turn cost. Ô provider trả NaN thì rơi về {@link #PER_PAIR} cho riêng ô đó.
+     */
+    MANY_TO_MANY,
+
+    /**
+     * Không tính trước ô nào: trả {@link LazyCostMatrix}, mỗi ô hỏi provider ở lần đầu
+     * Jsprit đọc. Bỏ pha ma trận khỏi thời gian chờ, đổi lại mỗi miss chặn luồng solver
+     * một truy vấn CH. Log cuối job in tỉ lệ ô đã chạm / ô của mask.
+     */
+    LAZY
+}
@@ -2,13 +2,29 @@ package org.truong.gvrp_engine_api.distance_matrix;
 
 import com.graphhopper.jsprit.core.problem.Location;
 import org.truong.gvrp_engine_api.model.OptimizationContext;
+import org.truong.gvrp_engine_api.model.Vehicle;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
 
 /**
  * Quyết định cặp (i,j) trong ma trận có cần gọi GraphHopper hay không.
  * Cặp bị loại (pruned) sẽ được điền SENTINEL (∞ hữu hạn), KHÔNG phải 0.
+ * <p>
+ * Ba chế độ:
+ * <ul>
+ *   <li><b>đầy</b> — không prune (nhánh Pareto / job nhỏ khi tắt kNN);</li>
+ *   <li><b>cụm</b> ({@link #fromClusters}) — chung cụm (nhà hoặc halo) + dải depot, khớp
+ *       {@link BlockDiagonalCostMatrix};</li>
+ *   <li><b>kNN</b> ({@link #withNearestNeighbours}) — k láng giềng (đối xứng hóa) + dải depot,
+ *       khớp {@link KNearestCostMatrix}. Không cần gán cụm. Láng giềng chọn theo đường bộ
+ *       ({@link #withRoadNearestNeighbours}) hoặc chim bay (quick plan, test).</li>
+ * </ul>
+ * Trên nền cả ba, {@link #withFeasibility} gắn thêm prune cửa sổ thời gian / ca làm
+ * ({@link PairFeasibility}): cặp order–order chứng minh được là không thể kề nhau.
  */
 public final class MatrixMask {
 
@@ -30,27 +46,115 @@ public final class MatrixMask {
 
     private final int[] clusterByLoc;
     private final boolean full;
+    /** Depot theo index — null nếu mask không dựng từ context (test cũ). */
+    private final boolean[] depotByLoc;
+    /** Chỉ chế độ kNN: láng giềng ORDER của mỗi order, tăng dần; depot có hàng rỗng. */
+    private final int[][] neighbours;
+    /**
+     * Chỉ chế độ cụm: cụm mà depot thứ i phục vụ (tăng dần). null (cả mảng hoặc phần tử)
+     * = depot phục vụ mọi cụm → giữ dải rộng đầy đủ.
+     */
+    private final int[][] servedClusters;
+    /**
+     * Chỉ chế độ cụm: cụm láng giềng mà order thứ i là thành viên PHỤ (halo), tăng dần,
+     * không gồm cụm nhà. null (cả mảng hoặc phần tử) = không halo.
+     */
+    private final int[][] haloByLoc;
+    /** Prune cửa sổ thời gian / ca làm; null = tắt. */
+    private final PairFeasibility feasibility;
 
-    private MatrixMask(int[] clusterByLoc, boolean full) {
+    private MatrixMask(int[] clusterByLoc, boolean full, boolean[] depotByLoc, int[][] neighbours) {
+        this(clusterByLoc, full, depotByLoc, neighbours, null, null, null);
+    }
+
+    private MatrixMask(int[] clusterByLoc, boolean full, boolean[] depotByLoc, int[][] neighbours,
+                       int[][] servedClusters, int[][] haloByLoc, PairFeasibility feasibility) {
         this.clusterByLoc = clusterByLoc;
         this.full = full;
+        this.depotByLoc = depotByLoc;
+        this.neighbours = neighbours;
+        this.servedClusters = servedClusters;
+        this.haloByLoc = haloByLoc;
+        this.feasibility = feasibility;
     }
 
     public static MatrixMask fromClusters(OptimizationContext context, Map<String, Integer> clusterAssignment) {
+        return fromClusters(context, clusterAssignment, null);
+    }
+
+    /**
+     * @param haloByJobId "order-{id}" -> cụm láng giềng (tăng dần) mà order là thành viên
+     *                    phụ; null = tắt halo
+     */
+    public static MatrixMask fromClusters(OptimizationContext context, Map<String, Integer> clusterAssignment,
+                                          Map<String, int[]> haloByJobId) {
+        List<Location> locs = context.allLocations();
+        boolean[] depotByLoc = new boolean[locs.size()];
+        for (int k = 0; k < locs.size(); k++) {
+            depotByLoc[k] = locs.get(k).getId().startsWith("depot-"); // "depot-{id}" hoặc "order-{id}"
+        }
         if (clusterAssignment == null || clusterAssignment.isEmpty()) {
-            return new MatrixMask(null, true); // full
+            // full — nhưng vẫn nhớ depot để DistanceMatrixService có thể chuyển sang kNN
+            return new MatrixMask(null, true, depotByLoc, null);
         }
-        List<Location> locs = context.allLocations();
         int[] clusterByLoc = new int[locs.size()];
         for (int k = 0; k < locs.size(); k++) {
-            String id = locs.get(k).getId(); // "depot-{id}" hoặc "order-{id}"
-            if (id.startsWith("depot-")) {
+            if (depotByLoc[k]) {
                 clusterByLoc[k] = DEPOT;
             } else {
-                clusterByLoc[k] = clusterAssignment.getOrDefault(id, UNCLUSTERED);
+                clusterByLoc[k] = clusterAssignment.getOrDefault(locs.get(k).getId(), UNCLUSTERED);
             }
         }
-        return new MatrixMask(clusterByLoc, false);
+        int[][] haloByLoc = null;
+        if (haloByJobId != null && !haloByJobId.isEmpty()) {
+            haloByLoc = new int[locs.size()][];
+            for (int k = 0; k < locs.size(); k++) {
+                int[] h = haloByJobId.get(locs.get(k).getId());
+                // halo chỉ có nghĩa với order ĐÃ có cụm nhà
+                if (h != null && h.length > 0 && clusterByLoc[k] >= 0) haloByLoc[k] = h;
+            }
+        }
+        return new MatrixMask(clusterByLoc, false, depotByLoc, null,
+                servedClusters(context, clusterAssignment, depotByLoc), haloByLoc, null);
+    }
+
+    /**
+     * Cụm mà mỗi depot phục vụ, suy từ xe: {@code ClusterRouteConstraint} ghim xe
+     * "vehicle-{id}" vào đúng một cụm, nên depot đầu/cuối của xe chỉ nối với order của
+     * cụm đó. Depot chỉ cần ô tới order các cụm của các xe dùng nó.
+     * <p>
+     * Một xe KHÔNG có trong map (constraint không chặn xe đó) → depot của nó phục vụ
+     * mọi cụm (null). Depot không xe nào dùng → danh sách rỗng: không route nào chạm nó.
+     */
+    private static int[][] servedClusters(OptimizationContext context, Map<String, Integer> clusterAssignment,
+                                          boolean[] depotByLoc) {
+        if (context.vehicleDTOs() == null || context.vehicleDTOs().isEmpty()) return null;
+        List<Location> locs = context.allLocations();
+        Map<String, Integer> locByDepotId = new HashMap<>();
+        for (int k = 0; k < locs.size(); k++) {
+            if (depotByLoc[k]) locByDepotId.put(locs.get(k).getId(), k);
+        }
+        Map<Integer, TreeSet<Integer>> served = new HashMap<>();
+        boolean[] servesAll = new boolean[locs.size()];
+        for (Vehicle v : context.vehicleDTOs().values()) {
+            Integer cluster = clusterAssignment.get("vehicle-" + v.getId());
+            for (Long depotId : new Long[]{v.getStartDepotId(), v.getEndDepotId()}) {
+                Integer k = locByDepotId.get("depot-" + depotId);
+                if (k == null) continue;
+                if (cluster == null) {
+                    servesAll[k] = true;
+                } else {
+                    served.computeIfAbsent(k, x -> new TreeSet<>()).add(cluster);
+                }
+            }
+        }
+        int[][] result = new int[locs.size()][];
+        for (int k = 0; k < locs.size(); k++) {
+            if (!depotByLoc[k] || servesAll[k]) continue;
+            TreeSet<Integer> set = served.get(k);
+            result[k] = set == null ? new int[0] : set.stream().mapToInt(Integer::intValue).toArray();
+        }
+        return result;
     }
 
     /**
@@ -58,7 +162,194 @@ public final class MatrixMask {
      * "tập needed() == tập ô block lưu được" mà không cần cả OptimizationContext.
      */
     public static MatrixMask forTesting(int[] clusterByLoc) {
-        return new MatrixMask(clusterByLoc, false);
+        return new MatrixMask(clusterByLoc, false, null, null);
+    }
+
+    /** Như {@link #forTesting(int[])}, kèm danh sách cụm mỗi depot phục vụ (tăng dần). */
+    public static MatrixMask forTesting(int[] clusterByLoc, int[][] servedClusters) {
+        return new MatrixMask(clusterByLoc, false, null, null, servedClusters, null, null);
+    }
+
+    /** Như trên, kèm halo theo index location (tăng dần, không gồm cụm nhà). */
+    public static MatrixMask forTesting(int[] clusterByLoc, int[][] servedClusters, int[][] haloByLoc) {
+        return new MatrixMask(clusterByLoc, false, null, null, servedClusters, haloByLoc, null);
+    }
+
+    /** Mask đầy có nhãn depot — CHỈ cho test (kNN / prune khả thi không cần context). */
+    public static MatrixMask fullForTesting(boolean[] depotByLoc) {
+        return new MatrixMask(null, true, depotByLoc, null);
+    }
+
+    /**
+     * Gắn prune cửa sổ thời gian / ca làm lên mask này (null = gỡ).
+     * <p>
+     * Bố cục block / dày vẫn CẤP PHÁT ô bị prune (khối vuông, không đục lỗ được) nhưng
+     * không hỏi GraphHopper — DistanceMatrixService ghi sentinel thẳng vào. kNN thì lọc
+     * hẳn khỏi hàng láng giềng: ô bị prune KHÔNG được lưu. LAZY không bao giờ tính chúng.
+     */
+    public MatrixMask withFeasibility(PairFeasibility feasibility) {
+        return withFeasibility(feasibility, null);
+    }
+
+    /** @param tally nơi đếm ô kNN bị lọc (chỉ chế độ kNN mới lọc ngay ở đây); null = không đếm */
+    public MatrixMask withFeasibility(PairFeasibility feasibility, PairFeasibility.Tally tally) {
+        int[][] nb = neighbours;
+        if (feasibility != null && neighbours != null) {
+            nb = new int[neighbours.length][];
+            for (int i = 0; i < neighbours.length; i++) {
+                int[] row = neighbours[i];
+                int[] kept = new int[row.length];
+                int u = 0;
+                for (int j : row) {
+                    int reason = feasibility.reason(i, j);
+                    if (tally != null) tally.record(reason);
+                    if (reason == PairFeasibility.FEASIBLE) kept[u++] = j;
+                }
+                nb[i] = u == row.length ? row : Arrays.copyOf(kept, u);
+            }
+        }
+        return new MatrixMask(clusterByLoc, full, depotByLoc, nb, servedClusters, haloByLoc, feasibility);
+    }
+
+    /**
+     * Mask trên tập con location {@code locs[0..m)} (theo index MỚI) — cho
+     * {@link CoLocatedCollapse}: điểm gộp kế thừa nhãn cụm / halo / depot / cụm phục vụ
+     * của location leader. Prune khả thi không chọn lọc được theo index nên phải truyền
+     * bản đã gộp sẵn.
+     *
+     * @throws IllegalStateException nếu là mask kNN (hàng láng giềng trỏ index cũ)
+     */
+    MatrixMask select(int[] locs, PairFeasibility feasibility) {
+        if (neighbours != null) {
+            throw new IllegalStateException(String.format(
+                    "Không chọn tập con %d location trên mask kNN — dựng kNN SAU khi gộp", locs.length));
+        }
+        int m = locs.length;
+        int[] cluster = clusterByLoc != null ? new int[m] : null;
+        boolean[] depot = depotByLoc != null ? new boolean[m] : null;
+        int[][] served = servedClusters != null ? new int[m][] : null;
+        int[][] halo = haloByLoc != null ? new int[m][] : null;
+        for (int r = 0; r < m; r++) {
+            int k = locs[r];
+            if (cluster != null) cluster[r] = clusterByLoc[k];
+            if (depot != null) depot[r] = depotByLoc[k];
+            if (served != null) served[r] = servedClusters[k];
+            if (halo != null) halo[r] = haloByLoc[k];
+        }
+        return new MatrixMask(cluster, full, depot, null, served, halo, feasibility);
+    }
+
+    /**
+     * Mask kNN: order i cần ô tới k order gần nhất theo chim bay, CỘNG các order coi i là
+     * láng giềng (đối xứng hóa — cạnh i→j có thì j→i cũng có, để solver đảo chiều được
+     * một đoạn tuyến). Depot giữ hàng + cột đầy đủ như dải rộng của block.
+     * <p>
+     * Số ô ≤ 2·k·N + 2·D·n — O(n·k) với MỌI hình dạng job, không cần K-means.
+     */
+    public static MatrixMask nearest(boolean[] depotByLoc, double[] lat, double[] lon, int k) {
+        return symmetrized(depotByLoc, NearestNeighbours.of(lat, lon, ordersOf(depotByLoc), k));
+    }
+
+    /**
+     * Quãng đường bộ (mét) từ {@code source} tới từng {@code targets[t]}, ghi vào
+     * {@code meters[t]}; NaN = không có đường. Gọi song song, mỗi hàng một lần.
+     */
+    @FunctionalInterface
+    public interface RoadRow {
+        void route(int source, int[] targets, double[] meters);
+    }
+
+    /**
+     * kNN HAI PHA: chim bay chỉ là bộ lọc ứng viên. Sông, đường một chiều, cao tốc không lối
+     * ra làm láng giềng chim bay gần nhất có khi xa nhất theo đường bộ — mask chốt theo chim
+     * bay thì cạnh solver thật sự cần bị prune thành sentinel. Ở đây mỗi order lấy
+     * {@code candidates} (≥ k) láng giềng chim bay, hỏi {@code road} cả hàng ứng viên, giữ
+     * k gần nhất THEO ĐƯỜNG BỘ (cặp không có đường bị loại), rồi mới đối xứng hóa và chốt mask.
+     * <p>
+     * Tốn N·candidates truy vấn trước khi build; provider có cell cache thì các ô giữ lại
+     * được build đọc lại từ cache, không hỏi GraphHopper lần hai.
+     */
+    public static MatrixMask nearestByRoad(boolean[] depotByLoc, double[] lat, double[] lon,
+                                           int k, int candidates, RoadRow road) {
+        if (candidates < k) {
+            throw new IllegalArgumentException(String.format(
+                    "Số ứng viên chim bay (%d) phải >= k (%d)", candidates, k));
+        }
+        int[][] wide = NearestNeighbours.of(lat, lon, ordersOf(depotByLoc), candidates);
+        return symmetrized(depotByLoc, NearestNeighbours.keepRoadNearest(wide, k, road));
+    }
+
+    private static boolean[] ordersOf(boolean[] depotByLoc) {
+        boolean[] isOrder = new boolean[depotByLoc.length];
+        for (int i = 0; i < isOrder.length; i++) isOrder[i] = !depotByLoc[i];
+        return isOrder;
+    }
+
+    private static MatrixMask symmetrized(boolean[] depotByLoc, int[][] knn) {
+        int n = depotByLoc.length;
+        int[] degree = new int[n];
+        for (int i = 0; i < n; i++) {
+            degree[i] += knn[i].length;
+            for (int j : knn[i]) degree[j]++;
+        }
+        int[][] sym = new int[n][];
+        int[] fill = new int[n];
+        for (int i = 0; i < n; i++) sym[i] = new int[degree[i]];
+        for (int i = 0; i < n; i++) {
+            for (int j : knn[i]) {
+                sym[i][fill[i]++] = j;
+                sym[j][fill[j]++] = i;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            int[] row = sym[i];
+            Arrays.sort(row);
+            int u = 0;
+            for (int t = 0; t < row.length; t++) {
+                if (u == 0 || row[t] != row[u - 1]) row[u++] = row[t];
+            }
+            sym[i] = u == row.length ? row : Arrays.copyOf(row, u);
+        }
+        return new MatrixMask(null, false, depotByLoc.clone(), sym);
+    }
+
+    /**
+     * Chuyển mask đầy (không cụm) sang kNN trên cùng tập location.
+     *
+     * @throws IllegalStateException nếu mask không biết depot nằm ở đâu
+     */
+    public MatrixMask withNearestNeighbours(List<OptCoordinates> coordinates, int k) {
+        return withNearestNeighbours(coordinates, k, null);
+    }
+
+    /**
+     * Như trên; prune khả thi của mask này (nếu có) lọc luôn hàng láng giềng — ô bị lọc
+     * được đếm vào {@code tally} (null = không đếm).
+     */
+    public MatrixMask withNearestNeighbours(List<OptCoordinates> coordinates, int k, PairFeasibility.Tally tally) {
+        return withNearestNeighbours(CoordinateColumns.of(coordinates), k, tally);
+    }
+
+    /** Như trên, trên tọa độ dạng cột — không đổi BigDecimal cho từng điểm. */
+    public MatrixMask withNearestNeighbours(CoordinateColumns coordinates, int k, PairFeasibility.Tally tally) {
+        requireDepotLabels(coordinates.size());
+        return nearest(depotByLoc, coordinates.lat(), coordinates.lon(), k).withFeasibility(feasibility, tally);
+    }
+
+    /** Như {@link #withNearestNeighbours}, láng giềng chốt theo đường bộ — {@link #nearestByRoad}. */
+    public MatrixMask withRoadNearestNeighbours(CoordinateColumns coordinates, int k, int candidates,
+                                                RoadRow road, PairFeasibility.Tally tally) {
+        requireDepotLabels(coordinates.size());
+        return nearestByRoad(depotByLoc, coordinates.lat(), coordinates.lon(), k, candidates, road)
+                .withFeasibility(feasibility, tally);
+    }
+
+    private void requireDepotLabels(int n) {
+        if (depotByLoc == null || depotByLoc.length != n) {
+            throw new IllegalStateException(String.format(
+                    "Mask không có nhãn depot cho %d location — không dựng được kNN (dải depot sẽ thiếu "
+                            + "và order trở thành bất khả đạt)", n));
+        }
     }
 
     /** Mask "đầy" = không prune gì cả (nhánh Pareto / job nhỏ) → phải lưu dày. */
@@ -66,6 +357,21 @@ public final class MatrixMask {
         return full;
     }
 
+    /** Chế độ kNN → lưu bằng {@link KNearestCostMatrix}. */
+    public boolean isNearest() {
+        return neighbours != null;
+    }
+
+    /** Láng giềng order theo index (mảng NỘI BỘ, chỉ đọc); null nếu không phải kNN. */
+    public int[][] neighbours() {
+        return neighbours;
+    }
+
+    /** Nhãn depot theo index (mảng NỘI BỘ, chỉ đọc); null nếu không rõ. */
+    public boolean[] depotByLoc() {
+        return depotByLoc;
+    }
+
     /**
      * Nhãn cụm theo index location. Trả về mảng NỘI BỘ (không clone) vì nó có thể dài
      * 50 000 phần tử và chỉ được đọc; clone ở đây là 200 KB rác mỗi lần gọi.
@@ -76,21 +382,78 @@ public final class MatrixMask {
         return clusterByLoc;
     }
 
+    /** Cụm mỗi depot phục vụ (mảng NỘI BỘ, chỉ đọc); null nếu mọi depot phục vụ mọi cụm. */
+    public int[][] servedClusters() {
+        return servedClusters;
+    }
+
+    /** Halo theo index location (mảng NỘI BỘ, chỉ đọc); null nếu không bật halo. */
+    public int[][] haloByLoc() {
+        return haloByLoc;
+    }
+
+    /** Prune cửa sổ thời gian / ca làm; null nếu không gắn. */
+    public PairFeasibility feasibility() {
+        return feasibility;
+    }
+
     /**
      * Có cần gọi GraphHopper cho cặp (i -> j) không? (i != j giả định đã xử lý riêng).
      * <p>
      * BẤT BIẾN: tập {(i,j) : needed(i,j)} phải TRÙNG KHỚP tập ô mà
-     * {@link BlockDiagonalCostMatrix} có chỗ lưu. Sửa hàm này thì phải sửa cả bố cục
-     * block, nếu không sẽ có ô được tính nhưng bị ném đi im lặng.
+     * {@link BlockDiagonalCostMatrix} (chế độ cụm) / {@link KNearestCostMatrix} (chế độ
+     * kNN) có chỗ lưu. Sửa hàm này thì phải sửa cả bố cục tương ứng, nếu không sẽ có ô
+     * được tính nhưng bị ném đi im lặng.
+     * <p>
+     * Có {@link PairFeasibility}: needed = {@link #inLayout} ∧ khả thi. Ô trong bố cục mà
+     * bất khả thi vẫn có chỗ lưu (block / dày) và phải đọc ra sentinel.
      */
     public boolean needed(int i, int j) {
+        return inLayout(i, j) && (feasibility == null || feasibility.feasible(i, j));
+    }
+
+    /** Ô có chỗ lưu trong bố cục tương ứng — {@link #needed} khi chưa xét prune khả thi. */
+    public boolean inLayout(int i, int j) {
         if (full) return true;
+        if (neighbours != null) {
+            return depotByLoc[i] || depotByLoc[j] || Arrays.binarySearch(neighbours[i], j) >= 0;
+        }
         int ci = clusterByLoc[i], cj = clusterByLoc[j];
-        // Depot nối tới mọi thứ — KHÔNG BAO GIỜ prune hàng/cột depot (nếu không order thành bất khả đạt).
-        if (ci == DEPOT || cj == DEPOT) return true;
+        // Depot nối tới depot và order chưa gán cụm; tới order trong cụm chỉ khi phục vụ
+        // cụm đó (không rõ thì coi như phục vụ — prune nhầm là order bất khả đạt).
+        if (ci == DEPOT) return cj < 0 || servesAnyOf(i, j);
+        if (cj == DEPOT) return ci < 0 || servesAnyOf(j, i);
         // Order chưa gán cụm: an toàn thì tính.
         if (ci == UNCLUSTERED || cj == UNCLUSTERED) return true;
-        // Còn lại: chỉ tính khi cùng cụm.
-        return ci == cj;
+        // Còn lại: chỉ tính khi chung một cụm (nhà hoặc halo).
+        if (ci == cj) return true;
+        if (haloByLoc == null) return false;
+        if (memberOf(j, ci)) return true;
+        int[] hi = haloByLoc[i];
+        if (hi != null) {
+            for (int c : hi) if (memberOf(j, c)) return true;
+        }
+        return false;
+    }
+
+    /** Depot phục vụ cụm nhà HOẶC một cụm halo của order. */
+    private boolean servesAnyOf(int depot, int order) {
+        if (serves(depot, clusterByLoc[order])) return true;
+        int[] h = haloByLoc != null ? haloByLoc[order] : null;
+        if (h != null) {
+            for (int c : h) if (serves(depot, c)) return true;
+        }
+        return false;
+    }
+
+    private boolean memberOf(int order, int cluster) {
+        if (clusterByLoc[order] == cluster) return true;
+        int[] h = haloByLoc != null ? haloByLoc[order] : null;
+        return h != null && Arrays.binarySearch(h, cluster) >= 0;
+    }
+
+    private boolean serves(int depot, int cluster) {
+        if (servedClusters == null || servedClusters[depot] == null) return true;
+        return Arrays.binarySearch(servedClusters[depot], cluster) >= 0;
     }
 }
\ No newline at end of file
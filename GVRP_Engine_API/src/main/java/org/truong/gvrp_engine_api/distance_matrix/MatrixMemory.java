@@ -1,5 +1,7 @@
 package org.truong.gvrp_engine_api.distance_matrix;
 
+import java.lang.management.ManagementFactory;
+
 /**
  * Số học bộ nhớ ma trận — tách riêng để TEST ĐƯỢC và để guard trích dẫn được
  * chính con số đã dùng khi quyết định.
@@ -10,13 +12,15 @@ package org.truong.gvrp_engine_api.distance_matrix;
  *   block: M(N,S,D) = 8 × (2·ΣS_c² + 4·W·n)         (block cụm + dải rộng 2 chiều)
  *   trần:  n_max    = sqrt(heap × safety / 16)
  * </pre>
+ * Các hằng số trên là của {@link CellEncoding#DOUBLE64} (mặc định). Overload nhận
+ * {@link CellEncoding} thay 16 bằng {@code enc.bytesPerCell()} — 8 với FLOAT32/INT32.
  */
 public final class MatrixMemory {
 
-    /** Số ma trận double được lưu song song: distance + time. */
+    /** Số giá trị được lưu cho mỗi ô: distance + time. */
     public static final int MATRICES = 2;
 
-    /** Bytes mỗi ô double. */
+    /** Bytes mỗi giá trị double — mã hóa mặc định {@link CellEncoding#DOUBLE64}. */
     public static final int BYTES_PER_CELL = 8;
 
     /**
@@ -27,18 +31,41 @@ public final class MatrixMemory {
      */
     public static final double HEAP_SAFETY_FRACTION = 0.6;
 
+    /**
+     * Ngưỡng để {@link MatrixStorage#AUTO} đưa ma trận ra ngoài heap. Thấp hơn nhiều so
+     * với {@link #HEAP_SAFETY_FRACTION}: 0.6 là trần "chưa chết", còn từ ~25% heap trở
+     * lên thì mỗi full-GC đã phải quét cả ma trận — cùng ngưỡng với guard dải rộng.
+     */
+    public static final double OFF_HEAP_AUTO_FRACTION = 0.25;
+
+    /**
+     * Tỉ lệ RAM vật lý tối đa cho MỘT ma trận ngoài heap. Ngoài heap không có -Xmx chặn:
+     * MAPPED vượt RAM thì mỗi lần Jsprit đọc ngẫu nhiên một ô là một page fault xuống đĩa
+     * — job "treo" y như GC-thrash; DIRECT vượt RAM thì OOM-killer giết cả process. 0.5
+     * vì heap, đồ thị GraphHopper và page cache của chính nó cũng nằm trong RAM đó.
+     */
+    public static final double OFF_HEAP_SAFETY_FRACTION = 0.5;
+
     private MatrixMemory() {
     }
 
     /** Bộ nhớ nếu lưu dày 2 × double[n][n]. */
     public static long denseBytes(int n) {
-        return (long) BYTES_PER_CELL * MATRICES * n * n;
+        return denseBytes(n, CellEncoding.DOUBLE64);
+    }
+
+    public static long denseBytes(int n, CellEncoding encoding) {
+        return (long) encoding.bytesPerCell() * n * n;
     }
 
     /** n lớn nhất còn an toàn với heap hiện tại nếu lưu dày. */
     public static int maxDenseSize(long maxHeapBytes) {
-        return (int) Math.sqrt(maxHeapBytes * HEAP_SAFETY_FRACTION
-                / (double) (BYTES_PER_CELL * MATRICES));
+        return maxDenseSize(maxHeapBytes, CellEncoding.DOUBLE64);
+    }
+
+    /** Byte/ô giảm một nửa thì n_max tăng √2: 17 947 → 25 381 ở -Xmx8g. */
+    public static int maxDenseSize(long maxHeapBytes, CellEncoding encoding) {
+        return (int) Math.sqrt(maxHeapBytes * HEAP_SAFETY_FRACTION / (double) encoding.bytesPerCell());
     }
 
     /** Trần an toàn hiện tại của JVM đang chạy. */
@@ -64,7 +91,39 @@ public final class MatrixMemory {
     }
 
     public static long blockBytes(int n, int[] clusterSizes, int wideCount) {
-        return (long) BYTES_PER_CELL * MATRICES * blockCells(n, clusterSizes, wideCount);
+        return blockBytes(n, clusterSizes, wideCount, CellEncoding.DOUBLE64);
+    }
+
+    public static long blockBytes(int n, int[] clusterSizes, int wideCount, CellEncoding encoding) {
+        return (long) encoding.bytesPerCell() * blockCells(n, clusterSizes, wideCount);
+    }
+
+    /**
+     * Như {@link #blockCells(int, int[], int)} cộng dải depot một phần: depot PARTIAL p
+     * có 1 hàng + 1 cột dài {@code partialBandLengths[p]} (= P + ΣS_c các cụm nó phục vụ).
+     */
+    public static long blockCells(int n, int[] clusterSizes, int wideCount, int[] partialBandLengths) {
+        long cells = blockCells(n, clusterSizes, wideCount);
+        for (int len : partialBandLengths) {
+            cells += 2L * len;
+        }
+        return cells;
+    }
+
+    public static long blockBytes(int n, int[] clusterSizes, int wideCount, int[] partialBandLengths,
+                                  CellEncoding encoding) {
+        return (long) encoding.bytesPerCell() * blockCells(n, clusterSizes, wideCount, partialBandLengths);
+    }
+
+    /**
+     * Phần "(...)" của {@link CostMatrix#layout()}: chỉ in những gì KHÁC mặc định, để
+     * log của job cũ (DOUBLE64 trên heap) vẫn đối soát nguyên văn với benchmark cũ.
+     */
+    static String layoutQualifiers(String shape, CellEncoding encoding, MatrixStorage storage) {
+        StringBuilder q = new StringBuilder(shape);
+        if (encoding != CellEncoding.DOUBLE64) q.append(q.isEmpty() ? "" : ", ").append(encoding);
+        if (storage != MatrixStorage.HEAP) q.append(q.isEmpty() ? "" : ", ").append(storage);
+        return q.isEmpty() ? "" : "(" + q + ")";
     }
 
     /**
@@ -78,21 +137,53 @@ public final class MatrixMemory {
         return bytes + " B";
     }
 
+    /** RAM vật lý (hoặc giới hạn container) mà JVM thấy. */
+    public static long physicalMemoryBytes() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getTotalMemorySize();
+    }
+
+    public static void requireOffHeapFits(long bytes, MatrixStorage storage) {
+        requireOffHeapFits(bytes, storage, physicalMemoryBytes());
+    }
+
+    /**
+     * FAIL-LOUD cho ma trận ngoài heap (DIRECT/MAPPED), gọi TRƯỚC khi cấp phát/map — cùng
+     * vai trò {@link #requireDenseFits} ở heap. Thiếu guard này thì AUTO (mặc định) lặng lẽ
+     * map một file tạm cỡ bao nhiêu cũng được cho job dày lớn.
+     */
+    public static void requireOffHeapFits(long bytes, MatrixStorage storage, long physicalBytes) {
+        long cap = (long) (physicalBytes * OFF_HEAP_SAFETY_FRACTION);
+        if (bytes > cap) {
+            throw new IllegalStateException(String.format(
+                    "Ma trận %s cần %s, vượt trần ngoài heap %s (%.0f%% RAM vật lý %s). Vượt RAM thì "
+                            + "mỗi lần đọc ô là một page fault xuống đĩa (MAPPED) hoặc OOM-killer (DIRECT). "
+                            + "Bật cluster-first (block O(N·S)) hoặc gvrp.matrix.knn.k để không lưu dày.",
+                    storage, humanBytes(bytes), humanBytes(cap), 100 * OFF_HEAP_SAFETY_FRACTION,
+                    humanBytes(physicalBytes)));
+        }
+    }
+
     /**
      * FAIL-LOUD cho nhánh lưu dày. Ném IllegalStateException kèm ĐẦY ĐỦ chuỗi số học
      * dẫn tới kết luận, và nói rõ đây là trần O(n²) chứ không phải rò rỉ — để lần sau
      * đọc log là biết ngay không cần tăng -Xmx.
      */
     public static void requireDenseFits(int n) {
-        long required = denseBytes(n);
+        requireDenseFits(n, CellEncoding.DOUBLE64);
+    }
+
+    public static void requireDenseFits(int n, CellEncoding encoding) {
+        long required = denseBytes(n, encoding);
         long maxHeap = Runtime.getRuntime().maxMemory();
         if (required > maxHeap * HEAP_SAFETY_FRACTION) {
             throw new IllegalStateException(String.format(
-                    "Ma trận DÀY %dx%d cần %s (16·n²), heap tối đa %s, trần an toàn n ≈ %d. "
+                    "Ma trận DÀY %dx%d cần %s (%d·n², %s), heap tối đa %s, trần an toàn n ≈ %d. "
                             + "Đây là trần thuật toán O(n²), KHÔNG phải rò rỉ — tăng -Xmx không cứu được "
                             + "(job 50k cần ~64 GiB heap). Bật cluster-first để dùng "
                             + "BlockDiagonalCostMatrix: bộ nhớ chuyển sang O(N·S) tuyến tính.",
-                    n, n, humanBytes(required), humanBytes(maxHeap), maxDenseSize(maxHeap)));
+                    n, n, humanBytes(required), encoding.bytesPerCell(), encoding,
+                    humanBytes(maxHeap), maxDenseSize(maxHeap, encoding)));
         }
     }
 }
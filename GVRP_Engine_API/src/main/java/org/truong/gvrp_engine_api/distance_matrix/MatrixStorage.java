@@ -0,0 +1,35 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+/**
+ * Nơi đặt các ô của ma trận ({@code gvrp.matrix.storage}).
+ *
+ * <p>Ma trận trên heap cạnh tranh với state của Jsprit: vượt
+ * {@link MatrixMemory#HEAP_SAFETY_FRACTION} là full-GC chạy liên tục. Ngoài heap thì
+ * GC không quét/không chép các ô — pause không phụ thuộc kích thước ma trận nữa.
+ * <pre>
+ *   HEAP   : mảng Java — đọc nhanh nhất, mặc định cho job nhỏ
+ *   DIRECT : ByteBuffer.allocateDirect — ngoài heap nhưng VẪN bị -XX:MaxDirectMemorySize
+ *            giới hạn (mặc định bằng -Xmx), chỉ giúp GC pause chứ không nới trần
+ *   MAPPED : file tạm map vào bộ nhớ — page cache của OS, không tính vào -Xmx lẫn
+ *            direct memory; OS tự đẩy trang lạnh xuống đĩa khi thiếu RAM
+ *   AUTO   : HEAP nếu ước lượng ≤ {@link MatrixMemory#OFF_HEAP_AUTO_FRACTION} heap,
+ *            ngược lại MAPPED — quyết định LẠI cho từng job
+ * </pre>
+ */
+public enum MatrixStorage {
+
+    HEAP,
+    DIRECT,
+    MAPPED,
+    AUTO;
+
+    /** Chốt cách lưu cho một ma trận cụ thể; chỉ AUTO phụ thuộc kích thước. */
+    public MatrixStorage resolve(long requiredBytes, long maxHeapBytes) {
+        if (this != AUTO) return this;
+        return requiredBytes > maxHeapBytes * MatrixMemory.OFF_HEAP_AUTO_FRACTION ? MAPPED : HEAP;
+    }
+
+    public boolean offHeap() {
+        return this == DIRECT || this == MAPPED;
+    }
+}
@@ -0,0 +1,176 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Chia việc build ma trận theo SỐ Ô ước lượng thay vì theo chỉ số hàng.
+ * <p>
+ * {@code IntStream.range(0, n).parallel()} cắt [0, n) thành các đoạn bằng nhau về SỐ
+ * HÀNG. Nhưng hàng dải rộng (depot / order chưa gán cụm) duyệt cả n đích, còn hàng trong
+ * cụm chỉ S + W: ở N = 50 000, S = 150 một hàng depot nặng ~300 hàng cụm. Đoạn nào dính
+ * vài hàng depot thì chạy sau cùng một mình, các luồng còn lại ngồi không.
+ * <p>
+ * Kế hoạch ở đây:
+ * <ul>
+ *   <li><b>grain</b> = tổng ô / (parallelism × {@value #TASKS_PER_THREAD}), tối thiểu
+ *       {@value #MIN_GRAIN} — đủ nhiều task để work stealing cân tải, đủ lớn để chi phí
+ *       lập lịch không đáng kể so với một truy vấn CH (~ms).</li>
+ *   <li>Hàng nặng hơn grain bị <b>cắt theo cột</b> thành các mảnh ≤ grain (khi
+ *       {@code splitRows}; ONE_TO_MANY không cắt vì một hàng = một cây Dijkstra, cắt ra
+ *       là dựng lại cây).</li>
+ *   <li>Hàng nhẹ được <b>gom theo nhóm</b> (cụm) thành lô ≈ grain: các hàng liên tiếp của
+ *       một lô hỏi cùng một vùng đồ thị, cache node/edge của GraphHopper còn nóng.</li>
+ *   <li>Task nặng (mảnh hàng rộng) xếp TRƯỚC: việc lớn bắt đầu sớm, đuôi lịch chỉ còn
+ *       các lô nhỏ để luồng rảnh lấy nốt.</li>
+ * </ul>
+ * Mỗi ô vẫn thuộc đúng một task, nên hợp đồng "mỗi slot một writer" của các bố cục
+ * ({@link BlockDiagonalCostMatrix}, {@link KNearestCostMatrix}) được giữ nguyên.
+ */
+final class MatrixWorkPlan {
+
+    static final int TASKS_PER_THREAD = 8;
+    static final int MIN_GRAIN = 256;
+
+    /**
+     * Các hàng {@code rows}, mỗi hàng tính đoạn {@code [colFrom, colTo)} của mảng đích
+     * CỦA CHÍNH hàng đó ({@code colTo} bị chặn bởi độ dài mảng).
+     */
+    record RowTask(int[] rows, int colFrom, int colTo, long cells) {
+
+        boolean wholeRows() {
+            return colFrom == 0 && colTo == Integer.MAX_VALUE;
+        }
+    }
+
+    private final List<RowTask> tasks;
+    private final long grain;
+    private final long totalCells;
+
+    private MatrixWorkPlan(List<RowTask> tasks, long grain, long totalCells) {
+        this.tasks = tasks;
+        this.grain = grain;
+        this.totalCells = totalCells;
+    }
+
+    /**
+     * @param rowCells số ô cần tính của từng hàng (độ dài mảng đích)
+     * @param groupOf  nhãn nhóm để gom hàng (nhãn cụm); null = gom theo thứ tự index
+     * @param splitRows cho phép cắt hàng nặng theo cột
+     */
+    static MatrixWorkPlan of(int[] rowCells, int[] groupOf, int parallelism, boolean splitRows) {
+        int n = rowCells.length;
+        long total = 0;
+        for (int c : rowCells) total += c;
+        long grain = Math.max(MIN_GRAIN, total / Math.max(1L, (long) parallelism * TASKS_PER_THREAD));
+
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        if (groupOf != null) {
+            Arrays.sort(order, Comparator.comparingInt((Integer i) -> groupOf[i]).thenComparingInt(i -> i));
+        }
+
+        List<RowTask> heavy = new ArrayList<>();
+        List<RowTask> batches = new ArrayList<>();
+        int[] batch = new int[n];
+        int batchSize = 0;
+        long batchCells = 0;
+        int batchGroup = 0;
+        for (Integer boxed : order) {
+            int i = boxed;
+            int cells = rowCells[i];
+            if (cells == 0) continue;
+            if (cells >= grain) {
+                if (splitRows) {
+                    for (long from = 0; from < cells; from += grain) {
+                        int to = (int) Math.min(cells, from + grain);
+                        heavy.add(new RowTask(new int[]{i}, (int) from, to, to - from));
+                    }
+                } else {
+                    heavy.add(new RowTask(new int[]{i}, 0, Integer.MAX_VALUE, cells));
+                }
+                continue;
+            }
+            int group = groupOf != null ? groupOf[i] : 0;
+            if (batchSize > 0 && (group != batchGroup || batchCells + cells > grain)) {
+                batches.add(new RowTask(Arrays.copyOf(batch, batchSize), 0, Integer.MAX_VALUE, batchCells));
+                batchSize = 0;
+                batchCells = 0;
+            }
+            batchGroup = group;
+            batch[batchSize++] = i;
+            batchCells += cells;
+        }
+        if (batchSize > 0) {
+            batches.add(new RowTask(Arrays.copyOf(batch, batchSize), 0, Integer.MAX_VALUE, batchCells));
+        }
+
+        heavy.sort(Comparator.comparingLong(RowTask::cells).reversed());
+        List<RowTask> tasks = new ArrayList<>(heavy.size() + batches.size());
+        tasks.addAll(heavy);
+        tasks.addAll(batches);
+        return new MatrixWorkPlan(tasks, grain, total);
+    }
+
+    List<RowTask> tasks() {
+        return tasks;
+    }
+
+    long grain() {
+        return grain;
+    }
+
+    long totalCells() {
+        return totalCells;
+    }
+
+    /** Task nặng nhất / grain: > 1 nghĩa là còn hàng không cắt được (ONE_TO_MANY). */
+    long maxTaskCells() {
+        long max = 0;
+        for (RowTask t : tasks) max = Math.max(max, t.cells());
+        return max;
+    }
+
+    // ==================== ĐO BẬN / RẢNH THEO LUỒNG ====================
+
+    /**
+     * Thời gian bận của từng luồng worker trong một lần build. Rảnh = wall − bận; tổng
+     * bận / (wall × parallelism) là hệ số tận dụng — thứ quyết định build có scale tuyến
+     * tính theo {@code gvrp.matrix.parallelism} hay không.
+     */
+    static final class Utilization {
+
+        private final ConcurrentHashMap<Long, LongAdder> busyNanosByThread = new ConcurrentHashMap<>();
+
+        void record(long busyNanos) {
+            busyNanosByThread.computeIfAbsent(Thread.currentThread().threadId(), k -> new LongAdder())
+                    .add(busyNanos);
+        }
+
+        /** [min, max, tổng] thời gian bận theo luồng (ms), tính cả luồng không nhận task nào. */
+        long[] busyMillis(int parallelism) {
+            long min = Long.MAX_VALUE, max = 0, sum = 0;
+            for (LongAdder a : busyNanosByThread.values()) {
+                long ms = a.sum() / 1_000_000;
+                min = Math.min(min, ms);
+                max = Math.max(max, ms);
+                sum += ms;
+            }
+            if (busyNanosByThread.size() < parallelism || min == Long.MAX_VALUE) min = 0;
+            return new long[]{min, max, sum};
+        }
+
+        int threadsUsed() {
+            return busyNanosByThread.size();
+        }
+
+        double utilization(long wallMillis, int parallelism) {
+            long sum = busyMillis(parallelism)[2];
+            return sum / (double) Math.max(1L, wallMillis * parallelism);
+        }
+    }
+}
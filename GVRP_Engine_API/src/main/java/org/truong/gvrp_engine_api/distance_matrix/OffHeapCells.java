@@ -0,0 +1,246 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Vùng nhớ NGOÀI HEAP cho một ma trận, cấp phát MỘT lần rồi cắt thành các
+ * {@link CellStore} liền nhau ({@link #slice}).
+ *
+ * <p>Vì sao một vùng chung thay vì mỗi hàng một buffer: ma trận dày n = 30 000 là
+ * 30 000 hàng; mỗi hàng một mmap sẽ đụng {@code vm.max_map_count} (65 530) và mỗi
+ * DirectByteBuffer còn kéo theo một Cleaner trên heap. Ở đây chỉ có ⌈bytes / 1 GiB⌉
+ * buffer (giới hạn int của ByteBuffer), chỉ số ô được đổi sang (chunk, offset).
+ *
+ * <p>Một ô không bao giờ nằm vắt qua hai chunk: chunk là lũy thừa 2 và slice bắt đầu
+ * ở bội số của {@code bytesPerCell} (cũng là lũy thừa 2).
+ *
+ * <p>Thread-safety: chỉ dùng get/put TUYỆT ĐỐI (không đụng position của buffer), nên
+ * các writer ghi ô khác nhau không tranh chấp — giữ nguyên "mỗi hàng một writer" của
+ * {@link BlockDiagonalCostMatrix#put}. {@link #slice} thì chỉ gọi lúc cấp phát, một luồng.
+ *
+ * <p>Giải phóng theo GC của chính các buffer (Cleaner); file tạm của MAPPED bị xóa
+ * ngay sau khi map — vùng map vẫn sống tới khi buffer bị thu, không để lại rác trên đĩa.
+ */
+final class OffHeapCells {
+
+    static final int DEFAULT_CHUNK_SHIFT = 30;
+
+    private final ByteBuffer[] chunks;
+    private final int chunkShift;
+    private final long chunkMask;
+    private final CellEncoding encoding;
+    private final long capacityBytes;
+    private long next;
+
+    private OffHeapCells(ByteBuffer[] chunks, int chunkShift, CellEncoding encoding, long capacityBytes) {
+        this.chunks = chunks;
+        this.chunkShift = chunkShift;
+        this.chunkMask = (1L << chunkShift) - 1;
+        this.encoding = encoding;
+        this.capacityBytes = capacityBytes;
+    }
+
+    static OffHeapCells allocate(long bytes, CellEncoding encoding, MatrixStorage storage, Path spillDir) {
+        return allocate(bytes, encoding, storage, spillDir, DEFAULT_CHUNK_SHIFT);
+    }
+
+    /** {@code chunkShift} nhỏ chỉ để test ranh giới chunk mà không cần cấp 1 GiB. */
+    static OffHeapCells allocate(long bytes, CellEncoding encoding, MatrixStorage storage,
+                                 Path spillDir, int chunkShift) {
+        if (storage.offHeap()) {
+            MatrixMemory.requireOffHeapFits(bytes, storage);
+        }
+        long chunkBytes = 1L << chunkShift;
+        int count = (int) ((bytes + chunkBytes - 1) >>> chunkShift);
+        ByteBuffer[] chunks = new ByteBuffer[Math.max(1, count)];
+        switch (storage) {
+            case DIRECT -> allocateDirect(chunks, bytes, chunkBytes);
+            case MAPPED -> map(chunks, bytes, chunkBytes, spillDir);
+            default -> throw new IllegalArgumentException("Không phải cách lưu ngoài heap: " + storage);
+        }
+        return new OffHeapCells(chunks, chunkShift, encoding, bytes);
+    }
+
+    private static void allocateDirect(ByteBuffer[] chunks, long bytes, long chunkBytes) {
+        long left = bytes;
+        try {
+            for (int k = 0; k < chunks.length; k++) {
+                int len = (int) Math.min(chunkBytes, left);
+                chunks[k] = ByteBuffer.allocateDirect(len).order(ByteOrder.nativeOrder());
+                left -= len;
+            }
+        } catch (OutOfMemoryError e) {
+            throw new IllegalStateException(String.format(
+                    "Không cấp được %s direct memory cho ma trận (đã cấp %s). DIRECT vẫn bị "
+                            + "-XX:MaxDirectMemorySize giới hạn (mặc định = -Xmx, hiện %s) — dùng "
+                            + "gvrp.matrix.storage=MAPPED để ra hẳn ngoài giới hạn JVM.",
+                    MatrixMemory.humanBytes(bytes), MatrixMemory.humanBytes(bytes - left),
+                    MatrixMemory.humanBytes(Runtime.getRuntime().maxMemory())), e);
+        }
+    }
+
+    private static void map(ByteBuffer[] chunks, long bytes, long chunkBytes, Path spillDir) {
+        try {
+            Files.createDirectories(spillDir);
+            // FAIL-LOUD trước khi map: thiếu đĩa thì lỗi nổ dưới dạng SIGBUS lúc GHI ô,
+            // giữa chừng build, không có stack trace nào dẫn về đây.
+            long usable = Files.getFileStore(spillDir).getUsableSpace();
+            if (bytes > usable) {
+                throw new IllegalStateException(String.format(
+                        "Ma trận MAPPED cần %s nhưng %s chỉ còn trống %s. Trỏ gvrp.matrix.off-heap.dir "
+                                + "sang phân vùng lớn hơn hoặc bật cluster-first để dùng block.",
+                        MatrixMemory.humanBytes(bytes), spillDir, MatrixMemory.humanBytes(usable)));
+            }
+            Path file = Files.createTempFile(spillDir, "gvrp-matrix-", ".cells");
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long pos = 0;
+                for (int k = 0; k < chunks.length; k++) {
+                    long len = Math.min(chunkBytes, bytes - pos);
+                    chunks[k] = ch.map(FileChannel.MapMode.READ_WRITE, pos, Math.max(0, len))
+                            .order(ByteOrder.nativeOrder());
+                    pos += len;
+                }
+            } finally {
+                // Vùng map sống độc lập với tên file: xóa ngay để crash cũng không để rác.
+                // (Windows không cho xóa file đang map — khi đó để JVM xóa lúc thoát.)
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    file.toFile().deleteOnExit();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Không map được file tạm cho ma trận trong " + spillDir, e);
+        }
+    }
+
+    /** Cắt {@code cells} ô kế tiếp. Gọi tuần tự lúc cấp phát, trước khi fill. */
+    CellStore slice(int cells) {
+        long base = next;
+        long end = base + (long) cells * encoding.bytesPerCell();
+        if (end > capacityBytes) {
+            throw new IllegalStateException(String.format(
+                    "Vùng ngoài heap hết chỗ: cần tới byte %d, dung lượng %d — ước lượng bộ nhớ "
+                            + "và bố cục lệch nhau", end, capacityBytes));
+        }
+        next = end;
+        return switch (encoding) {
+            case DOUBLE64 -> new Doubles(base, cells);
+            case FLOAT32 -> new Floats(base, cells);
+            case INT32 -> new Ints(base, cells);
+        };
+    }
+
+    private ByteBuffer chunk(long off) {
+        return chunks[(int) (off >>> chunkShift)];
+    }
+
+    private int pos(long off) {
+        return (int) (off & chunkMask);
+    }
+
+    private abstract class Slice implements CellStore {
+        final long base;
+        final int cells;
+
+        Slice(long base, int cells) {
+            this.base = base;
+            this.cells = cells;
+        }
+
+        @Override
+        public int cells() {
+            return cells;
+        }
+    }
+
+    private final class Doubles extends Slice {
+        Doubles(long base, int cells) {
+            super(base, cells);
+        }
+
+        @Override
+        public double distance(int cell) {
+            long off = base + ((long) cell << 4);
+            return chunk(off).getDouble(pos(off));
+        }
+
+        @Override
+        public double time(int cell) {
+            long off = base + ((long) cell << 4);
+            return chunk(off).getDouble(pos(off) + 8);
+        }
+
+        @Override
+        public void put(int cell, double meters, double seconds) {
+            long off = base + ((long) cell << 4);
+            ByteBuffer b = chunk(off);
+            int p = pos(off);
+            b.putDouble(p, meters);
+            b.putDouble(p + 8, seconds);
+        }
+    }
+
+    private final class Floats extends Slice {
+        Floats(long base, int cells) {
+            super(base, cells);
+        }
+
+        @Override
+        public double distance(int cell) {
+            long off = base + ((long) cell << 3);
+            return chunk(off).getFloat(pos(off));
+        }
+
+        @Override
+        public double time(int cell) {
+            long off = base + ((long) cell << 3);
+            return chunk(off).getFloat(pos(off) + 4);
+        }
+
+        @Override
+        public void put(int cell, double meters, double seconds) {
+            long off = base + ((long) cell << 3);
+            ByteBuffer b = chunk(off);
+            int p = pos(off);
+            b.putFloat(p, (float) meters);
+            b.putFloat(p + 4, (float) seconds);
+        }
+    }
+
+    private final class Ints extends Slice {
+        Ints(long base, int cells) {
+            super(base, cells);
+        }
+
+        @Override
+        public double distance(int cell) {
+            long off = base + ((long) cell << 3);
+            int c = chunk(off).getInt(pos(off));
+            return c == CellStore.Ints.SENTINEL_CODE ? MatrixMask.PRUNED_METERS : c;
+        }
+
+        @Override
+        public double time(int cell) {
+            long off = base + ((long) cell << 3);
+            int c = chunk(off).getInt(pos(off) + 4);
+            return c == CellStore.Ints.SENTINEL_CODE ? MatrixMask.PRUNED_SECONDS : c;
+        }
+
+        @Override
+        public void put(int cell, double meters, double seconds) {
+            long off = base + ((long) cell << 3);
+            ByteBuffer b = chunk(off);
+            int p = pos(off);
+            b.putInt(p, CellStore.Ints.encode(meters, MatrixMask.PRUNED_METERS));
+            b.putInt(p + 4, CellStore.Ints.encode(seconds, MatrixMask.PRUNED_SECONDS));
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+import org.truong.gvrp_engine_api.model.EntityTables;
+import org.truong.gvrp_engine_api.model.OptimizationContext;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cặp order (i -> j) KHÔNG THỂ kề nhau trên bất kỳ route nào, chứng minh được TRƯỚC
+ * khi gọi GraphHopper — prune thêm trên nền prune cụm / kNN của {@link MatrixMask}.
+ * <p>
+ * Hai lý do, đều dựa trên CẬN DƯỚI thời gian chạy {@code lb(i,j) = max(0, chim bay −
+ * SNAP_SLACK) / v_max}:
+ * <ul>
+ *   <li><b>Cửa sổ thời gian</b>: sớm nhất xong việc ở i là {@code twStart_i + service_i};
+ *       cộng {@code lb} mà vẫn tới j sau {@code twEnd_j} thì j→ sau i là vô nghiệm.
+ *       Gồm trường hợp thô "cửa sổ j đóng trước khi i mở + service".</li>
+ *   <li><b>Ca làm</b>: {@code service_i + lb + service_j} vượt {@code maxDuration} DÀI NHẤT
+ *       của các loại xe — không xe nào chạy hết đoạn đó trong một ca.</li>
+ * </ul>
+ * <p>
+ * VÌ SAO LÀ CẬN DƯỚI ĐÚNG: profile GraphHopper chặn tốc độ ({@code LIMIT 50}, xem
+ * GraphHoperDistanceProvider) và đường bộ không ngắn hơn chim bay, nên thời gian thật
+ * ≥ lb khi {@code v_max} ≥ trần tốc độ profile. SNAP_SLACK bù việc GraphHopper snap điểm
+ * vào đường: hai điểm hai bên một con đường có thể gần nhau hơn trên đồ thị so với tọa độ
+ * gốc. Sai ở đây là cạnh khả thi bị mất — nên mọi chỗ mơ hồ đều nghiêng về KHÔNG prune:
+ * cửa sổ thiếu / không parse được / qua đêm coi như không có.
+ * <p>
+ * Chỉ xét cặp ORDER–ORDER: hàng/cột depot giữ nguyên để dải rộng không đổi hình dạng
+ * (order bất khả đạt từ depot thì solver tự để unassigned).
+ *
+ * @author Truong
+ */
+public final class PairFeasibility {
+
+    public static final int FEASIBLE = 0;
+    public static final int TIME_WINDOW = 1;
+    public static final int SHIFT_LENGTH = 2;
+
+    /** Bù snap vào đường ở CẢ hai đầu. */
+    static final double SNAP_SLACK_METERS = 300;
+
+    /** Cùng mặc định với buildVehicle khi loại xe không khai maxDuration. */
+    static final double DEFAULT_MAX_DURATION_HOURS = 12.0;
+
+    private final boolean[] orderByLoc;
+    private final double[] lat;
+    private final double[] lon;
+    private final double[] readySeconds;   // twStart + service (0 + service nếu không có cửa sổ)
+    private final double[] closeSeconds;   // twEnd, +∞ nếu không có cửa sổ
+    private final double[] serviceSeconds;
+    private final double maxDurationSeconds;
+    private final double metersPerSecond;
+    /** SNAP_SLACK, cộng thêm bán kính nhóm nếu đây là bản đã gộp ({@link #collapse}). */
+    private final double slackMeters;
+
+    /**
+     * @param maxSpeedKmh trần tốc độ — phải ≥ tốc độ lớn nhất provider có thể trả về
+     */
+    public PairFeasibility(boolean[] orderByLoc, double[] lat, double[] lon,
+                           double[] readySeconds, double[] closeSeconds, double[] serviceSeconds,
+                           double maxDurationSeconds, double maxSpeedKmh) {
+        this(orderByLoc, lat, lon, readySeconds, closeSeconds, serviceSeconds, maxDurationSeconds, maxSpeedKmh,
+                SNAP_SLACK_METERS);
+    }
+
+    private PairFeasibility(boolean[] orderByLoc, double[] lat, double[] lon,
+                            double[] readySeconds, double[] closeSeconds, double[] serviceSeconds,
+                            double maxDurationSeconds, double maxSpeedKmh, double slackMeters) {
+        int n = orderByLoc.length;
+        if (lat.length != n || lon.length != n || readySeconds.length != n
+                || closeSeconds.length != n || serviceSeconds.length != n) {
+            throw new IllegalArgumentException(String.format(
+                    "PairFeasibility: mảng lệch độ dài (n=%d, lat=%d, lon=%d, ready=%d, close=%d, service=%d)",
+                    n, lat.length, lon.length, readySeconds.length, closeSeconds.length, serviceSeconds.length));
+        }
+        if (!(maxSpeedKmh > 0) || !(maxDurationSeconds > 0)) {
+            throw new IllegalArgumentException(String.format(
+                    "PairFeasibility: maxSpeedKmh=%.1f và maxDurationSeconds=%.0f phải > 0",
+                    maxSpeedKmh, maxDurationSeconds));
+        }
+        this.orderByLoc = orderByLoc;
+        this.lat = lat;
+        this.lon = lon;
+        this.readySeconds = readySeconds;
+        this.closeSeconds = closeSeconds;
+        this.serviceSeconds = serviceSeconds;
+        this.maxDurationSeconds = maxDurationSeconds;
+        this.metersPerSecond = maxSpeedKmh / 3.6;
+        this.slackMeters = slackMeters;
+    }
+
+    /**
+     * Dựng từ context theo ĐÚNG cách OptimizationService dựng Service/Vehicle của Jsprit:
+     * cửa sổ "HH:mm:ss" → giây trong ngày, serviceTime phút → giây, maxDuration giờ.
+     */
+    public static PairFeasibility fromContext(OptimizationContext context, double maxSpeedKmh) {
+        EntityTables t = context.tables();
+        int n = context.allLocations().size();
+        boolean[] isOrder = new boolean[n];
+        double[] lat = new double[n];
+        double[] lon = new double[n];
+        double[] ready = new double[n];
+        double[] close = new double[n];
+        double[] service = new double[n];
+        Arrays.fill(close, Double.POSITIVE_INFINITY);
+        for (int o = 0; o < t.orderCount(); o++) {
+            int k = t.orderLocation(o);
+            if (k < 0 || Double.isNaN(t.orderLat(o)) || Double.isNaN(t.orderLon(o))) continue;
+            isOrder[k] = true;
+            lat[k] = t.orderLat(o);
+            lon[k] = t.orderLon(o);
+            service[k] = t.serviceSeconds(o);
+            ready[k] = service[k];
+            int start = t.timeWindowStartSeconds(o);
+            int end = t.timeWindowEndSeconds(o);
+            if (start >= 0 && end >= start) {
+                ready[k] = start + service[k];
+                close[k] = end;
+            }
+        }
+
+        double maxHours = 0;
+        for (int v = 0; v < t.vehicleCount(); v++) {
+            int type = t.vehicleTypeOf(v);
+            double h = type >= 0 && !Double.isNaN(t.maxDurationHours(type))
+                    ? t.maxDurationHours(type) : DEFAULT_MAX_DURATION_HOURS;
+            maxHours = Math.max(maxHours, h);
+        }
+        if (maxHours <= 0) maxHours = DEFAULT_MAX_DURATION_HOURS;
+        return new PairFeasibility(isOrder, lat, lon, ready, close, service, maxHours * 3600, maxSpeedKmh);
+    }
+
+    /**
+     * Lý do cặp (i -> j) bất khả thi, hoặc {@link #FEASIBLE}. Không trạng thái — an toàn
+     * khi nhiều luồng build / Jsprit gọi đồng thời.
+     */
+    public int reason(int i, int j) {
+        if (i == j || !orderByLoc[i] || !orderByLoc[j]) return FEASIBLE;
+        // Thô: chưa cần quãng đường
+        if (readySeconds[i] > closeSeconds[j]) return TIME_WINDOW;
+        double crow = GeoDistance.haversineMeters(lat[i], lon[i], lat[j], lon[j]);
+        double lb = Math.max(0.0, crow - slackMeters) / metersPerSecond;
+        if (serviceSeconds[i] + lb + serviceSeconds[j] > maxDurationSeconds) return SHIFT_LENGTH;
+        if (readySeconds[i] + lb > closeSeconds[j]) return TIME_WINDOW;
+        return FEASIBLE;
+    }
+
+    /**
+     * Bản trên các điểm gộp của {@link CoLocatedCollapse}: cặp điểm gộp (a -> b) chỉ bị
+     * prune khi MỌI cặp thành viên (i ∈ a, j ∈ b) đều bị prune. Mỗi nhóm lấy ready NHỎ
+     * nhất, close LỚN nhất, service NHỎ nhất; tọa độ leader lệch thành viên ≤ tolerance
+     * ở mỗi đầu nên slack cộng thêm 2·tolerance. Nhóm lẫn location không phải order
+     * (thiếu tọa độ trong context) thì không prune gì.
+     *
+     * @param repByLoc location gốc -> điểm gộp
+     * @param locByRep điểm gộp -> location leader
+     */
+    public PairFeasibility collapse(int[] repByLoc, int[] locByRep, double toleranceMeters) {
+        int m = locByRep.length;
+        boolean[] order = new boolean[m];
+        double[] la = new double[m];
+        double[] lo = new double[m];
+        double[] ready = new double[m];
+        double[] close = new double[m];
+        double[] service = new double[m];
+        Arrays.fill(order, true);
+        Arrays.fill(ready, Double.POSITIVE_INFINITY);
+        Arrays.fill(close, Double.NEGATIVE_INFINITY);
+        Arrays.fill(service, Double.POSITIVE_INFINITY);
+        for (int r = 0; r < m; r++) {
+            la[r] = lat[locByRep[r]];
+            lo[r] = lon[locByRep[r]];
+        }
+        for (int k = 0; k < repByLoc.length; k++) {
+            int r = repByLoc[k];
+            order[r] &= orderByLoc[k];
+            ready[r] = Math.min(ready[r], readySeconds[k]);
+            close[r] = Math.max(close[r], closeSeconds[k]);
+            service[r] = Math.min(service[r], serviceSeconds[k]);
+        }
+        return new PairFeasibility(order, la, lo, ready, close, service, maxDurationSeconds,
+                metersPerSecond * 3.6, slackMeters + 2 * Math.max(0.0, toleranceMeters));
+    }
+
+    public boolean feasible(int i, int j) {
+        return reason(i, j) == FEASIBLE;
+    }
+
+    public int size() {
+        return orderByLoc.length;
+    }
+
+    /** Bộ đếm prune theo lý do — cộng dồn an toàn từ nhiều luồng build. */
+    public static final class Tally {
+        private final LongAdder examined = new LongAdder();
+        private final LongAdder timeWindow = new LongAdder();
+        private final LongAdder shiftLength = new LongAdder();
+
+        /** @return reason, để gọi nối tiếp */
+        public int record(int reason) {
+            examined.increment();
+            if (reason == TIME_WINDOW) timeWindow.increment();
+            else if (reason == SHIFT_LENGTH) shiftLength.increment();
+            return reason;
+        }
+
+        public long examined() {
+            return examined.sum();
+        }
+
+        public long timeWindow() {
+            return timeWindow.sum();
+        }
+
+        public long shiftLength() {
+            return shiftLength.sum();
+        }
+
+        public long pruned() {
+            return timeWindow() + shiftLength();
+        }
+
+        /** "cửa sổ X (a%) + ca làm Y (b%) / Z ô xét" — tỉ lệ trên số ô của bố cục đã xét. */
+        public String summary() {
+            long all = Math.max(1, examined());
+            return String.format("cửa sổ thời gian %d (%.2f%%) + ca làm %d (%.2f%%) / %d ô xét",
+                    timeWindow(), 100.0 * timeWindow() / all, shiftLength(), 100.0 * shiftLength() / all,
+                    examined());
+        }
+    }
+}
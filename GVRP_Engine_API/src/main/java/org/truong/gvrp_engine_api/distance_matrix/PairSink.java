@@ -0,0 +1,13 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+/**
+ * Nơi nhận kết quả ô (i, j) từ API tính theo khối ({@link DistanceProvider#fetchBlock}).
+ *
+ * <p>Cùng lý do với {@link CellSink}: primitive, không record/BigDecimal mỗi ô.
+ * Ô không có đường trả {@code NaN}.
+ */
+@FunctionalInterface
+public interface PairSink {
+
+    void accept(int i, int j, double meters, double seconds);
+}
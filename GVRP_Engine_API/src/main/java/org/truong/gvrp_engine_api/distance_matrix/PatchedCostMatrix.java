@@ -0,0 +1,64 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+import java.util.Map;
+
+/**
+ * Lớp phủ CHỈ-ĐỌC: ô có trong {@code exact} đọc giá trị đường bộ thật, còn lại đọc từ
+ * ma trận nền (xấp xỉ). Dùng sau khi solve xong một job quick-plan để metric và
+ * route detail tính trên cạnh thật của lời giải cuối, không phải trên ước lượng.
+ * <p>
+ * Không vá ngược vào ma trận nền trong lúc solve: Jsprit cache cost của route/insertion,
+ * đổi giá trị dưới chân nó làm lời giải "tốt nhất" không còn so sánh được với nhau.
+ */
+public final class PatchedCostMatrix implements CostMatrix {
+
+    /** Ước lượng thô của một entry HashMap&lt;Long, double[]&gt; (node + Long + double[2]). */
+    private static final long BYTES_PER_PATCH = 96;
+
+    private final CostMatrix base;
+    private final Map<Long, double[]> exact;
+
+    /**
+     * @param exact key = {@link #key(int, int, int)}, value = {meters, seconds}; map
+     *              KHÔNG được sửa sau khi bọc
+     */
+    public PatchedCostMatrix(CostMatrix base, Map<Long, double[]> exact) {
+        this.base = base;
+        this.exact = exact;
+    }
+
+    public static long key(int i, int j, int n) {
+        return (long) i * n + j;
+    }
+
+    @Override
+    public double distanceMeters(int i, int j) {
+        double[] e = exact.get(key(i, j, base.size()));
+        return e != null ? e[0] : base.distanceMeters(i, j);
+    }
+
+    @Override
+    public double timeSeconds(int i, int j) {
+        double[] e = exact.get(key(i, j, base.size()));
+        return e != null ? e[1] : base.timeSeconds(i, j);
+    }
+
+    @Override
+    public int size() {
+        return base.size();
+    }
+
+    @Override
+    public long allocatedBytes() {
+        return base.allocatedBytes() + BYTES_PER_PATCH * exact.size();
+    }
+
+    @Override
+    public String layout() {
+        return String.format("PATCHED(%s, exact=%d)", base.layout(), exact.size());
+    }
+
+    public int patchedCells() {
+        return exact.size();
+    }
+}
@@ -0,0 +1,126 @@
+package org.truong.gvrp_engine_api.job;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ngân sách CPU cho pha SOLVE, chung cho mọi job của engine.
+ * <p>
+ * Trước đây mỗi job tự đặt số luồng Jsprit ({@code numThreads}, mặc định 1) không biết job nào
+ * khác đang chạy: một job lớn chạy một mình để không các core còn lại, năm job cùng lúc với
+ * numThreads cao thì giẫm lên nhau. Ở đây mỗi job vào pha SOLVING giữ một {@link Lease};
+ * số luồng của lease = phần chia đều {@code total-threads} cho mọi job đang solve CỘNG các
+ * job đang dựng ma trận (hàng đợi sắp cần CPU) — một job một mình nhận cả máy, job mới tới
+ * thì phần chia co lại. Phần dư chia cho lease vào sớm hơn.
+ * <p>
+ * Rebalance ở RANH GIỚI LƯỢT: {@link Lease#threads()} tính lại mỗi lần gọi, nên điểm Pareto
+ * kế tiếp / cụm kế tiếp của giải phân rã dùng phần chia mới khi có job vào / ra. Một thuật
+ * toán Jsprit đang chạy giữ số luồng đã dựng (Jsprit không đổi được giữa chừng).
+ * <p>
+ * Pool dựng ma trận (ForkJoinPool của DistanceMatrixService) nằm NGOÀI ngân sách này: nó đã
+ * dùng chung cho mọi job và tự cân tải bằng work stealing.
+ */
+@Slf4j
+@Component
+public class CpuBudget {
+
+    private final int totalThreads;
+    private final JobRegistry jobRegistry;
+    private final Map<Long, Lease> leases = new LinkedHashMap<>();   // thứ tự vào = ưu tiên phần dư
+
+    public CpuBudget(@Value("${gvrp.cpu.total-threads:0}") int configuredThreads, JobRegistry jobRegistry) {
+        if (configuredThreads < 0) {
+            throw new IllegalArgumentException("gvrp.cpu.total-threads phải >= 0, nhận " + configuredThreads);
+        }
+        // 0 = mọi core của máy
+        this.totalThreads = configuredThreads > 0 ? configuredThreads : Runtime.getRuntime().availableProcessors();
+        this.jobRegistry = jobRegistry;
+        log.info("[CPU] Ngân sách solve: {} luồng", totalThreads);
+    }
+
+    public int totalThreads() {
+        return totalThreads;
+    }
+
+    /**
+     * Vào pha solve. {@code maxThreads} (config.numThreads của job) là TRẦN, không phải yêu cầu
+     * cứng; null = nhận trọn phần chia.
+     */
+    public synchronized Lease acquire(long jobId, Integer maxThreads) {
+        if (maxThreads != null && maxThreads < 1) {
+            throw new IllegalArgumentException("numThreads phải >= 1, nhận " + maxThreads + " (job #" + jobId + ")");
+        }
+        if (leases.containsKey(jobId)) {
+            throw new IllegalStateException("Job #" + jobId + " đã giữ lease CPU — solve lồng nhau?");
+        }
+        Lease lease = new Lease(jobId, maxThreads);
+        leases.put(jobId, lease);
+        log.info("[CPU] Job #{} vào solve: {} luồng ({} job đang solve, {} đang dựng ma trận)",
+                jobId, lease.threads(), leases.size(), waitingJobs());
+        return lease;
+    }
+
+    private synchronized void release(Lease lease) {
+        if (leases.remove(lease.jobId) == lease) {
+            log.info("[CPU] Job #{} trả {} luồng ({} job còn solve)", lease.jobId, lease.granted, leases.size());
+        }
+    }
+
+    private int waitingJobs() {
+        return jobRegistry.countRunning(JobRegistry.Phase.BUILDING_MATRIX);
+    }
+
+    private synchronized int threadsFor(Lease lease) {
+        int sharers = Math.max(1, leases.size() + waitingJobs());
+        int share = totalThreads / sharers;
+        int rank = 0;
+        for (Long id : leases.keySet()) {
+            if (id == lease.jobId) break;
+            rank++;
+        }
+        int threads = Math.max(1, share + (rank < totalThreads % sharers ? 1 : 0));
+        if (lease.maxThreads != null) threads = Math.min(threads, lease.maxThreads);
+        lease.granted = threads;
+        return threads;
+    }
+
+    /** Phân bổ hiện tại cho /health: jobId → số luồng cấp lần gần nhất. */
+    public synchronized Map<String, Object> snapshot() {
+        Map<Long, Integer> allocations = new LinkedHashMap<>();
+        leases.values().forEach(l -> allocations.put(l.jobId, l.granted));
+        int allocated = allocations.values().stream().mapToInt(Integer::intValue).sum();
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("totalThreads", totalThreads);
+        out.put("allocatedThreads", allocated);
+        out.put("solvingJobs", leases.size());
+        out.put("waitingJobs", waitingJobs());
+        out.put("allocations", allocations);
+        return out;
+    }
+
+    /** Quyền dùng CPU của một job trong pha solve; đóng khi solve xong (kể cả lỗi / hủy). */
+    public final class Lease implements AutoCloseable {
+        private final long jobId;
+        private final Integer maxThreads;
+        private volatile int granted;
+
+        private Lease(long jobId, Integer maxThreads) {
+            this.jobId = jobId;
+            this.maxThreads = maxThreads;
+        }
+
+        /** Số luồng cho lượt solve KẾ TIẾP — gọi ngay trước khi dựng thuật toán. */
+        public int threads() {
+            return threadsFor(this);
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package org.truong.gvrp_engine_api.job;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
+import org.truong.gvrp_engine_api.model.StopReason;
 
 import java.time.Duration;
 import java.time.Instant;
@@ -31,6 +32,9 @@ public class JobRegistry {
 
     private static final Duration TERMINAL_TTL = Duration.ofMinutes(30);
 
+    /**
+     * @param stopReason null khi Jsprit còn đang chạy; có giá trị ở snapshot cuối của lượt solve
+     */
     public record ProgressSnapshot(
             int iteration,
             int maxIterations,
@@ -39,6 +43,7 @@ public class JobRegistry {
             int unassigned,
             long elapsedSeconds,
             Phase phase,
+            StopReason stopReason,
             Instant updatedAt) {
     }
 
@@ -103,6 +108,15 @@ public class JobRegistry {
         return jobs.get(jobId);
     }
 
+    /** Số job còn RUNNING đang ở {@code phase}. */
+    public int countRunning(Phase phase) {
+        int n = 0;
+        for (JobHandle h : jobs.values()) {
+            if (h.status == Status.RUNNING && h.phase == phase) n++;
+        }
+        return n;
+    }
+
     /**
      * Yêu cầu hủy. Trả false nếu job không tồn tại hoặc đã kết thúc (idempotent).
      */
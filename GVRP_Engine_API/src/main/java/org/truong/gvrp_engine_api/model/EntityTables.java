@@ -0,0 +1,302 @@
+package org.truong.gvrp_engine_api.model;
+
+import com.graphhopper.jsprit.core.problem.Location;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Bảng thực thể dạng CỘT của một job: mỗi order / vehicle / depot / vehicle type có
+ * index dày {@code 0..n-1} (theo id tăng dần), các trường số nằm trong mảng nguyên thủy.
+ * <p>
+ * VÌ SAO: sau solve, metric / extractor / feasibility tra DTO theo id Jsprit — trước đây
+ * mỗi route và mỗi stop là {@code replace("order-", "")} + {@code Long.parseLong} + boxing
+ * Long + tra HashMap, rồi unbox Double demand. Ở đây id Jsprit ("order-{id}",
+ * "vehicle-{id}") được băm sẵn MỘT lần sang index; demand / service / cửa sổ / capacity
+ * đọc thẳng từ mảng.
+ * <p>
+ * Quy ước giá trị thiếu (DTO cho phép null):
+ * <ul>
+ *   <li>demand, service thiếu → 0</li>
+ *   <li>cửa sổ thiếu / không parse được "HH:mm:ss" → -1 ở CẢ hai đầu (không có cửa sổ)</li>
+ *   <li>capacity, maxDuration, maxDistance, tọa độ thiếu → NaN</li>
+ *   <li>tham chiếu không tồn tại (type / depot / location) → -1</li>
+ * </ul>
+ * <p>
+ * Dựng một lần trong {@link OptimizationContext}, sau đó chỉ-đọc — mảng trả về là mảng
+ * NỘI BỘ, không được sửa.
+ */
+public final class EntityTables {
+
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private final Order[] orders;
+    private final Vehicle[] vehicles;
+    private final Depot[] depots;
+    private final VehicleType[] vehicleTypes;
+
+    private final Map<String, Integer> orderByJobId;
+    private final Map<String, Integer> vehicleByJspritId;
+    private final int[] orderByLoc;
+    private final int[] depotLoc;
+
+    // Cột order
+    private final int[] orderLoc;
+    private final double[] demand;
+    private final double[] serviceSeconds;
+    private final int[] twStartSeconds;
+    private final int[] twEndSeconds;
+    private final double[] orderLat;
+    private final double[] orderLon;
+
+    // Cột vehicle
+    private final int[] vehicleType;
+    private final int[] startDepot;
+    private final int[] endDepot;
+
+    // Cột vehicle type
+    private final double[] capacity;
+    private final double[] maxDurationHours;
+    private final double[] maxDistanceKm;
+
+    private EntityTables(List<Location> allLocations,
+                         Map<Long, Depot> depotDTOs,
+                         Map<Long, Order> orderDTOs,
+                         Map<Long, VehicleType> vehicleTypeDTOs,
+                         Map<Long, Vehicle> vehicleDTOs) {
+        this.orders = sortedById(orderDTOs, Order::getId, Order[]::new);
+        this.vehicles = sortedById(vehicleDTOs, Vehicle::getId, Vehicle[]::new);
+        this.depots = sortedById(depotDTOs, Depot::getId, Depot[]::new);
+        this.vehicleTypes = sortedById(vehicleTypeDTOs, VehicleType::getId, VehicleType[]::new);
+
+        // Location theo VỊ TRÍ trong allLocations (= hàng/cột ma trận), không theo getIndex()
+        int n = allLocations != null ? allLocations.size() : 0;
+        Map<String, Integer> locById = new HashMap<>(Math.max(16, n * 2));
+        for (int k = 0; k < n; k++) {
+            locById.put(allLocations.get(k).getId(), k);
+        }
+        this.orderByLoc = new int[n];
+        Arrays.fill(orderByLoc, -1);
+
+        int o = orders.length;
+        this.orderByJobId = new HashMap<>(Math.max(16, o * 2));
+        this.orderLoc = new int[o];
+        this.demand = new double[o];
+        this.serviceSeconds = new double[o];
+        this.twStartSeconds = new int[o];
+        this.twEndSeconds = new int[o];
+        this.orderLat = new double[o];
+        this.orderLon = new double[o];
+        for (int i = 0; i < o; i++) {
+            Order dto = orders[i];
+            String jobId = "order-" + dto.getId();
+            orderByJobId.put(jobId, i);
+            Integer loc = locById.get(jobId);
+            orderLoc[i] = loc != null ? loc : -1;
+            if (loc != null) orderByLoc[loc] = i;
+            demand[i] = dto.getDemand() != null ? dto.getDemand() : 0.0;
+            serviceSeconds[i] = dto.getServiceTime() != null ? dto.getServiceTime() * 60.0 : 0.0;
+            int start = secondsOrNegative(dto.getTimeWindowStart());
+            int end = secondsOrNegative(dto.getTimeWindowEnd());
+            boolean window = start >= 0 && end >= 0;
+            twStartSeconds[i] = window ? start : -1;
+            twEndSeconds[i] = window ? end : -1;
+            orderLat[i] = dto.getLatitude() != null ? dto.getLatitude() : Double.NaN;
+            orderLon[i] = dto.getLongitude() != null ? dto.getLongitude() : Double.NaN;
+        }
+
+        this.depotLoc = new int[depots.length];
+        for (int i = 0; i < depots.length; i++) {
+            depotLoc[i] = locById.getOrDefault("depot-" + depots[i].getId(), -1);
+        }
+
+        Map<Long, Integer> typeById = indexById(vehicleTypes, VehicleType::getId);
+        Map<Long, Integer> depotById = indexById(depots, Depot::getId);
+        int v = vehicles.length;
+        this.vehicleByJspritId = new HashMap<>(Math.max(16, v * 2));
+        this.vehicleType = new int[v];
+        this.startDepot = new int[v];
+        this.endDepot = new int[v];
+        for (int i = 0; i < v; i++) {
+            Vehicle dto = vehicles[i];
+            vehicleByJspritId.put("vehicle-" + dto.getId(), i);
+            vehicleType[i] = typeById.getOrDefault(dto.getVehicleTypeId(), -1);
+            startDepot[i] = depotById.getOrDefault(dto.getStartDepotId(), -1);
+            endDepot[i] = depotById.getOrDefault(dto.getEndDepotId(), -1);
+        }
+
+        int t = vehicleTypes.length;
+        this.capacity = new double[t];
+        this.maxDurationHours = new double[t];
+        this.maxDistanceKm = new double[t];
+        for (int i = 0; i < t; i++) {
+            VehicleType dto = vehicleTypes[i];
+            capacity[i] = dto.getCapacity() != null ? dto.getCapacity() : Double.NaN;
+            maxDurationHours[i] = dto.getMaxDuration() != null ? dto.getMaxDuration() : Double.NaN;
+            maxDistanceKm[i] = dto.getMaxDistance() != null ? dto.getMaxDistance() : Double.NaN;
+        }
+    }
+
+    public static EntityTables of(List<Location> allLocations,
+                                  Map<Long, Depot> depotDTOs,
+                                  Map<Long, Order> orderDTOs,
+                                  Map<Long, VehicleType> vehicleTypeDTOs,
+                                  Map<Long, Vehicle> vehicleDTOs) {
+        return new EntityTables(allLocations, depotDTOs, orderDTOs, vehicleTypeDTOs, vehicleDTOs);
+    }
+
+    private static <T> T[] sortedById(Map<Long, T> byId, Function<T, Long> id,
+                                      IntFunction<T[]> newArray) {
+        if (byId == null) return newArray.apply(0);
+        T[] out = byId.values().toArray(newArray.apply(0));
+        Arrays.sort(out, Comparator.comparing(id));
+        return out;
+    }
+
+    private static <T> Map<Long, Integer> indexById(T[] sorted, Function<T, Long> id) {
+        Map<Long, Integer> out = new HashMap<>(Math.max(16, sorted.length * 2));
+        for (int i = 0; i < sorted.length; i++) out.put(id.apply(sorted[i]), i);
+        return out;
+    }
+
+    private static int secondsOrNegative(String time) {
+        if (time == null) return -1;
+        try {
+            return LocalTime.parse(time, TIME_FORMATTER).toSecondOfDay();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    // ==================== KÍCH THƯỚC / DTO ====================
+
+    public int orderCount() {
+        return orders.length;
+    }
+
+    public int vehicleCount() {
+        return vehicles.length;
+    }
+
+    public int depotCount() {
+        return depots.length;
+    }
+
+    public int vehicleTypeCount() {
+        return vehicleTypes.length;
+    }
+
+    public Order order(int o) {
+        return orders[o];
+    }
+
+    public Vehicle vehicle(int v) {
+        return vehicles[v];
+    }
+
+    public Depot depot(int d) {
+        return depots[d];
+    }
+
+    public VehicleType vehicleType(int t) {
+        return vehicleTypes[t];
+    }
+
+    // ==================== ID JSPRIT -> INDEX ====================
+
+    /** "order-{id}" -> index order, -1 nếu không có. */
+    public int orderIndex(String jobId) {
+        Integer o = orderByJobId.get(jobId);
+        return o != null ? o : -1;
+    }
+
+    /** "vehicle-{id}" -> index vehicle, -1 nếu không có. */
+    public int vehicleIndex(String jspritVehicleId) {
+        Integer v = vehicleByJspritId.get(jspritVehicleId);
+        return v != null ? v : -1;
+    }
+
+    /** Vị trí trong allLocations (= index ma trận) -> index order, -1 nếu là depot / không có. */
+    public int orderAtLocation(int loc) {
+        return orderByLoc[loc];
+    }
+
+    /** Index ma trận của depot, -1 nếu allLocations không chứa "depot-{id}". */
+    public int depotLocation(int d) {
+        return depotLoc[d];
+    }
+
+    // ==================== CỘT ORDER ====================
+
+    /** Index ma trận của order, -1 nếu allLocations không chứa "order-{id}". */
+    public int orderLocation(int o) {
+        return orderLoc[o];
+    }
+
+    /** Demand gốc (CHƯA nhân DEMAND_SCALE). */
+    public double demand(int o) {
+        return demand[o];
+    }
+
+    public double serviceSeconds(int o) {
+        return serviceSeconds[o];
+    }
+
+    public boolean hasTimeWindow(int o) {
+        return twStartSeconds[o] >= 0;
+    }
+
+    /** Giây trong ngày, -1 nếu không có cửa sổ. */
+    public int timeWindowStartSeconds(int o) {
+        return twStartSeconds[o];
+    }
+
+    /** Giây trong ngày, -1 nếu không có cửa sổ. */
+    public int timeWindowEndSeconds(int o) {
+        return twEndSeconds[o];
+    }
+
+    public double orderLat(int o) {
+        return orderLat[o];
+    }
+
+    public double orderLon(int o) {
+        return orderLon[o];
+    }
+
+    // ==================== CỘT VEHICLE / VEHICLE TYPE ====================
+
+    public int vehicleTypeOf(int v) {
+        return vehicleType[v];
+    }
+
+    public int startDepotOf(int v) {
+        return startDepot[v];
+    }
+
+    public int endDepotOf(int v) {
+        return endDepot[v];
+    }
+
+    /** Capacity gốc (CHƯA scale), NaN nếu loại xe không khai. */
+    public double capacity(int t) {
+        return capacity[t];
+    }
+
+    /** Giờ, NaN nếu không khai. */
+    public double maxDurationHours(int t) {
+        return maxDurationHours[t];
+    }
+
+    /** Km, NaN nếu không khai. */
+    public double maxDistanceKm(int t) {
+        return maxDistanceKm[t];
+    }
+}
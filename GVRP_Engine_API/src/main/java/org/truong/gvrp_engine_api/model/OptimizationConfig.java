@@ -12,8 +12,8 @@ public class OptimizationConfig {
     private Double costWeight;
     private Double co2Weight;
 
-    private Integer maxIterations;     // Jsprit iterations (default: 2000)
-    private Integer numThreads;        // Parallel threads (default: 4)
+    private Integer maxIterations;     // Jsprit iterations (null: tỉ lệ số job, xem TerminationPolicy)
+    private Integer numThreads;        // Trần luồng Jsprit (null: phần chia của CpuBudget)
     private Integer timeoutSeconds;    // Max execution time
 
     private Boolean strictTimeWindows;
@@ -21,6 +21,36 @@ public class OptimizationConfig {
 
     private Boolean enableParetoAnalysis;
 
+    /**
+     * Quick plan: solve ngay trên ma trận xấp xỉ (chim bay × circuity), chỉ hỏi
+     * GraphHopper cho cạnh của lời giải. Bỏ qua khi bật Pareto.
+     */
+    private Boolean quickPlan;
+
+    /**
+     * Bán kính "halo" (mét): order cách centroid cụm láng giềng ≤ giá trị này được
+     * cấp ô trong khối của cụm đó và xe cụm đó được phép phục vụ nó. null/0 = tắt.
+     */
+    private Double haloMeters;
+
+    /**
+     * Giải phân rã: mỗi cụm một VRP Jsprit riêng, chạy song song (chỉ khi cluster-first bật
+     * và mọi order / xe có cụm). null = theo {@code gvrp.solve.decomposed.enabled}.
+     */
+    private Boolean decomposedSolve;
+
+    /**
+     * Pareto: mỗi điểm trọng số khởi đầu từ lời giải của điểm láng giềng đã xong thay vì
+     * construction. Hai đầu (đợt đầu) luôn chạy lạnh. null / false = tắt.
+     */
+    private Boolean paretoWarmStart;
+
+    /**
+     * Pareto: trần số điểm trọng số được giải (gồm hai đầu); quét thích nghi thường dừng sớm
+     * hơn. null = {@link org.truong.gvrp_engine_api.service.AdaptiveParetoSampler#DEFAULT_MAX_POINTS}.
+     */
+    private Integer paretoMaxPoints;
+
     @Deprecated
     private Double distanceWeight;
 
@@ -44,6 +74,11 @@ public class OptimizationConfig {
         copy.numThreads = this.numThreads;
         copy.timeoutSeconds = this.timeoutSeconds;
         copy.enableParetoAnalysis = this.enableParetoAnalysis;
+        copy.quickPlan = this.quickPlan;
+        copy.haloMeters = this.haloMeters;
+        copy.decomposedSolve = this.decomposedSolve;
+        copy.paretoWarmStart = this.paretoWarmStart;
+        copy.paretoMaxPoints = this.paretoMaxPoints;
         copy.strictTimeWindows = this.strictTimeWindows;
         copy.unassignedJobPenalty = this.unassignedJobPenalty;
         return copy;
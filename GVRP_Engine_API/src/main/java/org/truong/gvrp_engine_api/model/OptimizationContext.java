@@ -5,10 +5,27 @@ import com.graphhopper.jsprit.core.problem.Location;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Dữ liệu đầu vào của một job: location theo index ma trận, DTO theo id, và
+ * {@link EntityTables} — cùng dữ liệu đó dạng cột, index dày, dùng trên đường nóng
+ * (metric, extractor, feasibility) thay cho parse id + tra map.
+ */
 public record OptimizationContext(
         List<Location> allLocations,
         Map<Long, Depot> depotDTOs,
         Map<Long, Order> orderDTOs,
         Map<Long, VehicleType> vehicleTypeDTOs,
-        Map<Long, Vehicle> vehicleDTOs
-) {}
\ No newline at end of file
+        Map<Long, Vehicle> vehicleDTOs,
+        EntityTables tables
+) {
+
+    /** Dựng bảng cột từ các map DTO — đường dựng thông thường. */
+    public OptimizationContext(List<Location> allLocations,
+                               Map<Long, Depot> depotDTOs,
+                               Map<Long, Order> orderDTOs,
+                               Map<Long, VehicleType> vehicleTypeDTOs,
+                               Map<Long, Vehicle> vehicleDTOs) {
+        this(allLocations, depotDTOs, orderDTOs, vehicleTypeDTOs, vehicleDTOs,
+                EntityTables.of(allLocations, depotDTOs, orderDTOs, vehicleTypeDTOs, vehicleDTOs));
+    }
+}
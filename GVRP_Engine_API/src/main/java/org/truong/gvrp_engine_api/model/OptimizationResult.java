@@ -51,6 +51,10 @@ public class OptimizationResult {
         return selected.getMetrics().getOrdersUnserved();
     }
 
+    public StopReason getStopReason() {
+        return selected.getStopReason();
+    }
+
 
     /**
      * Single-objective optimization result
@@ -26,6 +26,9 @@ public class SolutionCandidate {
     private Double costWeight;         // Weight used for this solution
     private Double co2Weight;          // Weight used for this solution
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private StopReason stopReason;     // Vì sao Jsprit dừng ở lời giải này
+
     /**
      * Check if this solution dominates another in Pareto sense
      * A dominates B if A is better in ALL objectives
@@ -0,0 +1,16 @@
+package org.truong.gvrp_engine_api.model;
+
+/**
+ * Lý do Jsprit dừng. Thứ tự khai báo = mức "nặng" tăng dần: gộp nhiều lượt solve (cụm,
+ * điểm Pareto) lấy lý do nặng nhất — một cụm hết giờ thì cả kết quả là TIMEOUT.
+ */
+public enum StopReason {
+    CONVERGED,       // best cost không cải thiện đáng kể trong cửa sổ K vòng
+    MAX_ITERATIONS,  // chạy hết trần vòng lặp
+    TIMEOUT,         // chạm ngân sách thời gian (config.timeoutSeconds)
+    CANCELLED;       // người dùng hủy
+
+    public StopReason max(StopReason other) {
+        return other == null || other.ordinal() <= ordinal() ? this : other;
+    }
+}
@@ -0,0 +1,252 @@
+package org.truong.gvrp_engine_api.service;
+
+import org.truong.gvrp_engine_api.model.SolutionCandidate;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.LongSupplier;
+
+import static org.truong.gvrp_engine_api.utils.AppConstant.EPSILON;
+
+/**
+ * Chọn điểm trọng số cho Pareto THÍCH NGHI thay cho lưới lũy thừa cố định cũ (w_c = (k/N)^p):
+ * giải hai đầu (gần như chỉ CO2 / chỉ chi phí) trước, rồi chia
+ * đôi trọng số ở khe LỚN NHẤT giữa hai điểm kề nhau trên frontier, đo trong không gian
+ * (cost, CO2) chuẩn hóa theo biên của frontier.
+ * <p>
+ * Lưới cố định trả tiền solve đầy đủ cho mọi điểm, kể cả khi frontier suy biến (một loại
+ * xe, hai đầu ra cùng lời giải) hay các điểm dồn vào một đoạn — quan hệ trọng số → vị trí
+ * trên frontier phi tuyến (xem GreenVRPCostCalculator). Ở đây khe nhỏ hơn
+ * {@link #MIN_GAP} không được chia tiếp, và dừng sớm khi:
+ * <ul>
+ *   <li>{@link #PATIENCE} kết quả liên tiếp không vào được frontier;</li>
+ *   <li>đã giải {@code maxPoints} điểm;</li>
+ *   <li>hết ngân sách thời gian của quét.</li>
+ * </ul>
+ * Frontier giữ TĂNG DẦN (sắp theo cost) khi kết quả về — O(k) mỗi lần, không lọc lại O(k²)
+ * sau cùng. Quan hệ trội giống hệt {@link SolutionCandidate#dominates}, nên frontier trùng
+ * với kết quả lọc lại toàn bộ ứng viên.
+ * <p>
+ * Không thread-safe: chỉ luồng điều phối gọi, giữa các đợt. Các điểm của một đợt chạy song
+ * song trên pool; {@link #points()} không đổi trong lúc đợt chạy.
+ */
+public final class AdaptiveParetoSampler {
+
+    public static final int DEFAULT_MAX_POINTS = 5;
+
+    /** Khe chuẩn hóa (đường chéo biên frontier = √2) nhỏ hơn mức này coi như đã phủ. */
+    static final double MIN_GAP = 0.1;
+
+    /** Hai trọng số gần hơn mức này cho cùng lời giải — không chia nhỏ hơn. */
+    static final double MIN_WEIGHT_STEP = 1e-3;
+
+    static final int PATIENCE = 2;
+
+    public enum StopCause {FRONTIER_COVERED, NO_NEW_FRONTIER_POINT, MAX_POINTS, TIME_BUDGET}
+
+    /** Một điểm trọng số của quét; {@code label} thành tên ứng viên trả về client. */
+    public record WeightPoint(String label, double costWeight, double co2Weight) {}
+
+    private final int maxPoints;
+    private final long budgetNanos;
+    private final LongSupplier nanoClock;
+    private long startNanos = -1;
+
+    private final List<WeightPoint> points = new ArrayList<>();
+    private final List<SolutionCandidate> candidates = new ArrayList<>();
+    /** Không bị trội, tăng dần theo cost (nên CO2 giảm dần). */
+    private final List<SolutionCandidate> frontier = new ArrayList<>();
+    /** Index điểm của đợt hiện tại chưa có kết quả — chặn kết quả lặp / lạc đợt. */
+    private final BitSet pending = new BitSet();
+    private int sinceLastEntry;
+    private StopCause stopCause;
+
+    /**
+     * @param budgetMs thời gian tối đa từ lần {@link #next} đầu; 0 = không giới hạn
+     */
+    public AdaptiveParetoSampler(int maxPoints, long budgetMs) {
+        this(maxPoints, budgetMs, System::nanoTime);
+    }
+
+    AdaptiveParetoSampler(int maxPoints, long budgetMs, LongSupplier nanoClock) {
+        if (maxPoints < 2) {
+            throw new IllegalArgumentException("maxPoints phải >= 2 (hai đầu), got " + maxPoints);
+        }
+        if (budgetMs < 0) {
+            throw new IllegalArgumentException("budgetMs phải >= 0, got " + budgetMs);
+        }
+        this.maxPoints = maxPoints;
+        this.budgetNanos = budgetMs * 1_000_000L;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Đợt điểm kế tiếp (index trong {@link #points()}), tối đa {@code slots} điểm. Đợt đầu luôn
+     * là hai đầu, kể cả khi đã hết giờ — job Pareto phải có ít nhất một lời giải.
+     *
+     * @return rỗng = dừng, lý do ở {@link #stopCause()}
+     * @throws IllegalStateException đợt trước còn điểm chưa {@link #accept}
+     */
+    public List<Integer> next(int slots) {
+        if (!pending.isEmpty()) {
+            throw new IllegalStateException(String.format(
+                    "AdaptiveParetoSampler: còn %d điểm của đợt trước chưa có kết quả %s",
+                    pending.cardinality(), pending));
+        }
+        if (points.isEmpty()) {
+            startNanos = nanoClock.getAsLong();
+            propose(EPSILON);
+            propose(1.0);
+            return List.of(0, 1);
+        }
+        if (stopCause != null) return List.of();
+        if (candidates.size() >= maxPoints) return stop(StopCause.MAX_POINTS);
+        if (sinceLastEntry >= PATIENCE) return stop(StopCause.NO_NEW_FRONTIER_POINT);
+        if (budgetNanos > 0 && nanoClock.getAsLong() - startNanos >= budgetNanos) return stop(StopCause.TIME_BUDGET);
+
+        List<double[]> gaps = openGaps();   // {khe, trọng số giữa}
+        if (gaps.isEmpty()) return stop(StopCause.FRONTIER_COVERED);
+        int take = Math.min(Math.max(1, slots), Math.min(gaps.size(), maxPoints - points.size()));
+        List<Integer> batch = new ArrayList<>(take);
+        for (int k = 0; k < take; k++) batch.add(propose(gaps.get(k)[1]));
+        return batch;
+    }
+
+    /**
+     * Ghi kết quả của điểm {@code pointIndex} và cập nhật frontier tăng dần.
+     *
+     * @return true nếu ứng viên vào frontier (không bị điểm nào đã có trội)
+     * @throws IllegalStateException điểm không thuộc đợt hiện tại hoặc đã có kết quả — ứng viên
+     *                               lặp sẽ đếm hai lần vào {@link #PATIENCE} và {@code maxPoints}
+     */
+    public boolean accept(int pointIndex, SolutionCandidate candidate) {
+        if (pointIndex < 0 || !pending.get(pointIndex)) {
+            throw new IllegalStateException(String.format(
+                    "AdaptiveParetoSampler: kết quả cho điểm %d không đang chờ (%d điểm, đang chờ %s)",
+                    pointIndex, points.size(), pending));
+        }
+        pending.clear(pointIndex);
+        candidates.add(candidate);
+        for (SolutionCandidate member : frontier) {
+            if (member.dominates(candidate)) {
+                sinceLastEntry++;
+                return false;
+            }
+        }
+        frontier.removeIf(candidate::dominates);
+        int at = 0;
+        while (at < frontier.size() && cost(frontier.get(at)) <= cost(candidate)) at++;
+        frontier.add(at, candidate);
+        sinceLastEntry = 0;
+        return true;
+    }
+
+    /** Điểm đã đề xuất, theo thứ tự đề xuất. Index ổn định — dùng làm khóa cho điểm. */
+    public List<WeightPoint> points() {
+        return Collections.unmodifiableList(points);
+    }
+
+    /** Mọi ứng viên, theo costWeight tăng dần (như thứ tự lưới cũ). */
+    public List<SolutionCandidate> candidates() {
+        return byCostWeight(candidates);
+    }
+
+    /** Frontier hiện tại, theo costWeight tăng dần. */
+    public List<SolutionCandidate> frontier() {
+        return byCostWeight(frontier);
+    }
+
+    public StopCause stopCause() {
+        return stopCause;
+    }
+
+    public int maxPoints() {
+        return maxPoints;
+    }
+
+    private int propose(double costWeight) {
+        String label = String.format(Locale.ROOT, "PARETO_W%.3f", costWeight);
+        points.add(new WeightPoint(label, costWeight, 1.0 - costWeight));
+        pending.set(points.size() - 1);
+        return points.size() - 1;
+    }
+
+    private List<Integer> stop(StopCause cause) {
+        stopCause = cause;
+        return List.of();
+    }
+
+    /** Khe giữa hai điểm kề nhau còn đáng chia, lớn nhất trước. */
+    private List<double[]> openGaps() {
+        double minCost = cost(frontier.get(0));
+        double costRange = cost(frontier.get(frontier.size() - 1)) - minCost;
+        double minCo2 = Double.MAX_VALUE;
+        double maxCo2 = -Double.MAX_VALUE;
+        for (SolutionCandidate c : frontier) {
+            minCo2 = Math.min(minCo2, co2(c));
+            maxCo2 = Math.max(maxCo2, co2(c));
+        }
+        double co2Range = maxCo2 - minCo2;
+
+        List<double[]> gaps = new ArrayList<>();
+        for (int i = 0; i + 1 < frontier.size(); i++) {
+            SolutionCandidate a = frontier.get(i);
+            SolutionCandidate b = frontier.get(i + 1);
+            double dc = costRange > 0 ? (cost(b) - cost(a)) / costRange : 0;
+            double de = co2Range > 0 ? Math.abs(co2(a) - co2(b)) / co2Range : 0;
+            double gap = Math.hypot(dc, de);
+            if (gap < MIN_GAP) continue;
+            double mid = widestUntriedMidpoint(a.getCostWeight(), b.getCostWeight());
+            if (!Double.isNaN(mid)) gaps.add(new double[]{gap, mid});
+        }
+        gaps.sort(Comparator.comparingDouble((double[] g) -> g[0]).reversed());
+        return gaps;
+    }
+
+    /**
+     * Trung điểm của đoạn trọng số RỘNG NHẤT chưa thử giữa {@code wa} và {@code wb}. Điểm giữa
+     * từng thử mà bị trội (heuristic kém ở trọng số đó) không khép khe trên frontier — thử tiếp
+     * hai nửa của nó, {@link #PATIENCE} chặn việc thử mãi.
+     *
+     * @return NaN nếu mọi đoạn đã hẹp hơn 2 × {@link #MIN_WEIGHT_STEP}
+     */
+    private double widestUntriedMidpoint(double wa, double wb) {
+        double lo = Math.min(wa, wb);
+        double hi = Math.max(wa, wb);
+        List<Double> cuts = new ArrayList<>();
+        cuts.add(lo);
+        for (WeightPoint p : points) {
+            if (p.costWeight() > lo && p.costWeight() < hi) cuts.add(p.costWeight());
+        }
+        cuts.add(hi);
+        Collections.sort(cuts);
+        double best = Double.NaN;
+        double widest = 2 * MIN_WEIGHT_STEP;
+        for (int k = 0; k + 1 < cuts.size(); k++) {
+            double width = cuts.get(k + 1) - cuts.get(k);
+            if (width >= widest) {
+                widest = width;
+                best = (cuts.get(k) + cuts.get(k + 1)) / 2;
+            }
+        }
+        return best;
+    }
+
+    private static List<SolutionCandidate> byCostWeight(List<SolutionCandidate> list) {
+        List<SolutionCandidate> sorted = new ArrayList<>(list);
+        sorted.sort(Comparator.comparingDouble(SolutionCandidate::getCostWeight));
+        return sorted;
+    }
+
+    private static double cost(SolutionCandidate c) {
+        return c.getMetrics().getTotalCostVnd();
+    }
+
+    private static double co2(SolutionCandidate c) {
+        return c.getMetrics().getTotalCo2Kg();
+    }
+}
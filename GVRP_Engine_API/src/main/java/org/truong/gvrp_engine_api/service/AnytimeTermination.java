@@ -0,0 +1,144 @@
+package org.truong.gvrp_engine_api.service;
+
+import com.graphhopper.jsprit.core.algorithm.SearchStrategy;
+import com.graphhopper.jsprit.core.algorithm.VehicleRoutingAlgorithm;
+import com.graphhopper.jsprit.core.algorithm.listener.AlgorithmStartsListener;
+import com.graphhopper.jsprit.core.algorithm.termination.PrematureAlgorithmTermination;
+import com.graphhopper.jsprit.core.problem.VehicleRoutingProblem;
+import com.graphhopper.jsprit.core.problem.solution.VehicleRoutingProblemSolution;
+import org.truong.gvrp_engine_api.model.StopReason;
+
+import java.util.Collection;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Điều kiện dừng "anytime" cho MỘT lượt Jsprit: dừng ở ranh giới vòng đầu tiên mà
+ * <ol>
+ *   <li>job bị hủy → {@link StopReason#CANCELLED};</li>
+ *   <li>hết ngân sách thời gian → {@link StopReason#TIMEOUT};</li>
+ *   <li>best cost không giảm quá {@code minRelativeImprovement} (tương đối) trong
+ *       {@code noImprovementWindow} vòng liên tiếp → {@link StopReason#CONVERGED}.</li>
+ * </ol>
+ * Không điều kiện nào kích hoạt thì Jsprit chạy hết {@link #maxIterations()} →
+ * {@link StopReason#MAX_ITERATIONS}.
+ * <p>
+ * VÌ SAO không dùng {@code TimeTermination} của Jsprit: nó chỉ đặt mốc bắt đầu khi được
+ * {@code addListener} — quên một dòng là dừng ngay vòng 1 (xem TimeTerminationBugTest), và
+ * {@code setPrematureAlgorithmTermination} chỉ nhận MỘT điều kiện, đè mất cờ hủy. Ở đây mốc
+ * bắt đầu còn được đặt lười ở vòng đầu nếu listener không được gắn.
+ * <p>
+ * "Cải thiện đáng kể" so với MỐC (best lần gần nhất giảm đủ ngưỡng), không so với vòng liền
+ * trước — chuỗi cải thiện 0.01% mỗi vòng không giữ thuật toán chạy mãi.
+ * <p>
+ * Không thread-safe: Jsprit gọi {@link #isPrematureBreak} tuần tự trên luồng điều phối kể cả
+ * khi THREADS &gt; 1; {@link #stopReason()} đọc được từ luồng khác sau khi solve xong.
+ */
+public final class AnytimeTermination implements PrematureAlgorithmTermination, AlgorithmStartsListener {
+
+    private final int maxIterations;
+    private final long timeoutNanos;              // <= 0: không giới hạn
+    private final int noImprovementWindow;        // <= 0: tắt
+    private final double minRelativeImprovement;
+    private final BooleanSupplier cancelled;
+    private final LongSupplier nanoClock;
+
+    private long startNanos;
+    private boolean started;
+    private int iterations;
+    private int lastImprovementIteration;
+    private double anchorCost = Double.POSITIVE_INFINITY;
+    private volatile StopReason reason;
+
+    public AnytimeTermination(int maxIterations, long timeoutMs, int noImprovementWindow,
+                              double minRelativeImprovement, BooleanSupplier cancelled) {
+        this(maxIterations, timeoutMs, noImprovementWindow, minRelativeImprovement, cancelled, System::nanoTime);
+    }
+
+    AnytimeTermination(int maxIterations, long timeoutMs, int noImprovementWindow,
+                       double minRelativeImprovement, BooleanSupplier cancelled, LongSupplier nanoClock) {
+        if (maxIterations < 1) {
+            throw new IllegalArgumentException("AnytimeTermination: maxIterations phải >= 1, nhận " + maxIterations);
+        }
+        if (minRelativeImprovement < 0 || minRelativeImprovement >= 1) {
+            throw new IllegalArgumentException(
+                    "AnytimeTermination: minRelativeImprovement phải trong [0, 1), nhận " + minRelativeImprovement);
+        }
+        this.maxIterations = maxIterations;
+        this.timeoutNanos = timeoutMs > 0 ? timeoutMs * 1_000_000L : 0;
+        this.noImprovementWindow = noImprovementWindow;
+        this.minRelativeImprovement = minRelativeImprovement;
+        this.cancelled = cancelled;
+        this.nanoClock = nanoClock;
+    }
+
+    /** Gắn vào thuật toán: vừa là điều kiện dừng, vừa là listener đặt mốc thời gian. */
+    public void attachTo(VehicleRoutingAlgorithm algorithm) {
+        algorithm.setMaxIterations(maxIterations);
+        algorithm.setPrematureAlgorithmTermination(this);
+        algorithm.addListener(this);
+    }
+
+    @Override
+    public void informAlgorithmStarts(VehicleRoutingProblem problem, VehicleRoutingAlgorithm algorithm,
+                                      Collection<VehicleRoutingProblemSolution> solutions) {
+        start();
+    }
+
+    private void start() {
+        startNanos = nanoClock.getAsLong();
+        started = true;
+    }
+
+    @Override
+    public boolean isPrematureBreak(SearchStrategy.DiscoveredSolution discoveredSolution) {
+        if (!started) start();
+        iterations++;
+
+        if (discoveredSolution != null && discoveredSolution.getSolution() != null) {
+            double cost = discoveredSolution.getSolution().getCost();
+            if (cost < anchorCost - minRelativeImprovement * Math.abs(anchorCost)
+                    || Double.isInfinite(anchorCost)) {
+                anchorCost = cost;
+                lastImprovementIteration = iterations;
+            }
+        }
+
+        if (cancelled.getAsBoolean()) {
+            reason = StopReason.CANCELLED;
+        } else if (timeoutNanos > 0 && nanoClock.getAsLong() - startNanos >= timeoutNanos) {
+            reason = StopReason.TIMEOUT;
+        } else if (noImprovementWindow > 0 && iterations - lastImprovementIteration >= noImprovementWindow) {
+            reason = StopReason.CONVERGED;
+        }
+        return reason != null;
+    }
+
+    /** Lý do dừng; chưa có điều kiện nào kích hoạt = chạy hết trần vòng lặp. */
+    public StopReason stopReason() {
+        StopReason r = reason;
+        return r != null ? r : StopReason.MAX_ITERATIONS;
+    }
+
+    public int maxIterations() {
+        return maxIterations;
+    }
+
+    /** Số vòng đã chạy (tính cả vòng kích hoạt dừng). */
+    public int iterations() {
+        return iterations;
+    }
+
+    public long elapsedMs() {
+        return started ? (nanoClock.getAsLong() - startNanos) / 1_000_000 : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[AnytimeTermination] maxIter=%d timeout=%s window=%s minRelImprovement=%s",
+                maxIterations,
+                timeoutNanos > 0 ? (timeoutNanos / 1_000_000) + "ms" : "none",
+                noImprovementWindow > 0 ? String.valueOf(noImprovementWindow) : "off",
+                minRelativeImprovement);
+    }
+}
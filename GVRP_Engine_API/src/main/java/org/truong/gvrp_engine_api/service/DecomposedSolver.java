@@ -0,0 +1,211 @@
+package org.truong.gvrp_engine_api.service;
+
+import com.graphhopper.jsprit.core.problem.job.Job;
+import com.graphhopper.jsprit.core.problem.solution.VehicleRoutingProblemSolution;
+import com.graphhopper.jsprit.core.problem.solution.route.VehicleRoute;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.truong.gvrp_engine_api.model.EntityTables;
+import org.truong.gvrp_engine_api.model.OptimizationConfig;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+/**
+ * Giải PHÂN RÃ theo cụm: mỗi cụm đã merge là một VRP Jsprit độc lập — chỉ order của cụm
+ * và các xe {@code VehicleClusterAssigner} ghim vào cụm — chạy song song trên pool giới hạn,
+ * rồi ghép thành một lời giải.
+ * <p>
+ * VÌ SAO: với một VRP khổng lồ, {@code ClusterRouteConstraint} vẫn bắt Jsprit thử (rồi loại)
+ * MỌI route cho MỖI job — chi phí chèn tỉ lệ với tổng số route, không phải số route của cụm.
+ * Cụm đã tách hẳn nhau (xe ghim một cụm, ô khác cụm là sentinel) nên các bài toán con độc
+ * lập tuyệt đối; thời gian solve co về xấp xỉ cụm CHẬM NHẤT thay vì một lượt tìm kiếm lớn.
+ * <p>
+ * CHỈ phân rã khi mọi order và mọi xe đều có cụm ({@link #plan} trả null nếu không):
+ * order ở dải rộng (không cụm nào còn sức chứa) được MỌI xe phục vụ ở nhánh nguyên khối,
+ * tách ra sẽ mất lời giải. Order halo chỉ được giải trong cụm NHÀ — mất độ linh hoạt biên
+ * để đổi lấy bài toán con độc lập.
+ * <p>
+ * Mỗi bài toán con chạy Jsprit MỘT luồng: song song nằm ở pool, không chồng thêm luồng
+ * Jsprit lên từng cụm. Pool dùng chung giữa các job; số cụm một job được chạy cùng lúc do
+ * ngân sách CPU của job quyết định ({@code maxInFlight}), không phải kích thước pool.
+ * Quét Pareto song song cũng chạy các điểm trọng số trên pool này ({@link #runAll}).
+ */
+@Slf4j
+@Component
+public class DecomposedSolver {
+
+    private final ExecutorService pool;
+    private final int parallelism;
+    private final boolean enabledByDefault;
+
+    public DecomposedSolver(
+            @Value("${gvrp.solve.decomposed.enabled:false}") boolean enabledByDefault,
+            @Value("${gvrp.solve.decomposed.parallelism:0}") int configuredParallelism) {
+        // 0 = tự chọn (số core - 1), cùng quy ước với pool matrix build
+        this.parallelism = configuredParallelism > 0
+                ? configuredParallelism
+                : Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        this.enabledByDefault = enabledByDefault;
+        AtomicInteger seq = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "gvrp-solve-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void shutdownPool() {
+        pool.shutdownNow();
+        log.info("[Solve] Đã shutdown pool giải phân rã");
+    }
+
+    /** Config job thắng; null thì theo {@code gvrp.solve.decomposed.enabled}. */
+    public boolean isEnabled(OptimizationConfig config) {
+        return config.getDecomposedSolve() != null ? config.getDecomposedSolve() : enabledByDefault;
+    }
+
+    public int parallelism() {
+        return parallelism;
+    }
+
+    /** Một cụm: index vehicle / index order theo {@link EntityTables}. */
+    public record SubProblem(int clusterId, int[] vehicles, int[] orders) {
+    }
+
+    /**
+     * @param subProblems    cụm có xe VÀ có order, lớn trước (giảm đuôi khi pool bận)
+     * @param strandedOrders order thuộc cụm không có xe — không xe nào được phép phục vụ,
+     *                       đưa thẳng vào unassigned (nhánh nguyên khối cũng cho kết quả này)
+     */
+    public record Plan(List<SubProblem> subProblems, int[] strandedOrders) {
+    }
+
+    /**
+     * Chia order / xe theo cụm.
+     *
+     * @return null nếu không phân rã được: không có cụm, hoặc có order / xe KHÔNG có cụm
+     */
+    public static Plan plan(EntityTables tables, Map<String, Integer> clusterIdByEntityId) {
+        if (clusterIdByEntityId == null) return null;
+        Map<Integer, List<Integer>> vehiclesByCluster = new TreeMap<>();
+        Map<Integer, List<Integer>> ordersByCluster = new TreeMap<>();
+        for (int v = 0; v < tables.vehicleCount(); v++) {
+            Integer c = clusterIdByEntityId.get("vehicle-" + tables.vehicle(v).getId());
+            if (c == null) return null;
+            vehiclesByCluster.computeIfAbsent(c, k -> new ArrayList<>()).add(v);
+        }
+        for (int o = 0; o < tables.orderCount(); o++) {
+            Integer c = clusterIdByEntityId.get("order-" + tables.order(o).getId());
+            if (c == null) return null;
+            ordersByCluster.computeIfAbsent(c, k -> new ArrayList<>()).add(o);
+        }
+
+        List<SubProblem> subProblems = new ArrayList<>();
+        List<Integer> stranded = new ArrayList<>();
+        ordersByCluster.forEach((c, orders) -> {
+            List<Integer> vehicles = vehiclesByCluster.get(c);
+            if (vehicles == null) {
+                stranded.addAll(orders);
+            } else {
+                subProblems.add(new SubProblem(c, toArray(vehicles), toArray(orders)));
+            }
+        });
+        subProblems.sort(Comparator.comparingInt((SubProblem s) -> s.orders().length).reversed()
+                .thenComparingInt(SubProblem::clusterId));
+        return new Plan(subProblems, toArray(stranded));
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        return values.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /** {@link #solveAll(List, IntSupplier, Function)} không giới hạn số cụm cùng lúc (ngoài pool). */
+    public List<VehicleRoutingProblemSolution> solveAll(List<SubProblem> subProblems,
+                                                        Function<SubProblem, VehicleRoutingProblemSolution> solver) {
+        return solveAll(subProblems, () -> Integer.MAX_VALUE, solver);
+    }
+
+    /**
+     * Giải mọi cụm trên pool, trả về theo ĐÚNG thứ tự {@code subProblems}. Một cụm lỗi →
+     * hủy các cụm còn lại và ném lỗi gốc (không trả lời giải thiếu cụm).
+     *
+     * @param maxInFlight số cụm tối đa của job này chạy cùng lúc — đọc lại mỗi khi một cụm
+     *                    xong, nên cửa sổ nở / co theo ngân sách CPU khi job khác vào / ra
+     */
+    public List<VehicleRoutingProblemSolution> solveAll(List<SubProblem> subProblems, IntSupplier maxInFlight,
+                                                        Function<SubProblem, VehicleRoutingProblemSolution> solver) {
+        return runAll(subProblems, maxInFlight, solver);
+    }
+
+    /**
+     * Chạy {@code work} cho từng phần tử trên pool với cửa sổ {@code maxInFlight}, kết quả theo
+     * ĐÚNG thứ tự {@code tasks}, nộp theo thứ tự đó. Lỗi: hủy phần còn lại, ném lỗi gốc.
+     */
+    public <T, R> List<R> runAll(List<T> tasks, IntSupplier maxInFlight, Function<T, R> work) {
+        int n = tasks.size();
+        @SuppressWarnings("unchecked")
+        R[] out = (R[]) new Object[n];
+        CompletionService<Integer> completion = new ExecutorCompletionService<>(pool);
+        List<Future<Integer>> futures = new ArrayList<>(n);
+        int next = 0;
+        int inFlight = 0;
+        try {
+            while (next < n || inFlight > 0) {
+                int window = Math.max(1, maxInFlight.getAsInt());
+                while (next < n && inFlight < window) {
+                    int k = next++;
+                    futures.add(completion.submit(() -> {
+                        out[k] = work.apply(tasks.get(k));
+                        return k;
+                    }));
+                    inFlight++;
+                }
+                completion.take().get();   // get() tạo happens-before cho out[k]
+                inFlight--;
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new IllegalStateException("Giải song song (cụm / điểm Pareto) lỗi — " + e.getCause(), e.getCause());
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Giải song song bị ngắt khi đợi các cụm / điểm Pareto", e);
+        }
+        return Arrays.asList(out);
+    }
+
+    /**
+     * Ghép lời giải các cụm: route nối lại, unassigned hợp lại (+ order kẹt), cost cộng dồn —
+     * cost Jsprit cộng được vì các cụm không chung xe / job.
+     */
+    public static VehicleRoutingProblemSolution stitch(List<VehicleRoutingProblemSolution> parts,
+                                                       List<Job> strandedJobs) {
+        List<VehicleRoute> routes = new ArrayList<>();
+        List<Job> unassigned = new ArrayList<>(strandedJobs);
+        double cost = 0;
+        for (VehicleRoutingProblemSolution part : parts) {
+            routes.addAll(part.getRoutes());
+            unassigned.addAll(part.getUnassignedJobs());
+            cost += part.getCost();
+        }
+        return new VehicleRoutingProblemSolution(routes, unassigned, cost);
+    }
+}
@@ -0,0 +1,165 @@
+package org.truong.gvrp_engine_api.service;
+
+import com.graphhopper.jsprit.core.algorithm.listener.IterationEndsListener;
+import com.graphhopper.jsprit.core.problem.VehicleRoutingProblem;
+import com.graphhopper.jsprit.core.problem.solution.VehicleRoutingProblemSolution;
+import com.graphhopper.jsprit.core.problem.solution.route.VehicleRoute;
+import com.graphhopper.jsprit.core.problem.solution.route.activity.TourActivity;
+import com.graphhopper.jsprit.core.util.Solutions;
+import lombok.extern.slf4j.Slf4j;
+import org.truong.gvrp_engine_api.distance_matrix.DistanceMatrixEntry;
+import org.truong.gvrp_engine_api.distance_matrix.DistanceMatrixService;
+import org.truong.gvrp_engine_api.distance_matrix.OptCoordinates;
+import org.truong.gvrp_engine_api.distance_matrix.PatchedCostMatrix;
+import org.truong.gvrp_engine_api.model.DistanceTimeMatrix;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Vá cạnh XẤP XỈ bằng giá trị GraphHopper thật — CHỈ cho các cạnh nằm trên lời giải
+ * (quick plan).
+ * <p>
+ * Trong lúc solve: cứ {@link #REFINE_EVERY} vòng, lấy lời giải tốt nhất hiện tại và bắn
+ * truy vấn nền cho các cạnh CHƯA từng hỏi. Lời giải cuối thường chia phần lớn cạnh với
+ * incumbent vài trăm vòng trước, nên khi solve xong hầu hết đã có sẵn.
+ * <p>
+ * Sau khi solve: {@link #patch} hỏi nốt cạnh còn thiếu của lời giải cuối, đợi mọi truy
+ * vấn đang bay, rồi trả ma trận phủ {@link PatchedCostMatrix} cho metric/route detail.
+ * Cạnh hỏi lỗi giữ giá trị xấp xỉ (log cảnh báo) — không điền sentinel, vì cạnh đó đã
+ * nằm trong lời giải hợp lệ.
+ * <p>
+ * Số truy vấn ≈ số cạnh lời giải (N + số xe) thay vì n² — đó là toàn bộ điểm của chế độ này.
+ * Future đã xong được dọn mỗi lần bắn đợt mới: danh sách chỉ giữ truy vấn còn đang bay, không
+ * phình theo số vòng solve.
+ */
+@Slf4j
+public class ExactEdgeRefiner implements IterationEndsListener {
+
+    static final int REFINE_EVERY = 50;
+
+    /** Một ô chính xác, bất đồng bộ — {@link DistanceMatrixService#fetchExactAsync} ở production. */
+    @FunctionalInterface
+    interface ExactFetch {
+        CompletableFuture<DistanceMatrixEntry> fetch(OptCoordinates from, OptCoordinates to);
+    }
+
+    private final DistanceTimeMatrix approximate;
+    private final List<OptCoordinates> coordinates;
+    private final ExactFetch fetch;
+    private final int n;
+
+    private final Set<Long> requested = ConcurrentHashMap.newKeySet();
+    private final Map<Long, double[]> exact = new ConcurrentHashMap<>();
+    private final List<CompletableFuture<Void>> inFlight = new ArrayList<>();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    public ExactEdgeRefiner(DistanceTimeMatrix approximate, List<OptCoordinates> coordinates,
+                            DistanceMatrixService matrixService) {
+        this(approximate, coordinates, matrixService::fetchExactAsync);
+    }
+
+    ExactEdgeRefiner(DistanceTimeMatrix approximate, List<OptCoordinates> coordinates, ExactFetch fetch) {
+        this.approximate = approximate;
+        this.coordinates = coordinates;
+        this.fetch = fetch;
+        this.n = approximate.costs().size();
+    }
+
+    @Override
+    public void informIterationEnds(int i, VehicleRoutingProblem problem,
+                                    Collection<VehicleRoutingProblemSolution> solutions) {
+        if (i % REFINE_EVERY != 0) return;
+        VehicleRoutingProblemSolution best = Solutions.bestOf(solutions);
+        if (best != null) request(best);
+    }
+
+    /** Vá lời giải cuối rồi trả ma trận phủ. Chặn tới khi mọi cạnh của {@code best} đã có số. */
+    public DistanceTimeMatrix patch(VehicleRoutingProblemSolution best) {
+        long t0 = System.nanoTime();
+        int[] ready = new int[1];
+        forEachEdge(best, (from, to) -> {
+            if (exact.containsKey(PatchedCostMatrix.key(from, to, n))) ready[0]++;
+        });
+        int before = requested.size();
+        request(best);
+        CompletableFuture<?>[] pending;
+        synchronized (inFlight) {
+            pending = inFlight.toArray(CompletableFuture[]::new);
+        }
+        CompletableFuture.allOf(pending).join();
+
+        // Chỉ giữ cạnh của lời giải CUỐI: cạnh của incumbent cũ không còn được đọc.
+        Map<Long, double[]> used = new HashMap<>();
+        forEachEdge(best, (from, to) -> {
+            double[] e = exact.get(PatchedCostMatrix.key(from, to, n));
+            if (e != null) used.put(PatchedCostMatrix.key(from, to, n), e);
+        });
+        log.info("[Refine] Vá {} cạnh lời giải ({} có sẵn từ lúc solve, {} hỏi thêm, {} lỗi giữ xấp xỉ) "
+                        + "| tổng truy vấn {} | chờ {} ms",
+                used.size(), ready[0], requested.size() - before, failed.get(),
+                requested.size(), (System.nanoTime() - t0) / 1_000_000);
+        return new DistanceTimeMatrix(new PatchedCostMatrix(approximate.costs(), used), approximate.locations());
+    }
+
+    /** Số truy vấn còn giữ trong danh sách chờ — cho test. */
+    int inFlightCount() {
+        synchronized (inFlight) {
+            return inFlight.size();
+        }
+    }
+
+    private void request(VehicleRoutingProblemSolution solution) {
+        synchronized (inFlight) {
+            inFlight.removeIf(CompletableFuture::isDone);
+        }
+        forEachEdge(solution, (from, to) -> {
+            long key = PatchedCostMatrix.key(from, to, n);
+            if (!requested.add(key)) return;
+            CompletableFuture<Void> f = fetch
+                    .fetch(coordinates.get(from), coordinates.get(to))
+                    .handle((e, err) -> {
+                        if (err != null) {
+                            failed.incrementAndGet();
+                            log.warn("[Refine] Cạnh {}->{} lỗi, giữ giá trị xấp xỉ: {}", from, to, err.getMessage());
+                        } else {
+                            exact.put(key, new double[]{e.distanceMeters(), e.timeSeconds()});
+                        }
+                        return null;
+                    });
+            synchronized (inFlight) {
+                inFlight.add(f);
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface EdgeVisitor {
+        void visit(int from, int to);
+    }
+
+    private static void forEachEdge(VehicleRoutingProblemSolution solution, EdgeVisitor visitor) {
+        for (VehicleRoute route : solution.getRoutes()) {
+            TourActivity prev = route.getStart();
+            for (TourActivity act : route.getActivities()) {
+                visitEdge(prev, act, visitor);
+                prev = act;
+            }
+            visitEdge(prev, route.getEnd(), visitor);
+        }
+    }
+
+    private static void visitEdge(TourActivity from, TourActivity to, EdgeVisitor visitor) {
+        int i = from.getLocation().getIndex();
+        int j = to.getLocation().getIndex();
+        if (i < 0 || j < 0 || i == j) return;
+        visitor.visit(i, j);
+    }
+}
@@ -0,0 +1,239 @@
+package org.truong.gvrp_engine_api.service;
+
+import com.graphhopper.jsprit.core.problem.Location;
+import com.graphhopper.jsprit.core.problem.VehicleRoutingProblem;
+import com.graphhopper.jsprit.core.problem.cost.VehicleRoutingTransportCosts;
+import com.graphhopper.jsprit.core.problem.job.Service;
+import com.graphhopper.jsprit.core.problem.solution.route.activity.TimeWindow;
+import com.graphhopper.jsprit.core.problem.vehicle.VehicleImpl;
+import com.graphhopper.jsprit.core.problem.vehicle.VehicleTypeImpl;
+import lombok.extern.slf4j.Slf4j;
+import org.truong.gvrp_engine_api.model.DistanceTimeMatrix;
+import org.truong.gvrp_engine_api.model.EntityTables;
+import org.truong.gvrp_engine_api.model.OptimizationContext;
+import org.truong.gvrp_engine_api.model.Order;
+import org.truong.gvrp_engine_api.model.Vehicle;
+import org.truong.gvrp_engine_api.model.VehicleType;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.truong.gvrp_engine_api.utils.AppConstant.DEMAND_SCALE;
+
+/**
+ * Dựng GREEN VRP cho MỘT job, tách phần bất biến khỏi phần phụ thuộc trọng số.
+ * <p>
+ * Trước đây mỗi Service / Vehicle tìm Location bằng {@code allLocations().stream().filter(...)}
+ * — quét tuyến tính mỗi thực thể, O(n²) so sánh chuỗi (job 50k order: hàng tỷ) trước khi
+ * solve, và Pareto lặp lại nguyên cụm đó cho MỖI điểm trọng số.
+ * <p>
+ * Ở đây:
+ * <ul>
+ *   <li>{@link #prepare}: Location tra qua {@link EntityTables} (index ma trận dựng sẵn);
+ *       Service dựng SONG SONG một lần; adapter chi phí ma trận dựng một lần.</li>
+ *   <li>{@link #build}: chỉ định giá lại vehicle type theo trọng số (mỗi loại MỘT lần, không
+ *       phải mỗi xe) và dựng lại xe — số xe nhỏ hơn số order hàng trăm lần.</li>
+ * </ul>
+ * <p>
+ * Service và Location của Jsprit bất biến với trọng số nên dùng lại giữa các điểm Pareto.
+ * Builder của Jsprit gán {@code Job.setIndex} theo thứ tự add — {@link #build} luôn add cùng
+ * thứ tự (index order) nên index gán lại trùng khít lần trước.
+ */
+@Slf4j
+public final class GreenVrpFactory {
+
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    /** Giờ xuất bến chung của mọi xe (giây trong ngày). */
+    static final long EARLIEST_START_SECONDS = 8 * 3600;
+
+    private final EntityTables tables;
+    private final List<Service> services;           // theo index order
+    private final Location[] startLocations;        // theo index vehicle
+    private final Location[] endLocations;
+    private final VehicleRoutingTransportCosts costs;
+
+    private GreenVrpFactory(EntityTables tables, List<Service> services, Location[] startLocations,
+                            Location[] endLocations, VehicleRoutingTransportCosts costs) {
+        this.tables = tables;
+        this.services = services;
+        this.startLocations = startLocations;
+        this.endLocations = endLocations;
+        this.costs = costs;
+    }
+
+    /**
+     * Phần bất biến của VRP: Service (song song), Location depot của từng xe, adapter chi phí.
+     *
+     * @throws IllegalArgumentException xe trỏ tới depot không có trong context
+     */
+    public static GreenVrpFactory prepare(OptimizationContext context, DistanceTimeMatrix matrix) {
+        EntityTables t = context.tables();
+        List<Location> locations = context.allLocations();
+
+        long t0 = System.nanoTime();
+        Location[] start = new Location[t.vehicleCount()];
+        Location[] end = new Location[t.vehicleCount()];
+        for (int v = 0; v < t.vehicleCount(); v++) {
+            int startLoc = t.startDepotOf(v) >= 0 ? t.depotLocation(t.startDepotOf(v)) : -1;
+            int endLoc = t.endDepotOf(v) >= 0 ? t.depotLocation(t.endDepotOf(v)) : -1;
+            if (startLoc < 0 || endLoc < 0) {
+                throw new IllegalArgumentException("Depot not found for vehicle: " + t.vehicle(v).getId());
+            }
+            start[v] = locations.get(startLoc);
+            end[v] = locations.get(endLoc);
+        }
+        long vehiclesMs = (System.nanoTime() - t0) / 1_000_000;
+
+        long t1 = System.nanoTime();
+        Service[] built = new Service[t.orderCount()];
+        IntStream.range(0, built.length).parallel().forEach(o -> built[o] = buildService(t, locations, o));
+        long servicesMs = (System.nanoTime() - t1) / 1_000_000;
+
+        long t2 = System.nanoTime();
+        VehicleRoutingTransportCosts costs = GreenVRPCostCalculator.buildPhysicalCostMatrix(matrix.costs(), locations);
+        long costsMs = (System.nanoTime() - t2) / 1_000_000;
+
+        log.info("[VRP] Chuẩn bị: {} service song song trong {} ms | depot {} xe trong {} ms | cost adapter {} ms",
+                built.length, servicesMs, start.length, vehiclesMs, costsMs);
+        return new GreenVrpFactory(t, List.of(built), start, end, costs);
+    }
+
+    private static Service buildService(EntityTables t, List<Location> locations, int o) {
+        Order orderDTO = t.order(o);
+        int loc = t.orderLocation(o);
+        if (loc < 0) {
+            throw new IllegalStateException(String.format(
+                    "GreenVrpFactory: order %d không có Location \"order-%d\" trong context (%d location)",
+                    orderDTO.getId(), orderDTO.getId(), locations.size()));
+        }
+
+        int scaledDemand = (int) Math.round(orderDTO.getDemand() * DEMAND_SCALE);
+
+        Service.Builder serviceBuilder = Service.Builder
+                .newInstance("order-" + orderDTO.getId())
+                .setName(orderDTO.getOrderCode())
+                .setLocation(locations.get(loc))
+                .addSizeDimension(0, scaledDemand)
+                .setServiceTime(orderDTO.getServiceTime() * 60.0);
+
+        // Time Windows
+        if (orderDTO.getTimeWindowStart() != null && orderDTO.getTimeWindowEnd() != null) {
+            long startSeconds = parseTimeToSeconds(orderDTO.getTimeWindowStart());
+            long endSeconds = parseTimeToSeconds(orderDTO.getTimeWindowEnd());
+
+            serviceBuilder.setTimeWindow(
+                    TimeWindow.newInstance(startSeconds, endSeconds)
+            );
+        }
+
+        // Priority
+        if (orderDTO.getPriority() != null) {
+            serviceBuilder.setPriority(orderDTO.getPriority());
+        }
+
+        serviceBuilder.addRequiredSkill("STANDARD");
+
+        return serviceBuilder.build();
+    }
+
+    /**
+     * VRP cho một cặp trọng số: định giá lại vehicle type, dựng xe, dùng lại Service / adapter.
+     */
+    public VehicleRoutingProblem build(double costWeight, double co2Weight) {
+        return build(costWeight, co2Weight, null, null);
+    }
+
+    /**
+     * VRP con chỉ gồm một tập xe và order (giải phân rã theo cụm). Location giữ index ma trận
+     * TOÀN CỤC nên VRP con đọc đúng khối của nó trên cùng ma trận, không copy.
+     *
+     * @param vehicles index vehicle (null = mọi xe)
+     * @param orders   index order (null = mọi order)
+     */
+    public VehicleRoutingProblem build(double costWeight, double co2Weight, int[] vehicles, int[] orders) {
+        long t0 = System.nanoTime();
+        VehicleTypeImpl[] greenTypes = new VehicleTypeImpl[tables.vehicleTypeCount()];
+        for (int type = 0; type < greenTypes.length; type++) {
+            greenTypes[type] = GreenVRPCostCalculator.buildGreenVehicleType(
+                    tables.vehicleType(type), costWeight, co2Weight);
+        }
+
+        VehicleRoutingProblem.Builder vrpBuilder = VehicleRoutingProblem.Builder.newInstance();
+        int vehicleCount = vehicles != null ? vehicles.length : tables.vehicleCount();
+        for (int k = 0; k < vehicleCount; k++) {
+            vrpBuilder.addVehicle(buildVehicle(vehicles != null ? vehicles[k] : k, greenTypes));
+        }
+        long vehiclesMs = (System.nanoTime() - t0) / 1_000_000;
+
+        long t1 = System.nanoTime();
+        int jobCount = orders != null ? orders.length : services.size();
+        for (int k = 0; k < jobCount; k++) {
+            vrpBuilder.addJob(services.get(orders != null ? orders[k] : k));
+        }
+        vrpBuilder.setRoutingCost(costs);
+        vrpBuilder.setFleetSize(VehicleRoutingProblem.FleetSize.FINITE);
+        VehicleRoutingProblem vrp = vrpBuilder.build();
+        long buildMs = (System.nanoTime() - t1) / 1_000_000;
+
+        log.info("[VRP] Dựng (cost={}, CO2={}): {} loại xe định giá lại + {} xe trong {} ms | {} job + build {} ms",
+                costWeight, co2Weight, greenTypes.length, vehicleCount, vehiclesMs, jobCount, buildMs);
+        return vrp;
+    }
+
+    private VehicleImpl buildVehicle(int v, VehicleTypeImpl[] greenTypes) {
+        Vehicle vehicleDTO = tables.vehicle(v);
+        int type = tables.vehicleTypeOf(v);
+        if (type < 0) {
+            throw new IllegalArgumentException("Vehicle type not found for vehicle: " + vehicleDTO.getId());
+        }
+
+        VehicleImpl.Builder vehicleBuilder = VehicleImpl.Builder
+                .newInstance("vehicle-" + vehicleDTO.getId())
+                .setStartLocation(startLocations[v])
+                .setEndLocation(endLocations[v])
+                .setType(greenTypes[type])  // ✅ Use GREEN vehicle type
+                .setReturnToDepot(true);
+
+        vehicleBuilder.addSkill("STANDARD");
+
+        // Time Windows
+        VehicleType vt = tables.vehicleType(type);
+        double maxDurationHours = vt.getMaxDuration() != null ? vt.getMaxDuration() : 12.0;
+        long maxDurationSeconds = (long) (maxDurationHours * 3600);
+        long latestArrival = EARLIEST_START_SECONDS + maxDurationSeconds;
+        if (maxDurationHours > 24.0) {
+            throw new IllegalStateException(String.format(
+                    "VehicleType %d: maxDuration=%.1f h vượt 24h — nghi lệch đơn vị (phút lưu vào cột giờ?). " +
+                            "Ràng buộc ca làm sẽ bị vô hiệu nếu bỏ qua.",
+                    vt.getId(), maxDurationHours));
+        }
+        vehicleBuilder
+                .setEarliestStart(EARLIEST_START_SECONDS)
+                .setLatestArrival(latestArrival);
+
+        return vehicleBuilder.build();
+    }
+
+    /** Số Service dựng sẵn (= số order). */
+    public int serviceCount() {
+        return services.size();
+    }
+
+    /** Service dựng sẵn của order theo index. */
+    public Service service(int o) {
+        return services.get(o);
+    }
+
+    private static long parseTimeToSeconds(String timeStr) {
+        try {
+            LocalTime time = LocalTime.parse(timeStr, TIME_FORMATTER);
+            return time.toSecondOfDay();
+        } catch (Exception e) {
+            log.warn("Failed to parse time: {}, using default", timeStr);
+            return 0;
+        }
+    }
+}
@@ -32,12 +32,13 @@ public class OptimizationResultExtractor {
             OptimizationContext context) {
 
         List<UnassignedOrder> unassignedOrders = new ArrayList<>();
+        EntityTables tables = context.tables();
 
         for (var job : solution.getUnassignedJobs()) {
-            String orderId = job.getId().replace("order-", "");
-            var orderDTO = context.orderDTOs().get(Long.parseLong(orderId));
+            int o = tables.orderIndex(job.getId());
 
-            if (orderDTO != null) {
+            if (o >= 0) {
+                Order orderDTO = tables.order(o);
                 UnassignedOrder unassigned = new UnassignedOrder();
                 unassigned.setOrderId(orderDTO.getId());
                 unassigned.setOrderCode(orderDTO.getOrderCode());
@@ -71,21 +72,23 @@ public class OptimizationResultExtractor {
         int totalOrdersServed = 0;
 
         int routeNumber = 0;
+        EntityTables tables = context.tables();
 
         // Process each route
         for (VehicleRoute route : solution.getRoutes()) {
             routeNumber++;
 
             // Extract vehicle info
-            String vehicleId = route.getVehicle().getId().replace("vehicle-", "");
-            var vehicleDTO = context.vehicleDTOs().get(Long.parseLong(vehicleId));
+            int v = tables.vehicleIndex(route.getVehicle().getId());
 
-            if (vehicleDTO == null) {
-                log.warn("Vehicle not found: {}", vehicleId);
+            if (v < 0) {
+                log.warn("Vehicle not found: {}", route.getVehicle().getId());
                 continue;
             }
 
-            var vehicleTypeDTO = context.vehicleTypeDTOs().get(vehicleDTO.getVehicleTypeId());
+            var vehicleDTO = tables.vehicle(v);
+            int type = tables.vehicleTypeOf(v);
+            var vehicleTypeDTO = tables.vehicleType(type);
 
             // Build route detail
             RouteDetail routeDetail = new RouteDetail();
@@ -100,8 +103,7 @@ public class OptimizationResultExtractor {
             // Extract stops
             StopExtractionResult stopResult = extractStops(
                     route,
-                    vehicleDTO,
-                    vehicleTypeDTO,
+                    v,
                     context,
                     matrix
             );
@@ -111,7 +113,7 @@ public class OptimizationResultExtractor {
             routeDetail.setTotalTime(stopResult.routeTime / 3600.0); // hours
             routeDetail.setOrderCount(stopResult.orderCount);
             routeDetail.setTotalLoad(stopResult.routeLoad);
-            routeDetail.setLoadUtilization((stopResult.routeLoad / vehicleTypeDTO.getCapacity()) * 100.0);
+            routeDetail.setLoadUtilization((stopResult.routeLoad / tables.capacity(type)) * 100.0);
 
             // Calculate CO2 emissions
             double co2Kg = (routeDetail.getTotalDistance() * vehicleTypeDTO.getEmissionFactor()) / 1000.0;
@@ -148,11 +150,12 @@ public class OptimizationResultExtractor {
      */
     private static StopExtractionResult extractStops(
             VehicleRoute route,
-            Vehicle vehicleDTO,
-            VehicleType vehicleTypeDTO,
+            int vehicle,
             OptimizationContext context,
             DistanceTimeMatrix matrix) {
 
+        EntityTables tables = context.tables();
+
         List<Stop> stops = new ArrayList<>();
         double routeDistance = 0;
         double routeTime = 0;
@@ -161,10 +164,9 @@ public class OptimizationResultExtractor {
 
         for (TourActivity activity : route.getActivities()) {
             if (activity instanceof TourActivity.JobActivity jobActivity) {
-                String orderId = ((com.graphhopper.jsprit.core.problem.job.Service) jobActivity.getJob()).getId().replace("order-", "");
-                var orderDTO = context.orderDTOs().get(Long.parseLong(orderId));
-                if (orderDTO != null) {
-                    totalRouteLoad += orderDTO.getDemand();
+                int o = tables.orderIndex(jobActivity.getJob().getId());
+                if (o >= 0) {
+                    totalRouteLoad += tables.demand(o);
                 }
             }
         }
@@ -172,7 +174,7 @@ public class OptimizationResultExtractor {
         double currentLoad = totalRouteLoad;
 
         // ========== START DEPOT ==========
-        var startDepot = context.depotDTOs().get(vehicleDTO.getStartDepotId());
+        var startDepot = tables.depot(tables.startDepotOf(vehicle));
         Stop startStop = createDepotStop(
                 startDepot,
                 formatTime(route.getStart().getEndTime()),
@@ -188,13 +190,10 @@ public class OptimizationResultExtractor {
         // ========== CUSTOMER STOPS ==========
         for (TourActivity activity : route.getActivities()) {
             if (activity instanceof TourActivity.JobActivity jobActivity) {
-                com.graphhopper.jsprit.core.problem.job.Service service =
-                        (com.graphhopper.jsprit.core.problem.job.Service) jobActivity.getJob();
-
-                String orderId = service.getId().replace("order-", "");
-                var orderDTO = context.orderDTOs().get(Long.parseLong(orderId));
+                int o = tables.orderIndex(jobActivity.getJob().getId());
 
-                if (orderDTO != null) {
+                if (o >= 0) {
+                    Order orderDTO = tables.order(o);
                     orderCount++;
 
                     // Calculate segment metrics
@@ -215,7 +214,7 @@ public class OptimizationResultExtractor {
                     double waitTime = Math.max(0,
                             (activity.getArrTime() - prevActivity.getEndTime() - segmentTime) / 60.0);
 
-                    currentLoad -= orderDTO.getDemand();
+                    currentLoad -= tables.demand(o);
 
                     // Create stop
                     Stop stop = createCustomerStop(
@@ -251,7 +250,7 @@ public class OptimizationResultExtractor {
         }
 
         // ========== END DEPOT ==========
-        var endDepot = context.depotDTOs().get(vehicleDTO.getEndDepotId());
+        var endDepot = tables.depot(tables.endDepotOf(vehicle));
 
         double returnDistance = getTransportDistance(
                 prevActivity.getLocation(),
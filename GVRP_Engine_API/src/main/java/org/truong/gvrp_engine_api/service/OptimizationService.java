@@ -10,14 +10,11 @@ import com.graphhopper.jsprit.core.problem.constraint.ConstraintManager;
 import com.graphhopper.jsprit.core.problem.constraint.HardActivityConstraint;
 import com.graphhopper.jsprit.core.problem.constraint.HardRouteConstraint;
 import com.graphhopper.jsprit.core.problem.cost.VehicleRoutingTransportCosts;
-import com.graphhopper.jsprit.core.problem.job.Service;
+import com.graphhopper.jsprit.core.problem.job.Job;
 import com.graphhopper.jsprit.core.problem.misc.JobInsertionContext;
 import com.graphhopper.jsprit.core.problem.solution.VehicleRoutingProblemSolution;
 import com.graphhopper.jsprit.core.problem.solution.route.VehicleRoute;
-import com.graphhopper.jsprit.core.problem.solution.route.activity.TimeWindow;
 import com.graphhopper.jsprit.core.problem.solution.route.activity.TourActivity;
-import com.graphhopper.jsprit.core.problem.vehicle.VehicleImpl;
-import com.graphhopper.jsprit.core.problem.vehicle.VehicleTypeImpl;
 import com.graphhopper.jsprit.core.util.Coordinate;
 import com.graphhopper.jsprit.core.util.Solutions;
 import lombok.RequiredArgsConstructor;
@@ -26,8 +23,11 @@ import org.springframework.scheduling.annotation.Async;
 import org.truong.gvrp_engine_api.distance_matrix.*;
 import org.truong.gvrp_engine_api.model.*;
 import org.truong.gvrp_engine_api.clustering.ClusterMergeService;
+import org.truong.gvrp_engine_api.clustering.HaloMembership;
 import org.truong.gvrp_engine_api.clustering.KMeansClusterer;
+import org.truong.gvrp_engine_api.clustering.OrphanOrderRescuer;
 import org.truong.gvrp_engine_api.clustering.VehicleClusterAssigner;
+import org.truong.gvrp_engine_api.job.CpuBudget;
 import org.truong.gvrp_engine_api.job.JobCancelledException;
 import org.truong.gvrp_engine_api.job.JobRegistry;
 
@@ -36,14 +36,16 @@ import static org.truong.gvrp_engine_api.utils.AppConstant.CLUSTER_TARGET_SIZE;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
-import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
 
 import static org.truong.gvrp_engine_api.service.OptimizationResultExtractor.extractRouteDetails;
 import static org.truong.gvrp_engine_api.service.OptimizationResultExtractor.extractUnassignedOrders;
-import static org.truong.gvrp_engine_api.utils.AppConstant.DEMAND_SCALE;
 
 /**
  * GREEN VRP Optimization Service - REFACTORED & BUG-FREE
@@ -69,8 +71,6 @@ import static org.truong.gvrp_engine_api.utils.AppConstant.DEMAND_SCALE;
 @RequiredArgsConstructor
 public class OptimizationService {
 
-    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss");
-
     /**
      * Ngưỡng nhận diện cạnh SENTINEL (cặp bị prune hoặc route lỗi trong ma trận).
      * Đặt ở nửa PRUNED_METERS: mọi cạnh THẬT (dù vòng cả nước) đều << ngưỡng này,
@@ -79,6 +79,9 @@ public class OptimizationService {
     private static final double SENTINEL_DISTANCE_THRESHOLD = MatrixMask.PRUNED_METERS / 2.0;
 
     private final DistanceMatrixService distanceMatrixService;
+    private final DecomposedSolver decomposedSolver;
+    private final TerminationPolicy terminationPolicy;
+    private final CpuBudget cpuBudget;
     private final CallbackService callbackService;
     private final JobRegistry jobRegistry;
 
@@ -140,20 +143,75 @@ public class OptimizationService {
         OptimizationConfig config = request.getConfig();
         validateConfig(config);
 
+        // 1) Cluster TRƯỚC (chỉ cần toạ độ order). Phân cụm không phụ thuộc trọng số nên nhánh
+        //    Pareto dùng chung: tính MỘT lần, mọi điểm trọng số giải trên cùng ma trận khối.
+        Map<String, Integer> clusterAssignment = buildClusterAssignmentIfEligible(context);
+        // Phân rã quyết định TRƯỚC halo: mỗi cụm giải riêng, order biên không sang được cụm
+        // láng giềng — ô halo sẽ được cấp phát + route mà không solver nào đọc.
+        DecomposedSolver.Plan plan = decompositionPlanIfEnabled(context, config, clusterAssignment, request);
+        Map<String, int[]> haloByJobId = plan == null ? buildHaloIfEnabled(context, clusterAssignment, config) : null;
+        // 2) Dựng mask từ cluster (+ prune cửa sổ thời gian / ca làm), rồi build matrix thưa.
+        //    Không đủ điều kiện phân cụm → mask đầy; job lớn được DistanceMatrixService đổi
+        //    sang kNN nếu bật gvrp.matrix.knn.k (mask mang nhãn depot).
+        MatrixMask mask = distanceMatrixService.withFeasibility(
+                MatrixMask.fromClusters(context, clusterAssignment, haloByJobId), context);
+
         if (Boolean.TRUE.equals(config.getEnableParetoAnalysis())) {
-            // Pareto: chưa cluster → full matrix (mask = null). Job Pareto thường nhỏ nên chấp nhận.
-            DistanceTimeMatrix matrix = calculateDistanceMatrix(context, null, handle);
-            return optimizeMultiObjective(context, matrix, config, request, handle);
+            if (Boolean.TRUE.equals(config.getQuickPlan())) {
+                // Mỗi điểm Pareto so sánh route với nhau — trộn cạnh xấp xỉ/thật làm frontier vô nghĩa.
+                log.warn("quickPlan bị bỏ qua cho job Pareto {}: dùng ma trận chính xác", request.getJobId());
+            }
+            DistanceTimeMatrix matrix = calculateDistanceMatrix(context, mask, handle);
+            return optimizeMultiObjective(context, matrix, config, request, clusterAssignment, haloByJobId, handle);
         } else {
-            // 1) Cluster TRƯỚC (chỉ cần toạ độ order)
-            Map<String, Integer> clusterAssignment = buildClusterAssignmentIfEligible(context);
-            // 2) Dựng mask từ cluster, rồi build matrix thưa
-            MatrixMask mask = MatrixMask.fromClusters(context, clusterAssignment);
+            if (Boolean.TRUE.equals(config.getQuickPlan())) {
+                // Quick plan: bỏ pha ma trận khỏi time-to-first-result — solve trên ước lượng,
+                // chỉ cạnh của lời giải được hỏi GraphHopper (nền, trong lúc solve).
+                handle.setPhase(JobRegistry.Phase.BUILDING_MATRIX);
+                CoordinateColumns coordinates = CoordinateColumns.ofLocations(context.allLocations());
+                DistanceTimeMatrix approx = new DistanceTimeMatrix(
+                        distanceMatrixService.createApproximateDistanceMatrix(
+                                coordinates, mask, handle::isCancelRequested).costs(),
+                        context.allLocations());
+                // Refiner chỉ hỏi cạnh của lời giải — list OptCoordinates dựng một lần ở đây là rẻ
+                ExactEdgeRefiner refiner = new ExactEdgeRefiner(approx, coordinates.asList(), distanceMatrixService);
+                return optimizeSingleObjective(context, approx, config, request, clusterAssignment, haloByJobId,
+                        null, handle, refiner);
+            }
             DistanceTimeMatrix matrix = calculateDistanceMatrix(context, mask, handle);
-            return optimizeSingleObjective(context, matrix, config, request, clusterAssignment, handle);
+            return optimizeSingleObjective(context, matrix, config, request, clusterAssignment, haloByJobId,
+                    plan, handle, null);
         }
     }
 
+    /**
+     * Kế hoạch giải phân rã theo cụm nếu job bật VÀ phân rã được. Chỉ nhánh một mục tiêu với
+     * ma trận chính xác: quick plan giữ nguyên khối (refiner vá ma trận theo lời giải của MỘT
+     * thuật toán), Pareto song song theo điểm trọng số chứ không theo cụm.
+     *
+     * @return null = giải nguyên khối
+     */
+    private DecomposedSolver.Plan decompositionPlanIfEnabled(OptimizationContext context,
+                                                             OptimizationConfig config,
+                                                             Map<String, Integer> clusterAssignment,
+                                                             EngineOptimizationRequest request) {
+        if (!decomposedSolver.isEnabled(config) || clusterAssignment == null
+                || Boolean.TRUE.equals(config.getEnableParetoAnalysis())) {
+            return null;
+        }
+        boolean quickPlan = Boolean.TRUE.equals(config.getQuickPlan());
+        DecomposedSolver.Plan plan = quickPlan ? null : DecomposedSolver.plan(context.tables(), clusterAssignment);
+        if (plan == null) {
+            log.info("[Solve] Job {}: không phân rã được ({}) — giải nguyên khối",
+                    request.getJobId(), quickPlan ? "quick plan" : "có order / xe không thuộc cụm nào");
+        } else if (config.getHaloMeters() != null && config.getHaloMeters() > 0) {
+            log.warn("[Solve] Job {}: haloMeters = {} bị bỏ qua khi giải phân rã — mỗi cụm giải riêng, "
+                            + "order biên chỉ được xe cụm nhà phục vụ",
+                    request.getJobId(), config.getHaloMeters());
+        }
+        return plan;
+    }
+
     /**
      * Chạy pipeline cluster-first (K-means -> merge -> vehicle assignment) NẾU
      * đủ điều kiện, trả về null nếu không (job nhỏ, hoặc không đủ dữ liệu để
@@ -195,14 +253,7 @@ public class OptimizationService {
         // pipeline (KMeans -> merge -> map ngược về jobId)
         List<Long> orderIds = context.orderDTOs().keySet().stream().sorted().toList();
 
-        List<OptCoordinates> orderCoords = orderIds.stream()
-                .map(id -> {
-                    Order o = context.orderDTOs().get(id);
-                    return new OptCoordinates(
-                            BigDecimal.valueOf(o.getLatitude()),
-                            BigDecimal.valueOf(o.getLongitude()));
-                })
-                .toList();
+        CoordinateColumns orderCoords = orderColumns(context, orderIds);
 
         double[] demands = orderIds.stream()
                 .mapToDouble(id -> context.orderDTOs().get(id).getDemand())
@@ -210,7 +261,7 @@ public class OptimizationService {
 
         // ===== Bước 2: K-means (seed cố định 42L, đồng bộ toàn project) =====
         KMeansClusterer.ClusterAssignment initialAssignment =
-                KMeansClusterer.fit(orderCoords, numClusters);
+                KMeansClusterer.fitColumns(orderCoords, numClusters);
 
         // ===== Bước 3: merge cụm nhỏ — ngưỡng = capacity NHỎ NHẤT trong các
         // vehicle type khả dụng, đơn vị demand THÔ (không nhân DEMAND_SCALE) =====
@@ -253,6 +304,10 @@ public class OptimizationService {
         clusterIdByVehicleIdRaw.forEach((rawId, clusterId) ->
                 clusterIdByVehicleId.put("vehicle-" + rawId, clusterId));
 
+        // ===== Bước 6: cứu order mồ côi (cụm quota 0 xe / thiếu entry) =====
+        rescueOrphanOrders(context, orderIds, clusterIdByJobId, clusterIdByVehicleIdRaw,
+                centroids, clusterDemands);
+
         // ===== Kết quả cuối: gộp cả 2 map để truyền 1 tham số duy nhất xuống
         // createAlgorithm() — job key và vehicle key có prefix khác nhau
         // ("order-"/"vehicle-") nên KHÔNG đụng độ khi gộp chung 1 Map. =====
@@ -262,11 +317,116 @@ public class OptimizationService {
     }
 
 
+    /**
+     * Halo cho order ở biên cụm ({@link HaloMembership}) khi job bật
+     * {@code config.haloMeters > 0} và đã phân cụm. Centroid tính lại từ assignment CUỐI
+     * (sau rescue), nên cụm không còn order nào không nhận halo.
+     *
+     * @return "order-{id}" -> cụm láng giềng (tăng dần), chỉ order có halo; null nếu tắt
+     */
+    private Map<String, int[]> buildHaloIfEnabled(OptimizationContext context,
+                                                  Map<String, Integer> clusterAssignment,
+                                                  OptimizationConfig config) {
+        if (clusterAssignment == null || config.getHaloMeters() == null || config.getHaloMeters() <= 0) {
+            return null;
+        }
+        List<Long> orderIds = context.orderDTOs().keySet().stream().sorted().toList();
+        CoordinateColumns coords = orderColumns(context, orderIds);
+        int[] clusterIdByIndex = new int[orderIds.size()];
+        for (int i = 0; i < orderIds.size(); i++) {
+            clusterIdByIndex[i] = clusterAssignment.getOrDefault("order-" + orderIds.get(i), -1);
+        }
+        int[][] halo = HaloMembership.compute(coords, clusterIdByIndex, config.getHaloMeters());
+
+        Map<String, int[]> haloByJobId = new HashMap<>();
+        for (int i = 0; i < orderIds.size(); i++) {
+            if (halo[i].length > 0) haloByJobId.put("order-" + orderIds.get(i), halo[i]);
+        }
+        return haloByJobId;
+    }
+
+    /**
+     * Order mà KHÔNG xe nào phục vụ được dưới assignment hiện tại (cụm nhận quota 0 xe,
+     * hoặc thiếu entry) được {@link OrphanOrderRescuer} gán vào cụm gần nhất còn sức
+     * chứa. Order không cụm nào nhận bị XÓA khỏi map → MatrixMask gắn UNCLUSTERED (dải
+     * rộng), ClusterRouteConstraint không chặn — xe nào cũng lấy được.
+     * <p>
+     * Sửa {@code clusterIdByJobId} tại chỗ. Log số ô / byte / truy vấn GraphHopper tiết
+     * kiệm so với để cả nhóm mồ côi ở dải rộng (cách DUY NHẤT khác để phục vụ chúng).
+     */
+    private void rescueOrphanOrders(OptimizationContext context, List<Long> orderIds,
+                                    Map<String, Integer> clusterIdByJobId,
+                                    Map<String, Integer> clusterIdByVehicleIdRaw,
+                                    List<ClusterMergeService.ClusterCentroid> centroids,
+                                    List<ClusterMergeService.ClusterDemand> clusterDemands) {
+        // Sức chứa còn lại = capacity các xe đã gán − demand cụm; cụm không xe không có mặt
+        Map<Integer, Double> residual = new HashMap<>();
+        clusterIdByVehicleIdRaw.forEach((rawId, clusterId) -> {
+            Vehicle v = context.vehicleDTOs().get(Long.valueOf(rawId));
+            VehicleType vt = context.vehicleTypeDTOs().get(v.getVehicleTypeId());
+            residual.merge(clusterId, vt.getCapacity().doubleValue(), Double::sum);
+        });
+        Map<Integer, Double> demandByCluster = new HashMap<>();
+        for (ClusterMergeService.ClusterDemand d : clusterDemands) {
+            demandByCluster.put(d.clusterId(), d.totalDemand());
+        }
+        residual.replaceAll((c, cap) -> cap - demandByCluster.getOrDefault(c, 0.0));
+
+        List<OrphanOrderRescuer.OrphanOrder> orphans = new ArrayList<>();
+        for (Long id : orderIds) {
+            String jobId = "order-" + id;
+            Integer c = clusterIdByJobId.get(jobId);
+            if (c == null || !residual.containsKey(c)) {
+                Order o = context.orderDTOs().get(id);
+                orphans.add(new OrphanOrderRescuer.OrphanOrder(jobId, o.getLatitude(), o.getLongitude(), o.getDemand()));
+            }
+        }
+        if (orphans.isEmpty()) {
+            return;
+        }
+
+        // "Trước": chỉ order KHÔNG có entry mới nằm ở dải rộng; order của cụm không xe vẫn
+        // nằm trong block cụm nhà. Đếm cả hai vào dải rộng là thổi phồng số ô tiết kiệm.
+        int n = context.allLocations().size();
+        int depots = context.depotDTOs().size();
+        int[] sizesBefore = new int[centroids.size()];
+        for (int c : clusterIdByJobId.values()) sizesBefore[c]++;
+        int[] sizesAfter = sizesBefore.clone();
+        int wideBefore = depots;
+        for (OrphanOrderRescuer.OrphanOrder o : orphans) {
+            Integer c = clusterIdByJobId.remove(o.jobId());
+            if (c != null) {
+                sizesAfter[c]--;
+            } else {
+                wideBefore++;
+            }
+        }
+        OrphanOrderRescuer.RescueResult rescue = OrphanOrderRescuer.rescue(orphans, centroids, residual);
+        clusterIdByJobId.putAll(rescue.clusterIdByJobId());
+
+        rescue.clusterIdByJobId().values().forEach(c -> sizesAfter[c]++);
+        long cellsSaved = MatrixMemory.blockCells(n, sizesBefore, wideBefore)
+                - MatrixMemory.blockCells(n, sizesAfter, depots + rescue.stillUnclustered().size());
+        log.info("🛟 Order mồ côi: {} ({} không cụm, {} ở cụm không xe) | cứu {} vào cụm, {} ở lại dải rộng "
+                        + "| ma trận bớt {} ô (~{} truy vấn GraphHopper, {} ở DOUBLE64; âm = dải rộng phình)",
+                orphans.size(), wideBefore - depots, orphans.size() - (wideBefore - depots),
+                rescue.rescuedCount(), rescue.stillUnclustered().size(),
+                cellsSaved, cellsSaved, MatrixMemory.humanBytes(Math.abs(cellsSaved) * CellEncoding.DOUBLE64.bytesPerCell()));
+        if (!rescue.stillUnclustered().isEmpty()) {
+            log.warn("{} order không cụm nào còn sức chứa — ở lại dải rộng, mỗi order tốn 2·n = {} ô: {}",
+                    rescue.stillUnclustered().size(), 2L * n,
+                    rescue.stillUnclustered().subList(0, Math.min(10, rescue.stillUnclustered().size())));
+        }
+    }
+
     /**
      * Single-run weighted optimization - PRODUCTION DEFAULT
      * <p>
      * Fast, clear result, suitable for real-time optimization
      * Uses weighted sum to combine cost + CO2 into single objective
+     * <p>
+     * {@code plan} khác null → giải phân rã theo cụm ({@link #decompositionPlanIfEnabled});
+     * khi đó {@code haloByJobId} luôn null.
      */
     private OptimizationResult optimizeSingleObjective(
             OptimizationContext context,
@@ -274,23 +434,36 @@ public class OptimizationService {
             OptimizationConfig config,
             EngineOptimizationRequest request,
             Map<String, Integer> clusterAssignment,
-            JobRegistry.JobHandle handle) {
+            Map<String, int[]> haloByJobId,
+            DecomposedSolver.Plan plan,
+            JobRegistry.JobHandle handle,
+            ExactEdgeRefiner refiner) {
 
-        // Build GREEN VRP
-        VehicleRoutingProblem vrp = buildGreenVRP(context, matrix, config);
-
-        // Create and run algorithm
-        VehicleRoutingAlgorithm algorithm = createAlgorithm(vrp, context, config, clusterAssignment, handle);
-        addProgressListener(algorithm, request.getJobId(), config, handle);
+        GreenVrpFactory factory = GreenVrpFactory.prepare(context, matrix);
 
         handle.setPhase(JobRegistry.Phase.SOLVING);
-        Collection<VehicleRoutingProblemSolution> solutions = algorithm.searchSolutions();
-        VehicleRoutingProblemSolution bestSolution = Solutions.bestOf(solutions);
+        long solveStart = System.nanoTime();
+        Solved solved;
+        try (CpuBudget.Lease lease = cpuBudget.acquire(request.getJobId(), config.getNumThreads())) {
+            solved = plan != null
+                    ? solveDecomposed(factory, plan, context, config, request, handle, lease)
+                    : solveMonolithic(factory, context, config, request, clusterAssignment, haloByJobId, handle,
+                    refiner, lease);
+        }
+        VehicleRoutingProblemSolution bestSolution = solved.solution();
+        log.info("[Solve] Job {} xong trong {} ms | dừng: {}", request.getJobId(),
+                (System.nanoTime() - solveStart) / 1_000_000, solved.stopReason());
+        logLazyMatrixUsage(matrix, request.getJobId());
 
         if (handle.isCancelRequested()) {
             throw new JobCancelledException("Job bị hủy trong lúc solve");
         }
 
+        if (refiner != null) {
+            // Quick plan: metric + route detail đọc cạnh THẬT của lời giải cuối, không phải ước lượng.
+            matrix = refiner.patch(bestSolution);
+        }
+
         // FAIL-LOUD: chặn kết quả rác (cạnh sentinel lọt vào route) trước khi tính metric/gửi callback
         assertNoSentinelEdgeTraversed(bestSolution, matrix, context, request.getJobId());
 
@@ -307,7 +480,8 @@ public class OptimizationService {
                 bestSolution,
                 metrics,
                 config.getCostWeight(),
-                config.getCo2Weight()
+                config.getCo2Weight(),
+                solved.stopReason()
         );
 
         // Extract route details
@@ -331,6 +505,143 @@ public class OptimizationService {
         );
     }
 
+    /** Lời giải của một lượt solve kèm lý do Jsprit dừng. */
+    private record Solved(VehicleRoutingProblemSolution solution, StopReason stopReason) {
+    }
+
+    /** Một VRP cho cả job; cụm (nếu có) giữ bằng ClusterRouteConstraint. */
+    private Solved solveMonolithic(
+            GreenVrpFactory factory,
+            OptimizationContext context,
+            OptimizationConfig config,
+            EngineOptimizationRequest request,
+            Map<String, Integer> clusterAssignment,
+            Map<String, int[]> haloByJobId,
+            JobRegistry.JobHandle handle,
+            ExactEdgeRefiner refiner,
+            CpuBudget.Lease lease) {
+
+        // Build GREEN VRP
+        VehicleRoutingProblem vrp = buildGreenVRP(factory, config);
+
+        // Create and run algorithm
+        AnytimeTermination termination = terminationPolicy.create(vrp.getJobs().size(), config,
+                remainingBudgetMs(config, handle, 1), handle::isCancelRequested);
+        VehicleRoutingAlgorithm algorithm = createAlgorithm(vrp, context, config, clusterAssignment, haloByJobId,
+                termination, lease.threads());
+        addProgressListener(algorithm, request.getJobId(), config, termination.maxIterations(), handle);
+        if (refiner != null) {
+            algorithm.addListener(refiner);
+        }
+
+        Collection<VehicleRoutingProblemSolution> solutions = algorithm.searchSolutions();
+        VehicleRoutingProblemSolution best = Solutions.bestOf(solutions);
+        publishStop(handle, request.getJobId(), termination, best);
+        return new Solved(best, termination.stopReason());
+    }
+
+    /**
+     * Ngân sách cho lượt solve kế tiếp: phần còn lại của {@code config.timeoutSeconds} tính từ
+     * lúc job đăng ký (SLA gồm cả dựng ma trận), chia đều cho {@code passesLeft} lượt tuần tự
+     * còn lại. 0 = không giới hạn. Hết ngân sách vẫn trả 1 ms — Jsprit luôn có lời giải
+     * construction, lượt đó dừng TIMEOUT ngay vòng đầu thay vì bị bỏ qua.
+     */
+    private long remainingBudgetMs(OptimizationConfig config, JobRegistry.JobHandle handle, int passesLeft) {
+        long jobTimeoutMs = terminationPolicy.jobTimeoutMs(config);
+        if (jobTimeoutMs == 0) return 0;
+        long elapsedMs = java.time.Duration.between(handle.startedAt(), java.time.Instant.now()).toMillis();
+        return Math.max(1, (jobTimeoutMs - elapsedMs) / Math.max(1, passesLeft));
+    }
+
+    /** Snapshot cuối của lượt solve: số vòng đã chạy THẬT + lý do dừng. */
+    private void publishStop(JobRegistry.JobHandle handle, Long jobId, AnytimeTermination termination,
+                             VehicleRoutingProblemSolution best) {
+        handle.updateSnapshot(new JobRegistry.ProgressSnapshot(
+                termination.iterations(), termination.maxIterations(), best.getCost(),
+                best.getRoutes().size(), best.getUnassignedJobs().size(),
+                termination.elapsedMs() / 1000, JobRegistry.Phase.SOLVING, termination.stopReason(),
+                java.time.Instant.now()));
+        log.info("[Solve] Job {} dừng sau {} / {} vòng ({} ms): {}", jobId,
+                termination.iterations(), termination.maxIterations(), termination.elapsedMs(),
+                termination.stopReason());
+    }
+
+    /**
+     * Mỗi cụm một VRP riêng ({@link DecomposedSolver}), song song, ghép lại. VRP con không cần
+     * ClusterRouteConstraint — nó chỉ chứa order và xe của đúng một cụm.
+     * <p>
+     * Tiến độ: snapshot cập nhật mỗi khi MỘT CỤM xong (iteration = số cụm xong / tổng cụm, cost
+     * / route / unassigned cộng dồn các cụm đã xong) — listener theo iteration của từng cụm
+     * chạy song song sẽ ghi đè nhau.
+     */
+    private Solved solveDecomposed(
+            GreenVrpFactory factory,
+            DecomposedSolver.Plan plan,
+            OptimizationContext context,
+            OptimizationConfig config,
+            EngineOptimizationRequest request,
+            JobRegistry.JobHandle handle,
+            CpuBudget.Lease lease) {
+
+        double[] weights = config.getEffectiveWeights();
+        List<DecomposedSolver.SubProblem> subs = plan.subProblems();
+        log.info("[Solve] Job {} giải phân rã: {} cụm, {} cụm cùng lúc (pool {} luồng) | {} order kẹt ở cụm không xe",
+                request.getJobId(), subs.size(), lease.threads(), decomposedSolver.parallelism(),
+                plan.strandedOrders().length);
+
+        long start = System.nanoTime();
+        AtomicInteger done = new AtomicInteger();
+        DoubleAdder costSoFar = new DoubleAdder();
+        LongAdder routesSoFar = new LongAdder();
+        LongAdder unassignedSoFar = new LongAdder();
+        Map<Integer, Long> msByCluster = new ConcurrentHashMap<>();
+        AtomicReference<StopReason> stopReason = new AtomicReference<>(StopReason.CONVERGED);
+        // Mỗi cụm Jsprit MỘT luồng; số cụm cùng lúc = số luồng ngân sách CPU cấp cho job
+        List<VehicleRoutingProblemSolution> parts = decomposedSolver.solveAll(subs, lease::threads, sub -> {
+            long t0 = System.nanoTime();
+            VehicleRoutingProblem vrp = factory.build(weights[0], weights[1], sub.vehicles(), sub.orders());
+            // Các cụm chạy SONG SONG nên chung một hạn chót: mỗi cụm nhận phần còn lại của cả job
+            AnytimeTermination termination = terminationPolicy.create(vrp.getJobs().size(), config,
+                    remainingBudgetMs(config, handle, 1), handle::isCancelRequested);
+            VehicleRoutingAlgorithm algorithm = createAlgorithm(vrp, context, config, null, null, termination, 1);
+            VehicleRoutingProblemSolution best = Solutions.bestOf(algorithm.searchSolutions());
+            long ms = (System.nanoTime() - t0) / 1_000_000;
+            msByCluster.put(sub.clusterId(), ms);
+            stopReason.accumulateAndGet(termination.stopReason(), StopReason::max);
+
+            costSoFar.add(best.getCost());
+            routesSoFar.add(best.getRoutes().size());
+            unassignedSoFar.add(best.getUnassignedJobs().size());
+            int k = done.incrementAndGet();
+            handle.updateSnapshot(new JobRegistry.ProgressSnapshot(
+                    k, subs.size(), costSoFar.sum(), routesSoFar.intValue(), unassignedSoFar.intValue(),
+                    (System.nanoTime() - start) / 1_000_000_000, JobRegistry.Phase.SOLVING, null,
+                    java.time.Instant.now()));
+            log.info("[Solve] Cụm {} ({} order, {} xe) xong trong {} ms sau {} / {} vòng ({}) | cost {} | {}/{} cụm",
+                    sub.clusterId(), sub.orders().length, sub.vehicles().length, ms,
+                    termination.iterations(), termination.maxIterations(), termination.stopReason(),
+                    String.format("%.2f", best.getCost()), k, subs.size());
+            return best;
+        });
+
+        List<Job> stranded = new ArrayList<>(plan.strandedOrders().length);
+        for (int o : plan.strandedOrders()) stranded.add(factory.service(o));
+        VehicleRoutingProblemSolution stitched = DecomposedSolver.stitch(parts, stranded);
+
+        long wallMs = (System.nanoTime() - start) / 1_000_000;
+        long sumMs = msByCluster.values().stream().mapToLong(Long::longValue).sum();
+        Map.Entry<Integer, Long> slowest = msByCluster.entrySet().stream()
+                .max(Map.Entry.comparingByValue()).orElse(Map.entry(-1, 0L));
+        handle.updateSnapshot(new JobRegistry.ProgressSnapshot(
+                subs.size(), subs.size(), stitched.getCost(), stitched.getRoutes().size(),
+                stitched.getUnassignedJobs().size(), wallMs / 1000, JobRegistry.Phase.SOLVING, stopReason.get(),
+                java.time.Instant.now()));
+        log.info("[Solve] Phân rã xong trong {} ms | cụm chậm nhất {} ({} ms) | tổng tuần tự {} ms | {} route, {} unassigned | dừng: {}",
+                wallMs, slowest.getKey(), slowest.getValue(), sumMs,
+                stitched.getRoutes().size(), stitched.getUnassignedJobs().size(), stopReason.get());
+        return new Solved(stitched, stopReason.get());
+    }
+
     // ==================== MULTI-OBJECTIVE OPTIMIZATION (ADVANCED) ====================
 
     /**
@@ -338,68 +649,68 @@ public class OptimizationService {
      * <p>
      * Slower but provides trade-off options between cost and CO2
      * Useful for decision-making and policy analysis
+     * <p>
+     * Điểm trọng số do {@link AdaptiveParetoSampler} chọn theo đợt: hai đầu trước, rồi chia đôi
+     * khe lớn nhất của frontier, dừng khi điểm mới hết vào frontier / hết ngân sách. Các điểm
+     * trong một đợt giải song song ({@link #solveParetoPoint}) trên pool giải, trong ngân sách
+     * CPU của job; tùy chọn khởi động ấm từ điểm láng giềng ({@link ParetoWarmStart}).
      */
     private OptimizationResult optimizeMultiObjective(
             OptimizationContext context,
             DistanceTimeMatrix matrix,
             OptimizationConfig config,
             EngineOptimizationRequest request,
+            Map<String, Integer> clusterAssignment,
+            Map<String, int[]> haloByJobId,
             JobRegistry.JobHandle handle) {
 
+        int maxPoints = config.getParetoMaxPoints() != null
+                ? config.getParetoMaxPoints() : AdaptiveParetoSampler.DEFAULT_MAX_POINTS;
+        // Quét ngừng mở đợt mới khi hết phần SLA còn lại (0 = không giới hạn)
+        AdaptiveParetoSampler sampler = new AdaptiveParetoSampler(maxPoints, remainingBudgetMs(config, handle, 1));
         log.info("🎯 Running MULTI-OBJECTIVE optimization (Pareto analysis)");
-        log.info("   This will run {} optimization scenarios", ObjectivePreset.values().length);
-
-        List<SolutionCandidate> candidates = new ArrayList<>();
-        List<ParetoWeightSampler.WeightPoint> weightPoints = ParetoWeightSampler.generate(4, 2.0);
-
-        // Run optimization for each preset
-        for (ParetoWeightSampler.WeightPoint point : weightPoints) {
-            log.info("Running {} optimization...", point.label());
-
-            // Override weights for this run
-            OptimizationConfig presetConfig = config.clone();
-            presetConfig.setCostWeight(point.costWeight());
-            presetConfig.setCo2Weight(point.co2Weight());
-
-            // Build and solve VRP
-            VehicleRoutingProblem vrp = buildGreenVRP(context, matrix, presetConfig);
-            // Cluster-first CHƯA áp dụng cho nhánh Pareto (quyết định đã chốt) — truyền
-            // null tường minh, KHÔNG phải quên set. Mỗi weight-point trong Pareto vẫn
-            // giải trên toàn bộ order set, không phân vùng cluster.
-            VehicleRoutingAlgorithm algorithm = createAlgorithm(vrp, context, presetConfig, null, handle);
-            addProgressListener(algorithm, request.getJobId(), presetConfig, handle);
-            handle.setPhase(JobRegistry.Phase.SOLVING);
-            Collection<VehicleRoutingProblemSolution> solutions = algorithm.searchSolutions();
-            VehicleRoutingProblemSolution bestSolution = Solutions.bestOf(solutions);
-
-            if (handle.isCancelRequested()) {
-                throw new JobCancelledException("Job bị hủy trong lúc solve (Pareto)");
-            }
-
-            // FAIL-LOUD: chặn kết quả rác (cạnh sentinel lọt vào route)
-            assertNoSentinelEdgeTraversed(bestSolution, matrix, context, request.getJobId());
+        log.info("   Adaptive sampling: up to {} optimization scenarios", maxPoints);
 
-            // Calculate metrics
-            SolutionMetrics metrics = SolutionMetricsCalculator.calculate(
-                    bestSolution,
-                    context,
-                    matrix
-            );
-
-            candidates.add(new SolutionCandidate(
-                    point.label(),
-                    bestSolution,
-                    metrics,
-                    point.costWeight(),
-                    point.co2Weight()
-            ));
+        // Service / Location bất biến với trọng số — dựng MỘT lần cho mọi điểm
+        GreenVrpFactory factory = GreenVrpFactory.prepare(context, matrix);
+        ParetoSweep sweep = new ParetoSweep(sampler.points(), maxPoints,
+                Boolean.TRUE.equals(config.getParetoWarmStart()));
 
-            log.info("   ✓ {} | Cost: {} VND | CO2: {} kg",
-                    point.label(), metrics.getTotalCostVnd(), metrics.getTotalCo2Kg());
+        handle.setPhase(JobRegistry.Phase.SOLVING);
+        long sweepStart = System.nanoTime();
+        int waves = 0;
+        // Theo đợt: điểm kế tiếp phụ thuộc frontier của đợt trước. Các điểm trong một đợt chạy
+        // SONG SONG trên pool giải, chung ma trận chỉ-đọc; lease giữ suốt quét
+        try (CpuBudget.Lease lease = cpuBudget.acquire(request.getJobId(), config.getNumThreads())) {
+            List<Integer> batch = sampler.next(lease.threads());
+            while (!batch.isEmpty()) {
+                int threads = lease.threads();
+                int window = Math.min(batch.size(), Math.max(1, threads));
+                // Ngân sách: phần SLA còn lại chia cho số đợt TỐI ĐA còn lại (quét thường dừng sớm hơn)
+                int pointsLeft = maxPoints - sampler.candidates().size();
+                long budgetMs = remainingBudgetMs(config, handle, (pointsLeft + window - 1) / window);
+                int jspritThreads = Math.max(1, threads / batch.size());
+                List<Integer> wave = batch;
+                List<SolutionCandidate> ran = decomposedSolver.runAll(wave, () -> window,
+                        pointIndex -> solveParetoPoint(sweep, pointIndex, factory, context, matrix, config, request,
+                                clusterAssignment, haloByJobId, handle, budgetMs, jspritThreads));
+                for (int k = 0; k < wave.size(); k++) {
+                    boolean entered = sampler.accept(wave.get(k), ran.get(k));
+                    log.info("   {} → frontier: {}", ran.get(k).getPresetName(), entered);
+                }
+                waves++;
+                batch = sampler.next(lease.threads());
+            }
         }
-
-        // Build Pareto frontier
-        List<SolutionCandidate> paretoFrontier = buildParetoFrontier(candidates);
+        List<SolutionCandidate> candidates = sampler.candidates();
+        long sweepMs = (System.nanoTime() - sweepStart) / 1_000_000;
+        log.info("[Solve] Job {} quét Pareto {} điểm / {} đợt xong trong {} ms | tổng tuần tự {} ms | {} điểm khởi động ấm | dừng: {}",
+                request.getJobId(), candidates.size(), waves, sweepMs, sweep.runMs.sum(), sweep.warmStarted.get(),
+                sampler.stopCause());
+        logLazyMatrixUsage(matrix, request.getJobId());
+
+        // Frontier duy trì tăng dần theo kết quả về — không lọc lại sau cùng
+        List<SolutionCandidate> paretoFrontier = sampler.frontier();
         log.info("   📊 Pareto frontier size: {} (from {} candidates)",
                 paretoFrontier.size(),
                 candidates.size());
@@ -432,6 +743,108 @@ public class OptimizationService {
         );
     }
 
+    /** Trạng thái dùng chung của một lượt quét Pareto song song. */
+    private static final class ParetoSweep {
+        /** Điểm đã đề xuất ({@link AdaptiveParetoSampler#points()}) — chỉ thêm giữa các đợt. */
+        final List<AdaptiveParetoSampler.WeightPoint> points;
+        final int maxPoints;
+        final boolean warmStart;
+        final Map<Integer, VehicleRoutingProblemSolution> finished = new ConcurrentHashMap<>();
+        final AtomicInteger warmStarted = new AtomicInteger();
+        final LongAdder runMs = new LongAdder();
+
+        ParetoSweep(List<AdaptiveParetoSampler.WeightPoint> points, int maxPoints, boolean warmStart) {
+            this.points = points;
+            this.maxPoints = maxPoints;
+            this.warmStart = warmStart;
+        }
+    }
+
+    /** Một điểm trọng số của quét Pareto — chạy trên luồng pool giải. */
+    private SolutionCandidate solveParetoPoint(
+            ParetoSweep sweep,
+            int pointIndex,
+            GreenVrpFactory factory,
+            OptimizationContext context,
+            DistanceTimeMatrix matrix,
+            OptimizationConfig config,
+            EngineOptimizationRequest request,
+            Map<String, Integer> clusterAssignment,
+            Map<String, int[]> haloByJobId,
+            JobRegistry.JobHandle handle,
+            long budgetMs,
+            int jspritThreads) {
+
+        AdaptiveParetoSampler.WeightPoint point = sweep.points.get(pointIndex);
+        log.info("Running {} optimization...", point.label());
+
+        // Override weights for this run
+        OptimizationConfig presetConfig = config.clone();
+        presetConfig.setCostWeight(point.costWeight());
+        presetConfig.setCo2Weight(point.co2Weight());
+
+        // Build and solve VRP
+        VehicleRoutingProblem vrp = buildGreenVRP(factory, presetConfig);
+        // Cùng phân cụm cho mọi điểm: ma trận khối chỉ có ô trong cụm (+ halo), nên
+        // ClusterRouteConstraint là bắt buộc — không có nó Jsprit sẽ đi cạnh sentinel.
+        // Lời giải mồi (khởi động ấm) giữ nguyên xe ↔ order nên cũng thỏa ràng buộc này.
+        // Ngân sách và luồng Jsprit do đợt chia sẵn (các điểm trong một đợt chạy song song)
+        AnytimeTermination termination = terminationPolicy.create(vrp.getJobs().size(), presetConfig,
+                budgetMs, handle::isCancelRequested);
+        VehicleRoutingAlgorithm algorithm = createAlgorithm(vrp, context, presetConfig, clusterAssignment,
+                haloByJobId, termination, jspritThreads);
+
+        String seededFrom = "-";
+        if (sweep.warmStart) {
+            int neighbour = ParetoWarmStart.nearestFinished(sweep.points, pointIndex, sweep.finished.keySet());
+            if (neighbour >= 0) {
+                algorithm.addInitialSolution(ParetoWarmStart.reseat(sweep.finished.get(neighbour), vrp));
+                seededFrom = sweep.points.get(neighbour).label();
+                sweep.warmStarted.incrementAndGet();
+            }
+        }
+
+        long solveStart = System.nanoTime();
+        VehicleRoutingProblemSolution bestSolution = Solutions.bestOf(algorithm.searchSolutions());
+        long ms = (System.nanoTime() - solveStart) / 1_000_000;
+        sweep.runMs.add(ms);
+        sweep.finished.put(pointIndex, bestSolution);
+        // Listener theo vòng của các điểm song song sẽ ghi đè nhau — snapshot theo điểm xong
+        handle.updateSnapshot(new JobRegistry.ProgressSnapshot(
+                sweep.finished.size(), sweep.maxPoints, bestSolution.getCost(),
+                bestSolution.getRoutes().size(), bestSolution.getUnassignedJobs().size(),
+                java.time.Duration.between(handle.startedAt(), java.time.Instant.now()).toSeconds(),
+                JobRegistry.Phase.SOLVING, null, java.time.Instant.now()));
+        log.info("[Solve] Job {} điểm {} xong trong {} ms sau {} / {} vòng ({}) | {} luồng | khởi động từ {}",
+                request.getJobId(), point.label(), ms, termination.iterations(), termination.maxIterations(),
+                termination.stopReason(), jspritThreads, seededFrom);
+
+        if (handle.isCancelRequested()) {
+            throw new JobCancelledException("Job bị hủy trong lúc solve (Pareto)");
+        }
+
+        // FAIL-LOUD: chặn kết quả rác (cạnh sentinel lọt vào route)
+        assertNoSentinelEdgeTraversed(bestSolution, matrix, context, request.getJobId());
+
+        // Calculate metrics
+        SolutionMetrics metrics = SolutionMetricsCalculator.calculate(
+                bestSolution,
+                context,
+                matrix
+        );
+
+        log.info("   ✓ {} | Cost: {} VND | CO2: {} kg",
+                point.label(), metrics.getTotalCostVnd(), metrics.getTotalCo2Kg());
+        return new SolutionCandidate(
+                point.label(),
+                bestSolution,
+                metrics,
+                point.costWeight(),
+                point.co2Weight(),
+                termination.stopReason()
+        );
+    }
+
     // ==================== VRP BUILDER (GREEN) ====================
 
     /**
@@ -441,12 +854,9 @@ public class OptimizationService {
      * Not in the cost matrix!
      */
     private VehicleRoutingProblem buildGreenVRP(
-            OptimizationContext context,
-            DistanceTimeMatrix matrix,
+            GreenVrpFactory factory,
             OptimizationConfig config) {
 
-        VehicleRoutingProblem.Builder vrpBuilder = VehicleRoutingProblem.Builder.newInstance();
-
         // Get and normalize weights
         double[] weights = config.getEffectiveWeights();
         double costWeight = weights[0];
@@ -454,139 +864,17 @@ public class OptimizationService {
 
         log.info("Cost weight: {}, CO2 weight: {}", costWeight, co2Weight);
 
-        // 1. Add Vehicles with GREEN cost
-        for (var vehicleDTO : context.vehicleDTOs().values()) {
-            VehicleTypeImpl greenVehicleType = GreenVRPCostCalculator.buildGreenVehicleType(
-                    context.vehicleTypeDTOs().get(vehicleDTO.getVehicleTypeId()),
-                    costWeight,
-                    co2Weight
-            );
-
-            VehicleImpl jspritVehicle = buildJspritVehicle(
-                    vehicleDTO,
-                    context,
-                    greenVehicleType
-            );
-            vrpBuilder.addVehicle(jspritVehicle);
-        }
-
-        // 2. Add Services (Orders)
-        for (var orderDTO : context.orderDTOs().values()) {
-            Service jspritService = buildJspritService(orderDTO, context);
-            vrpBuilder.addJob(jspritService);
-        }
-
-        // 3. Set Physical Cost Matrix (ONLY distance + time)
-        VehicleRoutingTransportCosts costs = GreenVRPCostCalculator.buildPhysicalCostMatrix(
-                matrix.costs(),
-                context.allLocations()
-        );
-        vrpBuilder.setRoutingCost(costs);
-
-        // 4. Fleet Size
-        vrpBuilder.setFleetSize(VehicleRoutingProblem.FleetSize.FINITE);
+        // Service / Location / adapter chi phí dựng sẵn trong factory — ở đây chỉ định giá
+        // lại vehicle type theo trọng số và dựng xe
+        VehicleRoutingProblem vrp = factory.build(costWeight, co2Weight);
 
         log.info("✅ GREEN VRP built: {} vehicles, {} jobs | Weights: cost={}, CO2={}",
-                context.vehicleDTOs().size(),
-                context.orderDTOs().size(),
+                vrp.getVehicles().size(),
+                vrp.getJobs().size(),
                 costWeight,
                 co2Weight);
 
-        return vrpBuilder.build();
-    }
-
-    // ==================== BUILD JSPRIT VEHICLE ====================
-
-    private VehicleImpl buildJspritVehicle(
-            Vehicle vehicleDTO,
-            OptimizationContext context,
-            VehicleTypeImpl greenVehicleType) {
-
-        // Get depot locations
-        var startDepotDTO = context.depotDTOs().get(vehicleDTO.getStartDepotId());
-        var endDepotDTO = context.depotDTOs().get(vehicleDTO.getEndDepotId());
-
-        if (startDepotDTO == null || endDepotDTO == null) {
-            throw new IllegalArgumentException("Depot not found for vehicle: " + vehicleDTO.getId());
-        }
-
-        Location startLocation = context.allLocations().stream()
-                .filter(loc -> loc.getId().equals("depot-" + startDepotDTO.getId()))
-                .findFirst()
-                .orElseThrow();
-
-        Location endLocation = context.allLocations().stream()
-                .filter(loc -> loc.getId().equals("depot-" + endDepotDTO.getId()))
-                .findFirst()
-                .orElseThrow();
-
-        // Build Vehicle
-        VehicleImpl.Builder vehicleBuilder = VehicleImpl.Builder
-                .newInstance("vehicle-" + vehicleDTO.getId())
-                .setStartLocation(startLocation)
-                .setEndLocation(endLocation)
-                .setType(greenVehicleType)  // ✅ Use GREEN vehicle type
-                .setReturnToDepot(true);
-
-        vehicleBuilder.addSkill("STANDARD");
-
-        // Time Windows
-        long earliestStart = 8 * 3600;
-        VehicleType vt = context.vehicleTypeDTOs().get(vehicleDTO.getVehicleTypeId());
-        double maxDurationHours = vt.getMaxDuration() != null ? vt.getMaxDuration() : 12.0;
-        long maxDurationSeconds = (long) (maxDurationHours * 3600);
-        long latestArrival = earliestStart + maxDurationSeconds;
-        if (maxDurationHours > 24.0) {
-            throw new IllegalStateException(String.format(
-                    "VehicleType %d: maxDuration=%.1f h vượt 24h — nghi lệch đơn vị (phút lưu vào cột giờ?). " +
-                            "Ràng buộc ca làm sẽ bị vô hiệu nếu bỏ qua.",
-                    vt.getId(), maxDurationHours));
-        }
-        vehicleBuilder
-                .setEarliestStart(earliestStart)
-                .setLatestArrival(latestArrival);
-
-        return vehicleBuilder.build();
-    }
-
-    // ==================== BUILD JSPRIT SERVICE ====================
-
-    private Service buildJspritService(
-            Order orderDTO,
-            OptimizationContext context) {
-
-        Location orderLocation = context.allLocations().stream()
-                .filter(loc -> loc.getId().equals("order-" + orderDTO.getId()))
-                .findFirst()
-                .orElseThrow();
-
-        int scaledDemand = (int) Math.round(orderDTO.getDemand() * DEMAND_SCALE);
-
-        Service.Builder serviceBuilder = Service.Builder
-                .newInstance("order-" + orderDTO.getId())
-                .setName(orderDTO.getOrderCode())
-                .setLocation(orderLocation)
-                .addSizeDimension(0, scaledDemand)
-                .setServiceTime(orderDTO.getServiceTime() * 60.0);
-
-        // Time Windows
-        if (orderDTO.getTimeWindowStart() != null && orderDTO.getTimeWindowEnd() != null) {
-            long startSeconds = parseTimeToSeconds(orderDTO.getTimeWindowStart());
-            long endSeconds = parseTimeToSeconds(orderDTO.getTimeWindowEnd());
-
-            serviceBuilder.setTimeWindow(
-                    TimeWindow.newInstance(startSeconds, endSeconds)
-            );
-        }
-
-        // Priority
-        if (orderDTO.getPriority() != null) {
-            serviceBuilder.setPriority(orderDTO.getPriority());
-        }
-
-        serviceBuilder.addRequiredSkill("STANDARD");
-
-        return serviceBuilder.build();
+        return vrp;
     }
 
     // ==================== CREATE ALGORITHM ====================
@@ -596,19 +884,29 @@ public class OptimizationService {
             OptimizationContext context,
             OptimizationConfig config,
             Map<String, Integer> clusterAssignment,
-            JobRegistry.JobHandle handle
+            Map<String, int[]> haloByJobId,
+            AnytimeTermination termination,
+            int numThreads
     ) {
 
-        Map<String, Double> vehicleMaxDistances = new HashMap<>();
-        for (Vehicle v : context.vehicleDTOs().values()) {
-            VehicleType vt = context.vehicleTypeDTOs().get(v.getVehicleTypeId());
-            if (vt.getMaxDistance() != null) {
-                vehicleMaxDistances.put("vehicle-" + v.getId(), vt.getMaxDistance() * 1000.0);
+        // Theo index Jsprit như ClusterRouteConstraint: NaN = xe không giới hạn quãng đường
+        EntityTables tables = context.tables();
+        int maxVehicle = 0;
+        for (var v : vrp.getVehicles()) maxVehicle = Math.max(maxVehicle, v.getIndex());
+        double[] maxDistanceByVehicleIndex = new double[maxVehicle + 1];
+        Arrays.fill(maxDistanceByVehicleIndex, Double.NaN);
+        int limitedVehicles = 0;
+        for (var v : vrp.getVehicles()) {
+            int row = tables.vehicleIndex(v.getId());
+            if (row < 0) continue;
+            double km = tables.maxDistanceKm(tables.vehicleTypeOf(row));
+            if (!Double.isNaN(km)) {
+                maxDistanceByVehicleIndex[v.getIndex()] = km * 1000.0;
+                limitedVehicles++;
             }
         }
 
-        int maxIterations = config.getMaxIterations() != null ? config.getMaxIterations() : 2000;
-        int numThreads = config.getNumThreads() != null ? config.getNumThreads() : 1;
+        int maxIterations = termination.maxIterations();
 
         Jsprit.Builder builder = Jsprit.Builder.newInstance(vrp);
         builder.setProperty(Jsprit.Parameter.ITERATIONS, String.valueOf(maxIterations))
@@ -625,37 +923,29 @@ public class OptimizationService {
                 ConstraintManager.Priority.CRITICAL);
         log.info("✅ Applied NoPrunedEdge constraint (threshold {} m)", SENTINEL_DISTANCE_THRESHOLD);
 
-        if (!vehicleMaxDistances.isEmpty()) {
+        if (limitedVehicles > 0) {
             constraintManager.addConstraint(new MaxDistanceConstraint(
                     vrp.getTransportCosts(),
-                    vehicleMaxDistances
+                    maxDistanceByVehicleIndex
             ));
-            log.info("✅ Applied MaxDistance constraints for {} vehicles", vehicleMaxDistances.size());
+            log.info("✅ Applied MaxDistance constraints for {} vehicles", limitedVehicles);
         }
 
         if (clusterAssignment != null) {
-            constraintManager.addConstraint(new ClusterRouteConstraint(clusterAssignment));
-            log.info("✅ Applied ClusterRoute constraint ({} vehicle/job entries)", clusterAssignment.size());
+            constraintManager.addConstraint(new ClusterRouteConstraint(vrp, clusterAssignment, haloByJobId));
+            log.info("✅ Applied ClusterRoute constraint ({} vehicle/job entries, {} order halo)",
+                    clusterAssignment.size(), haloByJobId != null ? haloByJobId.size() : 0);
         }
 
         builder.setStateAndConstraintManager(stateManager, constraintManager);
         VehicleRoutingAlgorithm algorithm = builder.buildAlgorithm();
-        algorithm.setPrematureAlgorithmTermination(solution -> handle.isCancelRequested());
-
-        // Set timeout
-        if (config.getTimeoutSeconds() != null && config.getTimeoutSeconds() > 0) {
-//            long timeoutMs = config.getTimeoutSeconds() * 1000L;
-//            TimeTermination timeoutTermination = new TimeTermination(timeoutMs);
-//            algorithm.setPrematureAlgorithmTermination(timeoutTermination);
-//            algorithm.addListener(timeoutTermination);
-        } else {
-            log.info("No timeout configured, algorithm will run until max iterations: {}", maxIterations);
-        }
+        // Hủy + ngân sách thời gian + hội tụ trong MỘT điều kiện (Jsprit chỉ giữ một premature termination)
+        termination.attachTo(algorithm);
 
         log.info("=== Jsprit Algorithm Configured ===");
-        log.info("Max Iterations: {}", maxIterations);
+        log.info("Max Iterations: {} (jobs: {})", maxIterations, vrp.getJobs().size());
         log.info("Threads: {}", numThreads);
-        log.info("Timeout: {}s", config.getTimeoutSeconds());
+        log.info("Termination: {}", termination);
         log.info("Constraints applied: MaxDistance");
         log.info("====================================");
 
@@ -663,31 +953,6 @@ public class OptimizationService {
     }
 
 
-    /**
-     * Build Pareto frontier from candidates
-     * Returns only non-dominated solutions
-     */
-    private List<SolutionCandidate> buildParetoFrontier(List<SolutionCandidate> candidates) {
-        List<SolutionCandidate> pareto = new ArrayList<>();
-
-        for (SolutionCandidate candidate : candidates) {
-            boolean isDominated = false;
-
-            for (SolutionCandidate other : candidates) {
-                if (other.dominates(candidate)) {
-                    isDominated = true;
-                    break;
-                }
-            }
-
-            if (!isDominated) {
-                pareto.add(candidate);
-            }
-        }
-
-        return pareto;
-    }
-
     /**
      * Select best solution from Pareto frontier based on user weights
      */
@@ -778,12 +1043,7 @@ public class OptimizationService {
         log.info("Calculating distance matrix...");
         handle.setPhase(JobRegistry.Phase.BUILDING_MATRIX);
 
-        List<OptCoordinates> coordinates = context.allLocations().stream()
-                .map(loc -> new OptCoordinates(
-                        BigDecimal.valueOf(loc.getCoordinate().getY()),
-                        BigDecimal.valueOf(loc.getCoordinate().getX())
-                ))
-                .toList();
+        CoordinateColumns coordinates = CoordinateColumns.ofLocations(context.allLocations());
 
         DistanceMatrix ghMatrix = distanceMatrixService.createDistanceMatrix(
                 coordinates, mask, handle::isCancelRequested);
@@ -792,6 +1052,33 @@ public class OptimizationService {
         return new DistanceTimeMatrix(ghMatrix.costs(), context.allLocations());
     }
 
+    /**
+     * build-mode=LAZY: bao nhiêu ô của mask solver thực sự đọc. Phần còn lại là đúng
+     * lượng truy vấn mà bản build trước đã trả tiền vô ích cho cỡ job này.
+     */
+    private static void logLazyMatrixUsage(DistanceTimeMatrix matrix, Long jobId) {
+        CostMatrix costs = matrix.costs() instanceof CollapsedCostMatrix collapsed ? collapsed.shared() : matrix.costs();
+        if (costs instanceof LazyCostMatrix lazy) {
+            log.info("[Matrix] LAZY job {} | chạm {} / {} ô mask ({}%) | lỗi {} | single-flight đợi {} | {}",
+                    jobId, lazy.touchedCells(), lazy.maskCells(),
+                    String.format("%.2f", 100.0 * lazy.touchedFraction()),
+                    lazy.failedCells(), lazy.singleFlightWaits(),
+                    MatrixMemory.humanBytes(lazy.allocatedBytes()));
+        }
+    }
+
+    /** Tọa độ order theo thứ tự {@code orderIds} — dạng cột, không BigDecimal. */
+    private static CoordinateColumns orderColumns(OptimizationContext context, List<Long> orderIds) {
+        double[] lat = new double[orderIds.size()];
+        double[] lon = new double[orderIds.size()];
+        for (int i = 0; i < orderIds.size(); i++) {
+            Order o = context.orderDTOs().get(orderIds.get(i));
+            lat[i] = o.getLatitude();
+            lon[i] = o.getLongitude();
+        }
+        return new CoordinateColumns(lat, lon);
+    }
+
     private void validateConfig(OptimizationConfig config) {
         if (config.getDistanceWeight() != null && config.getDistanceWeight() > 0) {
             log.warn("⚠️  distanceWeight is DEPRECATED and will be ignored. " +
@@ -807,6 +1094,18 @@ public class OptimizationService {
             );
         }
 
+        if (config.getHaloMeters() != null && config.getHaloMeters() < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid config: haloMeters must be >= 0, got " + config.getHaloMeters()
+            );
+        }
+
+        if (config.getParetoMaxPoints() != null && config.getParetoMaxPoints() < 2) {
+            throw new IllegalArgumentException(
+                    "Invalid config: paretoMaxPoints must be >= 2, got " + config.getParetoMaxPoints()
+            );
+        }
+
         log.info("✅ Config validated | Mode: {} | Weights: cost={}, CO2={}",
                 config.getEnableParetoAnalysis() != null && config.getEnableParetoAnalysis()
                         ? "PARETO" : "WEIGHTED",
@@ -815,8 +1114,7 @@ public class OptimizationService {
     }
 
     private void addProgressListener(VehicleRoutingAlgorithm algorithm, Long jobId,
-                                     OptimizationConfig config, JobRegistry.JobHandle handle) {
-        int maxIter = config.getMaxIterations() != null ? config.getMaxIterations() : 2000;
+                                     OptimizationConfig config, int maxIter, JobRegistry.JobHandle handle) {
         algorithm.addListener(new IterationStartsListener() {
             private final long algorithmStartTime = System.currentTimeMillis();
 
@@ -834,7 +1132,7 @@ public class OptimizationService {
                     handle.updateSnapshot(new JobRegistry.ProgressSnapshot(
                             i, maxIter, best.getCost(),
                             best.getRoutes().size(), best.getUnassignedJobs().size(),
-                            elapsed, JobRegistry.Phase.SOLVING, java.time.Instant.now()));
+                            elapsed, JobRegistry.Phase.SOLVING, null, java.time.Instant.now()));
                 }
 
                 if (logTick) {
@@ -890,16 +1188,6 @@ public class OptimizationService {
         }
     }
 
-    private long parseTimeToSeconds(String timeStr) {
-        try {
-            LocalTime time = LocalTime.parse(timeStr, TIME_FORMATTER);
-            return time.toSecondOfDay();
-        } catch (Exception e) {
-            log.warn("Failed to parse time: {}, using default", timeStr);
-            return 0;
-        }
-    }
-
     // ==================== CLUSTER ROUTE CONSTRAINT ====================
 
     /**
@@ -913,30 +1201,77 @@ public class OptimizationService {
      * AN TOÀN KHI THIẾU DỮ LIỆU: nếu vehicle hoặc job không có trong map
      * (lỗi mapping ở tầng trên), constraint KHÔNG chặn (return true) — tránh
      * biến 1 lỗi tiềm ẩn ở tầng khác thành unassigned hàng loạt khó chẩn đoán.
-     * Cùng nguyên tắc với MaxDistanceConstraint (maxDistance == null -> true).
+     * Cùng nguyên tắc với MaxDistanceConstraint (ô NaN -> true).
+     * <p>
+     * HALO: order ở biên cụm ({@link HaloMembership}) được nhận bởi xe cụm nhà HOẶC xe
+     * của các cụm láng giềng trong halo của nó — ma trận đã có ô cho order đó trong
+     * khối các cụm này, nên mở ràng buộc không làm lộ ô sentinel.
      */
     static class ClusterRouteConstraint implements HardRouteConstraint {
-        private final Map<String, Integer> clusterIdByEntityId; // key: "order-{id}" hoặc "vehicle-{id}"
+        /** Ô bảng cho vehicle / job không rõ cụm — không chặn. */
+        private static final int UNKNOWN = Integer.MIN_VALUE;
 
-        public ClusterRouteConstraint(Map<String, Integer> clusterIdByEntityId) {
-            this.clusterIdByEntityId = clusterIdByEntityId;
+        // Theo index Jsprit (Vehicle/Job.getIndex(), gán khi build VRP) — tra mảng thay vì
+        // băm chuỗi "vehicle-{id}" / "order-{id}" ở MỖI lần thử chèn
+        private final int[] clusterByVehicleIndex;
+        private final int[] clusterByJobIndex;
+        private final int[][] haloByJobIndex;             // cụm láng giềng (tăng dần), null nếu không có halo
+
+        public ClusterRouteConstraint(VehicleRoutingProblem vrp, Map<String, Integer> clusterIdByEntityId) {
+            this(vrp, clusterIdByEntityId, null);
+        }
+
+        /**
+         * @param clusterIdByEntityId key: "order-{id}" hoặc "vehicle-{id}"
+         * @param haloByJobId         key: "order-{id}" -> cụm láng giềng (tăng dần); null = không halo
+         */
+        public ClusterRouteConstraint(VehicleRoutingProblem vrp,
+                                      Map<String, Integer> clusterIdByEntityId,
+                                      Map<String, int[]> haloByJobId) {
+            int maxVehicle = 0;
+            for (var v : vrp.getVehicles()) maxVehicle = Math.max(maxVehicle, v.getIndex());
+            int maxJob = 0;
+            for (Job j : vrp.getJobs().values()) maxJob = Math.max(maxJob, j.getIndex());
+
+            this.clusterByVehicleIndex = new int[maxVehicle + 1];
+            Arrays.fill(clusterByVehicleIndex, UNKNOWN);
+            for (var v : vrp.getVehicles()) {
+                Integer c = clusterIdByEntityId.get(v.getId());
+                if (c != null) clusterByVehicleIndex[v.getIndex()] = c;
+            }
+            this.clusterByJobIndex = new int[maxJob + 1];
+            Arrays.fill(clusterByJobIndex, UNKNOWN);
+            this.haloByJobIndex = new int[maxJob + 1][];
+            for (Job j : vrp.getJobs().values()) {
+                Integer c = clusterIdByEntityId.get(j.getId());
+                if (c != null) clusterByJobIndex[j.getIndex()] = c;
+                if (haloByJobId != null) haloByJobIndex[j.getIndex()] = haloByJobId.get(j.getId());
+            }
         }
 
         @Override
         public boolean fulfilled(JobInsertionContext iFacts) {
-            String vehicleId = iFacts.getRoute().getVehicle().getId();
-            Integer vehicleCluster = clusterIdByEntityId.get(vehicleId);
-            if (vehicleCluster == null) {
-                return true; // vehicle không rõ cluster -> không chặn (an toàn)
+            int vehicleCluster = lookup(clusterByVehicleIndex, iFacts.getRoute().getVehicle().getIndex());
+            if (vehicleCluster == UNKNOWN) {
+                return true; // vehicle không rõ cluster (kể cả route rỗng NoVehicle) -> không chặn (an toàn)
             }
 
-            String jobId = iFacts.getJob().getId();
-            Integer jobCluster = clusterIdByEntityId.get(jobId);
-            if (jobCluster == null) {
+            int jobIndex = iFacts.getJob().getIndex();
+            int jobCluster = lookup(clusterByJobIndex, jobIndex);
+            if (jobCluster == UNKNOWN) {
                 return true; // job không rõ cluster -> không chặn (an toàn)
             }
 
-            return jobCluster.equals(vehicleCluster);
+            if (jobCluster == vehicleCluster) {
+                return true;
+            }
+            // Order ở biên: xe cụm láng giềng cũng được phục vụ (ma trận có ô trong khối đó)
+            int[] halo = haloByJobIndex[jobIndex];
+            return halo != null && Arrays.binarySearch(halo, vehicleCluster) >= 0;
+        }
+
+        private static int lookup(int[] table, int index) {
+            return index >= 0 && index < table.length ? table[index] : UNKNOWN;
         }
     }
 
@@ -990,20 +1325,23 @@ public class OptimizationService {
 
     static class MaxDistanceConstraint implements HardRouteConstraint {
         private final VehicleRoutingTransportCosts costs;
-        private final Map<String, Double> vehicleMaxDistances;
+        // Mét, theo Vehicle.getIndex() — tra mảng thay vì băm "vehicle-{id}" ở MỖI lần thử chèn
+        private final double[] maxDistanceByVehicleIndex;
 
+        /** @param maxDistanceByVehicleIndex mét theo index Jsprit; NaN = không giới hạn */
         public MaxDistanceConstraint(VehicleRoutingTransportCosts costs,
-                                     Map<String, Double> vehicleMaxDistances) {
+                                     double[] maxDistanceByVehicleIndex) {
             this.costs = costs;
-            this.vehicleMaxDistances = vehicleMaxDistances;
+            this.maxDistanceByVehicleIndex = maxDistanceByVehicleIndex;
         }
 
         @Override
         public boolean fulfilled(JobInsertionContext iFacts) {
-            String vehicleId = iFacts.getRoute().getVehicle().getId();
-            Double maxDistance = vehicleMaxDistances.get(vehicleId);
-
-            if (maxDistance == null) return true;
+            int vehicleIndex = iFacts.getRoute().getVehicle().getIndex();
+            // Ngoài bảng (kể cả route rỗng NoVehicle) hoặc NaN -> không chặn, như ClusterRouteConstraint
+            if (vehicleIndex < 0 || vehicleIndex >= maxDistanceByVehicleIndex.length) return true;
+            double maxDistance = maxDistanceByVehicleIndex[vehicleIndex];
+            if (Double.isNaN(maxDistance)) return true;
 
             // ===== BƯỚC 1: Tính d_current — khoảng cách route hiện tại (chưa có job mới) =====
             double currentDistance = 0.0;
@@ -0,0 +1,103 @@
+package org.truong.gvrp_engine_api.service;
+
+import com.graphhopper.jsprit.core.algorithm.state.UpdateActivityTimes;
+import com.graphhopper.jsprit.core.problem.VehicleRoutingProblem;
+import com.graphhopper.jsprit.core.problem.job.Job;
+import com.graphhopper.jsprit.core.problem.job.Service;
+import com.graphhopper.jsprit.core.problem.solution.VehicleRoutingProblemSolution;
+import com.graphhopper.jsprit.core.problem.solution.route.RouteActivityVisitor;
+import com.graphhopper.jsprit.core.problem.solution.route.VehicleRoute;
+import com.graphhopper.jsprit.core.problem.solution.route.activity.TourActivity;
+import com.graphhopper.jsprit.core.problem.vehicle.Vehicle;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Khởi động ấm cho quét Pareto: lời giải của điểm trọng số LÁNG GIỀNG đã xong làm lời giải
+ * ban đầu, thay cho construction (regret insertion) từ số 0.
+ * <p>
+ * Hai điểm trọng số gần nhau chỉ khác giá / km của loại xe — ràng buộc vật lý (tải, cửa sổ
+ * thời gian, ca làm, cạnh sentinel) giống hệt, nên lời giải của điểm này khả thi nguyên vẹn
+ * ở điểm kia và thường đã gần tối ưu. Ruin-recreate bắt đầu từ đó hội tụ sớm hơn (cửa sổ
+ * không cải thiện của {@link AnytimeTermination} kích hoạt sớm hơn).
+ * <p>
+ * Không dùng thẳng lời giải cũ được: mỗi điểm {@link GreenVrpFactory#build} dựng LẠI xe (loại
+ * xe định giá lại) — route phải gắn sang xe cùng id của VRP đích, activity tạo lại bằng
+ * factory của VRP đích (Jsprit kiểm index). Service thì dùng chung giữa các lần build.
+ */
+public final class ParetoWarmStart {
+
+    private ParetoWarmStart() {
+    }
+
+    /**
+     * Chép lời giải {@code source} sang {@code target}: cùng thứ tự điểm dừng trên xe cùng id,
+     * thời gian activity tính lại. Cost để 0 — {@code addInitialSolution} tính lại bằng hàm
+     * mục tiêu của thuật toán đích.
+     *
+     * @throws IllegalStateException route trỏ xe / job không có trong {@code target}
+     */
+    public static VehicleRoutingProblemSolution reseat(VehicleRoutingProblemSolution source,
+                                                       VehicleRoutingProblem target) {
+        Map<String, Vehicle> vehicleById = new HashMap<>();
+        for (Vehicle v : target.getVehicles()) vehicleById.put(v.getId(), v);
+        Map<String, Job> jobs = target.getJobs();
+
+        RouteActivityVisitor timing = new RouteActivityVisitor()
+                .addActivityVisitor(new UpdateActivityTimes(target.getTransportCosts(), target.getActivityCosts()));
+        List<VehicleRoute> routes = new ArrayList<>(source.getRoutes().size());
+        for (VehicleRoute route : source.getRoutes()) {
+            Vehicle vehicle = vehicleById.get(route.getVehicle().getId());
+            if (vehicle == null) {
+                throw new IllegalStateException(String.format(
+                        "ParetoWarmStart: xe %s của lời giải nguồn không có trong VRP đích (%d xe)",
+                        route.getVehicle().getId(), vehicleById.size()));
+            }
+            VehicleRoute.Builder builder = VehicleRoute.Builder.newInstance(vehicle)
+                    .setJobActivityFactory(target.getJobActivityFactory());
+            for (TourActivity act : route.getActivities()) {
+                String jobId = ((TourActivity.JobActivity) act).getJob().getId();
+                builder.addService((Service) requireJob(jobs, jobId));
+            }
+            VehicleRoute copy = builder.build();
+            timing.visit(copy);
+            routes.add(copy);
+        }
+        List<Job> unassigned = new ArrayList<>(source.getUnassignedJobs().size());
+        for (Job job : source.getUnassignedJobs()) unassigned.add(requireJob(jobs, job.getId()));
+        return new VehicleRoutingProblemSolution(routes, unassigned, 0);
+    }
+
+    private static Job requireJob(Map<String, Job> jobs, String id) {
+        Job job = jobs.get(id);
+        if (job == null) {
+            throw new IllegalStateException(String.format(
+                    "ParetoWarmStart: job %s của lời giải nguồn không có trong VRP đích (%d job)", id, jobs.size()));
+        }
+        return job;
+    }
+
+    /**
+     * Điểm đã xong gần {@code point} nhất theo costWeight (hòa: điểm index nhỏ hơn).
+     *
+     * @return index điểm láng giềng, -1 nếu chưa điểm nào xong
+     */
+    public static int nearestFinished(List<AdaptiveParetoSampler.WeightPoint> points, int point,
+                                      Collection<Integer> finished) {
+        int best = -1;
+        double bestGap = Double.POSITIVE_INFINITY;
+        for (int k : finished) {
+            if (k == point) continue;
+            double gap = Math.abs(points.get(k).costWeight() - points.get(point).costWeight());
+            if (gap < bestGap || (gap == bestGap && k < best)) {
+                best = k;
+                bestGap = gap;
+            }
+        }
+        return best;
+    }
+}
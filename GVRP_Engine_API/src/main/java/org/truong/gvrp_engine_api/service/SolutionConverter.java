@@ -34,6 +34,9 @@ public class SolutionConverter {
         solutionData.put("total_vehicles_used", result.getTotalVehiclesUsed());
         solutionData.put("served_orders", result.getTotalOrdersServed());
         solutionData.put("unserved_orders", result.getTotalOrdersUnassigned());
+        if (result.getStopReason() != null) {
+            solutionData.put("stop_reason", result.getStopReason().name());
+        }
 
         // ===== Routes =====
         solutionData.put(
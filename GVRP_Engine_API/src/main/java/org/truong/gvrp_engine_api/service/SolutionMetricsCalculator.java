@@ -41,14 +41,21 @@ public class SolutionMetricsCalculator {
         int ordersServed = 0;
         double totalLoadUtilization = 0.0;
         double totalTimeUtilization = 0.0;
+        EntityTables tables = context.tables();
 
         // Process each route
         for (VehicleRoute route : solution.getRoutes()) {
 
-            // Get vehicle and its type
-            String vehicleId = route.getVehicle().getId().replace("vehicle-", "");
-            Vehicle vehicleDTO = context.vehicleDTOs().get(Long.parseLong(vehicleId));
-            VehicleType typeDTO = context.vehicleTypeDTOs().get(vehicleDTO.getVehicleTypeId());
+            // Get vehicle and its type — index dựng sẵn, không parse id
+            int v = tables.vehicleIndex(route.getVehicle().getId());
+            int type = v >= 0 ? tables.vehicleTypeOf(v) : -1;
+            if (type < 0) {
+                throw new IllegalStateException(String.format(
+                        "SolutionMetricsCalculator: route của %s không khớp vehicle / vehicle type nào trong context "
+                                + "(%d vehicle, %d type)",
+                        route.getVehicle().getId(), tables.vehicleCount(), tables.vehicleTypeCount()));
+            }
+            VehicleType typeDTO = tables.vehicleType(type);
 
             // ========== Calculate route distance ==========
             double routeDistance = 0.0;  // meters
@@ -105,22 +112,19 @@ public class SolutionMetricsCalculator {
             // ========== Calculate utilization ==========
 
             // Load utilization
-            double routeLoad = route.getActivities().stream()
-                    .mapToDouble(act -> {
-                        if (act instanceof TourActivity.JobActivity jobAct) {
-                            String orderId = jobAct.getJob().getId().replace("order-", "");
-                            Order orderDTO = context.orderDTOs().get(Long.parseLong(orderId));
-                            return orderDTO != null ? orderDTO.getDemand() : 0.0;
-                        }
-                        return 0.0;
-                    })
-                    .sum();
-            double loadUtil = (routeLoad / typeDTO.getCapacity()) * 100.0;
+            double routeLoad = 0.0;
+            for (TourActivity act : route.getActivities()) {
+                if (act instanceof TourActivity.JobActivity jobAct) {
+                    int o = tables.orderIndex(jobAct.getJob().getId());
+                    if (o >= 0) routeLoad += tables.demand(o);
+                }
+            }
+            double loadUtil = (routeLoad / tables.capacity(type)) * 100.0;
             totalLoadUtilization += loadUtil;
 
             // Time utilization (simplified)
-            double maxDuration = typeDTO.getMaxDuration() != null
-                    ? typeDTO.getMaxDuration()
+            double maxDuration = !Double.isNaN(tables.maxDurationHours(type))
+                    ? tables.maxDurationHours(type)
                     : 12.0;
             double timeUtil = (routeTimeHours / maxDuration) * 100.0;
             totalTimeUtilization += timeUtil;
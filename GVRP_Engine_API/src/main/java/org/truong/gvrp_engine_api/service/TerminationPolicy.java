@@ -0,0 +1,88 @@
+package org.truong.gvrp_engine_api.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.truong.gvrp_engine_api.model.OptimizationConfig;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Chính sách dừng cho các lượt Jsprit của engine — thay trần phẳng 2000 vòng bằng:
+ * <ul>
+ *   <li>trần vòng lặp tỉ lệ số job ({@code iterations-per-job}, kẹp [{@code min}, {@code max}]);
+ *       {@code config.maxIterations} đặt tường minh thì thắng;</li>
+ *   <li>cửa sổ không cải thiện: mặc định 1/5 trần (tối thiểu 100 vòng) — job nhỏ hội tụ
+ *       dừng sau vài giây thay vì chạy nốt trần;</li>
+ *   <li>ngân sách thời gian {@code config.timeoutSeconds} (SLA của job, chia cho các lượt
+ *       tuần tự ở phía gọi).</li>
+ * </ul>
+ */
+@Slf4j
+@Component
+public class TerminationPolicy {
+
+    static final int MIN_AUTO_WINDOW = 100;
+
+    private final int iterationsPerJob;
+    private final int minIterations;
+    private final int maxIterations;
+    private final int noImprovementIterations;    // 0 = tự chọn theo trần
+    private final double minRelativeImprovement;
+
+    public TerminationPolicy(
+            @Value("${gvrp.solve.termination.iterations-per-job:10}") int iterationsPerJob,
+            @Value("${gvrp.solve.termination.min-iterations:300}") int minIterations,
+            @Value("${gvrp.solve.termination.max-iterations:5000}") int maxIterations,
+            @Value("${gvrp.solve.termination.no-improvement-iterations:0}") int noImprovementIterations,
+            @Value("${gvrp.solve.termination.min-relative-improvement:0.001}") double minRelativeImprovement) {
+        if (iterationsPerJob < 1 || minIterations < 1 || maxIterations < minIterations) {
+            throw new IllegalArgumentException(String.format(
+                    "gvrp.solve.termination: cần iterations-per-job >= 1 và 1 <= min-iterations <= max-iterations, " +
+                            "nhận %d / %d / %d", iterationsPerJob, minIterations, maxIterations));
+        }
+        if (noImprovementIterations < 0) {
+            throw new IllegalArgumentException(
+                    "gvrp.solve.termination.no-improvement-iterations phải >= 0, nhận " + noImprovementIterations);
+        }
+        this.iterationsPerJob = iterationsPerJob;
+        this.minIterations = minIterations;
+        this.maxIterations = maxIterations;
+        this.noImprovementIterations = noImprovementIterations;
+        this.minRelativeImprovement = minRelativeImprovement;
+        log.info("[Termination] {} vòng/job trong [{}, {}] | cửa sổ không cải thiện {} | ngưỡng {}",
+                iterationsPerJob, minIterations, maxIterations,
+                noImprovementIterations > 0 ? noImprovementIterations : "auto", minRelativeImprovement);
+    }
+
+    /** Trần vòng lặp cho một VRP {@code jobCount} job. */
+    public int maxIterations(int jobCount, OptimizationConfig config) {
+        if (config.getMaxIterations() != null) {
+            return config.getMaxIterations();
+        }
+        long scaled = (long) jobCount * iterationsPerJob;
+        return (int) Math.max(minIterations, Math.min(maxIterations, scaled));
+    }
+
+    int noImprovementWindow(int maxIterations) {
+        return noImprovementIterations > 0
+                ? noImprovementIterations
+                : Math.max(MIN_AUTO_WINDOW, maxIterations / 5);
+    }
+
+    /** Ngân sách của cả job (ms); 0 = không giới hạn. */
+    public long jobTimeoutMs(OptimizationConfig config) {
+        Integer seconds = config.getTimeoutSeconds();
+        return seconds != null && seconds > 0 ? seconds * 1000L : 0;
+    }
+
+    /**
+     * @param timeoutMs ngân sách của RIÊNG lượt này (0 = không giới hạn)
+     */
+    public AnytimeTermination create(int jobCount, OptimizationConfig config, long timeoutMs,
+                                     BooleanSupplier cancelled) {
+        int iterations = maxIterations(jobCount, config);
+        return new AnytimeTermination(iterations, timeoutMs, noImprovementWindow(iterations),
+                minRelativeImprovement, cancelled);
+    }
+}
@@ -0,0 +1,82 @@
+package org.truong.gvrp_engine_api.clustering;
+
+import org.junit.jupiter.api.Test;
+import org.truong.gvrp_engine_api.distance_matrix.OptCoordinates;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test cho HaloMembership — thuần thuật toán, không Spring. Các điểm cùng vĩ độ 21°,
+ * 0.01° kinh độ ≈ 1 038 m, nên khoảng cách tới centroid tính nhẩm được.
+ */
+class HaloMembershipTest {
+
+    private static List<OptCoordinates> along(double... lons) {
+        List<OptCoordinates> coords = new ArrayList<>();
+        for (double lon : lons) {
+            coords.add(new OptCoordinates(BigDecimal.valueOf(21.0), BigDecimal.valueOf(lon)));
+        }
+        return coords;
+    }
+
+    /**
+     * Cụm 0 quanh 105.80 (có 1 order biên ở 105.81), cụm 1 ở 105.82, cụm 2 ở 105.84.
+     * Order biên cách centroid cụm 1 ≈ 1 038 m, cụm 2 ≈ 3 114 m.
+     */
+    private final List<OptCoordinates> coords =
+            along(105.80, 105.80, 105.81, 105.82, 105.82, 105.82, 105.84, 105.84, 105.84);
+    private final int[] clusters = {0, 0, 0, 1, 1, 1, 2, 2, 2};
+
+    @Test
+    void shouldAddOnlyBorderOrderToNeighbourWithinRadius() {
+        int[][] halo = HaloMembership.compute(coords, clusters, 1_500);
+
+        assertArrayEquals(new int[]{1}, halo[2]);
+        for (int i = 0; i < halo.length; i++) {
+            if (i != 2) assertEquals(0, halo[i].length, "order " + i + " không ở biên");
+        }
+    }
+
+    @Test
+    void shouldReturnNeighboursAscending_neverHomeCluster() {
+        int[][] halo = HaloMembership.compute(coords, clusters, 5_000);
+
+        assertArrayEquals(new int[]{1, 2}, halo[2]);
+        assertArrayEquals(new int[]{0, 2}, halo[3]);
+        for (int i = 0; i < halo.length; i++) {
+            for (int c : halo[i]) assertNotEquals(clusters[i], c, "halo không được chứa cụm nhà");
+        }
+    }
+
+    /** Order lọt bán kính của 3 cụm láng giềng chỉ giữ {@value HaloMembership#MAX_HALO_CLUSTERS} cụm GẦN NHẤT. */
+    @Test
+    void shouldCapAtNearestNeighbours() {
+        List<OptCoordinates> c = along(105.80, 105.81, 105.825, 105.84);
+        int[][] halo = HaloMembership.compute(c, new int[]{0, 1, 2, 3}, 10_000);
+
+        assertEquals(HaloMembership.MAX_HALO_CLUSTERS, halo[0].length);
+        assertArrayEquals(new int[]{1, 2}, halo[0]);
+        assertArrayEquals(new int[]{1, 3}, halo[2], "105.825: cụm 1 cách 0.015°, cụm 3 cách 0.015°, cụm 0 xa hơn");
+    }
+
+    @Test
+    void shouldGiveUnclusteredOrdersNoHalo() {
+        int[] withOrphan = clusters.clone();
+        withOrphan[2] = -1;
+
+        int[][] halo = HaloMembership.compute(coords, withOrphan, 5_000);
+
+        assertEquals(0, halo[2].length);
+    }
+
+    @Test
+    void shouldRejectInvalidInput() {
+        assertThrows(IllegalArgumentException.class, () -> HaloMembership.compute(coords, new int[3], 1_000));
+        assertThrows(IllegalArgumentException.class, () -> HaloMembership.compute(coords, clusters, 0));
+        assertThrows(IllegalArgumentException.class, () -> HaloMembership.compute(coords, clusters, Double.NaN));
+    }
+}
@@ -0,0 +1,115 @@
+package org.truong.gvrp_engine_api.clustering;
+
+import org.junit.jupiter.api.Test;
+import org.truong.gvrp_engine_api.clustering.ClusterMergeService.ClusterCentroid;
+import org.truong.gvrp_engine_api.clustering.OrphanOrderRescuer.OrphanOrder;
+import org.truong.gvrp_engine_api.clustering.OrphanOrderRescuer.RescueResult;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test cho OrphanOrderRescuer — greedy nearest-first có chặn sức chứa, cùng style
+ * với VehicleClusterAssignerTest (thuần thuật toán, không Spring).
+ */
+class OrphanOrderRescuerTest {
+
+    private OrphanOrder order(String id, double lat, double lon, double demand) {
+        return new OrphanOrder(id, lat, lon, demand);
+    }
+
+    private final List<ClusterCentroid> centroids = List.of(
+            new ClusterCentroid(0, 21.00, 105.80),
+            new ClusterCentroid(1, 21.10, 105.90),
+            new ClusterCentroid(2, 20.90, 105.70)
+    );
+
+    @Test
+    void shouldAssignToNearestClusterWithCapacity() {
+        Map<Integer, Double> residual = Map.of(0, 100.0, 1, 100.0, 2, 100.0);
+
+        RescueResult result = OrphanOrderRescuer.rescue(
+                List.of(order("order-1", 21.01, 105.81, 10), order("order-2", 21.09, 105.89, 10)),
+                centroids, residual);
+
+        assertEquals(2, result.rescuedCount());
+        assertEquals(0, result.clusterIdByJobId().get("order-1"));
+        assertEquals(1, result.clusterIdByJobId().get("order-2"));
+        assertTrue(result.stillUnclustered().isEmpty());
+    }
+
+    /**
+     * Cụm gần nhất chỉ còn chỗ cho 1 order: order gần hơn thắng, order kia rơi
+     * xuống cụm gần thứ nhì còn chỗ — giống cơ chế quota của VehicleClusterAssigner.
+     */
+    @Test
+    void shouldFallToSecondNearestCluster_whenNearestIsFull() {
+        Map<Integer, Double> residual = Map.of(0, 15.0, 1, 100.0);
+
+        RescueResult result = OrphanOrderRescuer.rescue(
+                List.of(order("order-1", 21.00, 105.80, 10), order("order-2", 21.02, 105.82, 10)),
+                centroids, residual);
+
+        assertEquals(0, result.clusterIdByJobId().get("order-1"));
+        assertEquals(1, result.clusterIdByJobId().get("order-2"));
+    }
+
+    /** Cụm không có trong residual = cụm không xe: KHÔNG bao giờ nhận order dù gần nhất. */
+    @Test
+    void shouldNeverAssignToClusterWithoutVehicles() {
+        Map<Integer, Double> residual = Map.of(1, 100.0);
+
+        RescueResult result = OrphanOrderRescuer.rescue(
+                List.of(order("order-1", 20.90, 105.70, 10)), centroids, residual);
+
+        assertEquals(1, result.clusterIdByJobId().get("order-1"));
+    }
+
+    /** Không cụm nào đủ sức chứa → order ở lại dải rộng, và residual của tầng gọi không bị sửa. */
+    @Test
+    void shouldLeaveOrderUnclustered_whenNoClusterHasCapacity() {
+        Map<Integer, Double> residual = new HashMap<>(Map.of(0, 5.0, 1, -20.0, 2, 9.99));
+
+        RescueResult result = OrphanOrderRescuer.rescue(
+                List.of(order("order-1", 21.00, 105.80, 10), order("order-2", 21.00, 105.80, 5)),
+                centroids, residual);
+
+        assertEquals(List.of("order-1"), result.stillUnclustered());
+        assertEquals(0, result.clusterIdByJobId().get("order-2"));
+        assertEquals(5.0, residual.get(0));
+    }
+
+    @Test
+    void shouldBeDeterministic_acrossInputOrder() {
+        Map<Integer, Double> residual = Map.of(0, 10.0, 1, 10.0, 2, 10.0);
+        List<OrphanOrder> orphans = List.of(
+                order("order-1", 21.00, 105.80, 10),
+                order("order-2", 21.00, 105.80, 10),
+                order("order-3", 21.00, 105.80, 10),
+                order("order-4", 21.00, 105.80, 10));
+
+        RescueResult a = OrphanOrderRescuer.rescue(orphans, centroids, residual);
+        RescueResult b = OrphanOrderRescuer.rescue(orphans.reversed(), centroids, residual);
+
+        assertEquals(a.clusterIdByJobId(), b.clusterIdByJobId());
+        assertEquals(a.stillUnclustered(), b.stillUnclustered());
+        assertEquals(3, a.rescuedCount());
+        assertEquals(List.of("order-4"), a.stillUnclustered());
+    }
+
+    @Test
+    void shouldReturnEmpty_whenNoOrphans() {
+        RescueResult result = OrphanOrderRescuer.rescue(List.of(), centroids, Map.of(0, 1.0));
+        assertEquals(0, result.rescuedCount());
+        assertTrue(result.stillUnclustered().isEmpty());
+    }
+
+    @Test
+    void shouldRejectNullInputs() {
+        assertThrows(IllegalArgumentException.class,
+                () -> OrphanOrderRescuer.rescue(null, centroids, Map.of()));
+    }
+}
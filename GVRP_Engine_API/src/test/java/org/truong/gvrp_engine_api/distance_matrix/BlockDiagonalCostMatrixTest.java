@@ -96,6 +96,39 @@ class BlockDiagonalCostMatrixTest {
         }
     }
 
+    @Test
+    @DisplayName("Chia theo khối (cụm × cụm, WIDE × mọi j, không-WIDE × WIDE) phủ needed() đúng MỘT lần")
+    void blockPartitionCoversMaskExactlyOnce() {
+        int[] lab = labels(3, 50, 4);
+        lab[10] = MatrixMask.UNCLUSTERED;
+        int n = lab.length;
+        MatrixMask mask = MatrixMask.forTesting(lab);
+        BlockDiagonalCostMatrix block = BlockDiagonalCostMatrix.allocate(lab);
+
+        int[][] hits = new int[n][n];
+        for (int c = 0; c < block.clusterCount(); c++) {
+            int[] members = block.membersOf(c);
+            for (int i : members) for (int j : members) hits[i][j]++;
+        }
+        int[] wide = block.wideMembers();
+        boolean[] isWide = new boolean[n];
+        for (int w : wide) isWide[w] = true;
+        for (int w : wide) for (int j = 0; j < n; j++) hits[w][j]++;
+        for (int i = 0; i < n; i++) {
+            if (isWide[i]) continue;
+            for (int w : wide) hits[i][w]++;
+        }
+
+        assertEquals(4, wide.length, "3 depot + 1 order chưa gán cụm");
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (i == j) continue;
+                assertEquals(mask.needed(i, j) ? 1 : 0, hits[i][j], String.format(
+                        "Ô (%d,%d) được %d khối phủ — phải đúng 1 nếu needed, 0 nếu không", i, j, hits[i][j]));
+            }
+        }
+    }
+
     @Test
     @DisplayName("Ghi song song theo hàng an toàn: kết quả trùng bản tuần tự")
     void parallelFillIsRaceFree() {
@@ -258,6 +291,200 @@ class BlockDiagonalCostMatrixTest {
         assertTrue(ex.getMessage().contains("không vuông"), ex.getMessage());
     }
 
+    /** 4 depot: 0, 1 phục vụ một phần (1 có cả nhãn cụm không tồn tại), 2 phục vụ mọi cụm, 3 không xe nào. */
+    private static int[][] served(int n) {
+        int[][] served = new int[n][];
+        served[0] = new int[]{0, 3};
+        served[1] = new int[]{1, 42};
+        served[3] = new int[0];
+        return served;
+    }
+
+    @Test
+    @DisplayName("Depot một phần: block == dense trên mọi ô, targetsFor() == needed(), dải phủ đúng MỘT lần")
+    void partialDepotBandMatchesDenseAndMask() {
+        int[] lab = labels(4, 80, 5);
+        lab[30] = MatrixMask.UNCLUSTERED;
+        int n = lab.length;
+        int[][] served = served(n);
+        MatrixMask mask = MatrixMask.forTesting(lab, served);
+        BlockDiagonalCostMatrix block = BlockDiagonalCostMatrix.allocate(lab, served, CellEncoding.DOUBLE64,
+                MatrixStorage.HEAP, null);
+        assertEquals(3, block.partialCount(), "depot 0, 1, 3");
+        assertEquals(2, block.wideCount(), "depot 2 + order chưa gán cụm");
+
+        for (int i = 0; i < n; i++) {
+            boolean[] inTargets = new boolean[n];
+            for (int j : block.targetsFor(i)) {
+                inTargets[j] = true;
+                if (i != j) block.put(i, j, dist(i, j), time(i, j));
+            }
+            for (int j = 0; j < n; j++) {
+                if (i == j) continue;
+                assertEquals(mask.needed(i, j), inTargets[j], String.format("targetsFor lệch mask tại (%d,%d)", i, j));
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (i == j) continue;
+                double expectedD = mask.needed(i, j) ? dist(i, j) : MatrixMask.PRUNED_METERS;
+                double expectedT = mask.needed(i, j) ? time(i, j) : MatrixMask.PRUNED_SECONDS;
+                assertEquals(expectedD, block.distanceMeters(i, j), 0.0,
+                        String.format("distance lệch tại (%d,%d) [nhãn %d -> %d]", i, j, lab[i], lab[j]));
+                assertEquals(expectedT, block.timeSeconds(i, j), 0.0, String.format("time lệch tại (%d,%d)", i, j));
+            }
+        }
+
+        // Cây xuôi/ngược của dải + khối cụm phủ needed() đúng một lần
+        int[][] hits = new int[n][n];
+        for (int c = 0; c < block.clusterCount(); c++) {
+            int[] members = block.membersOf(c);
+            for (int i : members) for (int j : members) hits[i][j]++;
+        }
+        for (int w : block.bandMembers()) {
+            for (int j : block.bandRowTargets(w)) hits[w][j]++;
+            for (int i : block.bandColSources(w)) hits[i][w]++;
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (i == j) continue;
+                assertEquals(mask.needed(i, j) ? 1 : 0, hits[i][j], String.format("Ô (%d,%d) được phủ %d lần", i, j,
+                        hits[i][j]));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Dải depot một phần: 2·D·n ô co về ~2·ΣD_c·S_c, allocatedBytes khớp công thức")
+    void partialBandShrinksStorage() {
+        int depots = 40, orders = 20_000, clusters = 40;
+        int[] lab = labels(depots, orders, clusters);
+        int n = lab.length;
+        // Mỗi depot một cụm — chi nhánh mỗi kho một vùng
+        int[][] served = new int[n][];
+        for (int d = 0; d < depots; d++) served[d] = new int[]{d};
+
+        BlockDiagonalCostMatrix full = BlockDiagonalCostMatrix.allocate(lab);
+        BlockDiagonalCostMatrix partial = BlockDiagonalCostMatrix.allocate(lab, served, CellEncoding.DOUBLE64,
+                MatrixStorage.HEAP, null);
+
+        int[] sizes = full.clusterSizes();
+        long diag = 0;
+        for (int s : sizes) diag += (long) s * s;
+        assertEquals(diag + 2L * depots * n, full.storedCells());
+        // P slot đầu + S_c của cụm phục vụ, mỗi depot 1 hàng + 1 cột
+        assertEquals(diag + 2L * depots * (depots + orders / clusters), partial.storedCells());
+        assertEquals(8L * 2 * partial.storedCells(), partial.allocatedBytes());
+        long fullBand = full.storedCells() - diag;
+        long partialBand = partial.storedCells() - diag;
+        assertTrue(partialBand * 30 < fullBand, String.format("dải partial=%d full=%d", partialBand, fullBand));
+        assertTrue(partial.layout().contains("P=40"), partial.layout());
+        assertFalse(full.layout().contains("P="), full.layout());
+    }
+
+    /** Halo: vài order biên tham gia 1–2 cụm láng giềng (có cả cụm của depot một phần). */
+    private static int[][] halo(int[] lab) {
+        int[][] halo = new int[lab.length][];
+        halo[10] = new int[]{3};       // nhà 1
+        halo[21] = new int[]{0, 3};    // nhà 2
+        halo[46] = new int[]{0};       // nhà 2 — cụm 0 có depot 0 phục vụ
+        halo[47] = new int[]{0, 1};    // nhà 3 — cụm 1 có depot 1 phục vụ
+        halo[70] = new int[]{4};       // nhà 1
+        return halo;
+    }
+
+    @Test
+    @DisplayName("Halo: block == dense trên mọi ô, targetsFor() == needed(), khối lọc theo ownerCluster phủ đúng MỘT lần")
+    void haloMatchesDenseAndCoversOnce() {
+        int[] lab = labels(4, 80, 5);
+        lab[30] = MatrixMask.UNCLUSTERED;
+        int n = lab.length;
+        int[][] served = served(n);
+        int[][] halo = halo(lab);
+        for (int i = 0; i < n; i++) {
+            if (halo[i] == null) continue;
+            for (int c : halo[i]) assertNotEquals(lab[i], c, "fixture: halo không được chứa cụm nhà");
+        }
+        MatrixMask mask = MatrixMask.forTesting(lab, served, halo);
+        BlockDiagonalCostMatrix block = BlockDiagonalCostMatrix.allocate(lab, served, halo, CellEncoding.DOUBLE64,
+                MatrixStorage.HEAP, null);
+        assertTrue(block.hasHalo());
+        assertEquals(7, block.haloMemberships());
+
+        for (int i = 0; i < n; i++) {
+            boolean[] inTargets = new boolean[n];
+            for (int j : block.targetsFor(i)) {
+                inTargets[j] = true;
+                if (i != j) block.put(i, j, dist(i, j), time(i, j));
+            }
+            for (int j = 0; j < n; j++) {
+                if (i == j) continue;
+                assertEquals(mask.needed(i, j), inTargets[j], String.format("targetsFor lệch mask tại (%d,%d)", i, j));
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (i == j) continue;
+                double expectedD = mask.needed(i, j) ? dist(i, j) : MatrixMask.PRUNED_METERS;
+                double expectedT = mask.needed(i, j) ? time(i, j) : MatrixMask.PRUNED_SECONDS;
+                assertEquals(expectedD, block.distanceMeters(i, j), 0.0,
+                        String.format("distance lệch tại (%d,%d) [nhãn %d -> %d]", i, j, lab[i], lab[j]));
+                assertEquals(expectedT, block.timeSeconds(i, j), 0.0, String.format("time lệch tại (%d,%d)", i, j));
+            }
+        }
+
+        // Cặp có mặt ở nhiều khối chỉ được khối chủ ghi — đúng cách MANY_TO_MANY lọc tác vụ
+        int[][] hits = new int[n][n];
+        for (int c = 0; c < block.clusterCount(); c++) {
+            int[] members = block.membersOf(c);
+            for (int i : members) {
+                for (int j : members) {
+                    if (i != j && block.ownerCluster(i, j) == c) hits[i][j]++;
+                }
+            }
+        }
+        for (int w : block.bandMembers()) {
+            for (int j : block.bandRowTargets(w)) hits[w][j]++;
+            for (int i : block.bandColSources(w)) hits[i][w]++;
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (i == j) continue;
+                assertEquals(mask.needed(i, j) ? 1 : 0, hits[i][j], String.format("Ô (%d,%d) được phủ %d lần", i, j,
+                        hits[i][j]));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Halo chỉ làm khối lớn thêm đúng số thành viên phụ: Σ(S_c + H_c)², không đụng dải rộng")
+    void haloGrowsStorageOnlyByHaloSize() {
+        int depots = 2, orders = 1_000, clusters = 10;
+        int[] lab = labels(depots, orders, clusters);
+        int n = lab.length;
+        int[][] halo = new int[n][];
+        for (int k = 0; k < 50; k++) {
+            int i = depots + k;
+            halo[i] = new int[]{(lab[i] + 1) % clusters};
+        }
+
+        BlockDiagonalCostMatrix plain = BlockDiagonalCostMatrix.allocate(lab);
+        BlockDiagonalCostMatrix withHalo = BlockDiagonalCostMatrix.allocate(lab, null, halo, CellEncoding.DOUBLE64,
+                MatrixStorage.HEAP, null);
+
+        int[] sizes = withHalo.clusterSizes();
+        int sum = 0;
+        for (int s : sizes) sum += s;
+        assertEquals(orders + 50, sum, "mỗi thành viên phụ thêm đúng 1 chỗ trong khối");
+        assertEquals(MatrixMemory.blockCells(n, sizes, depots), withHalo.storedCells());
+        long growth = withHalo.storedCells() - plain.storedCells();
+        // 5 order/cụm đích → mỗi khối 100 → 105: 10·(105² − 100²) = 10 250 ô
+        assertEquals(10_250L, growth);
+        assertTrue(growth * 10 < plain.storedCells(), "halo phải nhỏ so với tổng ma trận");
+        assertTrue(withHalo.layout().contains("H=50"), withHalo.layout());
+        assertFalse(plain.hasHalo());
+    }
+
     @Test
     @DisplayName("Order chưa gán cụm (ít) vẫn đọc/ghi đúng như dense")
     void unclusteredOrdersBehaveLikeDepots() {
@@ -0,0 +1,137 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Mã hóa gọn (FLOAT32/INT32) chỉ được làm tròn giá trị THẬT — sentinel phải đọc ra
+ * y hệt, vì {@code NoPrunedEdgeConstraint} so sánh bằng {@code >=} với đúng hằng đó.
+ */
+class CellEncodingTest {
+
+    private static final long GIB = 1024L * 1024 * 1024;
+
+    private static int[] labels(int depots, int orders, int clusters) {
+        int[] lab = new int[depots + orders];
+        for (int i = 0; i < depots; i++) lab[i] = MatrixMask.DEPOT;
+        for (int k = 0; k < orders; k++) lab[depots + k] = k % clusters;
+        return lab;
+    }
+
+    /** Mét lẻ, tới ~120 km — đủ dài để lộ sai số float ở phần thập phân. */
+    private static double dist(int i, int j) {
+        return 1873.37 * i + 11.71 * j + 0.43;
+    }
+
+    private static double time(int i, int j) {
+        return 7.0 * i + 3.0 * j;
+    }
+
+    @Test
+    @DisplayName("FLOAT32/INT32 khớp DOUBLE64 trong sai số làm tròn; sentinel giữ nguyên")
+    void compactEncodingsMatchDoubleWithinRounding() {
+        int[] lab = labels(2, 60, 4);
+        int n = lab.length;
+        MatrixMask mask = MatrixMask.forTesting(lab);
+
+        for (CellEncoding enc : new CellEncoding[]{CellEncoding.FLOAT32, CellEncoding.INT32}) {
+            BlockDiagonalCostMatrix oracle = BlockDiagonalCostMatrix.allocate(lab);
+            BlockDiagonalCostMatrix compact = BlockDiagonalCostMatrix.allocate(lab, enc);
+            DenseCostMatrix dense = DenseCostMatrix.allocate(n, enc);
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    if (i == j) continue;
+                    if (mask.needed(i, j)) {
+                        oracle.put(i, j, dist(i, j), time(i, j));
+                        compact.put(i, j, dist(i, j), time(i, j));
+                        dense.put(i, j, dist(i, j), time(i, j));
+                    } else {
+                        dense.put(i, j, MatrixMask.PRUNED_METERS, MatrixMask.PRUNED_SECONDS);
+                    }
+                }
+            }
+            double tol = enc == CellEncoding.INT32 ? 0.5 : 0.01;
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    String at = String.format("%s (%d,%d)", enc, i, j);
+                    assertEquals(oracle.distanceMeters(i, j), compact.distanceMeters(i, j), tol, at);
+                    assertEquals(oracle.timeSeconds(i, j), compact.timeSeconds(i, j), 0.0, at);
+                    assertEquals(oracle.distanceMeters(i, j), dense.distanceMeters(i, j), tol, at);
+                    if (i != j && !mask.needed(i, j)) {
+                        assertEquals(MatrixMask.PRUNED_METERS, compact.distanceMeters(i, j), 0.0, at);
+                        assertEquals(MatrixMask.PRUNED_METERS, dense.distanceMeters(i, j), 0.0, at);
+                        assertEquals(MatrixMask.PRUNED_SECONDS, dense.timeSeconds(i, j), 0.0, at);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("INT32: giá trị vượt sentinel đọc ra sentinel, không tràn thành số âm")
+    void intEncodingClampsToSentinel() {
+        CellStore store = CellEncoding.INT32.allocate(2);
+        store.put(0, 5e12, 1e15);
+        store.put(1, 123.6, 59.4);
+        assertEquals(MatrixMask.PRUNED_METERS, store.distance(0), 0.0);
+        assertEquals(MatrixMask.PRUNED_SECONDS, store.time(0), 0.0);
+        assertEquals(124.0, store.distance(1), 0.0);
+        assertEquals(59.0, store.time(1), 0.0);
+    }
+
+    @Test
+    @DisplayName("Dense: view phẳng heap đọc ra đúng như CellStore của nó — mọi encoding, cả ngoài heap và constructor bọc")
+    void denseFlatViewsMatchCellStores(@TempDir Path dir) {
+        int n = 7;
+        for (CellEncoding enc : CellEncoding.values()) {
+            for (MatrixStorage storage : new MatrixStorage[]{MatrixStorage.HEAP, MatrixStorage.DIRECT, MatrixStorage.MAPPED}) {
+                DenseCostMatrix dense = DenseCostMatrix.allocate(n, enc, storage, dir);
+                CellStore oracle = enc.allocate(n * n);
+                for (int i = 0; i < n; i++) {
+                    for (int j = 0; j < n; j++) {
+                        double d = (i + j) % 5 == 0 ? MatrixMask.PRUNED_METERS : dist(i, j);
+                        double t = (i + j) % 5 == 0 ? MatrixMask.PRUNED_SECONDS : time(i, j);
+                        dense.put(i, j, d, t);
+                        oracle.put(i * n + j, d, t);
+                    }
+                }
+                for (int i = 0; i < n; i++) {
+                    for (int j = 0; j < n; j++) {
+                        String at = String.format("%s/%s (%d,%d)", enc, storage, i, j);
+                        assertEquals(oracle.distance(i * n + j), dense.distanceMeters(i, j), 0.0, at);
+                        assertEquals(oracle.time(i * n + j), dense.timeSeconds(i, j), 0.0, at);
+                    }
+                }
+            }
+        }
+
+        double[][] d = {{0, 1.5}, {2.5, 0}};
+        double[][] t = {{0, 10}, {20, 0}};
+        DenseCostMatrix wrapped = new DenseCostMatrix(d, t);
+        wrapped.put(0, 1, 3.5, 30);
+        assertEquals(3.5, d[0][1], 0.0, "bọc, không sao chép");
+        assertEquals(3.5, wrapped.distanceMeters(0, 1), 0.0);
+        assertEquals(20.0, wrapped.timeSeconds(1, 0), 0.0);
+    }
+
+    @Test
+    @DisplayName("8 byte/ô: bộ nhớ giảm một nửa, trần dense tăng √2")
+    void compactEncodingHalvesMemory() {
+        int[] lab = labels(3, 300, 6);
+        BlockDiagonalCostMatrix wide = BlockDiagonalCostMatrix.allocate(lab);
+        BlockDiagonalCostMatrix compact = BlockDiagonalCostMatrix.allocate(lab, CellEncoding.FLOAT32);
+        assertEquals(wide.allocatedBytes(), 2 * compact.allocatedBytes());
+
+        assertEquals(MatrixMemory.denseBytes(50_010), 2 * MatrixMemory.denseBytes(50_010, CellEncoding.INT32));
+        assertEquals(17947, MatrixMemory.maxDenseSize(8 * GIB));
+        assertEquals(25381, MatrixMemory.maxDenseSize(8 * GIB, CellEncoding.FLOAT32));
+
+        assertEquals("BLOCK_DIAGONAL(C=6, W=3, FLOAT32)", compact.layout());
+        assertEquals("DENSE(INT32)", DenseCostMatrix.allocate(10, CellEncoding.INT32).layout());
+    }
+}
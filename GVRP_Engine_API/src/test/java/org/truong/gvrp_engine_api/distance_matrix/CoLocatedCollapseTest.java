@@ -0,0 +1,118 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+import com.graphhopper.jsprit.core.problem.Location;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.truong.gvrp_engine_api.model.OptimizationContext;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * CoLocatedCollapse gộp sai một cặp là hai order cách xa nhau đi tới nhau mất 0 m — test
+ * khóa cả tập nhóm, không chỉ số nhóm. Cùng kinh độ, 0.00001° vĩ độ ≈ 1.1 m.
+ * <p>
+ * Location: 0, 5 = depot; còn lại là order.
+ * <ul>
+ *   <li>1: gốc nhóm cụm 0; 2 cách 1 ≈ 2.2 m, 6 cách 1 ≈ 4.5 m → nhập 1</li>
+ *   <li>7 cách 6 ≈ 4.5 m nhưng cách leader 1 ≈ 8.9 m → KHÔNG bắc cầu, tự làm leader</li>
+ *   <li>3: trùng khít 1 nhưng cụm 1; 5: depot trùng khít 1</li>
+ *   <li>4 và 8 trùng khít nhau, cách 1 ≈ 1.1 km</li>
+ * </ul>
+ */
+class CoLocatedCollapseTest {
+
+    private static final double[] LAT = {21.0, 21.01, 21.01002, 21.01, 21.02, 21.01, 21.01004, 21.01008, 21.02};
+
+    private static List<OptCoordinates> coords() {
+        List<OptCoordinates> c = new ArrayList<>();
+        for (double lat : LAT) c.add(new OptCoordinates(BigDecimal.valueOf(lat), BigDecimal.valueOf(105.80)));
+        return c;
+    }
+
+    private static MatrixMask mask(Map<String, int[]> halo) {
+        List<Location> locs = new ArrayList<>();
+        for (int k = 0; k < LAT.length; k++) {
+            locs.add(Location.newInstance(k == 0 || k == 5 ? "depot-" + k : "order-" + k));
+        }
+        OptimizationContext ctx = new OptimizationContext(locs, Map.of(), Map.of(), Map.of(), Map.of());
+        Map<String, Integer> clusters = Map.of("order-1", 0, "order-2", 0, "order-3", 1, "order-4", 0,
+                "order-6", 0, "order-7", 0, "order-8", 0);
+        return MatrixMask.fromClusters(ctx, clusters, halo);
+    }
+
+    @Test
+    @DisplayName("Gộp theo leader trong tolerance, không bắc cầu; depot và order khác cụm giữ riêng")
+    void groupsWithinToleranceOnly() {
+        CoLocatedCollapse c = CoLocatedCollapse.of(coords(), mask(null), 5);
+
+        assertArrayEquals(new int[]{0, 1, 1, 2, 3, 4, 1, 5, 3}, c.repByLoc());
+        assertArrayEquals(new int[]{0, 1, 3, 4, 5, 7}, c.locByRep());
+        assertTrue(c.reduces());
+        assertEquals(6, c.collapsedSize());
+    }
+
+    @Test
+    @DisplayName("Tolerance 0 chỉ gộp tọa độ trùng khít")
+    void zeroToleranceMergesExactDuplicatesOnly() {
+        CoLocatedCollapse c = CoLocatedCollapse.of(coords(), mask(null), 0);
+
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4, 5, 6, 7, 4}, c.repByLoc());
+    }
+
+    @Test
+    @DisplayName("Khác halo thì không gộp — điểm gộp phải kế thừa đúng nhãn của MỌI thành viên")
+    void differentHaloIsNotMerged() {
+        CoLocatedCollapse c = CoLocatedCollapse.of(coords(), mask(Map.of("order-2", new int[]{1})), 5);
+
+        assertNotEquals(c.repByLoc()[1], c.repByLoc()[2]);
+        assertEquals(c.repByLoc()[1], c.repByLoc()[6]);
+    }
+
+    @Test
+    @DisplayName("Mask gộp mang nhãn leader; ma trận mở rộng: 0 trong nhóm, ô chung giữa các nhóm")
+    void expandedMatrixReadsSharedCells() {
+        List<OptCoordinates> coords = coords();
+        CoLocatedCollapse c = CoLocatedCollapse.of(coords, mask(null), 5);
+        MatrixMask reduced = c.mask(mask(null));
+        assertArrayEquals(new int[]{MatrixMask.DEPOT, 0, 1, 0, MatrixMask.DEPOT, 0}, reduced.clusterByLoc());
+        assertEquals(6, c.coordinates(CoordinateColumns.of(coords)).size());
+
+        int m = c.collapsedSize();
+        DenseCostMatrix shared = DenseCostMatrix.allocate(m);
+        for (int a = 0; a < m; a++) {
+            for (int b = 0; b < m; b++) shared.put(a, b, 100.0 * a + b + 1, 10.0 * a + b + 1);
+        }
+        CostMatrix full = c.expand(shared);
+
+        assertEquals(LAT.length, full.size());
+        assertEquals(0.0, full.distanceMeters(1, 6));
+        assertEquals(0.0, full.timeSeconds(2, 1));
+        assertEquals(shared.distanceMeters(1, 3), full.distanceMeters(2, 8));
+        assertEquals(shared.timeSeconds(4, 1), full.timeSeconds(5, 6), "depot trùng khít vẫn có ô riêng");
+        assertEquals(shared.distanceMeters(1, 2), full.distanceMeters(1, 3), "khác cụm không gộp");
+        assertTrue(full.layout().startsWith("COLLAPSED("), full.layout());
+    }
+
+    @Test
+    @DisplayName("Không biết depot / mask kNN → không gộp; tolerance vượt trần bị chặn")
+    void fallsBackToIdentityOrRejects() {
+        List<OptCoordinates> coords = coords();
+        assertFalse(CoLocatedCollapse.of(coords, null, 5).reduces());
+        assertFalse(CoLocatedCollapse.of(coords, MatrixMask.forTesting(new int[LAT.length]), 5).reduces());
+
+        boolean[] depot = {true, false, false, false, false, true, false, false, false};
+        MatrixMask knn = MatrixMask.fullForTesting(depot).withNearestNeighbours(coords, 2);
+        CoLocatedCollapse identity = CoLocatedCollapse.of(coords, knn, 5);
+        assertFalse(identity.reduces());
+        DenseCostMatrix m = DenseCostMatrix.allocate(LAT.length);
+        assertSame(m, identity.expand(m));
+
+        assertThrows(IllegalArgumentException.class, () -> CoLocatedCollapse.of(coords, mask(null), 30));
+        assertThrows(IllegalStateException.class, () -> knn.select(new int[]{0, 1}, null));
+    }
+}
@@ -0,0 +1,75 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+import com.graphhopper.jsprit.core.problem.Location;
+import com.graphhopper.jsprit.core.util.Coordinate;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.truong.gvrp_engine_api.clustering.KMeansClusterer;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * CoordinateColumns thay List&lt;OptCoordinates&gt; trên đường nóng — phải cho ra ĐÚNG
+ * cùng số liệu, nếu không cụm / ma trận lệch lặng lẽ so với bản cũ.
+ */
+class CoordinateColumnsTest {
+
+    private static List<OptCoordinates> points(int n, long seed) {
+        Random r = new Random(seed);
+        List<OptCoordinates> out = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            out.add(new OptCoordinates(BigDecimal.valueOf(20.9 + 0.2 * r.nextDouble()),
+                    BigDecimal.valueOf(105.7 + 0.2 * r.nextDouble())));
+        }
+        return out;
+    }
+
+    @Test
+    @DisplayName("of / ofLocations: lat = Y, lon = X, cùng thứ tự index; list gốc được giữ nguyên")
+    void buildsColumnsInIndexOrder() {
+        List<OptCoordinates> list = points(5, 1);
+        CoordinateColumns cols = CoordinateColumns.of(list);
+        assertSame(list, cols.asList(), "không dựng lại list khi đã có sẵn");
+        for (int i = 0; i < 5; i++) {
+            assertEquals(list.get(i).latDouble(), cols.lat(i));
+            assertEquals(list.get(i).lonDouble(), cols.lon(i));
+        }
+
+        List<Location> locs = List.of(
+                Location.Builder.newInstance().setId("depot-1").setCoordinate(Coordinate.newInstance(105.8, 21.0)).build(),
+                Location.Builder.newInstance().setId("order-1").setCoordinate(Coordinate.newInstance(105.9, 21.1)).build());
+        CoordinateColumns fromLocs = CoordinateColumns.ofLocations(locs);
+        assertArrayEquals(new double[]{21.0, 21.1}, fromLocs.lat());
+        assertArrayEquals(new double[]{105.8, 105.9}, fromLocs.lon());
+    }
+
+    @Test
+    @DisplayName("asList dựng lười đúng một lần; select và haversine theo index")
+    void lazyListAndSelect() {
+        CoordinateColumns cols = new CoordinateColumns(new double[]{21.0, 21.01, 21.02}, new double[]{105.8, 105.8, 105.8});
+        List<OptCoordinates> a = cols.asList();
+        assertSame(a, cols.asList());
+        assertEquals(new OptCoordinates(BigDecimal.valueOf(21.01), BigDecimal.valueOf(105.8)), a.get(1));
+
+        CoordinateColumns sub = cols.select(new int[]{2, 0});
+        assertArrayEquals(new double[]{21.02, 21.0}, sub.lat());
+        assertEquals(GeoDistance.haversineMeters(a.get(0), a.get(2)), cols.haversineMeters(0, 2));
+
+        assertThrows(IllegalArgumentException.class, () -> new CoordinateColumns(new double[2], new double[3]));
+    }
+
+    @Test
+    @DisplayName("K-means trên cột trùng khít bản List (cùng seed)")
+    void kMeansMatchesListPath() {
+        List<OptCoordinates> list = points(400, 7);
+        int[] viaList = KMeansClusterer.fit(list, 6, 100, new Random(42)).clusterIdByOrderIndex();
+        int[] viaColumns = KMeansClusterer.fitColumns(CoordinateColumns.of(list), 6, 100, new Random(42))
+                .clusterIdByOrderIndex();
+        assertArrayEquals(viaList, viaColumns);
+    }
+}
@@ -0,0 +1,261 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Hợp đồng của cell cache: trả lại đúng giá trị đã ghi, sống qua close/open, tự xóa
+ * khi đổi namespace, không phình quá dung lượng cấu hình, và KHÔNG lưu lỗi.
+ */
+class DistanceCellCacheTest {
+
+    private static final long SMALL = 64 * 1024;
+
+    private static OptCoordinates at(double lat, double lon) {
+        return new OptCoordinates(BigDecimal.valueOf(lat), BigDecimal.valueOf(lon));
+    }
+
+    private static DistanceMatrixEntry entry(double meters, long millis) {
+        return new DistanceMatrixEntry(Duration.ofMillis(millis), Distance.ofMeters(meters));
+    }
+
+    @Test
+    @DisplayName("Ghi rồi đọc lại đúng giá trị; chiều ngược lại là ô KHÁC")
+    void roundTripIsDirectional(@TempDir Path dir) {
+        try (DistanceCellCache cache = DistanceCellCache.open(dir.resolve("c.bin"), SMALL, "ns")) {
+            OptCoordinates a = at(21.02851, 105.85422);
+            OptCoordinates b = at(21.00712, 105.84301);
+            cache.put(a, b, entry(3456.5, 612_000));
+
+            DistanceMatrixEntry hit = cache.get(a, b);
+            assertNotNull(hit);
+            assertEquals(3456.5, hit.distanceMeters(), 0.01);
+            assertEquals(612.0, hit.timeSeconds(), 0.0);
+            assertNull(cache.get(b, a), "Ma trận bất đối xứng (đường một chiều) — b→a không được trúng a→b");
+
+            assertEquals(1, cache.stats().hits());
+            assertEquals(1, cache.stats().misses());
+        }
+    }
+
+    @Test
+    @DisplayName("Tọa độ lệch dưới lưới 1e-5° trúng cùng ô")
+    void quantizedKeyMatchesNearbyCoordinates(@TempDir Path dir) {
+        try (DistanceCellCache cache = DistanceCellCache.open(dir.resolve("c.bin"), SMALL, "ns")) {
+            cache.put(at(10.7769001, 106.7009001), at(10.7626, 106.6602), entry(5000, 900_000));
+            assertNotNull(cache.get(at(10.7768999, 106.7008999), at(10.7626, 106.6602)));
+        }
+    }
+
+    @Test
+    @DisplayName("Sống qua restart; đổi namespace (map/profile) thì xóa trắng")
+    void survivesReopenAndResetsOnNamespaceChange(@TempDir Path dir) {
+        Path file = dir.resolve("c.bin");
+        OptCoordinates a = at(16.0544, 108.2022);
+        OptCoordinates b = at(16.0678, 108.2208);
+
+        try (DistanceCellCache cache = DistanceCellCache.open(file, SMALL, "map-A")) {
+            cache.put(a, b, entry(2500, 420_000));
+        }
+        try (DistanceCellCache cache = DistanceCellCache.open(file, SMALL, "map-A")) {
+            assertNotNull(cache.get(a, b), "Cùng namespace phải đọc lại được ô đã ghi trước restart");
+        }
+        try (DistanceCellCache cache = DistanceCellCache.open(file, SMALL, "map-B")) {
+            assertNull(cache.get(a, b), "Đổi bản đồ mà vẫn trả số liệu cũ là sai lặng lẽ");
+        }
+    }
+
+    @Test
+    @DisplayName("Dung lượng cố định: ghi gấp nhiều lần sức chứa thì evict, không phình")
+    void evictsInsteadOfGrowing(@TempDir Path dir) {
+        try (DistanceCellCache cache = DistanceCellCache.open(dir.resolve("c.bin"), SMALL, "ns")) {
+            long capacity = cache.capacityCells();
+            OptCoordinates origin = at(21.0, 105.8);
+            for (int k = 0; k < capacity * 3; k++) {
+                cache.put(origin, at(21.0 + k * 1e-4, 105.8), entry(k, k));
+            }
+            assertTrue(cache.stats().evictions() >= capacity * 2 - capacity / 10,
+                    "evictions=" + cache.stats().evictions() + " capacity=" + capacity);
+            assertTrue(cache.file().toFile().length() <= SMALL);
+
+            // Ô vừa ghi gần nhất phải còn (LRU trong bucket)
+            long last = capacity * 3 - 1;
+            assertNotNull(cache.get(origin, at(21.0 + last * 1e-4, 105.8)));
+        }
+    }
+
+    @Test
+    @DisplayName("Đồng hồ LRU sống qua restart: vượt 2^31 / 2^32 vẫn evict ô CŨ nhất, không trùng dấu slot trống")
+    void lruClockSurvivesIntOverflow(@TempDir Path dir) throws IOException {
+        // Một bucket → mọi ô tranh nhau WAYS slot; stamp của WAYS ô đầu vắt qua mốc tràn
+        long oneBucket = DistanceCellCache.HEADER_BYTES + DistanceCellCache.BUCKET_BYTES;
+        OptCoordinates origin = at(21.0, 105.8);
+        for (long clockStart : new long[]{Integer.MAX_VALUE - 3L, 0xFFFF_FFFFL - 3}) {
+            Path file = dir.resolve("clock-" + clockStart + ".bin");
+            DistanceCellCache.open(file, oneBucket, "ns").close();
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                ByteBuffer clock = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.BIG_ENDIAN).putLong(0, clockStart);
+                ch.write(clock, DistanceCellCache.H_CLOCK);
+            }
+
+            try (DistanceCellCache cache = DistanceCellCache.open(file, oneBucket, "ns")) {
+                for (int k = 0; k <= DistanceCellCache.WAYS; k++) {
+                    cache.put(origin, at(21.0 + k * 1e-3, 105.8), entry(k, k));
+                }
+                assertEquals(1, cache.stats().evictions(), "clockStart=" + clockStart);
+                assertNull(cache.get(origin, at(21.0, 105.8)), "ô ghi ĐẦU TIÊN mới là ô cũ nhất");
+                for (int k = 1; k <= DistanceCellCache.WAYS; k++) {
+                    DistanceMatrixEntry hit = cache.get(origin, at(21.0 + k * 1e-3, 105.8));
+                    assertNotNull(hit, "clockStart=" + clockStart + " ô " + k + " bị evict nhầm");
+                    assertEquals(k, hit.distanceMeters(), 0.0);
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Decorator: hit không gọi provider; lỗi provider KHÔNG được cache")
+    void decoratorSkipsProviderOnHitAndNeverCachesFailures(@TempDir Path dir) {
+        AtomicInteger calls = new AtomicInteger();
+        OptCoordinates a = at(20.8449, 106.6881);
+        OptCoordinates bad = at(0.0, 0.0);
+        DistanceProvider real = (from, to) -> {
+            calls.incrementAndGet();
+            if (to.equals(bad)) {
+                throw new IllegalStateException("Routing failed");
+            }
+            return entry(1234, 300_000);
+        };
+
+        try (DistanceCellCache cache = DistanceCellCache.open(dir.resolve("c.bin"), SMALL, "ns")) {
+            DistanceProvider cached = new CachingDistanceProvider(real, cache);
+            OptCoordinates b = at(20.8600, 106.6800);
+
+            cached.fetch(a, b);
+            cached.fetch(a, b);
+            assertEquals(1, calls.get(), "Lần thứ hai phải là cache hit");
+
+            assertThrows(IllegalStateException.class, () -> cached.fetch(a, bad));
+            assertThrows(IllegalStateException.class, () -> cached.fetch(a, bad));
+            assertEquals(3, calls.get(), "Lỗi phải được thử lại, không được nhớ");
+        }
+    }
+
+    @Test
+    @DisplayName("fetchRow của decorator: trùng khít fetch, hit không gọi provider, lỗi → NaN không cache")
+    void decoratorRowMatchesPerPairFetch(@TempDir Path dir) {
+        AtomicInteger calls = new AtomicInteger();
+        OptCoordinates bad = at(0.0, 0.0);
+        DistanceProvider real = (from, to) -> {
+            calls.incrementAndGet();
+            if (to.equals(bad)) {
+                throw new IllegalStateException("Routing failed");
+            }
+            return entry(1000 * to.latDouble(), 600_999);
+        };
+        List<OptCoordinates> points = List.of(at(20.8449, 106.6881), at(20.86, 106.68), bad, at(20.87, 106.69));
+        CoordinateColumns coords = CoordinateColumns.of(points);
+        int[] targets = {1, 0, 2, 3};
+
+        try (DistanceCellCache cache = DistanceCellCache.open(dir.resolve("c.bin"), SMALL, "ns")) {
+            DistanceProvider cached = new CachingDistanceProvider(real, cache);
+            double[] meters = new double[targets.length];
+            double[] seconds = new double[targets.length];
+
+            cached.fetchRow(coords, 0, targets, meters, seconds);
+            assertEquals(3, calls.get(), "ô chéo không hỏi provider");
+            assertEquals(0.0, meters[1]);
+            assertTrue(Double.isNaN(meters[2]) && Double.isNaN(seconds[2]));
+            assertEquals(real.fetch(points.get(0), points.get(3)).distanceMeters(), meters[3]);
+            assertEquals(600.0, seconds[3], "giây nguyên như DistanceMatrixEntry.timeSeconds()");
+
+            double[] again = new double[targets.length];
+            double[] againSec = new double[targets.length];
+            calls.set(0);
+            cached.fetchRow(coords, 0, targets, again, againSec);
+            assertEquals(1, calls.get(), "chỉ ô lỗi được thử lại");
+            DistanceMatrixEntry viaFetch = cached.fetch(points.get(0), points.get(1));
+            assertEquals(viaFetch.distanceMeters(), again[0]);
+            assertEquals(viaFetch.timeSeconds(), againSec[0]);
+        }
+    }
+
+    @Test
+    @DisplayName("fetchBlock của decorator: trúng một phần → delegate chỉ nhận khối con hàng/cột có miss, mỗi cặp báo đúng một lần")
+    void decoratorBlockAsksOnlyForMissingSubBlock(@TempDir Path dir) {
+        List<OptCoordinates> sources = List.of(at(21.01, 105.81), at(21.02, 105.82), at(21.03, 105.83));
+        List<OptCoordinates> targets = List.of(at(21.04, 105.84), at(21.05, 105.85), at(21.06, 105.86));
+        List<List<OptCoordinates>> asked = new ArrayList<>();
+        DistanceProvider real = new DistanceProvider() {
+            @Override
+            public DistanceMatrixEntry fetch(OptCoordinates from, OptCoordinates to) {
+                throw new AssertionError("decorator phải gọi fetchBlock của delegate");
+            }
+
+            @Override
+            public void fetchBlock(List<OptCoordinates> s, List<OptCoordinates> t, PairSink sink) {
+                asked.add(s);
+                asked.add(t);
+                for (int i = 0; i < s.size(); i++) {
+                    for (int j = 0; j < t.size(); j++) {
+                        boolean unreachable = s.get(i).equals(sources.get(0)) && t.get(j).equals(targets.get(2));
+                        sink.accept(i, j, unreachable ? Double.NaN : 1000 * s.get(i).latDouble() + t.get(j).latDouble(),
+                                unreachable ? Double.NaN : 60);
+                    }
+                }
+            }
+        };
+
+        try (DistanceCellCache cache = DistanceCellCache.open(dir.resolve("c.bin"), SMALL, "ns")) {
+            // Trúng sẵn: cả cột t0, cả hàng s1, và s2→t2 (nằm TRONG khối con sẽ hỏi)
+            for (int i = 0; i < 3; i++) cache.put(sources.get(i), targets.get(0), entry(7, 7_000));
+            for (int j = 1; j < 3; j++) cache.put(sources.get(1), targets.get(j), entry(7, 7_000));
+            cache.put(sources.get(2), targets.get(2), entry(7, 7_000));
+            DistanceProvider cached = new CachingDistanceProvider(real, cache);
+
+            double[][] meters = block(cached, sources, targets);
+            assertEquals(List.of(List.of(sources.get(0), sources.get(2)), List.of(targets.get(1), targets.get(2))),
+                    asked, "hàng s1 và cột t0 trúng hết — không gửi cho delegate");
+            assertEquals(7.0, meters[2][2], "ô đã trúng trong khối con giữ giá trị cache, không bị delegate ghi đè");
+            assertEquals(7.0, meters[1][1]);
+            assertEquals(1000 * 21.01 + 21.05, meters[0][1], 0.01);
+            assertTrue(Double.isNaN(meters[0][2]));
+
+            asked.clear();
+            double[][] again = block(cached, sources, targets);
+            assertEquals(List.of(List.of(sources.get(0)), List.of(targets.get(2))), asked,
+                    "lần hai chỉ ô NaN được hỏi lại — NaN không vào cache");
+            assertEquals(meters[0][1], again[0][1], 0.01);
+            assertEquals(60.0, cache.get(sources.get(2), targets.get(1)).timeSeconds());
+        }
+    }
+
+    /** Mét của cả khối; mỗi cặp phải tới sink đúng một lần. */
+    private static double[][] block(DistanceProvider provider, List<OptCoordinates> sources, List<OptCoordinates> targets) {
+        double[][] meters = new double[sources.size()][targets.size()];
+        int[][] reports = new int[sources.size()][targets.size()];
+        provider.fetchBlock(sources, targets, (i, j, m, s) -> {
+            reports[i][j]++;
+            meters[i][j] = m;
+        });
+        for (int[] row : reports) {
+            for (int r : row) assertEquals(1, r, "mỗi cặp báo đúng một lần");
+        }
+        return meters;
+    }
+}
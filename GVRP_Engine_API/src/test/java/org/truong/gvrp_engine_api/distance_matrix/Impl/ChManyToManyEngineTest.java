@@ -0,0 +1,216 @@
+package org.truong.gvrp_engine_api.distance_matrix.Impl;
+
+import com.graphhopper.GHRequest;
+import com.graphhopper.GHResponse;
+import com.graphhopper.GraphHopper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.truong.gvrp_engine_api.distance_matrix.OptCoordinates;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@code graphHopper.route()} là ORACLE cho bucket many-to-many: engine nuôi MỌI khối cụm
+ * của {@code DistanceMatrixService.buildBlock}, ghép bucket sai một chỗ là hỏng ô ma trận
+ * mà không ai báo. Đồ thị: lưới OSM sinh trong test, dựng bằng đúng profile production
+ * (custom model + turn cost, CH edge-based), có cấm rẽ, đoạn "chỉ xe vào" (tốc độ × 0.5)
+ * và một đảo tách rời (cặp không có đường). Điểm truy vấn nằm GIỮA cạnh để đi qua nút ảo
+ * của QueryGraph.
+ */
+class ChManyToManyEngineTest {
+
+    private static final int SIDE = 7;
+    private static final double STEP = 0.002;          // ~220 m
+    private static final double LAT0 = 21.00;
+    private static final double LON0 = 105.80;
+    private static final double ISLAND_LAT = 21.05;   // ~5.5 km, không có đường nối
+
+    @TempDir
+    static Path dir;
+
+    private static GraphHopper hopper;
+    private static List<OptCoordinates> points;
+
+    @BeforeAll
+    static void buildGraph() throws IOException {
+        Path osm = dir.resolve("grid.osm");
+        Files.writeString(osm, gridOsm(new Random(7)));
+        hopper = new GraphHopper();
+        hopper.setOSMFile(osm.toString());
+        hopper.setGraphHopperLocation(dir.resolve("graph").toString());
+        // Đảo nhỏ phải được GIỮ làm mạng con riêng — nếu không, điểm trên đảo snap về lưới chính
+        hopper.setMinNetworkSize(0);
+        GraphHoperDistanceProvider.configureCarProfile(hopper);
+        hopper.importOrLoad();
+        points = queryPoints(new Random(3));
+    }
+
+    @AfterAll
+    static void close() {
+        if (hopper != null) hopper.close();
+    }
+
+    @Test
+    @DisplayName("Khối vuông (sources == targets): mọi cặp khớp route() — kể cả s == t và cặp qua đảo")
+    void squareBlockMatchesRoute() {
+        double[][][] block = compute(points, points);
+        int unreachable = 0;
+        for (int s = 0; s < points.size(); s++) {
+            for (int t = 0; t < points.size(); t++) {
+                if (!assertMatchesRoute(points.get(s), points.get(t), block[s][t], s + "->" + t)) unreachable++;
+            }
+            assertEquals(0.0, block[s][s][0], "s == t: 0 m");
+            assertEquals(0.0, block[s][s][1], "s == t: 0 s");
+        }
+        assertTrue(unreachable > 0, "fixture phải có cặp không có đường (đảo)");
+    }
+
+    @Test
+    @DisplayName("Khối chữ nhật (sources ≠ targets, có điểm trùng nhau): khớp route()")
+    void rectangularBlockMatchesRoute() {
+        List<OptCoordinates> sources = points.subList(0, 9);
+        List<OptCoordinates> targets = new ArrayList<>(points.subList(5, points.size()));
+        targets.add(points.get(0));   // điểm trùng một source → cùng Snap, 0 m
+        double[][][] block = compute(sources, targets);
+        for (int s = 0; s < sources.size(); s++) {
+            for (int t = 0; t < targets.size(); t++) {
+                assertMatchesRoute(sources.get(s), targets.get(t), block[s][t], s + "->" + t);
+            }
+        }
+        assertEquals(0.0, block[0][targets.size() - 1][0]);
+    }
+
+    /** {meters, seconds} của mọi cặp; kiểm tra sink nhận ĐÚNG một lần mỗi cặp. */
+    private static double[][][] compute(List<OptCoordinates> sources, List<OptCoordinates> targets) {
+        double[][][] out = new double[sources.size()][targets.size()][];
+        new ChManyToManyEngine(hopper, "car").compute(sources, targets, (s, t, meters, seconds) -> {
+            assertNull(out[s][t], "cặp " + s + "->" + t + " báo hai lần");
+            out[s][t] = new double[]{meters, seconds};
+        });
+        for (double[][] row : out) {
+            for (double[] cell : row) assertNotNull(cell, "thiếu cặp");
+        }
+        return out;
+    }
+
+    /** @return false nếu route() báo không có đường (khi đó engine phải trả NaN). */
+    private static boolean assertMatchesRoute(OptCoordinates from, OptCoordinates to, double[] cell, String pair) {
+        GHResponse r = hopper.route(new GHRequest(from.latDouble(), from.lonDouble(), to.latDouble(), to.lonDouble())
+                .setProfile("car").setLocale(Locale.ENGLISH));
+        if (r.hasErrors()) {
+            assertTrue(Double.isNaN(cell[0]) && Double.isNaN(cell[1]),
+                    pair + ": route() lỗi " + r.getErrors() + " mà engine trả " + Arrays.toString(cell));
+            return false;
+        }
+        assertEquals(r.getBest().getDistance(), cell[0], 1e-3, pair + " distance");
+        // giây nguyên như nhánh per-pair (Duration.getSeconds())
+        assertEquals(r.getBest().getTime() / 1000, cell[1], pair + " time");
+        return true;
+    }
+
+    // ==================== FIXTURE ====================
+
+    private static long node(int r, int c) {
+        return 1 + r * SIDE + c;
+    }
+
+    /**
+     * Lưới SIDE × SIDE, mỗi cạnh lưới là một way (để cấm rẽ có from/to rõ ràng); ~1/6 cạnh
+     * "access=destination"; mỗi nút trong có xác suất 1/2 bị cấm một hướng rẽ. Đảo 2 × 2 riêng.
+     */
+    private static String gridOsm(Random rnd) {
+        StringBuilder xml = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>\n<osm version='0.6'>\n");
+        for (int r = 0; r < SIDE; r++) {
+            for (int c = 0; c < SIDE; c++) {
+                xml.append(nodeXml(node(r, c), LAT0 + r * STEP, LON0 + c * STEP));
+            }
+        }
+        long island = 10_000;
+        for (int k = 0; k < 4; k++) {
+            xml.append(nodeXml(island + k, ISLAND_LAT + (k / 2) * STEP, LON0 + (k % 2) * STEP));
+        }
+
+        long wayId = 100;
+        // wayAt[r][c][0] = way (r,c)-(r,c+1); [1] = way (r,c)-(r+1,c)
+        long[][][] wayAt = new long[SIDE][SIDE][2];
+        for (int r = 0; r < SIDE; r++) {
+            for (int c = 0; c < SIDE; c++) {
+                if (c + 1 < SIDE) {
+                    wayAt[r][c][0] = wayId;
+                    xml.append(wayXml(wayId++, node(r, c), node(r, c + 1), rnd.nextInt(6) == 0));
+                }
+                if (r + 1 < SIDE) {
+                    wayAt[r][c][1] = wayId;
+                    xml.append(wayXml(wayId++, node(r, c), node(r + 1, c), rnd.nextInt(6) == 0));
+                }
+            }
+        }
+        xml.append(wayXml(wayId++, island, island + 1, false));
+        xml.append(wayXml(wayId++, island + 1, island + 3, false));
+        xml.append(wayXml(wayId++, island + 3, island + 2, false));
+        xml.append(wayXml(wayId, island + 2, island, false));
+
+        long relId = 5_000;
+        for (int r = 1; r + 1 < SIDE; r++) {
+            for (int c = 1; c + 1 < SIDE; c++) {
+                if (rnd.nextBoolean()) continue;
+                // bốn way chạm nút (r,c): tây, đông, nam, bắc
+                long[] arms = {wayAt[r][c - 1][0], wayAt[r][c][0], wayAt[r - 1][c][1], wayAt[r][c][1]};
+                int from = rnd.nextInt(4);
+                int to = (from + 1 + rnd.nextInt(3)) % 4;
+                xml.append("<relation id='").append(relId++).append("'>")
+                        .append("<member type='way' ref='").append(arms[from]).append("' role='from'/>")
+                        .append("<member type='node' ref='").append(node(r, c)).append("' role='via'/>")
+                        .append("<member type='way' ref='").append(arms[to]).append("' role='to'/>")
+                        .append("<tag k='type' v='restriction'/><tag k='restriction' v='no_left_turn'/>")
+                        .append("</relation>\n");
+            }
+        }
+        return xml.append("</osm>\n").toString();
+    }
+
+    private static String nodeXml(long id, double lat, double lon) {
+        return String.format(Locale.ROOT, "<node id='%d' lat='%.7f' lon='%.7f'/>%n", id, lat, lon);
+    }
+
+    private static String wayXml(long id, long a, long b, boolean destinationOnly) {
+        return "<way id='" + id + "'><nd ref='" + a + "'/><nd ref='" + b + "'/>"
+                + "<tag k='highway' v='residential'/>"
+                + (destinationOnly ? "<tag k='access' v='destination'/>" : "")
+                + "</way>\n";
+    }
+
+    /** Điểm giữa cạnh lưới (lệch ~5 m khỏi tim đường) + hai điểm trên đảo. */
+    private static List<OptCoordinates> queryPoints(Random rnd) {
+        List<OptCoordinates> out = new ArrayList<>();
+        for (int k = 0; k < 16; k++) {
+            int r = rnd.nextInt(SIDE - 1);
+            int c = rnd.nextInt(SIDE - 1);
+            double f = 0.15 + 0.7 * rnd.nextDouble();
+            boolean horizontal = rnd.nextBoolean();
+            double lat = LAT0 + r * STEP + (horizontal ? 0.00004 : f * STEP);
+            double lon = LON0 + c * STEP + (horizontal ? f * STEP : 0.00004);
+            out.add(at(lat, lon));
+        }
+        out.add(at(ISLAND_LAT + 0.00004, LON0 + 0.4 * STEP));
+        out.add(at(ISLAND_LAT + 0.6 * STEP, LON0 + STEP + 0.00004));
+        return out;
+    }
+
+    private static OptCoordinates at(double lat, double lon) {
+        return new OptCoordinates(BigDecimal.valueOf(lat), BigDecimal.valueOf(lon));
+    }
+}
@@ -0,0 +1,118 @@
+package org.truong.gvrp_engine_api.distance_matrix.Impl;
+
+import com.graphhopper.routing.Dijkstra;
+import com.graphhopper.routing.Path;
+import com.graphhopper.routing.ev.DecimalEncodedValue;
+import com.graphhopper.routing.ev.DecimalEncodedValueImpl;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.routing.util.TraversalMode;
+import com.graphhopper.routing.weighting.SpeedWeighting;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.BaseGraph;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Dijkstra point-to-point của GraphHopper là ORACLE: một cây xuôi/ngược phải cho ĐÚNG
+ * weight, quãng đường và thời gian của từng cặp, trên lưới có nhiều đường một chiều
+ * (để chiều ngược thật sự khác chiều xuôi).
+ */
+class GraphSweepTest {
+
+    private static final int SIDE = 12;
+
+    private record Fixture(BaseGraph graph, Weighting weighting) {
+    }
+
+    private static Fixture grid(long seed) {
+        DecimalEncodedValue speed = new DecimalEncodedValueImpl("speed", 5, 5, true);
+        EncodingManager em = new EncodingManager.Builder().add(speed).build();
+        BaseGraph graph = new BaseGraph.Builder(em).create();
+        Random rnd = new Random(seed);
+        for (int r = 0; r < SIDE; r++) {
+            for (int c = 0; c < SIDE; c++) {
+                int v = r * SIDE + c;
+                if (c + 1 < SIDE) edge(graph, speed, rnd, v, v + 1);
+                if (r + 1 < SIDE) edge(graph, speed, rnd, v, v + SIDE);
+            }
+        }
+        return new Fixture(graph, new SpeedWeighting(speed));
+    }
+
+    /** 1/4 số cạnh là một chiều (ngẫu nhiên chiều nào), tốc độ hai chiều có thể khác nhau. */
+    private static void edge(BaseGraph graph, DecimalEncodedValue speed, Random rnd, int a, int b) {
+        double fwd = 10 + 5 * rnd.nextInt(10);
+        double bwd = 10 + 5 * rnd.nextInt(10);
+        int oneWay = rnd.nextInt(8);
+        if (oneWay == 0) bwd = 0;
+        if (oneWay == 1) fwd = 0;
+        graph.edge(a, b).setDistance(50 + rnd.nextInt(500) + rnd.nextDouble()).set(speed, fwd, bwd);
+    }
+
+    @Test
+    @DisplayName("Cây xuôi từ s == Dijkstra(s, t) và cây ngược về t == Dijkstra(s, t) cho mọi cặp")
+    void sweepsMatchPointToPointDijkstra() {
+        Fixture f = grid(11);
+        int nodes = f.graph().getNodes();
+        int[] all = IntStream.range(0, nodes).toArray();
+        GraphSweep sweep = new GraphSweep(f.graph(), f.weighting());
+
+        for (int root : new int[]{0, 37, nodes - 1}) {
+            sweep.run(root, false, all, Double.MAX_VALUE);
+            for (int t = 0; t < nodes; t++) {
+                assertSame(root, t, sweep, oracle(f, root, t), "xuôi");
+            }
+            sweep.run(root, true, all, Double.MAX_VALUE);
+            for (int s = 0; s < nodes; s++) {
+                assertSame(s, root, sweep, oracle(f, s, root), "ngược");
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Cận weight: đích ngoài cận không chốt; instance tái sử dụng không rò trạng thái")
+    void weightLimitAndReuse() {
+        Fixture f = grid(5);
+        int nodes = f.graph().getNodes();
+        int[] all = IntStream.range(0, nodes).toArray();
+        GraphSweep sweep = new GraphSweep(f.graph(), f.weighting());
+
+        sweep.run(0, false, all, 60);
+        int cut = 0;
+        for (int t = 1; t < nodes; t++) {
+            Path p = oracle(f, 0, t);
+            if (!p.isFound() || p.getWeight() > 60) {
+                assertFalse(sweep.reached(t), "node " + t + " vượt cận mà vẫn chốt");
+                cut++;
+            } else {
+                assertTrue(sweep.reached(t));
+            }
+        }
+        assertTrue(cut > 0, "cận 60 phải cắt bớt lưới");
+
+        // Chạy lại từ gốc khác: kết quả lần trước không được lọt sang
+        sweep.run(nodes - 1, false, new int[]{0}, Double.MAX_VALUE);
+        Path p = oracle(f, nodes - 1, 0);
+        assertEquals(p.isFound(), sweep.reached(0));
+        if (p.isFound()) assertEquals(p.getDistance(), sweep.meters(0), 1e-6);
+    }
+
+    private static Path oracle(Fixture f, int s, int t) {
+        return new Dijkstra(f.graph(), f.weighting(), TraversalMode.NODE_BASED).calcPath(s, t);
+    }
+
+    private static void assertSame(int s, int t, GraphSweep sweep, Path expected, String dir) {
+        int node = dir.equals("xuôi") ? t : s;
+        assertEquals(expected.isFound(), sweep.reached(node), String.format("%s %d->%d reached", dir, s, t));
+        if (expected.isFound()) {
+            assertEquals(expected.getDistance(), sweep.meters(node), 1e-6,
+                    String.format("%s %d->%d distance", dir, s, t));
+            assertEquals(expected.getTime(), sweep.millis(node), String.format("%s %d->%d time", dir, s, t));
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Cùng nguyên tắc với {@link BlockDiagonalCostMatrixTest}: {@link DenseCostMatrix} là
+ * ORACLE, tập ô lưu của kNN phải trùng khớp tập {@link MatrixMask#needed}.
+ */
+class KNearestCostMatrixTest {
+
+    /** D depot đầu, rồi các order rải ngẫu nhiên trong ~20 km quanh Hà Nội. */
+    private static MatrixMask mask(int depots, int orders, int k, long seed) {
+        int n = depots + orders;
+        Random rnd = new Random(seed);
+        boolean[] depot = new boolean[n];
+        double[] lat = new double[n];
+        double[] lon = new double[n];
+        for (int i = 0; i < n; i++) {
+            depot[i] = i < depots;
+            lat[i] = 21.0 + rnd.nextDouble() * 0.2;
+            lon[i] = 105.75 + rnd.nextDouble() * 0.2;
+        }
+        return MatrixMask.nearest(depot, lat, lon, k);
+    }
+
+    private static double dist(int i, int j) {
+        return 1000.0 * i + j + 0.5;
+    }
+
+    private static double time(int i, int j) {
+        return 7.0 * i + 3.0 * j + 0.25;
+    }
+
+    @Test
+    @DisplayName("kNN trả CÙNG giá trị với dense trên mọi ô needed(), sentinel ở ô còn lại")
+    void nearestMatchesDenseCellByCell() {
+        MatrixMask mask = mask(3, 200, 8, 7);
+        int n = mask.depotByLoc().length;
+        DenseCostMatrix dense = new DenseCostMatrix(new double[n][n], new double[n][n]);
+        KNearestCostMatrix knn = KNearestCostMatrix.allocate(mask);
+
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (i == j) {
+                    dense.put(i, j, 0.0, 0.0);
+                } else if (mask.needed(i, j)) {
+                    dense.put(i, j, dist(i, j), time(i, j));
+                } else {
+                    dense.put(i, j, MatrixMask.PRUNED_METERS, MatrixMask.PRUNED_SECONDS);
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j : knn.targetsFor(i)) {
+                if (i == j) continue;
+                assertTrue(mask.needed(i, j), String.format("targetsFor(%d) chứa %d không needed", i, j));
+                knn.put(i, j, dist(i, j), time(i, j));
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                assertEquals(dense.distanceMeters(i, j), knn.distanceMeters(i, j), 0.0,
+                        String.format("distance lệch tại (%d,%d)", i, j));
+                assertEquals(dense.timeSeconds(i, j), knn.timeSeconds(i, j), 0.0,
+                        String.format("time lệch tại (%d,%d)", i, j));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Láng giềng lưới == vét cạn; mask đối xứng; depot nối mọi thứ")
+    void gridNeighboursMatchBruteForce() {
+        int depots = 2, orders = 500, k = 10;
+        MatrixMask mask = mask(depots, orders, k, 42);
+        int n = depots + orders;
+
+        Random rnd = new Random(42);
+        double[] lat = new double[n];
+        double[] lon = new double[n];
+        for (int i = 0; i < n; i++) {
+            lat[i] = 21.0 + rnd.nextDouble() * 0.2;
+            lon[i] = 105.75 + rnd.nextDouble() * 0.2;
+        }
+        double meanLat = 0;
+        for (int i = depots; i < n; i++) meanLat += lat[i] / orders;
+        double kx = Math.cos(Math.toRadians(meanLat)) * 111_320;
+        for (int i = depots; i < n; i++) {
+            final int a = i;
+            Integer[] others = new Integer[orders - 1];
+            int t = 0;
+            for (int j = depots; j < n; j++) if (j != a) others[t++] = j;
+            Arrays.sort(others, (p, q) -> Double.compare(sq(lat, lon, kx, a, p), sq(lat, lon, kx, a, q)));
+            // k láng giềng thật (trừ tie ở biên) đều phải có mặt
+            for (int r = 0; r < k - 1; r++) {
+                assertTrue(mask.needed(a, others[r]), "Thiếu láng giềng hạng " + r + " của " + a);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (i == j) continue;
+                assertEquals(mask.needed(i, j), mask.needed(j, i), "Mask kNN phải đối xứng tại " + i + "," + j);
+                if (i < depots) assertTrue(mask.needed(i, j));
+            }
+        }
+    }
+
+    private static double sq(double[] lat, double[] lon, double kx, int a, int b) {
+        double dx = (lon[a] - lon[b]) * kx, dy = (lat[a] - lat[b]) * 110_540;
+        return dx * dx + dy * dy;
+    }
+
+    @Test
+    @DisplayName("Bộ nhớ O(n·k): 10 000 order, k = 20 lưu < 2·k·N + 2·D·n ô")
+    void memoryIsLinearInN() {
+        int depots = 5, orders = 10_000, k = 20;
+        MatrixMask mask = mask(depots, orders, k, 1);
+        KNearestCostMatrix knn = KNearestCostMatrix.allocate(mask, CellEncoding.DOUBLE64, MatrixStorage.HEAP, null);
+        int n = depots + orders;
+
+        double deg = knn.averageDegree();
+        assertTrue(deg >= k && deg <= 2 * k, "bậc TB = " + deg);
+        assertTrue(knn.storedCells() <= 2L * k * orders + 2L * depots * n);
+        assertEquals(16 * knn.storedCells(), knn.allocatedBytes());
+        assertTrue(knn.allocatedBytes() * 100 < MatrixMemory.denseBytes(n),
+                "kNN phải nhỏ hơn dày ít nhất 100× ở quy mô này");
+        assertEquals(MatrixMask.PRUNED_METERS, knn.distanceMeters(depots, findNonNeighbour(mask, depots)), 0.0);
+    }
+
+    private static int findNonNeighbour(MatrixMask mask, int i) {
+        for (int j = mask.depotByLoc().length - 1; j > i; j--) {
+            if (!mask.needed(i, j)) return j;
+        }
+        throw new AssertionError("Order " + i + " nối với mọi order — kNN không prune gì");
+    }
+
+    @Test
+    @DisplayName("kNN đường bộ: láng giềng chim bay bên kia sông bị thay bằng láng giềng đường bộ; không đường thì loại")
+    void roadPhaseReplacesCrossRiverNeighbours() {
+        int depots = 1, orders = 120, k = 4, candidates = 2 * k;
+        int n = depots + orders;
+        Random rnd = new Random(11);
+        boolean[] depot = new boolean[n];
+        double[] lat = new double[n];
+        double[] lon = new double[n];
+        for (int i = 0; i < n; i++) {
+            depot[i] = i < depots;
+            lat[i] = 21.0 + rnd.nextDouble() * 0.05;
+            lon[i] = 105.80 + (rnd.nextDouble() - 0.5) * 0.02;   // sông chạy dọc kinh tuyến 105.80
+        }
+        int isolated = n - 1;                                       // không có đường tới ai
+        // Qua sông phải vòng cầu: ×20; cùng bờ: ×1.3 như circuity thường
+        MatrixMask.RoadRow road = (src, targets, meters) -> {
+            for (int t = 0; t < targets.length; t++) {
+                int j = targets[t];
+                boolean cross = (lon[src] < 105.80) != (lon[j] < 105.80);
+                meters[t] = src == isolated || j == isolated ? Double.NaN
+                        : straight(lat, lon, src, j) * (cross ? 20 : 1.3);
+            }
+        };
+        AtomicInteger routedRows = new AtomicInteger();
+        MatrixMask.RoadRow counted = (src, targets, meters) -> {
+            routedRows.incrementAndGet();
+            assertFalse(depot[src], "depot không có hàng ứng viên");
+            assertTrue(targets.length <= candidates);
+            road.route(src, targets, meters);
+        };
+
+        MatrixMask byRoad = MatrixMask.nearestByRoad(depot, lat, lon, k, candidates, counted);
+        MatrixMask byAir = MatrixMask.nearest(depot, lat, lon, k);
+        assertEquals(orders, routedRows.get(), "mỗi order route đúng một hàng ứng viên");
+
+        // Oracle: cùng ứng viên chim bay, xếp lại theo đường bộ, đối xứng hóa
+        boolean[] isOrder = new boolean[n];
+        for (int i = 0; i < n; i++) isOrder[i] = !depot[i];
+        int[][] wide = NearestNeighbours.of(lat, lon, isOrder, candidates);
+        Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < n; i++) {
+            double[] m = new double[wide[i].length];
+            road.route(i, wide[i], m);
+            Integer[] order = new Integer[wide[i].length];
+            for (int t = 0; t < order.length; t++) order[t] = t;
+            Arrays.sort(order, (a, b) -> Double.compare(m[a], m[b]));
+            int kept = 0;
+            for (int t : order) {
+                if (kept == k || Double.isNaN(m[t])) break;
+                expected.add((long) i * n + wide[i][t]);
+                expected.add((long) wide[i][t] * n + i);
+                kept++;
+            }
+        }
+        int crossByAir = 0, crossByRoad = 0;
+        for (int i = depots; i < n; i++) {
+            for (int j = depots; j < n; j++) {
+                if (i == j) continue;
+                assertEquals(expected.contains((long) i * n + j), byRoad.needed(i, j), i + "->" + j);
+                boolean cross = (lon[i] < 105.80) != (lon[j] < 105.80);
+                if (cross && byAir.needed(i, j)) crossByAir++;
+                if (cross && byRoad.needed(i, j)) crossByRoad++;
+            }
+            if (i != isolated) {
+                assertFalse(byRoad.needed(i, isolated) || byRoad.needed(isolated, i),
+                        "điểm không có đường không là láng giềng của ai: " + i);
+            }
+        }
+        assertTrue(crossByRoad < crossByAir, String.format(
+                "qua sông: chim bay %d cặp, đường bộ %d cặp — pha hai phải bỏ bớt", crossByAir, crossByRoad));
+        assertTrue(byRoad.needed(0, isolated), "depot vẫn nối mọi thứ");
+        assertThrows(IllegalArgumentException.class,
+                () -> MatrixMask.nearestByRoad(depot, lat, lon, k, k - 1, road));
+    }
+
+    private static double straight(double[] lat, double[] lon, int i, int j) {
+        double dy = (lat[i] - lat[j]) * 110_540;
+        double dx = (lon[i] - lon[j]) * 111_320 * Math.cos(Math.toRadians(21.0));
+        return Math.hypot(dx, dy);
+    }
+}
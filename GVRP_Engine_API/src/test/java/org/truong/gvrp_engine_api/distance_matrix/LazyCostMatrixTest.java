@@ -0,0 +1,189 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Provider giả mã hóa (i, j) vào giá trị trả về nên mọi ô đọc sai slot đều lộ ra, và
+ * đếm số lần gọi từng cặp để kiểm single-flight.
+ */
+class LazyCostMatrixTest {
+
+    /** Tọa độ i → lat = 21 + i·1e-4 để provider giải ngược được index. */
+    private static List<OptCoordinates> coords(int n) {
+        List<OptCoordinates> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            out.add(new OptCoordinates(BigDecimal.valueOf(21.0 + i * 1e-4), BigDecimal.valueOf(105.8)));
+        }
+        return out;
+    }
+
+    private static int indexOf(OptCoordinates c) {
+        return (int) Math.round((c.latDouble() - 21.0) * 1e4);
+    }
+
+    private static final class CountingProvider implements DistanceProvider {
+        final ConcurrentHashMap<Long, AtomicInteger> calls = new ConcurrentHashMap<>();
+        final AtomicInteger total = new AtomicInteger();
+        final long sleepMs;
+        final int failFrom;
+
+        CountingProvider(long sleepMs, int failFrom) {
+            this.sleepMs = sleepMs;
+            this.failFrom = failFrom;
+        }
+
+        @Override
+        public DistanceMatrixEntry fetch(OptCoordinates from, OptCoordinates to) {
+            int i = indexOf(from), j = indexOf(to);
+            calls.computeIfAbsent((long) i << 32 | j, k -> new AtomicInteger()).incrementAndGet();
+            total.incrementAndGet();
+            if (sleepMs > 0) {
+                try {
+                    Thread.sleep(sleepMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (i >= failFrom) throw new IllegalStateException("no route");
+            return new DistanceMatrixEntry(Duration.ofSeconds(7L * i + j), Distance.ofMeters(1000.0 * i + j));
+        }
+    }
+
+    @Test
+    @DisplayName("Ô mask đọc đúng giá trị provider, ô ngoài mask trả sentinel mà KHÔNG gọi provider")
+    void computesOnFirstReadAndRespectsMask() {
+        int[] labels = {MatrixMask.DEPOT, 0, 0, 0, 1, 1, 1, MatrixMask.UNCLUSTERED};
+        int n = labels.length;
+        MatrixMask mask = MatrixMask.forTesting(labels);
+        CountingProvider provider = new CountingProvider(0, Integer.MAX_VALUE);
+        LazyCostMatrix lazy = new LazyCostMatrix(coords(n), mask, provider);
+
+        assertEquals(0, lazy.touchedCells());
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    if (i == j) {
+                        assertEquals(0.0, lazy.distanceMeters(i, j), 0.0);
+                    } else if (mask.needed(i, j)) {
+                        assertEquals(1000.0 * i + j, lazy.distanceMeters(i, j), 0.0);
+                        assertEquals(7.0 * i + j, lazy.timeSeconds(i, j), 0.0);
+                    } else {
+                        assertEquals(MatrixMask.PRUNED_METERS, lazy.distanceMeters(i, j), 0.0);
+                        assertEquals(MatrixMask.PRUNED_SECONDS, lazy.timeSeconds(i, j), 0.0);
+                    }
+                }
+            }
+        }
+        assertEquals(lazy.maskCells(), provider.total.get(), "Mỗi ô mask hỏi đúng một lần qua 3 vòng đọc");
+        assertEquals(lazy.maskCells(), lazy.touchedCells());
+        assertEquals(1.0, lazy.touchedFraction(), 0.0);
+        assertTrue(lazy.layout().startsWith("LAZY("), lazy.layout());
+    }
+
+    @Test
+    @DisplayName("Single-flight: 16 luồng đọc cùng ô đồng thời → provider chỉ bị gọi một lần mỗi ô")
+    void concurrentMissesAreSingleFlight() throws Exception {
+        int n = 40;
+        CountingProvider provider = new CountingProvider(2, Integer.MAX_VALUE);
+        LazyCostMatrix lazy = new LazyCostMatrix(coords(n), null, provider);
+
+        int threads = 16;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            futures.add(pool.submit(() -> {
+                start.await();
+                Random rnd = new Random(seed);
+                // Cùng ô "nóng" (0 → 1..9) cho mọi luồng, rồi ô ngẫu nhiên
+                for (int j = 1; j < 10; j++) {
+                    assertEquals(j, lazy.distanceMeters(0, j), 0.0);
+                }
+                for (int k = 0; k < 200; k++) {
+                    int i = rnd.nextInt(n), j = rnd.nextInt(n);
+                    double expected = i == j ? 0.0 : 1000.0 * i + j;
+                    assertEquals(expected, lazy.distanceMeters(i, j), 0.0);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> f : futures) f.get(30, TimeUnit.SECONDS);
+        pool.shutdown();
+
+        provider.calls.forEach((pair, count) ->
+                assertEquals(1, count.get(), "Ô " + (pair >>> 32) + "->" + (pair & 0xffffffffL) + " bị hỏi trùng"));
+        assertEquals(provider.total.get(), lazy.touchedCells());
+        assertTrue(lazy.touchedCells() < lazy.maskCells(), "Đọc ngẫu nhiên không được chạm hết mask");
+    }
+
+    @Test
+    @DisplayName("Provider lỗi → lưu sentinel, không hỏi lại ở lần đọc sau")
+    void failedCellIsStoredAsSentinel() {
+        CountingProvider provider = new CountingProvider(0, 3);
+        LazyCostMatrix lazy = new LazyCostMatrix(coords(5), null, provider);
+
+        assertEquals(MatrixMask.PRUNED_METERS, lazy.distanceMeters(3, 1), 0.0);
+        assertEquals(MatrixMask.PRUNED_SECONDS, lazy.timeSeconds(3, 1), 0.0);
+        assertEquals(1, provider.total.get());
+        assertEquals(1, lazy.failedCells());
+        assertEquals(1002.0, lazy.distanceMeters(1, 2), 0.0);
+        assertEquals(2, provider.total.get());
+    }
+
+    @Test
+    @DisplayName("maskCells đếm bằng số học == vét cạn needed() cho mask cụm, kNN, depot một phần và halo")
+    void maskCellCountMatchesBruteForce() {
+        Random rnd = new Random(3);
+        int n = 300;
+        int[] labels = new int[n];
+        boolean[] depot = new boolean[n];
+        double[] lat = new double[n];
+        double[] lon = new double[n];
+        for (int i = 0; i < n; i++) {
+            labels[i] = i < 4 ? MatrixMask.DEPOT : (i % 37 == 0 ? MatrixMask.UNCLUSTERED : rnd.nextInt(9));
+            depot[i] = i < 4;
+            lat[i] = 21.0 + rnd.nextDouble() * 0.1;
+            lon[i] = 105.8 + rnd.nextDouble() * 0.1;
+        }
+        // depot 0, 1 chỉ phục vụ vài cụm (kể cả nhãn không có order), depot 2 mọi cụm, depot 3 không xe nào
+        int[][] served = {{0, 2}, {5, 99}, null, {}};
+        served = Arrays.copyOf(served, n);
+        // halo: mỗi order thứ 11 có 1–2 cụm láng giềng (khác cụm nhà, tăng dần)
+        int[][] halo = new int[n][];
+        for (int i = 4; i < n; i += 11) {
+            if (labels[i] < 0) continue;
+            int a = (labels[i] + 1) % 9, b = (labels[i] + 4) % 9;
+            halo[i] = i % 2 == 0 ? new int[]{a} : new int[]{Math.min(a, b), Math.max(a, b)};
+        }
+        for (MatrixMask mask : List.of(MatrixMask.forTesting(labels), MatrixMask.nearest(depot, lat, lon, 6),
+                MatrixMask.forTesting(labels, served), MatrixMask.forTesting(labels, served, halo))) {
+            long brute = 0;
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    if (i != j && mask.needed(i, j)) brute++;
+                }
+            }
+            assertEquals(brute, LazyCostMatrix.countNeeded(mask, n));
+        }
+        assertEquals((long) n * (n - 1), LazyCostMatrix.countNeeded(null, n));
+    }
+}
@@ -0,0 +1,120 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Hình dạng job cluster-first thật thu nhỏ: D depot + vài order chưa gán cụm duyệt cả n
+ * đích, còn lại là cụm ~S order duyệt S + W đích.
+ */
+class MatrixWorkPlanTest {
+
+    private static final int DEPOTS = 5;
+
+    private static int[][] shape(int orders, int clusterSize, long seed) {
+        int n = DEPOTS + orders;
+        Random rnd = new Random(seed);
+        int clusters = orders / clusterSize;
+        int[] group = new int[n];
+        int[] cells = new int[n];
+        int[] sizes = new int[clusters];
+        int wide = DEPOTS;
+        for (int i = 0; i < n; i++) {
+            if (i < DEPOTS) {
+                group[i] = MatrixMask.DEPOT;
+            } else if (rnd.nextInt(200) == 0) {
+                group[i] = MatrixMask.UNCLUSTERED;
+                wide++;
+            } else {
+                group[i] = rnd.nextInt(clusters);
+                sizes[group[i]]++;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            cells[i] = group[i] < 0 ? n : sizes[group[i]] + wide;
+        }
+        return new int[][]{cells, group};
+    }
+
+    @Test
+    @DisplayName("Mỗi ô của mỗi hàng thuộc ĐÚNG một task (cắt cột và không cắt)")
+    void everyCellCoveredExactlyOnce() {
+        int[][] s = shape(3000, 100, 1);
+        int[] cells = s[0], group = s[1];
+        for (boolean split : new boolean[]{true, false}) {
+            MatrixWorkPlan plan = MatrixWorkPlan.of(cells, group, 8, split);
+            long[] covered = new long[cells.length];
+            long sum = 0;
+            for (MatrixWorkPlan.RowTask t : plan.tasks()) {
+                long taskCells = 0;
+                for (int r : t.rows()) {
+                    int len = Math.min(cells[r], t.colTo()) - t.colFrom();
+                    covered[r] += len;
+                    taskCells += len;
+                }
+                assertEquals(t.cells(), taskCells);
+                sum += taskCells;
+                if (split) {
+                    assertTrue(t.cells() <= plan.grain(), "task " + t.cells() + " > grain " + plan.grain());
+                }
+            }
+            for (int i = 0; i < cells.length; i++) {
+                assertEquals(cells[i], covered[i], "hàng " + i + " (split=" + split + ")");
+            }
+            assertEquals(plan.totalCells(), sum);
+        }
+    }
+
+    @Test
+    @DisplayName("Lô chỉ chứa hàng cùng cụm; mảnh hàng rộng đứng trước")
+    void batchesStayWithinClusterAndHeavyFirst() {
+        int[][] s = shape(3000, 100, 2);
+        int[] cells = s[0], group = s[1];
+        MatrixWorkPlan plan = MatrixWorkPlan.of(cells, group, 8, true);
+        boolean seenBatch = false;
+        for (MatrixWorkPlan.RowTask t : plan.tasks()) {
+            if (t.wholeRows() && t.rows().length > 1) {
+                int g = group[t.rows()[0]];
+                for (int r : t.rows()) assertEquals(g, group[r], "lô trộn cụm");
+                seenBatch = true;
+            } else if (!t.wholeRows()) {
+                assertFalse(seenBatch, "mảnh hàng rộng xuất hiện sau lô cụm");
+            }
+        }
+        assertTrue(seenBatch);
+    }
+
+    @Test
+    @DisplayName("Makespan mô phỏng ≤ 1.15 × tối ưu lý thuyết, còn chia đều theo hàng thì tệ hơn hẳn")
+    void simulatedMakespanIsNearLinear() {
+        int[][] s = shape(20_000, 150, 3);
+        int[] cells = s[0], group = s[1];
+        int p = 16;
+        MatrixWorkPlan plan = MatrixWorkPlan.of(cells, group, p, true);
+        double ideal = plan.totalCells() / (double) p;
+
+        // Work stealing ≈ lập lịch tham lam: luồng rảnh đầu tiên lấy task kế tiếp
+        PriorityQueue<Long> workers = new PriorityQueue<>();
+        for (int w = 0; w < p; w++) workers.add(0L);
+        for (MatrixWorkPlan.RowTask t : plan.tasks()) workers.add(workers.poll() + t.cells());
+        long planned = 0;
+        for (long w : workers) planned = Math.max(planned, w);
+
+        // Bản cũ: [0, n) chia p đoạn liền nhau theo chỉ số hàng (depot dồn ở đầu)
+        long naive = 0;
+        int n = cells.length;
+        for (int w = 0; w < p; w++) {
+            long load = 0;
+            for (int i = w * n / p; i < (w + 1) * n / p; i++) load += cells[i];
+            naive = Math.max(naive, load);
+        }
+
+        assertTrue(planned <= 1.15 * ideal, String.format("planned=%d ideal=%.0f", planned, ideal));
+        assertTrue(naive > 1.2 * planned, String.format("naive=%d planned=%d", naive, planned));
+    }
+}
@@ -0,0 +1,137 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ma trận ngoài heap phải đọc ra ĐÚNG từng ô như bản heap cùng mã hóa — khác nhau chỉ
+ * ở chỗ đặt byte, không ở giá trị.
+ */
+class OffHeapCellsTest {
+
+    private static final long GIB = 1024L * 1024 * 1024;
+
+    private static int[] labels(int depots, int orders, int clusters) {
+        int[] lab = new int[depots + orders];
+        for (int i = 0; i < depots; i++) lab[i] = MatrixMask.DEPOT;
+        for (int k = 0; k < orders; k++) lab[depots + k] = k % clusters;
+        return lab;
+    }
+
+    private static double dist(int i, int j) {
+        return 1000.0 * i + j + 0.5;
+    }
+
+    private static double time(int i, int j) {
+        return 7.0 * i + 3.0 * j;
+    }
+
+    @Test
+    @DisplayName("DIRECT/MAPPED khớp HEAP từng ô, cho cả dense lẫn block, mọi mã hóa")
+    void offHeapMatchesHeapCellByCell(@TempDir Path dir) {
+        int[] lab = labels(3, 50, 4);
+        int n = lab.length;
+        for (CellEncoding enc : CellEncoding.values()) {
+            for (MatrixStorage storage : new MatrixStorage[]{MatrixStorage.DIRECT, MatrixStorage.MAPPED}) {
+                DenseCostMatrix heapDense = DenseCostMatrix.allocate(n, enc);
+                DenseCostMatrix offDense = DenseCostMatrix.allocate(n, enc, storage, dir);
+                BlockDiagonalCostMatrix heapBlock = BlockDiagonalCostMatrix.allocate(lab, enc);
+                BlockDiagonalCostMatrix offBlock = BlockDiagonalCostMatrix.allocate(lab, enc, storage, dir);
+                assertEquals(storage, offDense.storage());
+                assertEquals(storage, offBlock.storage());
+
+                // Ghi song song theo hàng — đúng hợp đồng một writer mỗi hàng
+                IntStream.range(0, n).parallel().forEach(i -> {
+                    for (int j = 0; j < n; j++) {
+                        if (i == j) continue;
+                        heapDense.put(i, j, dist(i, j), time(i, j));
+                        offDense.put(i, j, dist(i, j), time(i, j));
+                        heapBlock.put(i, j, dist(i, j), time(i, j));
+                        offBlock.put(i, j, dist(i, j), time(i, j));
+                    }
+                });
+                for (int i = 0; i < n; i++) {
+                    for (int j = 0; j < n; j++) {
+                        String at = String.format("%s/%s (%d,%d)", enc, storage, i, j);
+                        assertEquals(heapDense.distanceMeters(i, j), offDense.distanceMeters(i, j), 0.0, at);
+                        assertEquals(heapDense.timeSeconds(i, j), offDense.timeSeconds(i, j), 0.0, at);
+                        assertEquals(heapBlock.distanceMeters(i, j), offBlock.distanceMeters(i, j), 0.0, at);
+                        assertEquals(heapBlock.timeSeconds(i, j), offBlock.timeSeconds(i, j), 0.0, at);
+                    }
+                }
+                assertEquals(heapBlock.allocatedBytes(), offBlock.allocatedBytes());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Ô ở hai phía ranh giới chunk đọc đúng; sentinel INT32 giữ nguyên")
+    void slicesSpanChunkBoundaries(@TempDir Path dir) {
+        // chunk 256 byte = 16 ô DOUBLE64 — mỗi slice 10 ô nên slice thứ 2 vắt qua ranh giới
+        OffHeapCells cells = OffHeapCells.allocate(16L * 40, CellEncoding.DOUBLE64, MatrixStorage.MAPPED, dir, 8);
+        CellStore a = cells.slice(10);
+        CellStore b = cells.slice(10);
+        CellStore c = cells.slice(20);
+        for (int k = 0; k < 10; k++) {
+            a.put(k, k, -k);
+            b.put(k, 100 + k, -100 - k);
+        }
+        for (int k = 0; k < 20; k++) c.put(k, 200 + k, -200 - k);
+        for (int k = 0; k < 10; k++) {
+            assertEquals(k, a.distance(k), 0.0);
+            assertEquals(100 + k, b.distance(k), 0.0);
+            assertEquals(-100 - k, b.time(k), 0.0);
+        }
+        for (int k = 0; k < 20; k++) assertEquals(-200 - k, c.time(k), 0.0);
+        assertThrows(IllegalStateException.class, () -> cells.slice(1), "Vượt dung lượng phải nổ, không ghi tràn");
+
+        OffHeapCells ints = OffHeapCells.allocate(8L * 4, CellEncoding.INT32, MatrixStorage.DIRECT, dir, 4);
+        CellStore s = ints.slice(4);
+        s.put(3, MatrixMask.PRUNED_METERS, MatrixMask.PRUNED_SECONDS);
+        assertEquals(MatrixMask.PRUNED_METERS, s.distance(3), 0.0);
+        assertEquals(MatrixMask.PRUNED_SECONDS, s.time(3), 0.0);
+    }
+
+    @Test
+    @DisplayName("MAPPED không để lại file tạm; AUTO chỉ ra ngoài heap khi vượt 25% heap")
+    void mappedLeavesNoFileAndAutoResolvesBySize(@TempDir Path dir) throws Exception {
+        DenseCostMatrix m = DenseCostMatrix.allocate(100, CellEncoding.DOUBLE64, MatrixStorage.MAPPED, dir);
+        m.put(1, 2, 3.0, 4.0);
+        assertEquals(3.0, m.distanceMeters(1, 2), 0.0);
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(0, files.count(), "File tạm phải bị xóa ngay sau khi map");
+        }
+        assertEquals("DENSE(MAPPED)", m.layout());
+        assertEquals("DENSE(FLOAT32, DIRECT)",
+                DenseCostMatrix.allocate(4, CellEncoding.FLOAT32, MatrixStorage.DIRECT, dir).layout());
+
+        assertEquals(MatrixStorage.HEAP, MatrixStorage.AUTO.resolve(2 * GIB, 8 * GIB));
+        assertEquals(MatrixStorage.MAPPED, MatrixStorage.AUTO.resolve(2 * GIB + 1, 8 * GIB));
+        assertEquals(MatrixStorage.HEAP, MatrixStorage.HEAP.resolve(100 * GIB, 8 * GIB));
+    }
+
+    @Test
+    @DisplayName("Trần ngoài heap: AUTO/MAPPED cỡ quá RAM nổ TRƯỚC khi tạo file tạm, kèm con số")
+    void offHeapCapFailsBeforeMapping(@TempDir Path dir) throws Exception {
+        MatrixMemory.requireOffHeapFits(4 * GIB, MatrixStorage.MAPPED, 8 * GIB);
+        IllegalStateException capped = assertThrows(IllegalStateException.class,
+                () -> MatrixMemory.requireOffHeapFits(4 * GIB + 1, MatrixStorage.DIRECT, 8 * GIB));
+        assertTrue(capped.getMessage().contains("4.00 GiB"), capped.getMessage());
+
+        // n = 2 triệu → 64 TB: AUTO chốt MAPPED, guard phải chặn trước khi map
+        IllegalStateException dense = assertThrows(IllegalStateException.class,
+                () -> DenseCostMatrix.allocate(2_000_000, CellEncoding.DOUBLE64, MatrixStorage.AUTO, dir));
+        assertTrue(dense.getMessage().contains("trần ngoài heap"), dense.getMessage());
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(0, files.count(), "không được tạo file tạm khi đã biết không vừa");
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.truong.gvrp_engine_api.model.ContextFixture;
+import org.truong.gvrp_engine_api.model.OptimizationContext;
+import org.truong.gvrp_engine_api.model.Order;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * PairFeasibility chỉ được prune cặp CHỨNG MINH được là không thể kề nhau — sai một cặp
+ * là mất cạnh khả thi. Tọa độ cùng kinh độ, lệch vĩ độ: 0.01° ≈ 1 112 m.
+ * <p>
+ * Location: 0 = depot, 1..5 = order-1..order-5.
+ * <ul>
+ *   <li>order-1: 08:00–09:00, service 10'</li>
+ *   <li>order-2: cạnh order-1 (~111 m), 07:00–08:05, service 5'</li>
+ *   <li>order-3: cách order-1 ~30 km, 08:00–08:30, service 5'</li>
+ *   <li>order-4: cách ~720 km, không cửa sổ</li>
+ *   <li>order-5: cạnh order-1, cửa sổ không parse được</li>
+ * </ul>
+ */
+class PairFeasibilityTest {
+
+    private static OptimizationContext context() {
+        return ContextFixture.builder()
+                .depot(21.000, 105.80)
+                .order(1L, 21.000, 105.80, window("08:00:00", "09:00:00", 10))
+                .order(2L, 21.001, 105.80, window("07:00:00", "08:05:00", 5))
+                .order(3L, 21.270, 105.80, window("08:00:00", "08:30:00", 5))
+                .order(4L, 27.500, 105.80, window(null, null, 0))
+                .order(5L, 21.002, 105.80, window("8h", "9h", 5))
+                .vehicleType(1L, vt -> vt.setMaxDuration(12.0))
+                .vehicle(1L, 1L, 1L, 1L)
+                .build();
+    }
+
+    private static Consumer<Order> window(String start, String end, int service) {
+        return o -> {
+            o.setTimeWindowStart(start);
+            o.setTimeWindowEnd(end);
+            o.setServiceTime(service);
+        };
+    }
+
+    private final PairFeasibility f = PairFeasibility.fromContext(context(), 50);
+
+    @Test
+    @DisplayName("Cửa sổ: j đóng trước khi i xong việc (thô, hoặc cộng cận dưới thời gian chạy) → prune đúng chiều")
+    void timeWindowPrunesOnlyTheImpossibleDirection() {
+        // 1 xong sớm nhất 08:10 > 2 đóng 08:05
+        assertEquals(PairFeasibility.TIME_WINDOW, f.reason(1, 2));
+        assertEquals(PairFeasibility.FEASIBLE, f.reason(2, 1));
+        // 1 xong 08:10 + ≥ 35' chạy 30 km ở 50 km/h > 3 đóng 08:30; chiều ngược 08:05 + 35' < 09:00
+        assertEquals(PairFeasibility.TIME_WINDOW, f.reason(1, 3));
+        assertEquals(PairFeasibility.FEASIBLE, f.reason(3, 1));
+    }
+
+    @Test
+    @DisplayName("Ca làm: cận dưới thời gian chạy vượt maxDuration dài nhất → prune cả hai chiều")
+    void shiftLengthPrunesFarPairs() {
+        assertEquals(PairFeasibility.SHIFT_LENGTH, f.reason(1, 4));
+        assertEquals(PairFeasibility.SHIFT_LENGTH, f.reason(4, 1));
+        // Xe ca dài hơn thì cặp đó lại khả thi
+        OptimizationContext ctx = context();
+        ctx.vehicleTypeDTOs().get(1L).setMaxDuration(20.0);
+        // EntityTables chụp DTO lúc dựng context → dựng lại sau khi sửa
+        ctx = new OptimizationContext(ctx.allLocations(), ctx.depotDTOs(), ctx.orderDTOs(),
+                ctx.vehicleTypeDTOs(), ctx.vehicleDTOs());
+        assertEquals(PairFeasibility.FEASIBLE, PairFeasibility.fromContext(ctx, 50).reason(1, 4));
+    }
+
+    @Test
+    @DisplayName("Depot, ô chéo và cửa sổ không parse được KHÔNG bao giờ bị prune")
+    void ambiguityNeverPrunes() {
+        for (int j = 0; j < 6; j++) {
+            assertTrue(f.feasible(0, j) && f.feasible(j, 0), "depot ↔ " + j);
+            assertTrue(f.feasible(j, j));
+        }
+        assertTrue(f.feasible(1, 5));
+        assertTrue(f.feasible(5, 1));
+    }
+
+    @Test
+    @DisplayName("Mask: needed = inLayout ∧ khả thi; kNN lọc hẳn khỏi hàng và đếm theo lý do")
+    void maskAppliesFeasibility() {
+        boolean[] depot = {true, false, false, false, false, false};
+        MatrixMask full = MatrixMask.fullForTesting(depot).withFeasibility(f);
+        assertTrue(full.inLayout(1, 2));
+        assertFalse(full.needed(1, 2));
+        assertTrue(full.needed(2, 1));
+        assertTrue(full.needed(0, 4));
+
+        double[] lat = {21.0, 21.000, 21.001, 21.270, 27.500, 21.002};
+        double[] lon = new double[6];
+        Arrays.fill(lon, 105.80);
+        PairFeasibility.Tally tally = new PairFeasibility.Tally();
+        MatrixMask knn = MatrixMask.nearest(depot, lat, lon, 4).withFeasibility(f, tally);
+        int[] row1 = knn.neighbours()[1];
+        assertArrayEquals(new int[]{5}, row1, "order-1 chỉ còn láng giềng khả thi");
+        assertEquals(4 * 5, tally.examined(), "5 order, mỗi order 4 láng giềng");
+        // 1→2, 1→3, 3→2 (3 xong sớm nhất 08:05 + 35' chạy > 2 đóng 08:05); 4 ↔ {1, 2, 3, 5} (ca làm)
+        assertEquals(3, tally.timeWindow());
+        assertEquals(8, tally.shiftLength());
+        for (int i = 0; i < 6; i++) {
+            for (int j = 0; j < 6; j++) {
+                if (i != j) assertEquals(knn.inLayout(i, j), knn.needed(i, j), "kNN không còn ô bất khả thi");
+            }
+        }
+        assertTrue(tally.summary().contains("ca làm 8"), tally.summary());
+    }
+
+    @Test
+    @DisplayName("Bản gộp chỉ prune khi MỌI cặp thành viên bất khả thi")
+    void collapsedPrunesOnlyWhenEveryMemberPairIs() {
+        // Gộp order-5 (không cửa sổ) vào nhóm của order-1
+        PairFeasibility c = f.collapse(new int[]{0, 1, 2, 3, 4, 1}, new int[]{0, 1, 2, 3, 4}, 5);
+
+        assertEquals(5, c.size());
+        // 1→2 bất khả thi nhưng 5→2 khả thi → nhóm {1, 5} → 2 phải giữ
+        assertEquals(PairFeasibility.FEASIBLE, c.reason(1, 2));
+        // 720 km thì thành viên nào cũng vượt ca
+        assertEquals(PairFeasibility.SHIFT_LENGTH, c.reason(1, 4));
+        assertEquals(PairFeasibility.TIME_WINDOW, c.reason(3, 2), "nhóm không đụng tới giữ nguyên");
+    }
+
+    @Test
+    @DisplayName("Tham số hỏng bị chặn ngay")
+    void rejectsInvalidArguments() {
+        boolean[] one = {false};
+        double[] z = {0};
+        assertThrows(IllegalArgumentException.class,
+                () -> new PairFeasibility(one, z, z, z, z, z, 3600, 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> new PairFeasibility(one, new double[2], z, z, z, z, 3600, 50));
+    }
+}
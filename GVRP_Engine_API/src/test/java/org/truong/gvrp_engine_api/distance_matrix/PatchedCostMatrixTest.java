@@ -0,0 +1,70 @@
+package org.truong.gvrp_engine_api.distance_matrix;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.truong.gvrp_engine_api.distance_matrix.Impl.ApproximateDistanceProvider;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Quick plan: ước lượng phải đúng công thức chim bay × circuity, và lớp vá chỉ được đổi
+ * ĐÚNG các ô đã vá — mọi ô khác đọc y nguyên ma trận nền.
+ */
+class PatchedCostMatrixTest {
+
+    private static OptCoordinates at(double lat, double lon) {
+        return new OptCoordinates(BigDecimal.valueOf(lat), BigDecimal.valueOf(lon));
+    }
+
+    @Test
+    @DisplayName("Xấp xỉ = haversine × circuity, thời gian = quãng đường / tốc độ (giây nguyên)")
+    void approximationFollowsCircuityAndSpeed() {
+        ApproximateDistanceProvider approx = new ApproximateDistanceProvider(1.4, 36);
+        OptCoordinates a = at(21.0285, 105.8542);
+        OptCoordinates b = at(21.0380, 105.7830);
+
+        DistanceMatrixEntry e = approx.fetch(a, b);
+        double expected = GeoDistance.haversineMeters(a, b) * 1.4;
+        assertEquals(expected, e.distanceMeters(), 1e-6);
+        // 36 km/h = 10 m/s
+        assertEquals((long) (expected / 10.0), (long) e.timeSeconds());
+        assertTrue(e.distanceMeters() >= GeoDistance.haversineMeters(a, b), "Đường bộ không ngắn hơn chim bay");
+
+        assertThrows(IllegalArgumentException.class, () -> new ApproximateDistanceProvider(0.9, 25));
+        assertThrows(IllegalArgumentException.class, () -> new ApproximateDistanceProvider(1.4, 0));
+    }
+
+    @Test
+    @DisplayName("Ô đã vá đọc giá trị thật, ô còn lại đọc y nguyên nền")
+    void patchOverlaysOnlyPatchedCells() {
+        int n = 6;
+        DenseCostMatrix base = new DenseCostMatrix(new double[n][n], new double[n][n]);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                base.put(i, j, i == j ? 0 : 100.0 * i + j, i == j ? 0 : 10.0 * i + j);
+            }
+        }
+        Map<Long, double[]> exact = new HashMap<>();
+        exact.put(PatchedCostMatrix.key(1, 4, n), new double[]{777.0, 77.0});
+        exact.put(PatchedCostMatrix.key(4, 1, n), new double[]{888.0, 88.0});
+        PatchedCostMatrix patched = new PatchedCostMatrix(base, exact);
+
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                double[] e = exact.get(PatchedCostMatrix.key(i, j, n));
+                assertEquals(e != null ? e[0] : base.distanceMeters(i, j), patched.distanceMeters(i, j), 0.0,
+                        String.format("distance lệch tại (%d,%d)", i, j));
+                assertEquals(e != null ? e[1] : base.timeSeconds(i, j), patched.timeSeconds(i, j), 0.0,
+                        String.format("time lệch tại (%d,%d)", i, j));
+            }
+        }
+        assertEquals(2, patched.patchedCells());
+        assertEquals(n, patched.size());
+        assertTrue(patched.layout().startsWith("PATCHED(DENSE"), patched.layout());
+        assertTrue(patched.allocatedBytes() > base.allocatedBytes());
+    }
+}
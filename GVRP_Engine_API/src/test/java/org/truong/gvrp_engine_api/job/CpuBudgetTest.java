@@ -0,0 +1,74 @@
+package org.truong.gvrp_engine_api.job;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Chia sai là lãng phí theo một trong hai hướng: job một mình chạy 1 luồng trên máy 8 core,
+ * hoặc nhiều job cùng xin trọn máy.
+ */
+class CpuBudgetTest {
+
+    private final JobRegistry registry = new JobRegistry();
+    private final CpuBudget budget = new CpuBudget(8, registry);
+
+    private CpuBudget.Lease solving(long jobId, Integer max) {
+        registry.register(jobId).setPhase(JobRegistry.Phase.SOLVING);
+        return budget.acquire(jobId, max);
+    }
+
+    @Test
+    @DisplayName("Một job nhận cả máy; job thứ hai vào thì chia đôi, ra thì job còn lại lấy lại")
+    void sharesAndRebalances() {
+        CpuBudget.Lease a = solving(1, null);
+        assertEquals(8, a.threads());
+
+        CpuBudget.Lease b = solving(2, null);
+        assertEquals(4, a.threads());
+        assertEquals(4, b.threads());
+
+        CpuBudget.Lease c = solving(3, null);
+        assertEquals(3, a.threads(), "phần dư cho lease vào sớm");
+        assertEquals(3, b.threads());
+        assertEquals(2, c.threads());
+
+        b.close();
+        c.close();
+        assertEquals(8, a.threads());
+        a.close();
+        assertEquals(0, budget.snapshot().get("solvingJobs"));
+    }
+
+    @Test
+    @DisplayName("Job đang dựng ma trận giữ chỗ trong phần chia; numThreads của job là trần")
+    void waitingJobsAndCapShrinkShare() {
+        CpuBudget.Lease a = solving(1, null);
+        registry.register(2);   // BUILDING_MATRIX
+        registry.register(3);
+        assertEquals(3, a.threads());
+
+        CpuBudget.Lease capped = solving(4, 2);
+        assertEquals(2, capped.threads());
+
+        Map<String, Object> snap = budget.snapshot();
+        assertEquals(8, snap.get("totalThreads"));
+        assertEquals(2, snap.get("waitingJobs"));
+        assertEquals(Map.of(1L, 3, 4L, 2), snap.get("allocations"));
+    }
+
+    @Test
+    @DisplayName("Nhiều job hơn core: ai cũng có ít nhất 1 luồng; lease trùng / trần <= 0 bị từ chối")
+    void neverStarvesAndRejectsMisuse() {
+        CpuBudget small = new CpuBudget(2, registry);
+        for (long id = 1; id <= 3; id++) {
+            registry.register(id).setPhase(JobRegistry.Phase.SOLVING);
+            assertEquals(id == 1 ? 2 : 1, small.acquire(id, null).threads());
+        }
+        assertThrows(IllegalStateException.class, () -> small.acquire(1, null));
+        assertThrows(IllegalArgumentException.class, () -> small.acquire(9, 0));
+    }
+}
@@ -0,0 +1,169 @@
+package org.truong.gvrp_engine_api.model;
+
+import com.graphhopper.jsprit.core.problem.Location;
+import com.graphhopper.jsprit.core.util.Coordinate;
+import org.truong.gvrp_engine_api.distance_matrix.GeoDistance;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Dựng {@link OptimizationContext} cho test: depot, order, loại xe, xe — location nhận index
+ * theo ĐÚNG thứ tự gọi (depot trước order, như OptimizationService). Mỗi test chỉ khai báo
+ * phần khác nhau (số order, vị trí, cửa sổ, loại xe); quy ước id "depot-{id}" / "order-{id}",
+ * tọa độ DTO khớp Location và giá mặc định của loại xe nằm một chỗ.
+ */
+public final class ContextFixture {
+
+    /** Vị trí order theo id — để test tự chọn cụm / lưới. */
+    @FunctionalInterface
+    public interface Placement {
+        double[] latLon(long orderId);
+    }
+
+    private final List<Location> locations = new ArrayList<>();
+    private final Map<Long, Depot> depots = new HashMap<>();
+    private final Map<Long, Order> orders = new HashMap<>();
+    private final Map<Long, VehicleType> types = new HashMap<>();
+    private final Map<Long, Vehicle> vehicles = new HashMap<>();
+
+    private double demand = 1.0;
+    private String windowStart;
+    private String windowEnd;
+
+    private ContextFixture() {
+    }
+
+    public static ContextFixture builder() {
+        return new ContextFixture();
+    }
+
+    /** Depot id tăng dần từ 1. */
+    public ContextFixture depot(double lat, double lon) {
+        return depot(depots.size() + 1L, lat, lon);
+    }
+
+    public ContextFixture depot(long id, double lat, double lon) {
+        if (!orders.isEmpty()) {
+            throw new IllegalStateException("ContextFixture: depot " + id + " phải khai báo trước order (index location)");
+        }
+        Depot depot = new Depot();
+        depot.setId(id);
+        depot.setName("D" + id);
+        depot.setLatitude(lat);
+        depot.setLongitude(lon);
+        depots.put(id, depot);
+        locations.add(location("depot-" + id, locations.size(), lat, lon));
+        return this;
+    }
+
+    /** Demand cho các order khai báo SAU lời gọi này. */
+    public ContextFixture demand(double demand) {
+        this.demand = demand;
+        return this;
+    }
+
+    /** Cửa sổ thời gian cho các order khai báo SAU lời gọi này. */
+    public ContextFixture timeWindow(String start, String end) {
+        this.windowStart = start;
+        this.windowEnd = end;
+        return this;
+    }
+
+    /** Order 1..count theo thứ tự id tăng dần. */
+    public ContextFixture orders(int count, Placement placement) {
+        for (long id = 1; id <= count; id++) {
+            double[] at = placement.latLon(id);
+            order(id, at[0], at[1]);
+        }
+        return this;
+    }
+
+    public ContextFixture order(long id, double lat, double lon) {
+        return order(id, lat, lon, o -> { });
+    }
+
+    /** {@code setup} chạy sau giá trị mặc định — để test đặt demand / cửa sổ / service riêng (kể cả null). */
+    public ContextFixture order(long id, double lat, double lon, Consumer<Order> setup) {
+        putOrder(id, lat, lon, setup);
+        locations.add(location("order-" + id, locations.size(), lat, lon));
+        return this;
+    }
+
+    /** Order có DTO nhưng KHÔNG có location trong allLocations (dữ liệu thiếu tọa độ ở tầng trên). */
+    public ContextFixture orderWithoutLocation(long id, double lat, double lon, Consumer<Order> setup) {
+        putOrder(id, lat, lon, setup);
+        return this;
+    }
+
+    private void putOrder(long id, double lat, double lon, Consumer<Order> setup) {
+        Order o = new Order();
+        o.setId(id);
+        o.setOrderCode("O" + id);
+        o.setLatitude(lat);
+        o.setLongitude(lon);
+        o.setDemand(demand);
+        o.setServiceTime(5);
+        o.setTimeWindowStart(windowStart);
+        o.setTimeWindowEnd(windowEnd);
+        setup.accept(o);
+        orders.put(id, o);
+    }
+
+    public ContextFixture vehicleType(long id, int capacity, double costPerKm, double emissionFactor) {
+        return vehicleType(id, vt -> {
+            vt.setCapacity(capacity);
+            vt.setCostPerKm(costPerKm);
+            vt.setCostPerHour(50000.0);
+            vt.setFixedCost(100000.0);
+            vt.setEmissionFactor(emissionFactor);
+        });
+    }
+
+    /** Loại xe chỉ có id; {@code setup} đặt đúng những trường test cần (còn lại null). */
+    public ContextFixture vehicleType(long id, Consumer<VehicleType> setup) {
+        VehicleType vt = new VehicleType();
+        vt.setId(id);
+        setup.accept(vt);
+        types.put(id, vt);
+        return this;
+    }
+
+    public ContextFixture vehicle(long id, long typeId, long startDepotId, long endDepotId) {
+        Vehicle dto = new Vehicle();
+        dto.setId(id);
+        dto.setVehicleTypeId(typeId);
+        dto.setStartDepotId(startDepotId);
+        dto.setEndDepotId(endDepotId);
+        vehicles.put(id, dto);
+        return this;
+    }
+
+    public OptimizationContext build() {
+        return new OptimizationContext(locations, depots, orders, types, vehicles);
+    }
+
+    public static Location location(String id, int index, double lat, double lon) {
+        return Location.Builder.newInstance().setId(id).setIndex(index)
+                .setCoordinate(Coordinate.newInstance(lon, lat)).build();
+    }
+
+    /** Ma trận chim bay, 7 m/s — đủ để Jsprit có cost thật mà không cần GraphHopper. */
+    public static DistanceTimeMatrix haversineMatrix(OptimizationContext ctx) {
+        int n = ctx.allLocations().size();
+        double[][] d = new double[n][n];
+        double[][] t = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                Coordinate a = ctx.allLocations().get(i).getCoordinate();
+                Coordinate b = ctx.allLocations().get(j).getCoordinate();
+                d[i][j] = GeoDistance.haversineMeters(a.getY(), a.getX(), b.getY(), b.getX());
+                t[i][j] = d[i][j] / 7.0;
+            }
+        }
+        return new DistanceTimeMatrix(d, t, ctx.allLocations());
+    }
+}
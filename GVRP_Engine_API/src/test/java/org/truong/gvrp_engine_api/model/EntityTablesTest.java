@@ -0,0 +1,91 @@
+package org.truong.gvrp_engine_api.model;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * EntityTables thay parse id + tra map trên đường sau solve — index sai là demand / capacity
+ * của thực thể KHÁC lọt vào metric mà không ai báo lỗi.
+ */
+class EntityTablesTest {
+
+    private static OptimizationContext context() {
+        // Order 7 đứng TRƯỚC order 3 trong allLocations; order 9 không có location
+        return ContextFixture.builder()
+                .depot(2L, 21.00, 105.80)
+                .depot(1L, 21.01, 105.80)
+                .order(7L, 21.007, 105.80, o -> {
+                    o.setDemand(12.5);
+                    o.setTimeWindowStart("08:00:00");
+                    o.setTimeWindowEnd("09:30:00");
+                    o.setServiceTime(10);
+                })
+                .order(3L, 21.003, 105.80, o -> {
+                    o.setDemand(null);
+                    o.setTimeWindowStart("8h");
+                    o.setTimeWindowEnd("9h");
+                    o.setServiceTime(null);
+                })
+                .orderWithoutLocation(9L, 21.009, 105.80, o -> o.setDemand(4.0))
+                .vehicleType(20L, vt -> vt.setCapacity(100))
+                .vehicleType(10L, vt -> vt.setMaxDuration(8.0))
+                .vehicle(5L, 20L, 2L, 1L)
+                .vehicle(4L, 10L, 1L, 99L)
+                .build();
+    }
+
+    @Test
+    @DisplayName("Index dày theo id tăng dần; id Jsprit và vị trí location tra ngược đúng thực thể")
+    void indexesByIdAndResolvesJspritIds() {
+        EntityTables t = context().tables();
+
+        assertEquals(3, t.orderCount());
+        assertEquals(3L, t.order(0).getId());
+        assertEquals(9L, t.order(2).getId());
+        assertEquals(1, t.orderIndex("order-7"));
+        assertEquals(-1, t.orderIndex("order-42"));
+        assertEquals(-1, t.orderIndex("7"));
+
+        assertEquals(2, t.orderLocation(1));
+        assertEquals(3, t.orderLocation(0));
+        assertEquals(-1, t.orderLocation(2));
+        assertEquals(1, t.orderAtLocation(2));
+        assertEquals(-1, t.orderAtLocation(0), "depot không phải order");
+
+        assertEquals(4L, t.vehicle(t.vehicleIndex("vehicle-4")).getId());
+        assertEquals(-1, t.vehicleIndex("vehicle-99"));
+        assertEquals(-1, t.vehicleIndex("5"));
+    }
+
+    @Test
+    @DisplayName("Cột số: thiếu demand/service → 0, cửa sổ hỏng → -1 cả hai đầu, capacity/maxDuration thiếu → NaN")
+    void columnsFollowMissingValueConventions() {
+        EntityTables t = context().tables();
+        int o7 = t.orderIndex("order-7");
+        int o3 = t.orderIndex("order-3");
+
+        assertEquals(12.5, t.demand(o7));
+        assertEquals(600.0, t.serviceSeconds(o7));
+        assertTrue(t.hasTimeWindow(o7));
+        assertEquals(8 * 3600, t.timeWindowStartSeconds(o7));
+        assertEquals(9 * 3600 + 1800, t.timeWindowEndSeconds(o7));
+
+        assertEquals(0.0, t.demand(o3));
+        assertEquals(0.0, t.serviceSeconds(o3));
+        assertFalse(t.hasTimeWindow(o3));
+        assertEquals(-1, t.timeWindowEndSeconds(o3));
+
+        int v5 = t.vehicleIndex("vehicle-5");
+        int v4 = t.vehicleIndex("vehicle-4");
+        assertEquals(100.0, t.capacity(t.vehicleTypeOf(v5)));
+        assertTrue(Double.isNaN(t.maxDurationHours(t.vehicleTypeOf(v5))));
+        assertTrue(Double.isNaN(t.capacity(t.vehicleTypeOf(v4))));
+        assertEquals(8.0, t.maxDurationHours(t.vehicleTypeOf(v4)));
+
+        assertEquals(2L, t.depot(t.startDepotOf(v5)).getId());
+        assertEquals(1L, t.depot(t.endDepotOf(v5)).getId());
+        assertEquals(-1, t.endDepotOf(v4), "depot không tồn tại");
+    }
+}
@@ -0,0 +1,159 @@
+package org.truong.gvrp_engine_api.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.truong.gvrp_engine_api.model.SolutionCandidate;
+import org.truong.gvrp_engine_api.model.SolutionMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Sampler sai theo hai hướng: chia đôi sai khe thì tốn solve mà frontier vẫn thưa ở đoạn
+ * gấp; frontier tăng dần lệch với bộ lọc O(k²) thì kết quả trả khác bản lưới cũ.
+ */
+class AdaptiveParetoSamplerTest {
+
+    private static SolutionCandidate candidate(AdaptiveParetoSampler.WeightPoint p, double cost, double co2) {
+        SolutionMetrics m = SolutionMetrics.builder().totalCostVnd(cost).totalCo2Kg(co2).build();
+        return new SolutionCandidate(p.label(), null, m, p.costWeight(), p.co2Weight(), null);
+    }
+
+    /** Chạy sampler tới khi dừng; "solve" điểm w bằng {@code solve}. */
+    private static int sweep(AdaptiveParetoSampler sampler, int slots, DoubleFunction<double[]> solve) {
+        int solves = 0;
+        for (List<Integer> batch = sampler.next(slots); !batch.isEmpty(); batch = sampler.next(slots)) {
+            for (int idx : batch) {
+                AdaptiveParetoSampler.WeightPoint p = sampler.points().get(idx);
+                double[] r = solve.apply(p.costWeight());
+                sampler.accept(idx, candidate(p, r[0], r[1]));
+                solves++;
+            }
+        }
+        return solves;
+    }
+
+    private static List<SolutionCandidate> bruteForceFrontier(List<SolutionCandidate> all) {
+        List<SolutionCandidate> out = new ArrayList<>();
+        for (SolutionCandidate c : all) {
+            if (all.stream().noneMatch(o -> o.dominates(c))) out.add(c);
+        }
+        return out;
+    }
+
+    @Test
+    @DisplayName("Hai đầu trước; chia đôi khe lớn nhất; frontier tăng dần trùng bộ lọc O(k²)")
+    void extremesFirstThenLargestGap() {
+        AdaptiveParetoSampler sampler = new AdaptiveParetoSampler(9, 0);
+        // Frontier gấp: đoạn w ∈ [0.5, 1] gần như phẳng, mọi đánh đổi dồn ở w nhỏ
+        DoubleFunction<double[]> solve = w -> new double[]{100 + 100 * Math.pow(1 - w, 4), 100 + 100 * w};
+
+        assertEquals(List.of(0, 1), sampler.next(4));
+        assertEquals(1.0, sampler.points().get(1).costWeight());
+        for (int idx = 0; idx < 2; idx++) {
+            double[] r = solve.apply(sampler.points().get(idx).costWeight());
+            assertTrue(sampler.accept(idx, candidate(sampler.points().get(idx), r[0], r[1])));
+        }
+        assertThrows(IllegalStateException.class, () -> sampler.accept(0, null), "không có điểm đang chờ");
+
+        List<Integer> second = sampler.next(4);
+        assertEquals(1, second.size(), "hai đầu chỉ có một khe");
+        assertEquals(0.5, sampler.points().get(second.get(0)).costWeight(), 1e-3);
+        assertThrows(IllegalStateException.class, () -> sampler.next(4), "đợt trước chưa xong");
+
+        double[] r = solve.apply(0.5);
+        sampler.accept(second.get(0), candidate(sampler.points().get(second.get(0)), r[0], r[1]));
+        List<Integer> third = sampler.next(1);
+        // khe (0, 0.5) lớn hơn khe (0.5, 1) → chia nó trước
+        assertEquals(0.25, sampler.points().get(third.get(0)).costWeight(), 1e-3);
+        for (int idx : third) {
+            double[] t = solve.apply(sampler.points().get(idx).costWeight());
+            sampler.accept(idx, candidate(sampler.points().get(idx), t[0], t[1]));
+        }
+        sweep(sampler, 2, solve);
+
+        assertEquals(bruteForceFrontier(sampler.candidates()), sampler.frontier());
+        assertTrue(sampler.candidates().size() <= 9);
+        assertNotNull(sampler.stopCause());
+    }
+
+    @Test
+    @DisplayName("Kết quả lặp hoặc của điểm ngoài đợt → IllegalStateException, không đếm hai lần")
+    void rejectsDuplicateAndForeignResults() {
+        AdaptiveParetoSampler sampler = new AdaptiveParetoSampler(9, 0);
+        assertEquals(List.of(0, 1), sampler.next(4));
+        sampler.accept(0, candidate(sampler.points().get(0), 300, 50));
+
+        assertThrows(IllegalStateException.class,
+                () -> sampler.accept(0, candidate(sampler.points().get(0), 300, 50)), "điểm 0 đã có kết quả");
+        assertThrows(IllegalStateException.class, () -> sampler.accept(2, null), "điểm 2 chưa đề xuất");
+        assertThrows(IllegalStateException.class, () -> sampler.accept(-1, null));
+        assertThrows(IllegalStateException.class, () -> sampler.next(4), "điểm 1 vẫn đang chờ");
+
+        sampler.accept(1, candidate(sampler.points().get(1), 100, 200));
+        assertEquals(2, sampler.candidates().size());
+        List<Integer> second = sampler.next(4);
+        assertEquals(1, second.size());
+        assertThrows(IllegalStateException.class, () -> sampler.accept(1, null), "điểm 1 thuộc đợt trước");
+    }
+
+    @Test
+    @DisplayName("Frontier suy biến (hai đầu cùng lời giải) → dừng sau 2 solve, không chia khe 0")
+    void degenerateFrontierStopsAfterExtremes() {
+        AdaptiveParetoSampler sampler = new AdaptiveParetoSampler(5, 0);
+        int solves = sweep(sampler, 4, w -> new double[]{500, 80});
+
+        assertEquals(2, solves);
+        assertEquals(AdaptiveParetoSampler.StopCause.FRONTIER_COVERED, sampler.stopCause());
+        assertEquals(2, sampler.frontier().size(), "ngang nhau thì không điểm nào trội");
+    }
+
+    @Test
+    @DisplayName("PATIENCE kết quả liên tiếp bị trội → dừng sớm; frontier vẫn trùng bộ lọc O(k²)")
+    void stopsWhenNewPointsAreDominated() {
+        AdaptiveParetoSampler sampler = new AdaptiveParetoSampler(20, 0);
+        // Điểm giữa (heuristic kém) luôn tệ hơn đầu cost-only ở cả hai mục tiêu
+        int solves = sweep(sampler, 1, w -> w == 1.0 ? new double[]{100, 200}
+                : w < 0.01 ? new double[]{300, 50} : new double[]{150 + w, 250});
+
+        assertEquals(2 + AdaptiveParetoSampler.PATIENCE, solves);
+        assertEquals(AdaptiveParetoSampler.StopCause.NO_NEW_FRONTIER_POINT, sampler.stopCause());
+        assertEquals(2, sampler.frontier().size());
+    }
+
+    @Test
+    @DisplayName("Ngẫu nhiên: frontier tăng dần luôn trùng bộ lọc O(k²); không vượt maxPoints")
+    void incrementalFrontierMatchesBruteForce() {
+        Random rnd = new Random(42);
+        for (int trial = 0; trial < 50; trial++) {
+            AdaptiveParetoSampler sampler = new AdaptiveParetoSampler(12, 0);
+            sweep(sampler, 1 + rnd.nextInt(4), w -> new double[]{
+                    100 + 100 * (1 - w) + rnd.nextInt(40), 100 + 100 * w + rnd.nextInt(40)});
+
+            assertTrue(sampler.candidates().size() <= 12);
+            assertEquals(bruteForceFrontier(sampler.candidates()), sampler.frontier(), "trial " + trial);
+        }
+    }
+
+    @Test
+    @DisplayName("Hết ngân sách thời gian → không mở đợt mới; đợt đầu (hai đầu) vẫn luôn chạy")
+    void timeBudgetStopsNewWaves() {
+        AtomicLong clock = new AtomicLong();
+        AdaptiveParetoSampler sampler = new AdaptiveParetoSampler(9, 1_000, clock::get);
+
+        List<Integer> first = sampler.next(4);
+        assertEquals(2, first.size());
+        clock.addAndGet(1_000_000_000L);
+        sampler.accept(0, candidate(sampler.points().get(0), 300, 50));
+        sampler.accept(1, candidate(sampler.points().get(1), 100, 200));
+
+        assertTrue(sampler.next(4).isEmpty());
+        assertEquals(AdaptiveParetoSampler.StopCause.TIME_BUDGET, sampler.stopCause());
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveParetoSampler(1, 0));
+    }
+}
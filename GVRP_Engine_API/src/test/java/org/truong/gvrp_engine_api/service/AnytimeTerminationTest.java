@@ -0,0 +1,136 @@
+package org.truong.gvrp_engine_api.service;
+
+import com.graphhopper.jsprit.core.algorithm.SearchStrategy;
+import com.graphhopper.jsprit.core.algorithm.VehicleRoutingAlgorithm;
+import com.graphhopper.jsprit.core.algorithm.box.Jsprit;
+import com.graphhopper.jsprit.core.problem.Location;
+import com.graphhopper.jsprit.core.problem.VehicleRoutingProblem;
+import com.graphhopper.jsprit.core.problem.job.Service;
+import com.graphhopper.jsprit.core.problem.solution.VehicleRoutingProblemSolution;
+import com.graphhopper.jsprit.core.problem.vehicle.VehicleImpl;
+import com.graphhopper.jsprit.core.problem.vehicle.VehicleTypeImpl;
+import com.graphhopper.jsprit.core.util.Coordinate;
+import com.graphhopper.jsprit.core.util.Solutions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.truong.gvrp_engine_api.model.OptimizationConfig;
+import org.truong.gvrp_engine_api.model.StopReason;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Điều kiện dừng sai theo hai hướng đều đắt: dừng sớm (như TimeTermination thiếu listener,
+ * dừng ở vòng 1) trả lời giải construction; không dừng thì job nhỏ vẫn chạy hết trần.
+ */
+class AnytimeTerminationTest {
+
+    private final AtomicLong clock = new AtomicLong(1_000_000_000L);
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+
+    private AnytimeTermination termination(int maxIter, long timeoutMs, int window) {
+        return new AnytimeTermination(maxIter, timeoutMs, window, 0.01, cancelled::get, clock::get);
+    }
+
+    private static SearchStrategy.DiscoveredSolution discovered(double cost) {
+        return new SearchStrategy.DiscoveredSolution(
+                new VehicleRoutingProblemSolution(List.of(), cost), true, "test");
+    }
+
+    @Test
+    @DisplayName("Cải thiện dưới ngưỡng không reset cửa sổ → CONVERGED sau đúng K vòng kể từ mốc")
+    void convergesAfterWindowWithoutSignificantImprovement() {
+        AnytimeTermination t = termination(1000, 0, 5);
+
+        assertFalse(t.isPrematureBreak(discovered(1000)));   // mốc: vòng 1
+        assertFalse(t.isPrematureBreak(discovered(900)));    // -10% → mốc mới: vòng 2
+        for (int i = 0; i < 4; i++) {
+            assertFalse(t.isPrematureBreak(discovered(899.5 - i * 0.5)), "vòng " + (i + 3));
+        }
+        assertTrue(t.isPrematureBreak(discovered(898)));     // vòng 7 = mốc + 5
+        assertEquals(StopReason.CONVERGED, t.stopReason());
+        assertEquals(7, t.iterations());
+    }
+
+    @Test
+    @DisplayName("Không ai gắn listener: mốc thời gian đặt lười ở vòng đầu, không dừng ngay (khác TimeTermination)")
+    void timeoutStartsLazilyAndFiresOnBudget() {
+        AnytimeTermination t = termination(1000, 2_000, 0);
+
+        assertFalse(t.isPrematureBreak(discovered(10)));
+        clock.addAndGet(1_999_000_000L);
+        assertFalse(t.isPrematureBreak(discovered(9)));
+        clock.addAndGet(1_000_000L);
+        assertTrue(t.isPrematureBreak(discovered(8)));
+        assertEquals(StopReason.TIMEOUT, t.stopReason());
+        assertEquals(2_000, t.elapsedMs());
+    }
+
+    @Test
+    @DisplayName("Hủy thắng mọi lý do khác; chưa kích hoạt gì = MAX_ITERATIONS")
+    void cancelWinsAndDefaultIsMaxIterations() {
+        AnytimeTermination idle = termination(10, 0, 0);
+        assertFalse(idle.isPrematureBreak(discovered(5)));
+        assertEquals(StopReason.MAX_ITERATIONS, idle.stopReason());
+
+        AnytimeTermination t = termination(1000, 1, 1);
+        t.informAlgorithmStarts(null, null, null);
+        clock.addAndGet(5_000_000L);
+        cancelled.set(true);
+        assertTrue(t.isPrematureBreak(discovered(5)));
+        assertEquals(StopReason.CANCELLED, t.stopReason());
+
+        assertEquals(StopReason.TIMEOUT, StopReason.CONVERGED.max(StopReason.TIMEOUT));
+        assertEquals(StopReason.TIMEOUT, StopReason.TIMEOUT.max(StopReason.MAX_ITERATIONS));
+    }
+
+    @Test
+    @DisplayName("Trần vòng lặp tỉ lệ số job, kẹp [min, max]; config.maxIterations tường minh thắng")
+    void policyScalesIterationsWithProblemSize() {
+        TerminationPolicy policy = new TerminationPolicy(10, 300, 5000, 0, 0.001);
+        OptimizationConfig config = new OptimizationConfig();
+
+        assertEquals(300, policy.maxIterations(12, config));
+        assertEquals(1200, policy.maxIterations(120, config));
+        assertEquals(5000, policy.maxIterations(50_000, config));
+        assertEquals(TerminationPolicy.MIN_AUTO_WINDOW, policy.noImprovementWindow(300));
+        assertEquals(1000, policy.noImprovementWindow(5000));
+
+        config.setMaxIterations(2000);
+        assertEquals(2000, policy.maxIterations(50_000, config));
+        assertEquals(0, policy.jobTimeoutMs(config));
+        config.setTimeoutSeconds(30);
+        assertEquals(30_000, policy.jobTimeoutMs(config));
+
+        assertThrows(IllegalArgumentException.class, () -> new TerminationPolicy(10, 500, 300, 0, 0.001));
+    }
+
+    @Test
+    @DisplayName("Jsprit thật: bài toán nhỏ hội tụ và dừng CONVERGED xa trước trần")
+    void smallProblemStopsEarlyInRealJsprit() {
+        VehicleTypeImpl type = VehicleTypeImpl.Builder.newInstance("t").addCapacityDimension(0, 100).build();
+        VehicleRoutingProblem.Builder b = VehicleRoutingProblem.Builder.newInstance()
+                .addVehicle(VehicleImpl.Builder.newInstance("v").setType(type)
+                        .setStartLocation(Location.newInstance(0, 0)).build());
+        for (int i = 0; i < 8; i++) {
+            b.addJob(Service.Builder.newInstance("s" + i).addSizeDimension(0, 1)
+                    .setLocation(Location.Builder.newInstance()
+                            .setCoordinate(Coordinate.newInstance(i % 3 * 10, i / 3 * 10)).build())
+                    .build());
+        }
+        VehicleRoutingProblem vrp = b.build();
+
+        AnytimeTermination t = new AnytimeTermination(5000, 60_000, 50, 0.001, () -> false);
+        VehicleRoutingAlgorithm algorithm = Jsprit.Builder.newInstance(vrp)
+                .setProperty(Jsprit.Parameter.THREADS, "1").buildAlgorithm();
+        t.attachTo(algorithm);
+        VehicleRoutingProblemSolution best = Solutions.bestOf(algorithm.searchSolutions());
+
+        assertEquals(StopReason.CONVERGED, t.stopReason());
+        assertTrue(t.iterations() < 5000, "chạy " + t.iterations() + " vòng");
+        assertTrue(best.getUnassignedJobs().isEmpty());
+    }
+}
@@ -0,0 +1,160 @@
+package org.truong.gvrp_engine_api.service;
+
+import com.graphhopper.jsprit.core.algorithm.box.Jsprit;
+import com.graphhopper.jsprit.core.problem.VehicleRoutingProblem;
+import com.graphhopper.jsprit.core.problem.job.Job;
+import com.graphhopper.jsprit.core.problem.solution.VehicleRoutingProblemSolution;
+import com.graphhopper.jsprit.core.problem.solution.route.VehicleRoute;
+import com.graphhopper.jsprit.core.problem.solution.route.activity.TourActivity;
+import com.graphhopper.jsprit.core.util.Solutions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.truong.gvrp_engine_api.model.ContextFixture;
+import org.truong.gvrp_engine_api.model.OptimizationConfig;
+import org.truong.gvrp_engine_api.model.OptimizationContext;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Giải phân rã chỉ đúng khi mỗi VRP con chứa ĐÚNG order + xe của một cụm và lời giải ghép
+ * không mất / lặp job nào. Hai cụm cách nhau ~10 km, cụm 2 không có xe.
+ */
+class DecomposedSolverTest {
+
+    private final DecomposedSolver solver = new DecomposedSolver(false, 2);
+
+    @AfterEach
+    void tearDown() {
+        solver.shutdownPool();
+    }
+
+    /** Order 1..6 cụm 0 (gần depot 1), 7..10 cụm 1 (gần depot 2), 11..12 cụm 2 (không xe). */
+    private static OptimizationContext context() {
+        return ContextFixture.builder()
+                .depot(21.00, 105.80)
+                .depot(21.10, 105.80)
+                .orders(12, id -> new double[]{(id <= 6 ? 21.00 : id <= 10 ? 21.10 : 21.20) + id * 0.001,
+                        105.80 + id * 0.001})
+                .vehicleType(1L, 100, 5000.0, 250.0)
+                .vehicle(1L, 1L, 1L, 1L)
+                .vehicle(2L, 1L, 1L, 1L)
+                .vehicle(3L, 1L, 2L, 2L)
+                .build();
+    }
+
+    private static Map<String, Integer> clusters() {
+        Map<String, Integer> m = new HashMap<>();
+        for (long id = 1; id <= 12; id++) m.put("order-" + id, id <= 6 ? 0 : id <= 10 ? 1 : 2);
+        m.put("vehicle-1", 0);
+        m.put("vehicle-2", 0);
+        m.put("vehicle-3", 1);
+        return m;
+    }
+
+    @Test
+    @DisplayName("Plan: chia theo cụm, cụm lớn trước; cụm không xe → order kẹt; thiếu cụm → null")
+    void plansByClusterOrFallsBack() {
+        OptimizationContext ctx = context();
+        DecomposedSolver.Plan plan = DecomposedSolver.plan(ctx.tables(), clusters());
+
+        assertEquals(2, plan.subProblems().size());
+        DecomposedSolver.SubProblem first = plan.subProblems().get(0);
+        assertEquals(0, first.clusterId());
+        assertEquals(6, first.orders().length);
+        assertEquals(2, first.vehicles().length);
+        assertEquals(1, plan.subProblems().get(1).vehicles().length);
+        assertEquals(2, plan.strandedOrders().length);
+
+        Map<String, Integer> missingOrder = clusters();
+        missingOrder.remove("order-4");
+        assertNull(DecomposedSolver.plan(ctx.tables(), missingOrder), "order dải rộng → không phân rã");
+        Map<String, Integer> missingVehicle = clusters();
+        missingVehicle.remove("vehicle-3");
+        assertNull(DecomposedSolver.plan(ctx.tables(), missingVehicle));
+        assertNull(DecomposedSolver.plan(ctx.tables(), null));
+    }
+
+    @Test
+    @DisplayName("Giải song song: route chỉ chứa order cùng cụm với xe; ghép đủ mọi job, cost cộng dồn")
+    void solvesClustersIndependentlyAndStitches() {
+        OptimizationContext ctx = context();
+        GreenVrpFactory factory = GreenVrpFactory.prepare(ctx, ContextFixture.haversineMatrix(ctx));
+        DecomposedSolver.Plan plan = DecomposedSolver.plan(ctx.tables(), clusters());
+
+        List<VehicleRoutingProblemSolution> parts = solver.solveAll(plan.subProblems(), sub -> {
+            VehicleRoutingProblem vrp = factory.build(0.7, 0.3, sub.vehicles(), sub.orders());
+            assertEquals(sub.orders().length, vrp.getJobs().size());
+            return Solutions.bestOf(Jsprit.Builder.newInstance(vrp)
+                    .setProperty(Jsprit.Parameter.ITERATIONS, "50")
+                    .setProperty(Jsprit.Parameter.THREADS, "1")
+                    .buildAlgorithm().searchSolutions());
+        });
+        List<Job> stranded = new ArrayList<>();
+        for (int o : plan.strandedOrders()) stranded.add(factory.service(o));
+        VehicleRoutingProblemSolution stitched = DecomposedSolver.stitch(parts, stranded);
+
+        Map<String, Integer> clusters = clusters();
+        int served = 0;
+        for (VehicleRoute route : stitched.getRoutes()) {
+            int vehicleCluster = clusters.get(route.getVehicle().getId());
+            for (TourActivity act : route.getActivities()) {
+                String jobId = ((TourActivity.JobActivity) act).getJob().getId();
+                assertEquals(vehicleCluster, clusters.get(jobId), jobId + " trên " + route.getVehicle().getId());
+                served++;
+            }
+        }
+        assertEquals(10, served);
+        assertEquals(2, stitched.getUnassignedJobs().size());
+        assertEquals(parts.get(0).getCost() + parts.get(1).getCost(), stitched.getCost(), 1e-6);
+    }
+
+    @Test
+    @DisplayName("Một cụm lỗi → lỗi gốc nổi lên, không trả lời giải thiếu cụm")
+    void failingClusterPropagates() {
+        DecomposedSolver.Plan plan = DecomposedSolver.plan(context().tables(), clusters());
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> solver.solveAll(plan.subProblems(), sub -> {
+                    if (sub.clusterId() == 1) throw new IllegalStateException("cụm 1 hỏng");
+                    return new VehicleRoutingProblemSolution(List.of(), 0);
+                }));
+        assertEquals("cụm 1 hỏng", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("Cửa sổ cụm cùng lúc theo ngân sách CPU: không vượt cửa sổ dù pool còn luồng; kết quả đúng thứ tự")
+    void respectsInFlightWindow() {
+        DecomposedSolver.Plan plan = DecomposedSolver.plan(context().tables(), clusters());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        List<VehicleRoutingProblemSolution> out = solver.solveAll(plan.subProblems(), () -> 1, sub -> {
+            peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            return new VehicleRoutingProblemSolution(List.of(), sub.clusterId());
+        });
+        assertEquals(1, peak.get());
+        assertEquals(0.0, out.get(0).getCost());
+        assertEquals(1.0, out.get(1).getCost());
+    }
+
+    @Test
+    @DisplayName("Config job thắng mặc định của service")
+    void configOverridesDefault() {
+        OptimizationConfig config = new OptimizationConfig();
+        assertFalse(solver.isEnabled(config));
+        config.setDecomposedSolve(true);
+        assertTrue(solver.isEnabled(config));
+        assertTrue(config.clone().getDecomposedSolve());
+    }
+}
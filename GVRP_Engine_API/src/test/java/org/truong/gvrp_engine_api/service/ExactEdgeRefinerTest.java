@@ -0,0 +1,137 @@
+package org.truong.gvrp_engine_api.service;
+
+import com.graphhopper.jsprit.core.problem.Location;
+import com.graphhopper.jsprit.core.problem.job.Service;
+import com.graphhopper.jsprit.core.problem.solution.VehicleRoutingProblemSolution;
+import com.graphhopper.jsprit.core.problem.solution.route.VehicleRoute;
+import com.graphhopper.jsprit.core.problem.vehicle.VehicleImpl;
+import com.graphhopper.jsprit.core.problem.vehicle.VehicleTypeImpl;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.truong.gvrp_engine_api.distance_matrix.Distance;
+import org.truong.gvrp_engine_api.distance_matrix.DistanceMatrixEntry;
+import org.truong.gvrp_engine_api.distance_matrix.OptCoordinates;
+import org.truong.gvrp_engine_api.model.ContextFixture;
+import org.truong.gvrp_engine_api.model.DistanceTimeMatrix;
+import org.truong.gvrp_engine_api.model.OptimizationContext;
+import org.truong.gvrp_engine_api.model.SolutionMetrics;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.truong.gvrp_engine_api.utils.AppConstant.DEMAND_SCALE;
+
+/**
+ * Quick plan chỉ đúng nếu metric đọc cạnh THẬT của lời giải cuối: refiner vá thiếu một cạnh
+ * là báo cáo quãng đường/CO2 theo ước lượng chim bay mà không ai biết.
+ */
+class ExactEdgeRefinerTest {
+
+    private static final double APPROX_METERS = 1000;
+
+    /** Depot + hai order lệch 0.01° mỗi bước; location index 0, 1, 2. */
+    private final OptimizationContext context = ContextFixture.builder()
+            .depot(21.00, 105.80)
+            .order(1L, 21.01, 105.81, o -> o.setDemand(30.0))
+            .order(2L, 21.02, 105.82, o -> o.setDemand(50.0))
+            .vehicleType(1L, 100, 5.0, 200.0)
+            .vehicle(1L, 1L, 1L, 1L)
+            .build();
+    private final List<Location> locations = context.allLocations();
+    private final VehicleImpl vehicle = VehicleImpl.Builder.newInstance("vehicle-1")
+            .setStartLocation(locations.get(0))
+            .setType(VehicleTypeImpl.Builder.newInstance("type-1").addCapacityDimension(0, 100 * DEMAND_SCALE).build())
+            .build();
+    private final Service order1 = service("order-1", 1);
+    private final Service order2 = service("order-2", 2);
+
+    /** Truy vấn nền chưa trả lời, theo cặp "from->to" — test tự quyết khi nào và trả gì. */
+    private final Map<String, CompletableFuture<DistanceMatrixEntry>> asked = new HashMap<>();
+
+    @Test
+    @DisplayName("patch: cạnh lời giải cuối đọc giá trị thật TRƯỚC khi SolutionMetricsCalculator chạy; cạnh lỗi giữ xấp xỉ")
+    void patchedEdgesReachMetrics() {
+        DistanceTimeMatrix approx = approximate();
+        ExactEdgeRefiner refiner = new ExactEdgeRefiner(approx, coordinates(), (from, to) -> {
+            CompletableFuture<DistanceMatrixEntry> f = new CompletableFuture<>();
+            asked.put(index(from) + "->" + index(to), f);
+            return f;
+        });
+
+        VehicleRoutingProblemSolution finalPlan = solution(order1, order2);   // 0→1→2→0
+        VehicleRoutingProblemSolution oldIncumbent = solution(order2, order1); // 0→2→1→0
+
+        refiner.informIterationEnds(ExactEdgeRefiner.REFINE_EVERY, null, List.of(oldIncumbent));
+        assertEquals(3, refiner.inFlightCount());
+        answer("0->2", 4000);
+        answer("2->1", 4000);
+        answer("1->0", 4000);
+        refiner.informIterationEnds(ExactEdgeRefiner.REFINE_EVERY + 1, null, List.of(finalPlan));
+        assertEquals(3, asked.size(), "chỉ vòng chia hết REFINE_EVERY mới bắn truy vấn");
+
+        refiner.informIterationEnds(2 * ExactEdgeRefiner.REFINE_EVERY, null, List.of(finalPlan));
+        assertEquals(3, refiner.inFlightCount(), "future đã xong phải được dọn, không cộng dồn theo vòng");
+        answer("0->1", 1500);
+        answer("1->2", 2500);
+        asked.get("2->0").completeExceptionally(new IllegalStateException("Routing failed"));
+
+        DistanceTimeMatrix patched = refiner.patch(finalPlan);
+        SolutionMetrics before = SolutionMetricsCalculator.calculate(finalPlan, context, approx);
+        SolutionMetrics after = SolutionMetricsCalculator.calculate(finalPlan, context, patched);
+
+        assertEquals(3 * APPROX_METERS / 1000, before.getTotalDistance(), 1e-9);
+        assertEquals((1500 + 2500 + APPROX_METERS) / 1000, after.getTotalDistance(), 1e-9,
+                "0→1, 1→2 thật; 2→0 lỗi nên giữ xấp xỉ");
+        assertEquals(APPROX_METERS, patched.distance(0, 2), "cạnh của incumbent cũ không được phủ lên");
+        assertEquals(APPROX_METERS, approx.distance(0, 1), "ma trận nền (Jsprit đang đọc) không bị sửa");
+        assertEquals(0, refiner.inFlightCount(), "patch dọn các truy vấn đã trả lời");
+    }
+
+    private void answer(String edge, double meters) {
+        asked.get(edge).complete(new DistanceMatrixEntry(Duration.ofSeconds(60), Distance.ofMeters(meters)));
+    }
+
+    private VehicleRoutingProblemSolution solution(Service first, Service second) {
+        VehicleRoute route = VehicleRoute.Builder.newInstance(vehicle)
+                .addService(first).addService(second).build();
+        return new VehicleRoutingProblemSolution(new ArrayList<>(List.of(route)), 0);
+    }
+
+    private DistanceTimeMatrix approximate() {
+        int n = locations.size();
+        double[][] d = new double[n][n];
+        double[][] t = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            Arrays.fill(d[i], APPROX_METERS);
+            Arrays.fill(t[i], 100);
+            d[i][i] = 0;
+            t[i][i] = 0;
+        }
+        return new DistanceTimeMatrix(d, t, locations);
+    }
+
+    private List<OptCoordinates> coordinates() {
+        List<OptCoordinates> out = new ArrayList<>();
+        for (Location l : locations) {
+            out.add(new OptCoordinates(BigDecimal.valueOf(l.getCoordinate().getY()),
+                    BigDecimal.valueOf(l.getCoordinate().getX())));
+        }
+        return out;
+    }
+
+    private int index(OptCoordinates c) {
+        return coordinates().indexOf(c);
+    }
+
+    private Service service(String id, int index) {
+        return Service.Builder.newInstance(id).setLocation(locations.get(index))
+                .addSizeDimension(0, 10 * DEMAND_SCALE).build();
+    }
+}
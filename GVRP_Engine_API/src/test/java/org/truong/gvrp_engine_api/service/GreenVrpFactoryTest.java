@@ -0,0 +1,97 @@
+package org.truong.gvrp_engine_api.service;
+
+import com.graphhopper.jsprit.core.problem.Location;
+import com.graphhopper.jsprit.core.problem.VehicleRoutingProblem;
+import com.graphhopper.jsprit.core.problem.job.Job;
+import com.graphhopper.jsprit.core.problem.job.Service;
+import com.graphhopper.jsprit.core.problem.vehicle.Vehicle;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.truong.gvrp_engine_api.model.ContextFixture;
+import org.truong.gvrp_engine_api.model.DistanceTimeMatrix;
+import org.truong.gvrp_engine_api.model.OptimizationContext;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Factory dùng lại Service giữa các điểm Pareto — Location sai hoặc index job lệch giữa hai
+ * lần build là solver đọc nhầm ô ma trận mà không có lỗi nào nổi lên.
+ */
+class GreenVrpFactoryTest {
+
+    private static final int ORDERS = 40;
+
+    private static OptimizationContext context() {
+        ContextFixture fixture = ContextFixture.builder()
+                .depot(21.01, 105.8)
+                .depot(21.02, 105.8)
+                .demand(1.5)
+                .timeWindow("08:00:00", "17:00:00");
+        for (long id = ORDERS; id >= 1; id--) {   // thứ tự location KHÁC thứ tự id
+            fixture.order(id, 21.0, 105.8 + id * 0.001);
+        }
+        return fixture
+                .vehicleType(1L, 100, 5000.0, 250.0)
+                .vehicle(1L, 1L, 1L, 1L)
+                .vehicle(2L, 1L, 1L, 1L)
+                .vehicle(3L, 1L, 2L, 1L)
+                .build();
+    }
+
+    private static DistanceTimeMatrix matrix(OptimizationContext ctx) {
+        int n = ctx.allLocations().size();
+        return new DistanceTimeMatrix(new double[n][n], new double[n][n], ctx.allLocations());
+    }
+
+    @Test
+    @DisplayName("Service / xe nhận đúng Location của mình qua bảng index, không quét allLocations")
+    void resolvesLocationsThroughIndex() {
+        OptimizationContext ctx = context();
+        VehicleRoutingProblem vrp = GreenVrpFactory.prepare(ctx, matrix(ctx)).build(1.0, 0.0);
+
+        assertEquals(ORDERS, vrp.getJobs().size());
+        for (Job job : vrp.getJobs().values()) {
+            Location loc = ((Service) job).getLocation();
+            assertEquals(job.getId(), loc.getId());
+            assertSame(ctx.allLocations().get(loc.getIndex()), loc);
+        }
+        Vehicle v3 = vrp.getVehicles().stream().filter(v -> v.getId().equals("vehicle-3")).findFirst().orElseThrow();
+        assertEquals("depot-2", v3.getStartLocation().getId());
+        assertEquals("depot-1", v3.getEndLocation().getId());
+        assertEquals(GreenVrpFactory.EARLIEST_START_SECONDS + 12 * 3600, v3.getLatestArrival());
+    }
+
+    @Test
+    @DisplayName("Hai điểm trọng số: CÙNG instance Service, index job không đổi, chỉ giá loại xe đổi")
+    void reusesServicesAndRepricesTypes() {
+        OptimizationContext ctx = context();
+        GreenVrpFactory factory = GreenVrpFactory.prepare(ctx, matrix(ctx));
+
+        VehicleRoutingProblem costOnly = factory.build(1.0, 0.0);
+        Map<String, Integer> indexById = new HashMap<>();
+        Map<String, Job> jobById = new HashMap<>(costOnly.getJobs());
+        costOnly.getJobs().values().forEach(j -> indexById.put(j.getId(), j.getIndex()));
+        double costPerMeter = costOnly.getVehicles().iterator().next().getType().getVehicleCostParams().perDistanceUnit;
+
+        VehicleRoutingProblem green = factory.build(0.5, 0.5);
+        for (Job j : green.getJobs().values()) {
+            assertSame(jobById.get(j.getId()), j);
+            assertEquals(indexById.get(j.getId()), j.getIndex());
+        }
+        double greenPerMeter = green.getVehicles().iterator().next().getType().getVehicleCostParams().perDistanceUnit;
+        assertNotEquals(costPerMeter, greenPerMeter);
+    }
+
+    @Test
+    @DisplayName("Xe trỏ depot không tồn tại → fail ngay lúc chuẩn bị")
+    void missingDepotFailsLoud() {
+        OptimizationContext ctx = context();
+        ctx.vehicleDTOs().get(2L).setStartDepotId(99L);
+        OptimizationContext rebuilt = new OptimizationContext(ctx.allLocations(), ctx.depotDTOs(), ctx.orderDTOs(),
+                ctx.vehicleTypeDTOs(), ctx.vehicleDTOs());
+        assertThrows(IllegalArgumentException.class, () -> GreenVrpFactory.prepare(rebuilt, matrix(rebuilt)));
+    }
+}
@@ -11,8 +11,6 @@ import com.graphhopper.jsprit.core.util.VehicleRoutingTransportCostsMatrix;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
-import java.util.Map;
-
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -22,11 +20,11 @@ class MaxDistanceConstraintTest {
     // Depot=0, A=1000m, B=2000m, C=2500m (dọc theo trục X, đơn vị mét)
     private Location depot, locA, locB, locC;
     private VehicleRoutingTransportCostsMatrix costs;
-    private static final String VEHICLE_ID = "vehicle-TimeTerminationBugTest.java";
+    private static final String VEHICLE_ID = "vehicle-1";
 
     @BeforeEach
     void setUp() {
-        depot = loc("depot-TimeTerminationBugTest.java", 0);
+        depot = loc("depot-1", 0);
         locA  = loc("order-A", 1000);
         locB  = loc("order-B", 2000);
         locC  = loc("order-C", 2500);
@@ -70,7 +68,7 @@ class MaxDistanceConstraintTest {
         JobInsertionContext ctx = new JobInsertionContext(emptyRoute, jobC, emptyRoute.getVehicle(), null, 0.0);
 
         OptimizationService.MaxDistanceConstraint constraint =
-                new OptimizationService.MaxDistanceConstraint(costs, Map.of(VEHICLE_ID, maxDistance));
+                new OptimizationService.MaxDistanceConstraint(costs, limit(maxDistance));
 
         // Code cũ (bug): route rỗng → totalDistance ≈ 0 → luôn true
         // Code đúng: phải tính chèn C vào route rỗng = depot→C→depot = 5000m > 100m → false
@@ -98,7 +96,7 @@ class MaxDistanceConstraintTest {
         JobInsertionContext ctx = new JobInsertionContext(routeWithA, jobB, routeWithA.getVehicle(), null, 0.0);
 
         OptimizationService.MaxDistanceConstraint constraint =
-                new OptimizationService.MaxDistanceConstraint(costs, Map.of(VEHICLE_ID, maxDistance));
+                new OptimizationService.MaxDistanceConstraint(costs, limit(maxDistance));
 
         // Code cũ (bug): chỉ tính route hiện tại (2000m) ≤ 2100m → true (SAI)
         // Code đúng: phải tính 2000 + minDetour(B) và so sánh với 2100m → false
@@ -125,17 +123,37 @@ class MaxDistanceConstraintTest {
         JobInsertionContext ctx = new JobInsertionContext(routeWithA, jobB, routeWithA.getVehicle(), null, 0.0);
 
         OptimizationService.MaxDistanceConstraint constraint =
-                new OptimizationService.MaxDistanceConstraint(costs, Map.of(VEHICLE_ID, maxDistance));
+                new OptimizationService.MaxDistanceConstraint(costs, limit(maxDistance));
 
         assertTrue(constraint.fulfilled(ctx),
                 "Chèn job B phải được chấp nhận vì tổng khoảng cách (4000m) vẫn dưới maxDistance (5000m) — " +
                         "đảm bảo fix không làm constraint quá chặt (false negative)");
     }
 
+    // ============================================================
+    // KỊCH BẢN D — Ô NaN = xe không giới hạn quãng đường
+    // ============================================================
+    @Test
+    void fulfilled_vehicleWithoutLimit_shouldAccept() {
+        VehicleRoute emptyRoute = buildRoute(VEHICLE_ID, depot, depot);
+        Service jobC = Service.Builder.newInstance("order-C").setLocation(locC).build();
+        JobInsertionContext ctx = new JobInsertionContext(emptyRoute, jobC, emptyRoute.getVehicle(), null, 0.0);
+
+        OptimizationService.MaxDistanceConstraint constraint =
+                new OptimizationService.MaxDistanceConstraint(costs, limit(Double.NaN));
+
+        assertTrue(constraint.fulfilled(ctx), "NaN nghĩa là không giới hạn, không được chặn");
+    }
+
     // ==================== HELPER METHODS ====================
 
+    /** Xe dựng riêng (không qua VRP builder) có index 0 — bảng một ô. */
+    private static double[] limit(double meters) {
+        return new double[]{meters};
+    }
+
     private VehicleRoute buildRoute(String vehicleId, Location start, Location end) {
-        VehicleTypeImpl type = VehicleTypeImpl.Builder.newInstance("type-TimeTerminationBugTest.java").build();
+        VehicleTypeImpl type = VehicleTypeImpl.Builder.newInstance("type-1").build();
         VehicleImpl vehicle = VehicleImpl.Builder.newInstance(vehicleId)
                 .setStartLocation(start)
                 .setEndLocation(end)
@@ -146,7 +164,7 @@ class MaxDistanceConstraintTest {
 
     private VehicleRoute buildRouteWithJob(String vehicleId, Location start, Location end,
                                            Location jobLoc, String jobId) {
-        VehicleTypeImpl type = VehicleTypeImpl.Builder.newInstance("type-TimeTerminationBugTest.java").build();
+        VehicleTypeImpl type = VehicleTypeImpl.Builder.newInstance("type-1").build();
         VehicleImpl vehicle = VehicleImpl.Builder.newInstance(vehicleId)
                 .setStartLocation(start)
                 .setEndLocation(end)
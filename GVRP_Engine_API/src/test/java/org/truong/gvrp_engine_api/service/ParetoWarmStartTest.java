@@ -0,0 +1,122 @@
+package org.truong.gvrp_engine_api.service;
+
+import com.graphhopper.jsprit.core.algorithm.VehicleRoutingAlgorithm;
+import com.graphhopper.jsprit.core.algorithm.box.Jsprit;
+import com.graphhopper.jsprit.core.problem.VehicleRoutingProblem;
+import com.graphhopper.jsprit.core.problem.solution.VehicleRoutingProblemSolution;
+import com.graphhopper.jsprit.core.problem.solution.route.VehicleRoute;
+import com.graphhopper.jsprit.core.problem.solution.route.activity.TourActivity;
+import com.graphhopper.jsprit.core.problem.vehicle.Vehicle;
+import com.graphhopper.jsprit.core.util.Solutions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.truong.gvrp_engine_api.model.ContextFixture;
+import org.truong.gvrp_engine_api.model.DistanceTimeMatrix;
+import org.truong.gvrp_engine_api.model.OptimizationContext;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Lời giải mồi sai xe / sai index activity thì Jsprit ném lỗi ngay lúc addInitialSolution;
+ * sai thời gian activity thì cost mồi lệch và ruin-recreate so sánh trên số sai.
+ */
+class ParetoWarmStartTest {
+
+    private static OptimizationContext context() {
+        return ContextFixture.builder()
+                .depot(21.00, 105.80)
+                .demand(10.0)
+                .timeWindow("08:00:00", "18:00:00")
+                .orders(15, id -> new double[]{21.00 + (id % 4) * 0.01, 105.80 + (id / 4) * 0.01})
+                .vehicleType(1L, 60, 4000.0, 150.0)
+                .vehicleType(2L, 120, 6000.0, 90.0)
+                .vehicle(1L, 1L, 1L, 1L)
+                .vehicle(2L, 1L, 1L, 1L)
+                .vehicle(3L, 2L, 1L, 1L)
+                .vehicle(4L, 2L, 1L, 1L)
+                .build();
+    }
+
+    private static DistanceTimeMatrix matrix(OptimizationContext ctx) {
+        return ContextFixture.haversineMatrix(ctx);
+    }
+
+    private static VehicleRoutingAlgorithm algorithm(VehicleRoutingProblem vrp, int iterations) {
+        return Jsprit.Builder.newInstance(vrp)
+                .setProperty(Jsprit.Parameter.ITERATIONS, String.valueOf(iterations))
+                .setProperty(Jsprit.Parameter.THREADS, "1")
+                .buildAlgorithm();
+    }
+
+    private static List<String> sequence(VehicleRoute route) {
+        List<String> ids = new ArrayList<>();
+        for (TourActivity act : route.getActivities()) ids.add(((TourActivity.JobActivity) act).getJob().getId());
+        return ids;
+    }
+
+    @Test
+    @DisplayName("Chép sang chính VRP nguồn: cost hàm mục tiêu tính lại khớp cost Jsprit đã báo")
+    void reseatIntoSameProblemReproducesCost() {
+        OptimizationContext ctx = context();
+        VehicleRoutingProblem vrp = GreenVrpFactory.prepare(ctx, matrix(ctx)).build(1.0, 0.0);
+        VehicleRoutingProblemSolution solved = Solutions.bestOf(algorithm(vrp, 100).searchSolutions());
+
+        VehicleRoutingProblemSolution seed = ParetoWarmStart.reseat(solved, vrp);
+        // addInitialSolution tính cost trên BẢN SAO bằng đúng hàm này
+        double seedCost = algorithm(vrp, 1).getObjectiveFunction().getCosts(seed);
+
+        assertEquals(solved.getCost(), seedCost, 1e-6 * solved.getCost());
+    }
+
+    @Test
+    @DisplayName("Chép sang điểm trọng số khác: cùng thứ tự dừng trên xe CỦA VRP đích; mồi thay construction")
+    void reseatIntoNeighbourWeightKeepsToursOnTargetVehicles() {
+        OptimizationContext ctx = context();
+        GreenVrpFactory factory = GreenVrpFactory.prepare(ctx, matrix(ctx));
+        VehicleRoutingProblem costOnly = factory.build(1.0, 0.0);
+        VehicleRoutingProblem green = factory.build(0.3, 0.7);
+        VehicleRoutingProblemSolution solved = Solutions.bestOf(algorithm(costOnly, 100).searchSolutions());
+
+        VehicleRoutingProblemSolution seed = ParetoWarmStart.reseat(solved, green);
+
+        Set<Vehicle> targetVehicles = new HashSet<>(green.getVehicles());
+        Map<String, List<String>> expected = new HashMap<>();
+        solved.getRoutes().forEach(r -> expected.put(r.getVehicle().getId(), sequence(r)));
+        assertEquals(expected.size(), seed.getRoutes().size());
+        for (VehicleRoute route : seed.getRoutes()) {
+            assertTrue(targetVehicles.contains(route.getVehicle()), "xe phải là instance của VRP đích");
+            assertEquals(expected.get(route.getVehicle().getId()), sequence(route));
+            double prevEnd = route.getStart().getEndTime();
+            for (TourActivity act : route.getActivities()) {
+                assertTrue(act.getArrTime() >= prevEnd, "thời gian activity phải được tính lại");
+                prevEnd = act.getEndTime();
+            }
+        }
+
+        VehicleRoutingAlgorithm warm = algorithm(green, 20);
+        double seedCost = warm.getObjectiveFunction().getCosts(seed);
+        warm.addInitialSolution(seed);
+        VehicleRoutingProblemSolution best = Solutions.bestOf(warm.searchSolutions());
+        assertTrue(best.getCost() <= seedCost + 1e-6, "best " + best.getCost() + " > mồi " + seedCost);
+    }
+
+    @Test
+    @DisplayName("Láng giềng gần nhất theo costWeight trong các điểm đã xong")
+    void nearestFinishedNeighbour() {
+        List<AdaptiveParetoSampler.WeightPoint> points = new ArrayList<>();
+        // costWeight: 0, 0.0625, 0.25, 0.5625, 1 — điểm 2 gần điểm 0 hơn điểm 4
+        for (double w : new double[]{0, 0.0625, 0.25, 0.5625, 1}) {
+            points.add(new AdaptiveParetoSampler.WeightPoint("W" + w, w, 1 - w));
+        }
+        assertEquals(-1, ParetoWarmStart.nearestFinished(points, 2, List.of()));
+        assertEquals(0, ParetoWarmStart.nearestFinished(points, 2, List.of(0, 4)));
+        assertEquals(4, ParetoWarmStart.nearestFinished(points, 3, List.of(0, 4, 3)));
+    }
+}